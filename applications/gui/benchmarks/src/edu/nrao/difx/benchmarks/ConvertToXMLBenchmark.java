@@ -0,0 +1,77 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Encoding (marshalling) of each message type to XML, as done for every
+ * command the GUI sends.
+ */
+package edu.nrao.difx.benchmarks;
+
+import edu.nrao.difx.difxcontroller.JAXBDiFXProcessor;
+import edu.nrao.difx.difxcontroller.JAXBPacketProcessor;
+import edu.nrao.difx.xmllib.difxmessage.DifxMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ConvertToXMLBenchmark {
+
+    @Param( {
+        "DifxAlertMessage", "DifxCommand", "DifxDiagnosticMessage", "DifxFileOperation",
+        "DifxFileTransfer", "DifxGetDirectory", "DifxInfoMessage", "DifxLoadMessage",
+        "DifxMachinesDefinition", "DifxMark5Copy", "DifxMk5Control", "DifxSmartMessage",
+        "DifxStart", "DifxStatusMessage", "DifxStop", "DifxVex2DifxRun",
+        "DifxWeightMessage", "Mark5StatusMessage"
+    } )
+    public String type;
+
+    @Setup
+    public void setup() throws IOException {
+        JAXBPacketProcessor decoder = new JAXBPacketProcessor( MessageCorpus.JAXB_PACKAGE );
+        _message = decoder.ConvertToJAXB( new ByteArrayInputStream( MessageCorpus.message( type ) ) );
+        if ( _message == null )
+            throw new IOException( "corpus message for " + type + " does not decode" );
+    }
+
+    @Benchmark
+    public String convertToXML() {
+        return new JAXBDiFXProcessor( _message ).ConvertToXML();
+    }
+
+    protected DifxMessage _message;
+
+}
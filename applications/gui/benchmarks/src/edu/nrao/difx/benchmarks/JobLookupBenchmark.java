@@ -0,0 +1,117 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * The job lookup done by QueueBrowserPanel.serviceUpdate() for every job-related
+ * message (QueueBrowserPanel.findJob()) - a search of the experiment/pass/job
+ * tree by job name for a "running" job, or failing that any job with the name.
+ * The tree is synthetic - experiments of passes of jobs - with the total number
+ * of jobs set by a parameter.
+ *
+ * The jobs are real JobNodes.  Experiments and passes are plain BrowserNodes, as
+ * the ExperimentNode and PassNode classes need a SystemSettings (a window) to lay
+ * themselves out - the search only uses their children.  Every job name appears
+ * once, and the target is the last job in the tree, so each case walks the whole
+ * tree (the worst case).  The target is either running, not running, or missing
+ * (which is what happens for jobs the GUI doesn't know about).
+ */
+package edu.nrao.difx.benchmarks;
+
+import edu.nrao.difx.difxview.JobNode;
+import edu.nrao.difx.difxview.QueueBrowserPanel;
+
+import java.util.concurrent.TimeUnit;
+
+import mil.navy.usno.widgetlib.ActivityMonitorLight;
+import mil.navy.usno.widgetlib.BrowserNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = "-Djava.awt.headless=true" )
+public class JobLookupBenchmark {
+
+    @Param( { "10000" } )
+    public int jobs;
+
+    @Param( { "25" } )
+    public int jobsPerPass;
+
+    @Param( { "4" } )
+    public int passesPerExperiment;
+
+    @Param( { "running", "idle", "missing" } )
+    public String target;
+
+    @Setup
+    public void setup() {
+        _top = new BrowserNode( "top" );
+        int n = 0;
+        JobNode last = null;
+        for ( int e = 0; n < jobs; ++e ) {
+            BrowserNode experiment = new BrowserNode( String.format( "bb%03d", e ) );
+            _top.addChild( experiment );
+            for ( int p = 0; p < passesPerExperiment && n < jobs; ++p ) {
+                BrowserNode pass = new BrowserNode( "pass" + p );
+                experiment.addChild( pass );
+                for ( int j = 0; j < jobsPerPass && n < jobs; ++j ) {
+                    //  Job names are "<experiment><pass>_<number>", as in
+                    //  "bb405b_05".
+                    last = new JobNode( String.format( "bb%03d%c_%02d", e, (char)( 'a' + p ), j ), null );
+                    pass.addChild( last );
+                    ++n;
+                }
+            }
+        }
+        if ( target.equals( "missing" ) )
+            _identifier = "nonexistent_01";
+        else {
+            _identifier = last.name();
+            last.running( target.equals( "running" ) );
+        }
+        //  Every JobNode has an activity light, and the lights share a thread that
+        //  updates all of them ten times a second.  That has nothing to do with the
+        //  lookup (and would keep the benchmark VM from exiting), so it is stopped.
+        ActivityMonitorLight.initializeStatics();
+    }
+
+    @Benchmark
+    public JobNode serviceUpdateLookup() {
+        synchronized ( _top ) {
+            return QueueBrowserPanel.findJob( _top, _identifier );
+        }
+    }
+
+    protected BrowserNode _top;
+    protected String _identifier;
+
+}
@@ -0,0 +1,198 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * The messages used by the benchmarks.  Each file in the corpus directory holds
+ * one complete DiFX message, and is named for its message type.  The directory
+ * is given by the "difx.corpus" system property (the ant build sets this).  Most
+ * types are never captured anywhere, so these are written in the formats the
+ * difxmessage library and the GUI produce.
+ *
+ * The ingest benchmark uses recorded traffic instead - a session recorded by the
+ * GUI (see SessionJournal) if one is given, otherwise the messages captured from
+ * a correlator for the DiFX simulator (the "difx.recorded" directory).
+ */
+package edu.nrao.difx.benchmarks;
+
+import edu.nrao.difx.difxcontroller.SessionJournal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MessageCorpus {
+
+    /*
+     * Every message type in the DiFX message schema (the "doi" database types are
+     * not sent over the network and aren't included).  These are also the names of
+     * the corpus files.
+     */
+    public static final String[] TYPES = {
+        "DifxAlertMessage",
+        "DifxCommand",
+        "DifxDiagnosticMessage",
+        "DifxFileOperation",
+        "DifxFileTransfer",
+        "DifxGetDirectory",
+        "DifxInfoMessage",
+        "DifxLoadMessage",
+        "DifxMachinesDefinition",
+        "DifxMark5Copy",
+        "DifxMk5Control",
+        "DifxSmartMessage",
+        "DifxStart",
+        "DifxStatusMessage",
+        "DifxStop",
+        "DifxVex2DifxRun",
+        "DifxWeightMessage",
+        "Mark5StatusMessage"
+    };
+
+    public static final String JAXB_PACKAGE = "edu.nrao.difx.xmllib.difxmessage";
+
+    public static File directory() {
+        return new File( System.getProperty( "difx.corpus", "corpus" ) );
+    }
+
+    public static File recordedDirectory() {
+        return new File( System.getProperty( "difx.recorded", "../../doi/DiFXSim/src/edu/nrao/difx/simxml" ) );
+    }
+
+    /*
+     * The raw bytes of the corpus message for a type.
+     */
+    public static byte[] message( String type ) throws IOException {
+        File file = new File( directory(), type + ".xml" );
+        if ( !file.exists() )
+            throw new IOException( "no corpus message for " + type + " (looked for " + file.getPath() + ")" );
+        return readFile( file );
+    }
+
+    /*
+     * One of each message in the corpus, in the order of TYPES.
+     */
+    public static List<byte[]> allMessages() throws IOException {
+        List<byte[]> ret = new ArrayList<byte[]>();
+        for ( int i = 0; i < TYPES.length; ++i )
+            ret.add( message( TYPES[i] ) );
+        return ret;
+    }
+
+    /*
+     * The messages recorded in a session journal file.  This reads the format
+     * written by SessionJournal (the source and time of each message are skipped).
+     */
+    public static List<byte[]> journalMessages( File file ) throws IOException {
+        List<byte[]> ret = new ArrayList<byte[]>();
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+        try {
+            byte[] magic = new byte[SessionJournal.MAGIC.length];
+            in.readFully( magic );
+            if ( !Arrays.equals( magic, SessionJournal.MAGIC ) )
+                throw new IOException( file.getPath() + " is not a DiFX session journal" );
+            int version = in.readInt();
+            if ( version != SessionJournal.VERSION )
+                throw new IOException( "unsupported journal version " + version );
+            in.readInt();
+            while ( true ) {
+                long time = in.readLong();
+                if ( time == 0 )
+                    break;
+                int sourceLength = in.readShort();
+                in.skipBytes( sourceLength );
+                int length = in.readInt();
+                if ( length < 0 )
+                    break;
+                byte[] data = new byte[length];
+                in.readFully( data );
+                ret.add( data );
+            }
+        } catch ( EOFException e ) {
+            //  A journal that was never closed can end part way through a record.
+        } finally {
+            in.close();
+        }
+        return ret;
+    }
+
+    /*
+     * The recorded messages of the types in TYPES (the directory also holds DOI
+     * database messages and a few of types that are no longer sent), in file name
+     * order.
+     */
+    public static List<byte[]> recordedMessages( File directory ) throws IOException {
+        File[] files = directory.listFiles();
+        if ( files == null )
+            throw new IOException( "recorded message directory " + directory.getPath() + " not found" );
+        Arrays.sort( files );
+        List<String> types = Arrays.asList( TYPES );
+        List<byte[]> ret = new ArrayList<byte[]>();
+        for ( int i = 0; i < files.length; ++i ) {
+            if ( !files[i].getName().endsWith( ".xml" ) )
+                continue;
+            byte[] data = readFile( files[i] );
+            String text = new String( data, "UTF-8" );
+            int start = text.indexOf( "<type>" );
+            int end = text.indexOf( "</type>" );
+            if ( text.indexOf( "<difxMessage>" ) >= 0 && start >= 0 && end > start
+                    && types.contains( text.substring( start + 6, end ).trim() ) )
+                ret.add( data );
+        }
+        if ( ret.isEmpty() )
+            throw new IOException( "no recorded messages in " + directory.getPath() );
+        return ret;
+    }
+
+    /*
+     * The messages for the ingest benchmark - the journal given by the "difx.journal"
+     * property if there is one, otherwise the recorded messages.
+     */
+    public static List<byte[]> ingestMessages() throws IOException {
+        String journal = System.getProperty( "difx.journal" );
+        if ( journal != null && journal.trim().length() > 0 ) {
+            List<byte[]> ret = journalMessages( new File( journal.trim() ) );
+            if ( ret.isEmpty() )
+                throw new IOException( "session journal " + journal + " contains no messages" );
+            return ret;
+        }
+        return recordedMessages( recordedDirectory() );
+    }
+
+    protected static byte[] readFile( File file ) throws IOException {
+        InputStream in = new FileInputStream( file );
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( (int)file.length() );
+            byte[] buffer = new byte[4096];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 )
+                out.write( buffer, 0, n );
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+}
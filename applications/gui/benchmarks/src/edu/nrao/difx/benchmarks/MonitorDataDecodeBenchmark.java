@@ -0,0 +1,93 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Decoding of the amplitude/phase/lag values in one LiveMonitorWindow product
+ * packet, in the original ASCII format (14 characters per value, as written by
+ * the guiServer's composeStringDouble()) and in the binary format (packed
+ * little-endian float32).  Only the decode is measured - the payload is already
+ * in memory - so the 3.5x difference in bytes on the wire is not included.
+ *
+ * The values are a synthetic amplitude spectrum.  Each ASCII value goes through
+ * ChannelServerSocket.parseStringDouble(), which is what readStringDouble() does
+ * after reading the 14 bytes.
+ */
+package edu.nrao.difx.benchmarks;
+
+import edu.nrao.difx.difxutilities.ChannelServerSocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class MonitorDataDecodeBenchmark {
+
+    @Param( { "256", "4096" } )
+    public int channels;
+
+    @Setup
+    public void setup() {
+        StringBuilder ascii = new StringBuilder( channels * ChannelServerSocket.STRING_DOUBLE_SIZE );
+        ByteBuffer binary = ByteBuffer.allocate( channels * 4 ).order( ByteOrder.LITTLE_ENDIAN );
+        for ( int i = 0; i < channels; ++i ) {
+            double value = 0.02 + 0.001 * Math.sin( (double)i * 0.05 ) + 1.0e-5 * (double)( i % 7 );
+            ascii.append( String.format( "%14.6e", value ) );
+            binary.putFloat( (float)value );
+        }
+        _ascii = ascii.toString().getBytes( StandardCharsets.US_ASCII );
+        _binary = binary.array();
+        _values = new double[channels];
+    }
+
+    @Benchmark
+    public double[] ascii() {
+        for ( int i = 0; i < channels; ++i )
+            _values[i] = ChannelServerSocket.parseStringDouble( _ascii, i * ChannelServerSocket.STRING_DOUBLE_SIZE );
+        return _values;
+    }
+
+    @Benchmark
+    public double[] float32() {
+        ChannelServerSocket.decodeFloat32( _binary, 0, _values, 0, channels );
+        return _values;
+    }
+
+    protected byte[] _ascii;
+    protected byte[] _binary;
+    protected double[] _values;
+
+}
@@ -0,0 +1,130 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * The work DiFXMessageProcessor does for each incoming packet: decode, record in
+ * the capture ring for the message window, and delivery to subscribers.  The
+ * processor itself can't be built without a SystemSettings (which is a window,
+ * and so needs a display), so its static decode() and deliver() functions - the
+ * ones its decode and dispatch threads use - are called directly.  The
+ * subscribers are stubs that only count what they are given, set up the way the
+ * GUI subscribes (every type, plus host and identifier filtered subscriptions
+ * for alerts).
+ *
+ * Messages are fed round-robin from recorded traffic (see MessageCorpus).
+ */
+package edu.nrao.difx.benchmarks;
+
+import edu.nrao.difx.difxcontroller.AttributedMessageListener;
+import edu.nrao.difx.difxcontroller.DiFXMessageProcessor;
+import edu.nrao.difx.difxcontroller.JAXBPacketProcessor;
+import edu.nrao.difx.difxcontroller.MessageCaptureRing;
+import edu.nrao.difx.difxcontroller.MessageSubscriptions;
+import edu.nrao.difx.xmllib.difxmessage.DifxMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class ProcessMessageBenchmark {
+
+    @Param( { "false", "true" } )
+    public boolean fastDecode;
+
+    @Param( { "1000" } )
+    public int messageLimit;
+
+    @Setup
+    public void setup() throws IOException {
+        List<byte[]> messages = MessageCorpus.ingestMessages();
+        _messages = messages.toArray( new byte[messages.size()][] );
+        _packetProcessor = new JAXBPacketProcessor( MessageCorpus.JAXB_PACKAGE );
+        _captureRing = new MessageCaptureRing( messageLimit );
+        _subscriptions = DiFXMessageProcessor.newSubscriptions();
+        AttributedMessageListener counter = new AttributedMessageListener() {
+            public void update( DifxMessage difxMsg ) {
+                ++_delivered;
+            }
+        };
+        //  Every type the GUI listens for gets a general subscription, as the
+        //  hardware monitor, queue browser, etc. do.
+        for ( int i = 0; i < SUBSCRIBED_TYPES.length; ++i ) {
+            _subscriptions.subscribe( SUBSCRIBED_TYPES[i], null, null, counter );
+            _subscriptions.subscribe( SUBSCRIBED_TYPES[i], null, null, counter );
+        }
+        //  Filtered alert subscriptions like those of the directory displays, one
+        //  for each of a typical number of Mark5 units.
+        for ( int i = 1; i <= 24; ++i ) {
+            String host = String.format( "mark5fx%02d", i );
+            _subscriptions.subscribe( "DifxAlertMessage", host, "mk5dir", counter );
+            _subscriptions.subscribe( "DifxAlertMessage", host, "mk5cp", counter );
+        }
+    }
+
+    @Benchmark
+    public int processMessage() {
+        byte[] data = _messages[_next];
+        _next = ( _next + 1 ) % _messages.length;
+        ByteArrayInputStream packet = new ByteArrayInputStream( data );
+        DifxMessage difxMsg = DiFXMessageProcessor.decode( _packetProcessor, packet, fastDecode );
+        if ( difxMsg != null && !DiFXMessageProcessor.deliver( packet, difxMsg, _captureRing, _subscriptions ) )
+            ++_unknown;
+        return _delivered + _unknown;
+    }
+
+    /*
+     * The types the GUI subscribes to.
+     */
+    protected static final String[] SUBSCRIBED_TYPES = {
+        "DifxStatusMessage",
+        "Mark5StatusMessage",
+        "DifxLoadMessage",
+        "DifxAlertMessage",
+        "DifxSmartMessage",
+        "DifxInfoMessage",
+        "DifxDiagnosticMessage"
+    };
+
+    protected byte[][] _messages;
+    protected int _next;
+    protected JAXBPacketProcessor _packetProcessor;
+    protected MessageCaptureRing _captureRing;
+    protected MessageSubscriptions _subscriptions;
+    protected int _delivered;
+    protected int _unknown;
+
+}
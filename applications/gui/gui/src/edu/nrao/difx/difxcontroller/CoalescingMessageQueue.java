@@ -0,0 +1,239 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * The queue of raw message packets waiting for the DiFXMessageProcessor.  It is
+ * a FIFO with a limited capacity - when it is full new packets are dropped (and
+ * counted) rather than allowing a burst of traffic to use up the heap.
+ *
+ * Load and Mark5 status messages are periodic "snapshots" of the state of a
+ * host - if we have fallen behind only the most recent one from each host is of
+ * any use.  When coalescing is turned on, a new snapshot from a host replaces
+ * one of the same type from the same host that is still waiting in the queue
+ * (it takes the older message's place in line).  All other messages (alerts, job
+ * status, etc.) are left strictly in order.
+ *
+ * The message type and source host are found by a quick scan of the raw bytes
+ * of the message header - the message is not parsed.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+public class CoalescingMessageQueue {
+
+    public CoalescingMessageQueue( int capacity ) {
+        _capacity = capacity;
+        _queue = new ArrayDeque<Entry>();
+        _pending = new HashMap<String, Entry>();
+        _coalesce = true;
+    }
+
+    /*
+     * Add a packet to the queue.  False is returned if the queue is full, in which
+     * case the packet is the caller's to dispose of.
+     */
+    synchronized public boolean offer( ByteArrayInputStream packet ) {
+        if ( packet == null )
+            return false;
+        String key = _coalesce ? coalesceKey( packet ) : null;
+        if ( replace( key, packet ) )
+            return true;
+        if ( _queue.size() >= _capacity ) {
+            ++_droppedCount;
+            return false;
+        }
+        append( key, packet );
+        return true;
+    }
+
+    /*
+     * Add a packet to the queue, waiting for room if it is full.  This is for
+     * sources that can wait (like a replay) - nothing is dropped.
+     */
+    synchronized public void put( ByteArrayInputStream packet ) throws InterruptedException {
+        if ( packet == null )
+            return;
+        String key = _coalesce ? coalesceKey( packet ) : null;
+        if ( replace( key, packet ) )
+            return;
+        while ( _queue.size() >= _capacity )
+            wait();
+        append( key, packet );
+    }
+
+    /*
+     * Replace a stale snapshot with the same key (if there is one) with this
+     * packet.  Returns true if this was done.
+     */
+    protected boolean replace( String key, ByteArrayInputStream packet ) {
+        if ( key == null )
+            return false;
+        Entry entry = _pending.get( key );
+        if ( entry == null )
+            return false;
+        release( entry._packet );
+        entry._packet = packet;
+        ++_coalescedCount;
+        return true;
+    }
+
+    protected void append( String key, ByteArrayInputStream packet ) {
+        Entry entry = new Entry( packet, key );
+        _queue.addLast( entry );
+        if ( key != null )
+            _pending.put( key, entry );
+        notifyAll();
+    }
+
+    /*
+     * Remove the packet at the head of the queue, waiting for one if necessary.
+     */
+    synchronized public ByteArrayInputStream take() throws InterruptedException {
+        while ( _queue.isEmpty() )
+            wait();
+        Entry entry = _queue.pollFirst();
+        if ( entry._key != null && _pending.get( entry._key ) == entry )
+            _pending.remove( entry._key );
+        //  Anyone waiting for room.
+        notifyAll();
+        return entry._packet;
+    }
+
+    /*
+     * Turn coalescing on or off.  Turning it off doesn't change anything already
+     * in the queue.
+     */
+    synchronized public void coalesce( boolean newVal ) {
+        _coalesce = newVal;
+        if ( !_coalesce )
+            _pending.clear();
+    }
+    synchronized public boolean coalesce() { return _coalesce; }
+
+    /*
+     * Change the capacity.  If there are more packets than this in the queue
+     * already they remain - no new ones are accepted until it drains.
+     */
+    synchronized public void capacity( int newVal ) { _capacity = Math.max( 1, newVal ); }
+    synchronized public int capacity() { return _capacity; }
+
+    synchronized public int size() { return _queue.size(); }
+    synchronized public long droppedCount() { return _droppedCount; }
+    synchronized public long coalescedCount() { return _coalescedCount; }
+
+    /*
+     * Packets from the receive buffer pool go back to it when they are discarded.
+     */
+    protected void release( ByteArrayInputStream packet ) {
+        if ( packet instanceof PacketBufferPool.Packet )
+            ((PacketBufferPool.Packet)packet).release();
+    }
+
+    /*
+     * Produce a key (type plus host) for a packet if it contains a message type we
+     * coalesce.  Null is returned for all other packets.
+     */
+    protected String coalesceKey( ByteArrayInputStream packet ) {
+        byte[] data;
+        int length;
+        if ( packet instanceof PacketBufferPool.Packet ) {
+            data = ((PacketBufferPool.Packet)packet).data();
+            length = ((PacketBufferPool.Packet)packet).length();
+        }
+        else {
+            //  Not expected, but can't be scanned without copying.
+            return null;
+        }
+        //  The header comes first in the message, so there is no need to look far.
+        length = Math.min( length, HEADER_SCAN_LIMIT );
+        String type = elementText( data, length, TYPE_TAG );
+        if ( type == null )
+            return null;
+        if ( !type.equals( "DifxLoadMessage" ) && !type.equals( "Mark5StatusMessage" ) )
+            return null;
+        String from = elementText( data, length, FROM_TAG );
+        if ( from == null )
+            return null;
+        return type + '\n' + from.toLowerCase();
+    }
+
+    /*
+     * Find the text of the first element with the given opening tag in a byte
+     * array.  Returns null if the element isn't there (or isn't closed).
+     */
+    protected static String elementText( byte[] data, int length, byte[] tag ) {
+        int start = indexOf( data, length, tag, 0 );
+        if ( start < 0 )
+            return null;
+        start += tag.length;
+        for ( int i = start; i < length; ++i ) {
+            if ( data[i] == '<' ) {
+                //  Surrounding whitespace is not significant in these fields.
+                int first = start;
+                int last = i;
+                while ( first < last && data[first] <= ' ' )
+                    ++first;
+                while ( last > first && data[last - 1] <= ' ' )
+                    --last;
+                return new String( data, first, last - first, StandardCharsets.ISO_8859_1 );
+            }
+        }
+        return null;
+    }
+
+    protected static int indexOf( byte[] data, int length, byte[] pattern, int from ) {
+        int last = length - pattern.length;
+        for ( int i = from; i <= last; ++i ) {
+            int j = 0;
+            while ( j < pattern.length && data[i + j] == pattern[j] )
+                ++j;
+            if ( j == pattern.length )
+                return i;
+        }
+        return -1;
+    }
+
+    /*
+     * A queue entry.  The packet can be replaced by a newer one while the entry
+     * is waiting.
+     */
+    protected static class Entry {
+        public Entry( ByteArrayInputStream packet, String key ) {
+            _packet = packet;
+            _key = key;
+        }
+        protected ByteArrayInputStream _packet;
+        protected String _key;
+    }
+
+    protected static final int HEADER_SCAN_LIMIT = 1024;
+    protected static final byte[] TYPE_TAG = { '<', 't', 'y', 'p', 'e', '>' };
+    protected static final byte[] FROM_TAG = { '<', 'f', 'r', 'o', 'm', '>' };
+
+    protected ArrayDeque<Entry> _queue;
+    protected HashMap<String, Entry> _pending;
+    protected int _capacity;
+    protected boolean _coalesce;
+    protected long _droppedCount;
+    protected long _coalescedCount;
+
+}
@@ -22,8 +22,15 @@
  * Multicast Monitor thread.
  * 
  * Messages are distributed based on their type in the "processPacket()" function.
- * In general this is done through event callbacks - classes must register their
- * interest in a particular message type.
+ * In general this is done through event callbacks - classes must subscribe to a
+ * particular message type, optionally limited to messages from one host and/or
+ * with one identifier (see MessageSubscriptions).
+ * 
+ * Unmarshalling the XML is by far the most expensive part of handling a message,
+ * so it is done by a pool of decode threads (each with its own Unmarshaller).
+ * Decoded messages are handed to a single dispatch thread strictly in the order
+ * they arrived, so listeners see messages from each source in order (and never
+ * need to worry about being called from more than one thread).
  */
 package edu.nrao.difx.difxcontroller;
 
@@ -35,9 +42,12 @@ import java.awt.Font;
 import java.io.ByteArrayInputStream;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.awt.Graphics;
 
-import javax.swing.event.EventListenerList;
 import java.awt.EventQueue;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ActionEvent;
@@ -55,8 +65,6 @@ import javax.swing.JLabel;
 import javax.swing.JSplitPane;
 import javax.swing.JPanel;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.ArrayDeque;
 import java.util.Iterator;
 import javax.swing.JScrollPane;
 import javax.swing.JScrollBar;
@@ -67,6 +75,7 @@ import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JSeparator;
 import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.event.ListSelectionEvent;
@@ -75,75 +84,142 @@ import javax.swing.event.ListSelectionListener;
 public class DiFXMessageProcessor extends Thread
 {
 
-    protected boolean _done = false;
-    protected BlockingQueue<ByteArrayInputStream> _messageQueue;
+    protected volatile boolean _done = false;
+    protected CoalescingMessageQueue _messageQueue;
     protected JAXBPacketProcessor _packetProcessor;
+    protected ThreadLocal<JAXBPacketProcessor> _threadPacketProcessor;
+    protected ThreadPoolExecutor _decodePool;
+    protected BlockingQueue<DecodeSlot> _dispatchQueue;
+    protected DispatchThread _dispatchThread;
+    
+    protected static final int DISPATCH_QUEUE_SIZE = 1024;
     protected SystemSettings _settings;
-    protected EventListenerList _difxStatusMessageListeners;
-    protected EventListenerList _difxAlertMessageListeners;
-    protected EventListenerList _difxLoadMessageListeners;
-    protected EventListenerList _mark5StatusMessageListeners;
-    protected EventListenerList _difxSmartMessageListeners;
-    protected EventListenerList _difxInfoMessageListeners;
-    protected EventListenerList _difxDiagnosticMessageListeners;
+    protected MessageSubscriptions _subscriptions;
 
     public DiFXMessageProcessor( SystemSettings systemSettings )
     {
         _settings = systemSettings;
-        _messageQueue = new LinkedBlockingQueue<ByteArrayInputStream>();
+        _messageQueue = new CoalescingMessageQueue( Math.max( 1, _settings.messageQueueCapacity() ) );
+        _messageQueue.coalesce( _settings.coalesceMessages() );
         _packetProcessor = new JAXBPacketProcessor( systemSettings.jaxbPackage() );
-        _difxStatusMessageListeners = new EventListenerList();
-        _difxAlertMessageListeners = new EventListenerList();
-        _difxLoadMessageListeners = new EventListenerList();
-        _mark5StatusMessageListeners = new EventListenerList();
-        _difxSmartMessageListeners = new EventListenerList();
-        _difxInfoMessageListeners = new EventListenerList();
-        _difxDiagnosticMessageListeners = new EventListenerList();
-        _difxMessageWindow = new DiFXMessageWindow( 500, 500 );
+        _subscriptions = newSubscriptions();
+        //  Alerts are reported to the message center (or log).
+        _subscriptions.subscribe( "DifxAlertMessage", null, null, new AttributedMessageListener() {
+            public void update( DifxMessage difxMsg ) {
+                reportAlert( difxMsg );
+            }
+        } );
+        //  Recent messages are kept for the message window, which is only built if
+        //  someone asks to see it.
+        _captureRing = new MessageCaptureRing( _settings.windowConfiguration().difxMessageWindowMessageLimit );
+        //  Decoded messages wait here (in arrival order) to be dispatched.  The bound
+        //  keeps the decode threads from racing too far ahead of the dispatcher.
+        _dispatchQueue = new ArrayBlockingQueue<DecodeSlot>( DISPATCH_QUEUE_SIZE );
+        //  Each decode thread gets its own packet processor (and thus its own
+        //  Unmarshaller).
+        _threadPacketProcessor = new ThreadLocal<JAXBPacketProcessor>() {
+            @Override
+            protected JAXBPacketProcessor initialValue() {
+                return new JAXBPacketProcessor( _settings.jaxbPackage() );
+            }
+        };
+        int nThreads = Math.max( 1, _settings.decodeThreads() );
+        _decodePool = new ThreadPoolExecutor( nThreads, nThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread( Runnable r ) {
+                        Thread t = new Thread( r, "DiFX message decode" );
+                        t.setDaemon( true );
+                        return t;
+                    }
+                });
+        _dispatchThread = new DispatchThread();
+    }
+    
+    /*
+     * Change the number of threads used to decode messages.
+     */
+    public void decodeThreads( int n ) {
+        n = Math.max( 1, n );
+        if ( n > _decodePool.getMaximumPoolSize() ) {
+            _decodePool.setMaximumPoolSize( n );
+            _decodePool.setCorePoolSize( n );
+        }
+        else {
+            _decodePool.setCorePoolSize( n );
+            _decodePool.setMaximumPoolSize( n );
+        }
+    }
+    public int decodeThreads() { return _decodePool.getCorePoolSize(); }
+    
+    /*
+     * Control the queue of incoming messages - its capacity and whether load and
+     * Mark5 status messages from the same host are coalesced.
+     */
+    public void messageQueueCapacity( int n ) { _messageQueue.capacity( n ); }
+    public void coalesceMessages( boolean newVal ) { _messageQueue.coalesce( newVal ); }
+    public CoalescingMessageQueue messageQueue() { return _messageQueue; }
+
+    /*
+     * Subscribe to messages of a given type.  The host (the "from" field of the
+     * message header) and identifier (job name or program) can be used to limit
+     * the messages received - either or both can be null to receive everything.
+     * All comparisons are case-insensitive.  The returned subscription is used
+     * to unsubscribe.
+     */
+    public MessageSubscriptions.Subscription subscribe( String type, String host, String identifier, AttributedMessageListener a ) {
+        return _subscriptions.subscribe( type, host, identifier, a );
+    }
+
+    public void unsubscribe( MessageSubscriptions.Subscription sub ) {
+        _subscriptions.unsubscribe( sub );
     }
 
     public void addDifxStatusMessageListener( AttributedMessageListener a ) {
-        _difxStatusMessageListeners.add( AttributedMessageListener.class, a );
+        subscribe( "DifxStatusMessage", null, null, a );
     }
 
     public void addDifxAlertMessageListener( AttributedMessageListener a ) {
-        _difxAlertMessageListeners.add( AttributedMessageListener.class, a );
+        subscribe( "DifxAlertMessage", null, null, a );
     }
 
     public void addDifxLoadMessageListener( AttributedMessageListener a ) {
-        _difxLoadMessageListeners.add( AttributedMessageListener.class, a );
+        subscribe( "DifxLoadMessage", null, null, a );
     }
 
     public void addMark5StatusMessageListener( AttributedMessageListener a ) {
-        _mark5StatusMessageListeners.add( AttributedMessageListener.class, a );
+        subscribe( "Mark5StatusMessage", null, null, a );
     }
 
     public void addDifxSmartMessageListener( AttributedMessageListener a ) {
-        _difxSmartMessageListeners.add( AttributedMessageListener.class, a );
+        subscribe( "DifxSmartMessage", null, null, a );
     }
 
     public void addDifxInfoMessageListener( AttributedMessageListener a ) {
-        _difxInfoMessageListeners.add( AttributedMessageListener.class, a );
+        subscribe( "DifxInfoMessage", null, null, a );
     }
 
     public void addDifxDiagnosticMessageListener( AttributedMessageListener a ) {
-        _difxDiagnosticMessageListeners.add( AttributedMessageListener.class, a );
+        subscribe( "DifxDiagnosticMessage", null, null, a );
     }
 
     public void shutDown() {
         _done = true;
+        _decodePool.shutdownNow();
+        _dispatchThread.interrupt();
     }
 
     /*
-    * Add a new message to the queue.
+    * Add a new message to the queue.  False is returned if the queue is full.
     */
     public boolean add( ByteArrayInputStream pack ) {
-        try {
-            return ( _messageQueue.offer( pack ) );
-        }
-        catch ( NullPointerException e ) {
-            return false;
-        }
+        return ( _messageQueue.offer( pack ) );
+    }
+
+    /*
+     * Add a new message to the queue, waiting for room if it is full.
+     */
+    public void put( ByteArrayInputStream pack ) throws InterruptedException {
+        _messageQueue.put( pack );
     }
 
     /*
@@ -154,48 +230,73 @@ public class DiFXMessageProcessor extends Thread
     public void processMessage( ByteArrayInputStream packet) {
 
         // Process the message packet into a DiFXMessage
-        DifxMessage difxMsg = _packetProcessor.ConvertToJAXB( packet );
+        DifxMessage difxMsg = decode( _packetProcessor, packet, _settings.fastMessageDecode() );
+        
+        dispatchMessage( packet, difxMsg );
+        
+    }
+    
+    /*
+     * The steps of processing a message that don't involve the GUI, as static
+     * functions so they can be used (and timed) without a processor.  A new
+     * subscription table knows all of the standard message types.
+     */
+    public static MessageSubscriptions newSubscriptions() {
+        MessageSubscriptions subscriptions = new MessageSubscriptions();
+        for ( int i = 0; i < STANDARD_TYPES.length; ++i )
+            subscriptions.addKnownType( STANDARD_TYPES[i] );
+        return subscriptions;
+    }
+    
+    /*
+     * Unmarshall a packet.  The packet is reset so it can be read again (for the
+     * message window).
+     */
+    public static DifxMessage decode( JAXBPacketProcessor packetProcessor, ByteArrayInputStream packet, boolean fastDecode ) {
+        DifxMessage difxMsg = packetProcessor.ConvertToJAXB( packet, fastDecode );
         packet.reset();
+        return difxMsg;
+    }
+    
+    /*
+     * Record a decoded message in the capture ring and hand it to whoever has
+     * subscribed to it.  False is returned if the message type is unknown.
+     */
+    public static boolean deliver( ByteArrayInputStream packet, DifxMessage difxMsg,
+            MessageCaptureRing captureRing, MessageSubscriptions subscriptions ) {
+        Header header = difxMsg.getHeader();
+        captureRing.record( System.currentTimeMillis(), header.getType(), header.getFrom(), packet );
+        return subscriptions.deliver( difxMsg );
+    }
+    
+    /*
+     * Act on a message that has been unmarshalled (the original packet is included
+     * for the message window).
+     */
+    protected void dispatchMessage( ByteArrayInputStream packet, DifxMessage difxMsg ) {
 
-        //  Then figure out what to do with it based on its type.
-        if ( difxMsg != null ) {
-            Header header = difxMsg.getHeader();
-            if ( _difxMessageWindow != null )
-                _difxMessageWindow.newMessage( header.getType(), header.getFrom(), packet, difxMsg );
-
-            if ( header.getType().equalsIgnoreCase( "DifxStatusMessage" ) ) {
-                processDifxStatusMessage( difxMsg );
-
-            } else if ( header.getType().equalsIgnoreCase( "Mark5StatusMessage" ) ) {
-                processMark5StatusMessage( difxMsg );
-
-            } else if ( header.getType().equalsIgnoreCase( "DifxLoadMessage" ) ) {
-                processDifxLoadMessage( difxMsg );
-
-            } else if ( header.getType().equalsIgnoreCase( "DifxAlertMessage" ) ) {
-                processDifxAlertMessage( difxMsg );
-
-            } else if ( header.getType().equalsIgnoreCase( "DifxSmartMessage" ) ) {
-                processDifxSmartMessage( difxMsg );
-
-            } else if ( header.getType().equalsIgnoreCase( "DifxInfoMessage" ) ) {
-                processDifxInfoMessage( difxMsg );
-
-            } else if ( header.getType().equalsIgnoreCase( "DifxDiagnosticMessage" ) ) {
-                processDifxDiagnosticMessage( difxMsg );
-
-            } else {
-                if ( !_settings.suppressWarnings() ) {
-                    java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, "unknown DiFX message: \""
-                            + header.getType() + "\"");
+        try {
+            //  Figure out what to do with the message based on its type.
+            if ( difxMsg != null ) {
+                //  Hand the message to whoever has subscribed to it.
+                boolean known = deliver( packet, difxMsg, _captureRing, _subscriptions );
+                if ( _difxMessageWindow != null && _difxMessageWindow.isVisible() )
+                    _difxMessageWindow.messagesArrived();
+                if ( !known ) {
+                    if ( !_settings.suppressWarnings() ) {
+                        java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, "unknown DiFX message: \""
+                                + difxMsg.getHeader().getType() + "\"");
+                    }
                 }
             }
-
-            // clean up
-            header = null;
-        }
-        else {
-            java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, "unparseable DiFX message type" );
+            else {
+                java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, "unparseable DiFX message type" );
+            }
+        } finally {
+            //  Packets that came from the receive buffer pool are returned to it now
+            //  that they have been decoded - even if a listener threw.
+            if ( packet instanceof PacketBufferPool.Packet )
+                ((PacketBufferPool.Packet)packet).release();
         }
 
         // clean up
@@ -204,19 +305,25 @@ public class DiFXMessageProcessor extends Thread
     }
 
     /*
-     * The thread loops forever, dequeueing message packets and processing them.
-     * It can be terminated using the "shutdown()" function.
+     * The thread loops forever, dequeueing message packets and handing them to the
+     * decode threads.  The decode "slot" for each message is put in the dispatch
+     * queue before decoding starts, which is how arrival order is maintained.  It
+     * can be terminated using the "shutdown()" function.
      */
     @Override
     public void run() {
         ByteArrayInputStream packet = null;
+        
+        _dispatchThread.start();
 
         while ( !_done ) {
             
             try {
                 packet = _messageQueue.take();
                 if (packet != null) {
-                    processMessage( packet );
+                    DecodeSlot slot = new DecodeSlot( packet );
+                    _dispatchQueue.put( slot );
+                    _decodePool.execute( slot );
                 }
                 else {
                     java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, "null packet in queue" );
@@ -234,35 +341,89 @@ public class DiFXMessageProcessor extends Thread
                 System.out.println( "**************** Process message thread caught interrupt - done." );
                 _done = true;
             }
+            catch ( java.util.concurrent.RejectedExecutionException exception ) {
+                //  The decode pool has been shut down.
+                _done = true;
+            }
 
         }
         
     }
     
     /*
-     * What to do with a DiFX Status Message.
+     * A message waiting to be (or being) decoded.  The decode thread fills in the
+     * message and the dispatch thread waits for it.
      */
-    protected void processDifxStatusMessage( DifxMessage difxMsg ) {
-        Object[] listeners = _difxStatusMessageListeners.getListenerList();
-        int numListeners = listeners.length;
-        for ( int i = 0; i < numListeners; i+=2 ) {
-            if ( listeners[i] == AttributedMessageListener.class )
-                ((AttributedMessageListener)listeners[i+1]).update( difxMsg );
+    protected class DecodeSlot implements Runnable {
+        
+        public DecodeSlot( ByteArrayInputStream packet ) {
+            _packet = packet;
         }
+        
+        public void run() {
+            DifxMessage difxMsg = null;
+            try {
+                difxMsg = decode( _threadPacketProcessor.get(), _packet, _settings.fastMessageDecode() );
+            } finally {
+                synchronized ( this ) {
+                    _difxMsg = difxMsg;
+                    _decoded = true;
+                    notifyAll();
+                }
+            }
+        }
+        
+        synchronized public DifxMessage waitForMessage() throws InterruptedException {
+            while ( !_decoded )
+                wait();
+            return _difxMsg;
+        }
+        
+        public ByteArrayInputStream packet() { return _packet; }
+        
+        protected ByteArrayInputStream _packet;
+        protected DifxMessage _difxMsg;
+        protected boolean _decoded;
+        
     }
-
+    
     /*
-     * Process a DiFX Alert messages.  Not all "alerts" are bad, or even important
-     * things - many of them are basically status messages.
+     * This thread takes decoded messages in the order they arrived and dispatches
+     * them.  All listener callbacks happen in this thread.
      */
-    protected void processDifxAlertMessage( DifxMessage difxMsg ) {
-        Object[] listeners = _difxAlertMessageListeners.getListenerList();
-        int numListeners = listeners.length;
-        for ( int i = 0; i < numListeners; i+=2 ) {
-            if ( listeners[i] == AttributedMessageListener.class )
-                ((AttributedMessageListener)listeners[i+1]).update( difxMsg );
+    protected class DispatchThread extends Thread {
+        
+        public DispatchThread() {
+            super( "DiFX message dispatch" );
         }
-
+        
+        @Override
+        public void run() {
+            while ( !_done ) {
+                try {
+                    DecodeSlot slot = _dispatchQueue.take();
+                    dispatchMessage( slot.packet(), slot.waitForMessage() );
+                }
+                catch ( InterruptedException exception ) {
+                    Thread.interrupted();
+                    System.out.println( "**************** Dispatch message thread caught interrupt - done." );
+                    _done = true;
+                }
+                catch ( RuntimeException exception ) {
+                    //  A problem with one message (or one listener) shouldn't stop
+                    //  all message processing.
+                    java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.SEVERE, null, exception );
+                }
+            }
+        }
+        
+    }
+    
+    /*
+     * Report a DiFX Alert message.  Not all "alerts" are bad, or even important
+     * things - many of them are basically status messages.
+     */
+    protected void reportAlert( DifxMessage difxMsg ) {
         //  Send this alert to the internal message reporting system, unless we don't
         //  have access to it - in which case we simply use the logging system.
         if ((difxMsg.getBody().getDifxAlert().getSeverity() >= 0)
@@ -298,52 +459,22 @@ public class DiFXMessageProcessor extends Thread
             
     }
 
-    protected void processDifxLoadMessage( DifxMessage difxMsg ) {
-        Object[] listeners = _difxLoadMessageListeners.getListenerList();
-        int numListeners = listeners.length;
-        for ( int i = 0; i < numListeners; i+=2 ) {
-            if ( listeners[i] == AttributedMessageListener.class )
-                ((AttributedMessageListener)listeners[i+1]).update( difxMsg );
-        }
-    }
-
-    protected void processMark5StatusMessage( DifxMessage difxMsg ) {
-        Object[] listeners = _mark5StatusMessageListeners.getListenerList();
-        int numListeners = listeners.length;
-        for ( int i = 0; i < numListeners; i+=2 ) {
-            if ( listeners[i] == AttributedMessageListener.class )
-                ((AttributedMessageListener)listeners[i+1]).update( difxMsg );
-        }
-    }
-
-    protected void processDifxSmartMessage( DifxMessage difxMsg ) {
-        Object[] listeners = _difxSmartMessageListeners.getListenerList();
-        int numListeners = listeners.length;
-        for ( int i = 0; i < numListeners; i+=2 ) {
-            if ( listeners[i] == AttributedMessageListener.class )
-                ((AttributedMessageListener)listeners[i+1]).update( difxMsg );
-        }
-    }
-
-    protected void processDifxInfoMessage( DifxMessage difxMsg ) {
-        Object[] listeners = _difxInfoMessageListeners.getListenerList();
-        int numListeners = listeners.length;
-        for ( int i = 0; i < numListeners; i+=2 ) {
-            if ( listeners[i] == AttributedMessageListener.class )
-                ((AttributedMessageListener)listeners[i+1]).update( difxMsg );
-        }
-    }
-    
-    protected void processDifxDiagnosticMessage( DifxMessage difxMsg ) {
-        Object[] listeners = _difxDiagnosticMessageListeners.getListenerList();
-        int numListeners = listeners.length;
-        for ( int i = 0; i < numListeners; i+=2 ) {
-            if ( listeners[i] == AttributedMessageListener.class )
-                ((AttributedMessageListener)listeners[i+1]).update( difxMsg );
-        }
-    }
+    /*
+     * The message types we expect to see.  Anything else produces a warning (unless
+     * someone subscribes to it).
+     */
+    protected static final String[] STANDARD_TYPES = {
+        "DifxStatusMessage",
+        "Mark5StatusMessage",
+        "DifxLoadMessage",
+        "DifxAlertMessage",
+        "DifxSmartMessage",
+        "DifxInfoMessage",
+        "DifxDiagnosticMessage"
+    };
     
     DiFXMessageWindow _difxMessageWindow;
+    MessageCaptureRing _captureRing;
     
     /*
      * Display a window showing details for each incoming message (see class below!).
@@ -352,6 +483,7 @@ public class DiFXMessageProcessor extends Thread
         if ( _difxMessageWindow == null )
             _difxMessageWindow = new DiFXMessageWindow( 500, 500 );
         _difxMessageWindow.setVisible( true );
+        _difxMessageWindow.messagesArrived();
     }
     
     /*
@@ -377,6 +509,14 @@ public class DiFXMessageProcessor extends Thread
             _messageLimit.setToolTipText( "Limit to the number of DiFX messages that are buffered." );
             _messageLimit.intValue( _settings.windowConfiguration().difxMessageWindowMessageLimit );
             _messageLimit.minimum( 1.0 );
+            _messageLimit.addActionListener( new ActionListener() {
+                public void actionPerformed( ActionEvent e ) {
+                    _settings.windowConfiguration().difxMessageWindowMessageLimit = _messageLimit.intValue();
+                    _captureRing.capacity( _messageLimit.intValue() );
+                    rebuildTable();
+                }
+            });
+            _captureRing.capacity( _messageLimit.intValue() );
             _this.add( _messageLimit );
             _messageLimitLabel = new JLabel( "Message Buffer: " );
             _messageLimitLabel.setHorizontalAlignment( JLabel.RIGHT );
@@ -601,26 +741,8 @@ public class DiFXMessageProcessor extends Thread
                     _this.newSize();
                 }
             });
-            _messageTable = new DefaultTableModel(
-                    new Object[]{ "Time",
-                                  "Type",
-                                  "From"
-                    }, 0 );
-            _messageJTable = new JTable( _messageTable ) {
-                @Override
-                public Object getValueAt( int row, int column ) {
-                    synchronized( _messageTable ) {
-                        //  Trap an occasional exception and ignore it.  This isn't
-                        //  an optimal solution but it does not have any impact on the
-                        //  performance (as the user sees it).  I believe the exception
-                        //  occurs occasionally (and rarely) during drawing operations
-                        //  and any effects are not noticeable because the screen is
-                        //  quickly redrawn.
-                        try { return super.getValueAt( row, column ); }
-                        catch ( Exception e ) { return null; }
-                    }
-                }
-            };
+            _messageTable = new MessageTableModel();
+            _messageJTable = new JTable( _messageTable );
             _messageJTable.setShowGrid( false );
             _messageJTable.getSelectionModel().addListSelectionListener( new ListSelectionListener() {
                 public void valueChanged( ListSelectionEvent e ) {
@@ -1121,18 +1243,11 @@ public class DiFXMessageProcessor extends Thread
          * Pick a message out of the table.
          */
         public void tableSelect( int i ) {
-            //  Find the message associated with this index in the table.
-            boolean found = false;
+            //  Build the message associated with this row of the table - this is the
+            //  only time the raw message is formatted or decoded for display.
             Message theMessage = null;
-            synchronized ( _messages ) {
-                for ( Iterator<Message> iter = _messages.iterator(); iter.hasNext() && !found; ) {
-                    Message msg = iter.next();
-                    if ( msg.tableRow == i ) {
-                        found = true;
-                        theMessage = msg;
-                    }
-                }
-            }
+            if ( i >= 0 && i < _messageTable.getRowCount() )
+                theMessage = buildMessage( _messageTable.index( i ) );
             if ( theMessage != null ) {
                 //  Put the message text in the editor window.
                 _messageText.text( theMessage.raw );
@@ -1380,30 +1495,171 @@ public class DiFXMessageProcessor extends Thread
         }
         
         /*
-         * Absorb a new message.
+         * Called (from the dispatch thread) when new messages have been put in the
+         * capture ring.  The table is updated in the event thread - if messages are
+         * arriving faster than it can do so they are picked up together.
+         */
+        void messagesArrived() {
+            synchronized ( this ) {
+                if ( _refreshPending )
+                    return;
+                _refreshPending = true;
+            }
+            EventQueue.invokeLater( new Runnable() {
+                public void run() {
+                    synchronized ( _this ) {
+                        _refreshPending = false;
+                    }
+                    appendNewMessages();
+                }
+            });
+        }
+
+        /*
+         * Add table rows for messages that have arrived since the last time we looked,
+         * and remove rows for messages that have fallen out of the capture ring.
+         */
+        void appendNewMessages() {
+            if ( !isVisible() )
+                return;
+            long count = _captureRing.count();
+            long first = _captureRing.first();
+            if ( _lastIndex < first ) {
+                //  We've missed messages - easier to start again.
+                rebuildTable();
+                return;
+            }
+            if ( count == _lastIndex )
+                return;
+            _activity.data();
+            for ( long i = _lastIndex; i < count; ++i ) {
+                String from = _captureRing.from( i );
+                addSource( from );
+                if ( typeSelected( _captureRing.type( i ) ) && sourceSelected( from ) )
+                    _messageTable.append( i );
+            }
+            _lastIndex = count;
+            _messageTable.trim( first );
+            followNewest();
+        }
+
+        /*
+         * Rebuild the items in the table based on current selections.
+         */
+        void rebuildTable() {
+            long count = _captureRing.count();
+            long selectedIndex = -1;
+            if ( _messageJTable.getSelectedRow() >= 0 && _messageJTable.getSelectedRow() < _messageTable.getRowCount() )
+                selectedIndex = _messageTable.index( _messageJTable.getSelectedRow() );
+            final int scrollSetting = _tableScrollPane.getVerticalScrollBar().getValue();
+            _messageTable.clear();
+            for ( long i = _captureRing.first(); i < count; ++i ) {
+                String from = _captureRing.from( i );
+                addSource( from );
+                if ( typeSelected( _captureRing.type( i ) ) && sourceSelected( from ) )
+                    _messageTable.append( i );
+            }
+            _lastIndex = count;
+            _messageTable.fireTableDataChanged();
+            //  Reset the selection (if there was one and it is still in the table).
+            int selectedRow = _messageTable.row( selectedIndex );
+            if ( selectedRow < 0 )
+                followNewest();
+            else {
+                _messageJTable.getSelectionModel().setSelectionInterval( selectedRow, selectedRow );
+                _tableScrollPane.getVerticalScrollBar().setValue( scrollSetting );
+            }
+        }
+
+        /*
+         * If nothing is selected, keep the newest message in view.
          */
-        void newMessage( String type, String from, ByteArrayInputStream is, DifxMessage difxMsg ) {
-            //  Add the "from" string to the source map, if it is new.
+        void followNewest() {
+            if ( _messageJTable.getSelectedRow() >= 0 )
+                return;
+            final JScrollBar vbar = _tableScrollPane.getVerticalScrollBar();
+            EventQueue.invokeLater( new Runnable () {
+                public void run () {
+                    vbar.setValue( vbar.getMaximum() );
+                }
+            });
+        }
+
+        /*
+         * Add the "from" string to the source map, if it is new.
+         */
+        void addSource( String from ) {
+            if ( from == null )
+                return;
             if ( _sourceMap == null )
                 _sourceMap = new HashMap<String,Selection>();
             if ( !_sourceMap.containsKey( from ) )
                 _sourceMap.put( from, new Selection( false ) );
-            _activity.data();
+        }
+
+        boolean sourceSelected( String from ) {
+            if ( _allSourceItem == null || _allSourceItem.isSelected() )
+                return true;
+            if ( from == null || _sourceMap == null )
+                return false;
+            Selection selection = _sourceMap.get( from );
+            return selection != null && selection.selected;
+        }
+
+        boolean typeSelected( String type ) {
+            if ( _allTypesItem.isSelected() )
+                return true;
+            if ( type == null )
+                return _unknownItem.isSelected();
+            if ( type.contentEquals( "DifxAlertMessage" ) )
+                return _alertItem.isSelected();
+            if ( type.contentEquals( "DifxCommandMessage" ) )
+                return _commandItem.isSelected();
+            if ( type.contentEquals( "DifxFileOperationMessage" ) )
+                return _fileOperationItem.isSelected();
+            if ( type.contentEquals( "DifxFileTransferMessage" ) )
+                return _fileTransferItem.isSelected();
+            if ( type.contentEquals( "DifxGetDirectoryMessage" ) )
+                return _getDirectoryItem.isSelected();
+            if ( type.contentEquals( "DifxInfoMessage" ) )
+                return _infoItem.isSelected();
+            if ( type.contentEquals( "DifxLoadMessage" ) )
+                return _loadItem.isSelected();
+            if ( type.contentEquals( "DifxMachinesDefinitionMessage" ) )
+                return _machinesDefinitionItem.isSelected();
+            if ( type.contentEquals( "DifxMk5ControlMessage" ) )
+                return _mk5ControlItem.isSelected();
+            if ( type.contentEquals( "DifxSmartMessage" ) )
+                return _smartItem.isSelected();
+            if ( type.contentEquals( "DifxStatusMessage" ) )
+                return _statusItem.isSelected();
+            if ( type.contentEquals( "DifxStopMessage" ) )
+                return _stopItem.isSelected();
+            if ( type.contentEquals( "DifxVex2DifxRunMessage" ) )
+                return _vex2DifxRunItem.isSelected();
+            if ( type.contentEquals( "DifxWeightMessage" ) )
+                return _weightItem.isSelected();
+            if ( type.contentEquals( "Mark5StatusMessage" ) )
+                return _mark5StatusItem.isSelected();
+            return _unknownItem.isSelected();
+        }
+
+        /*
+         * Produce the full description of a message in the capture ring - formatted
+         * text and decoded content.  Returns null if the message is no longer in
+         * the ring.
+         */
+        Message buildMessage( long index ) {
+            byte[] bytes = _captureRing.data( index );
+            if ( bytes == null )
+                return null;
             Message msg = new Message();
-            msg.type = type;
-            msg.from = from;
-            //  Extract the "raw" message string from the input stream.  Typical Java
-            //  intuitive stuff here...
-            int size = is.available();
-            char[] theChars = new char[size];
-            byte[] bytes    = new byte[size];
-            is.read( bytes, 0, size );
-            for (int i = 0; i < size;)
-                theChars[i] = (char)(bytes[i++]&0xff);
-            String raw = new String( theChars );
-            //  Try to make the formatting of this string a little clearer.  This probably
-            //  won't work 100% of the time.            
-            msg.raw = "";
+            msg.type = _captureRing.type( index );
+            msg.from = _captureRing.from( index );
+            //  Try to make the formatting of the raw message a little clearer.  This
+            //  probably won't work 100% of the time.
+            String raw = new String( bytes, java.nio.charset.StandardCharsets.ISO_8859_1 );
+            StringBuilder formatted = new StringBuilder( raw.length() * 2 );
             String [] s = raw.split( "><" );
             int indentN = 0;
             for ( int i = 0; i < s.length; ++i ) {
@@ -1411,188 +1667,131 @@ public class DiFXMessageProcessor extends Thread
                     indentN -= 1;
                 else if ( !s[i].startsWith( "<" ) && !s[i].contains( "/" ) )
                     indentN += 1;
-                String indent = "";
-                for ( int j = 0; j < indentN; ++j )
-                    indent = indent.concat( "    " );
                 if ( i == 0 )
-                    msg.raw = msg.raw.concat( "<" + s[i] );
-                else
-                    msg.raw = msg.raw.concat( ">\n" + indent + "<" + s[i] );
-            }
-            msg.difxMsg = difxMsg;
-            Calendar cal = Calendar.getInstance();
-            long time = cal.getTimeInMillis();
-            SimpleDateFormat sdf = new SimpleDateFormat( "yyyy-MM-dd" );
-            msg.date = sdf.format( time );
-            sdf = new SimpleDateFormat( "HH:mm:ss.SSS" );
-            msg.time = sdf.format( time );
-            if ( _messages == null )
-                _messages = new ArrayDeque<Message>();
-            synchronized ( _messages ) {
-                _messages.add( msg );
-                while ( _messages.size() > _messageLimit.intValue() )
-                    _messages.removeFirst();
+                    formatted.append( "<" ).append( s[i] );
+                else {
+                    formatted.append( ">\n" );
+                    for ( int j = 0; j < indentN; ++j )
+                        formatted.append( "    " );
+                    formatted.append( "<" ).append( s[i] );
+                }
             }
-            rebuildTable();
+            msg.raw = formatted.toString();
+            if ( _windowPacketProcessor == null )
+                _windowPacketProcessor = new JAXBPacketProcessor( _settings.jaxbPackage() );
+            msg.difxMsg = _windowPacketProcessor.ConvertToJAXB( new ByteArrayInputStream( bytes ), false );
+            if ( msg.difxMsg == null )
+                return null;
+            return msg;
         }
-        
+
         /*
-         * Rebuild the items in the table based on current selections.
+         * The table model holds only the ring index of each message that passes the
+         * current selections - everything displayed is looked up in the ring when the
+         * table asks for it (which it only does for visible rows).  Rows are added
+         * at the end and removed from the start.
          */
-        void rebuildTable() {
-            //  Save the selected item.
-            int selectedRow = _messageJTable.getSelectedRow();
-            final int scrollSetting = _tableScrollPane.getVerticalScrollBar().getValue();
-            if ( selectedRow >= _messageTable.getRowCount() )
-                selectedRow = -1;
-            synchronized ( _messages ) {
-                //  Empty the current table.
-                //while ( _messageTable.getRowCount() > 0 )
-                //    _messageTable.removeRow( 0 );
-                _messageTable.setRowCount( 0 ); 
-                //  Figure out which messages we want to display.
-                for ( Iterator<Message> iter = _messages.iterator(); iter.hasNext(); ) {
-                    Message msg = iter.next();
-                    boolean typeOkay = false;
-                    if ( _allTypesItem.isSelected() )
-                        typeOkay = true;
-                    else {
-                        if ( msg.type.contentEquals( "DifxAlertMessage" ) ) {
-                            if ( _alertItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxCommandMessage" ) ) {
-                            if ( _commandItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxFileOperationMessage" ) ) {
-                            if ( _fileOperationItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxFileTransferMessage" ) ) {
-                            if ( _fileTransferItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxGetDirectoryMessage" ) ) {
-                            if ( _getDirectoryItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxInfoMessage" ) ) {
-                            if ( _infoItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxLoadMessage" ) ) {
-                            if ( _loadItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxMachinesDefinitionMessage" ) ) {
-                            if ( _machinesDefinitionItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxMk5ControlMessage" ) ) {
-                            if ( _mk5ControlItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxSmartMessage" ) ) {
-                            if ( _smartItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxStatusMessage" ) ) {
-                            if ( _statusItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxStopMessage" ) ) {
-                            if ( _stopItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxVex2DifxRunMessage" ) ) {
-                            if ( _vex2DifxRunItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "DifxWeightMessage" ) ) {
-                            if ( _weightItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( msg.type.contentEquals( "Mark5StatusMessage" ) ) {
-                            if ( _mark5StatusItem.isSelected() )
-                                typeOkay = true;
-                        }
-                        else if ( _unknownItem.isSelected() )
-                                typeOkay = true;
-                    }
-                    boolean fromOkay = false;
-                    if ( _allSourceItem == null || _allSourceItem.isSelected() )
-                        fromOkay = true;
-                    else {
-                        for ( Iterator<String> iter2 = _sourceMap.keySet().iterator(); iter2.hasNext(); ) {
-                            String source = iter2.next();
-                            if ( msg.from.contentEquals( source ) && _sourceMap.get( source ).selected )
-                                fromOkay = true;
-                        }
-                    }
-                    if ( typeOkay && fromOkay ) {
-                        msg.tableRow = _messageTable.getRowCount();
-                        _messageTable.insertRow( _messageTable.getRowCount(),
-                            new Object[] { 
-                                ( msg.date + " " + msg.time ),
-                                ( msg.type ),
-                                ( msg.from )
-                            } );
-                    }
-                    else
-                        msg.tableRow = -2;  //  Just to show its not in the table
+        protected class MessageTableModel extends AbstractTableModel {
+
+            public int getRowCount() { return _size; }
+            public int getColumnCount() { return 3; }
+
+            @Override
+            public String getColumnName( int column ) {
+                switch ( column ) {
+                    case 0: return "Time";
+                    case 1: return "Type";
+                    default: return "From";
                 }
             }
-            //  Reset the selection (if there was one).
-            final JScrollBar vbar = _tableScrollPane.getVerticalScrollBar();
-            final DefaultTableModel dtable = _messageTable;
-            final int sRow = selectedRow;
-            if ( selectedRow == -1 ) {
-                EventQueue.invokeLater( new Runnable () {
-                    public void run () {
-                        EventQueue.invokeLater( new Runnable () {
-                            public void run () {
-                                vbar.setValue( vbar.getMaximum() );
-                                tableSelect( dtable.getRowCount() - 1 );
-                            }
-                        });
-                    }
-                });
+
+            public Object getValueAt( int row, int column ) {
+                if ( row < 0 || row >= _size )
+                    return null;
+                long index = index( row );
+                switch ( column ) {
+                    case 0:
+                        if ( !_captureRing.contains( index ) )
+                            return null;
+                        if ( _timeFormat == null )
+                            _timeFormat = new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss.SSS" );
+                        return _timeFormat.format( new java.util.Date( _captureRing.time( index ) ) );
+                    case 1:
+                        return _captureRing.type( index );
+                    default:
+                        return _captureRing.from( index );
+                }
             }
-            else {
-                EventQueue.invokeLater( new Runnable () {
-                    public void run () {
-                        EventQueue.invokeLater( new Runnable () {
-                            public void run () {
-                                vbar.setValue( scrollSetting );
-                                if ( sRow < dtable.getRowCount() )
-                                    tableSelect( sRow );
-                                else
-                                    tableSelect( dtable.getRowCount() - 1 );
-                            }
-                        });
-                    }
-                });
+
+            public long index( int row ) { return _indices[_start + row]; }
+
+            /*
+             * Find the row holding a ring index, or -1.
+             */
+            public int row( long index ) {
+                if ( index < 0 )
+                    return -1;
+                int pos = java.util.Arrays.binarySearch( _indices, _start, _start + _size, index );
+                return pos < 0 ? -1 : pos - _start;
+            }
+
+            public void append( long index ) {
+                if ( _start + _size == _indices.length ) {
+                    //  Out of space at the end - slide to the front or grow.
+                    long[] newIndices = _indices;
+                    if ( _size * 2 > _indices.length )
+                        newIndices = new long[_indices.length * 2];
+                    System.arraycopy( _indices, _start, newIndices, 0, _size );
+                    _indices = newIndices;
+                    _start = 0;
+                }
+                _indices[_start + _size] = index;
+                ++_size;
+                fireTableRowsInserted( _size - 1, _size - 1 );
+            }
+
+            /*
+             * Remove rows for messages older than the given index.
+             */
+            public void trim( long first ) {
+                int n = 0;
+                while ( n < _size && _indices[_start + n] < first )
+                    ++n;
+                if ( n > 0 ) {
+                    _start += n;
+                    _size -= n;
+                    fireTableRowsDeleted( 0, n - 1 );
+                }
             }
+
+            public void clear() {
+                _start = 0;
+                _size = 0;
+            }
+
+            protected long[] _indices = new long[1024];
+            protected int _start;
+            protected int _size;
+
         }
-        
+
         protected DiFXMessageWindow _this;
         protected boolean _allObjectsBuilt;
         protected ActivityMonitorLight _activity;
         protected JLabel _activityLabel;
         protected JScrollPane _tableScrollPane;
-        protected DefaultTableModel _messageTable;
+        protected MessageTableModel _messageTable;
         protected JTable _messageJTable;
         protected class Message {
             public String type;
             public String from;
             public String raw;
             public DifxMessage difxMsg;
-            public String date;
-            public String time;
-            public int tableRow;
         }
-        protected ArrayDeque<Message> _messages;
+        protected long _lastIndex;
+        protected boolean _refreshPending;
+        protected JAXBPacketProcessor _windowPacketProcessor;
+        protected SimpleDateFormat _timeFormat;
         protected SimpleTextEditor _messageText;
         protected JSplitPane _mainSplitPane;
         protected JSplitPane _bottomSplitPane;
@@ -0,0 +1,318 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A hand-written (StAX pull parser) decoder for the DiFX messages that make up
+ * most of the multicast traffic - DifxLoadMessage, Mark5StatusMessage and
+ * DifxStatusMessage.  It fills in the same JAXB-generated objects that the
+ * Unmarshaller would, but without the overhead of JAXB's reflection-driven
+ * machinery.
+ *
+ * The decoder is deliberately conservative.  If the message is of any other type,
+ * or contains anything in its body that it doesn't understand, or a number won't
+ * parse, it gives up and returns null - the caller is expected to fall back on
+ * JAXB (see JAXBPacketProcessor.ConvertToJAXB()).  Unknown elements inside the
+ * header or the message payload are skipped, which is what JAXB does.
+ *
+ * Like an Unmarshaller, a decoder should only be used by one thread at a time.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import edu.nrao.difx.xmllib.difxmessage.*;
+
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+public class FastMessageDecoder {
+
+    public FastMessageDecoder() {
+        _factory = XMLInputFactory.newInstance();
+        _factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+        _factory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+        _factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE );
+    }
+
+    /*
+     * Returns true if the message type is one this decoder handles.
+     */
+    public static boolean handlesType( String type ) {
+        return type != null && ( type.equals( "DifxLoadMessage" ) ||
+                                 type.equals( "Mark5StatusMessage" ) ||
+                                 type.equals( "DifxStatusMessage" ) );
+    }
+
+    /*
+     * Decode a message from the stream.  Null is returned if the message can't
+     * be decoded by this class (the stream will need to be reset by the caller if
+     * it is to be read again).
+     */
+    public DifxMessage decode( InputStream is ) {
+        XMLStreamReader reader = null;
+        try {
+            reader = _factory.createXMLStreamReader( is );
+            if ( !nextChild( reader ) || !reader.getLocalName().equals( "difxMessage" ) )
+                return null;
+            DifxMessage difxMsg = new DifxMessage();
+            while ( nextChild( reader ) ) {
+                String name = reader.getLocalName();
+                if ( name.equals( "header" ) ) {
+                    Header header = readHeader( reader );
+                    if ( header == null )
+                        return null;
+                    difxMsg.setHeader( header );
+                }
+                else if ( name.equals( "body" ) ) {
+                    //  Don't bother with the body unless we know the header is
+                    //  for a type we understand.
+                    if ( difxMsg.getHeader() == null )
+                        return null;
+                    Body body = readBody( reader );
+                    if ( body == null )
+                        return null;
+                    difxMsg.setBody( body );
+                }
+                else
+                    skip( reader );
+            }
+            if ( difxMsg.getHeader() == null || difxMsg.getBody() == null )
+                return null;
+            return difxMsg;
+        } catch ( XMLStreamException e ) {
+            return null;
+        } catch ( NumberFormatException e ) {
+            return null;
+        } finally {
+            if ( reader != null ) {
+                try {
+                    reader.close();
+                } catch ( XMLStreamException e ) {}
+            }
+        }
+    }
+
+    /*
+     * Read the header, returning null if it is not for a message type we handle.
+     */
+    protected Header readHeader( XMLStreamReader reader ) throws XMLStreamException {
+        Header header = new Header();
+        while ( nextChild( reader ) ) {
+            String name = reader.getLocalName();
+            if ( name.equals( "from" ) )
+                header.setFrom( reader.getElementText() );
+            else if ( name.equals( "to" ) )
+                header.setTo( reader.getElementText() );
+            else if ( name.equals( "mpiProcessId" ) )
+                header.setMpiProcessId( reader.getElementText() );
+            else if ( name.equals( "identifier" ) )
+                header.setIdentifier( reader.getElementText() );
+            else if ( name.equals( "type" ) ) {
+                header.setType( reader.getElementText() );
+                if ( !handlesType( header.getType() ) )
+                    return null;
+            }
+            else
+                skip( reader );
+        }
+        if ( !handlesType( header.getType() ) )
+            return null;
+        return header;
+    }
+
+    /*
+     * Read the body.  Anything other than the sequence number and the payloads
+     * we know about causes us to give up.
+     */
+    protected Body readBody( XMLStreamReader reader ) throws XMLStreamException {
+        Body body = new Body();
+        while ( nextChild( reader ) ) {
+            String name = reader.getLocalName();
+            if ( name.equals( "seqNumber" ) )
+                body.setSeqNumber( reader.getElementText() );
+            else if ( name.equals( "difxLoad" ) )
+                body.setDifxLoad( readDifxLoad( reader ) );
+            else if ( name.equals( "mark5Status" ) )
+                body.setMark5Status( readMark5Status( reader ) );
+            else if ( name.equals( "difxStatus" ) )
+                body.setDifxStatus( readDifxStatus( reader ) );
+            else
+                return null;
+        }
+        return body;
+    }
+
+    protected DifxLoad readDifxLoad( XMLStreamReader reader ) throws XMLStreamException {
+        DifxLoad load = new DifxLoad();
+        while ( nextChild( reader ) ) {
+            String name = reader.getLocalName();
+            if ( name.equals( "cpuLoad" ) )
+                load.setCpuLoad( parseFloat( reader.getElementText() ) );
+            else if ( name.equals( "totalMemory" ) )
+                load.setTotalMemory( parseLong( reader.getElementText() ) );
+            else if ( name.equals( "usedMemory" ) )
+                load.setUsedMemory( parseLong( reader.getElementText() ) );
+            else if ( name.equals( "netRXRate" ) )
+                load.setNetRXRate( parseInt( reader.getElementText() ) );
+            else if ( name.equals( "netTXRate" ) )
+                load.setNetTXRate( parseInt( reader.getElementText() ) );
+            else if ( name.equals( "nCore" ) )
+                load.setNCore( parseInt( reader.getElementText() ) );
+            else
+                skip( reader );
+        }
+        return load;
+    }
+
+    protected Mark5Status readMark5Status( XMLStreamReader reader ) throws XMLStreamException {
+        Mark5Status status = new Mark5Status();
+        while ( nextChild( reader ) ) {
+            String name = reader.getLocalName();
+            if ( name.equals( "bankAVSN" ) )
+                status.setBankAVSN( reader.getElementText() );
+            else if ( name.equals( "bankBVSN" ) )
+                status.setBankBVSN( reader.getElementText() );
+            else if ( name.equals( "statusWord" ) )
+                status.setStatusWord( reader.getElementText() );
+            else if ( name.equals( "activeBank" ) )
+                status.setActiveBank( reader.getElementText() );
+            else if ( name.equals( "state" ) )
+                status.setState( reader.getElementText() );
+            else if ( name.equals( "scanNumber" ) )
+                status.setScanNumber( parseInt( reader.getElementText() ) );
+            else if ( name.equals( "scanName" ) )
+                status.setScanName( reader.getElementText() );
+            else if ( name.equals( "position" ) )
+                status.setPosition( parseLong( reader.getElementText() ) );
+            else if ( name.equals( "playRate" ) )
+                status.setPlayRate( parseFloat( reader.getElementText() ) );
+            else if ( name.equals( "dataMJD" ) )
+                status.setDataMJD( reader.getElementText() );
+            else
+                skip( reader );
+        }
+        return status;
+    }
+
+    protected DifxStatus readDifxStatus( XMLStreamReader reader ) throws XMLStreamException {
+        DifxStatus status = new DifxStatus();
+        while ( nextChild( reader ) ) {
+            String name = reader.getLocalName();
+            if ( name.equals( "state" ) )
+                status.setState( reader.getElementText() );
+            else if ( name.equals( "message" ) )
+                status.setMessage( reader.getElementText() );
+            else if ( name.equals( "visibilityMJD" ) )
+                status.setVisibilityMJD( reader.getElementText() );
+            else if ( name.equals( "jobstartMJD" ) )
+                status.setJobstartMJD( reader.getElementText() );
+            else if ( name.equals( "jobstopMJD" ) )
+                status.setJobstopMJD( reader.getElementText() );
+            else if ( name.equals( "weight" ) ) {
+                DifxStatus.Weight weight = new DifxStatus.Weight();
+                weight.setAnt( reader.getAttributeValue( null, "ant" ) );
+                weight.setWt( reader.getAttributeValue( null, "wt" ) );
+                status.getWeight().add( weight );
+                skip( reader );
+            }
+            else
+                skip( reader );
+        }
+        return status;
+    }
+
+    /*
+     * Advance to the start of the next child element of the current element.
+     * Returns false (with the reader positioned on the END_ELEMENT) if there
+     * are no more children.
+     */
+    protected boolean nextChild( XMLStreamReader reader ) throws XMLStreamException {
+        while ( reader.hasNext() ) {
+            int event = reader.next();
+            if ( event == XMLStreamConstants.START_ELEMENT )
+                return true;
+            if ( event == XMLStreamConstants.END_ELEMENT )
+                return false;
+        }
+        return false;
+    }
+
+    /*
+     * Skip the current element (the reader is on its START_ELEMENT) and everything
+     * inside it.
+     */
+    protected void skip( XMLStreamReader reader ) throws XMLStreamException {
+        int depth = 1;
+        while ( depth > 0 && reader.hasNext() ) {
+            int event = reader.next();
+            if ( event == XMLStreamConstants.START_ELEMENT )
+                ++depth;
+            else if ( event == XMLStreamConstants.END_ELEMENT )
+                --depth;
+        }
+    }
+
+    /*
+     * Number parsing follows the XML Schema rules JAXB uses - surrounding
+     * whitespace is ignored, a leading "+" is allowed for integers, and floats
+     * may be "INF", "-INF" or "NaN".  An empty element leaves the field at zero
+     * (JAXB ignores the value it can't parse, and all of the fields we fill are
+     * primitives) - mk5daemon sends an empty scanNumber when it is idle.
+     */
+    protected static int parseInt( String s ) {
+        s = s.trim();
+        if ( s.length() == 0 )
+            return 0;
+        if ( s.startsWith( "+" ) )
+            s = s.substring( 1 );
+        return Integer.parseInt( s );
+    }
+
+    protected static long parseLong( String s ) {
+        s = s.trim();
+        if ( s.length() == 0 )
+            return 0;
+        if ( s.startsWith( "+" ) )
+            s = s.substring( 1 );
+        return Long.parseLong( s );
+    }
+
+    protected static float parseFloat( String s ) {
+        s = s.trim();
+        if ( s.length() == 0 )
+            return 0.0f;
+        if ( s.equals( "INF" ) )
+            return Float.POSITIVE_INFINITY;
+        if ( s.equals( "-INF" ) )
+            return Float.NEGATIVE_INFINITY;
+        if ( s.equals( "NaN" ) )
+            return Float.NaN;
+        //  Java accepts some things XML Schema doesn't ("Infinity", "1.0f", hex).
+        //  Those go to JAXB.
+        for ( int i = 0; i < s.length(); ++i ) {
+            char c = s.charAt( i );
+            if ( !( ( c >= '0' && c <= '9' ) || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E' ) )
+                throw new NumberFormatException( s );
+        }
+        return Float.parseFloat( s );
+    }
+
+    protected XMLInputFactory _factory;
+
+}
@@ -20,6 +20,7 @@ package edu.nrao.difx.difxcontroller;
 
 import java.net.*;
 import java.io.*;
+import java.util.ArrayDeque;
 import javax.xml.bind.*;
 
 import edu.nrao.difx.xmllib.difxmessage.*;
@@ -36,9 +37,16 @@ public class JAXBDiFXProcessor
     * The messages contain DOI messages and upon receipt they are
     * marshalled into XML strings. The XML is then processed through
     * the DiFX Controller.
+    *
+    * The JAXBContext is shared with the JAXBPacketProcessor (it is thread safe
+    * and expensive to create).  Marshallers are not thread safe, so a small pool
+    * of them is kept - each conversion borrows one and returns it when done.
+    * This makes instances cheap enough to create for every command sent.
     */
     private DifxMessage    message;
-    private Marshaller     marshaller;
+    
+    private static final int MARSHALLER_POOL_LIMIT = 8;
+    private static final ArrayDeque<Marshaller> mMarshallerPool = new ArrayDeque<Marshaller>();
     
     /**
     * Constructor for this class that accepts a datagram packet as
@@ -49,6 +57,36 @@ public class JAXBDiFXProcessor
         this.message = msgToProcess;
     }
 
+    /**
+    * Borrow a Marshaller from the pool, creating one if none are free.
+    */
+    private Marshaller leaseMarshaller() throws JAXBException
+    {
+        synchronized ( mMarshallerPool )
+        {
+            Marshaller marshaller = mMarshallerPool.pollFirst();
+            if ( marshaller != null )
+                return marshaller;
+        }
+        JAXBContext jaxbCtx = JAXBPacketProcessor.context( message.getClass().getPackage().getName() );
+        Marshaller marshaller = jaxbCtx.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        return marshaller;
+    }
+    
+    /**
+    * Give a Marshaller back to the pool.  Beyond the pool limit they are simply
+    * dropped.
+    */
+    private void releaseMarshaller( Marshaller marshaller )
+    {
+        synchronized ( mMarshallerPool )
+        {
+            if ( mMarshallerPool.size() < MARSHALLER_POOL_LIMIT )
+                mMarshallerPool.addFirst( marshaller );
+        }
+    }
     
     /**
     * This is where the contents of a DiFXxMessage is converted to an XML string.
@@ -59,18 +97,17 @@ public class JAXBDiFXProcessor
 
          try
          {
-            javax.xml.bind.JAXBContext jaxbCtx = 
-                    javax.xml.bind.JAXBContext.newInstance(message.getClass().getPackage().getName());
-
-            marshaller = jaxbCtx.createMarshaller();
-
-//            ObjectFactory factory = new ObjectFactory();
-            marshaller.setProperty(Marshaller.JAXB_ENCODING, "UTF-8");
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-            StringWriter writer = new StringWriter();
-            marshaller.marshal(message, writer);
-            xmlString = writer.toString();
-            //marshaller.marshal(difxMsg, System.out);
+            Marshaller marshaller = leaseMarshaller();
+            try
+            {
+               StringWriter writer = new StringWriter();
+               marshaller.marshal(message, writer);
+               xmlString = writer.toString();
+            }
+            finally
+            {
+               releaseMarshaller( marshaller );
+            }
          }
          catch (javax.xml.bind.JAXBException ex) 
          {
@@ -85,4 +122,34 @@ public class JAXBDiFXProcessor
          return xmlString;
     }           
     
+    /**
+    * Convert the message directly to UTF-8 encoded XML (the encoding the XML
+    * declares), avoiding the intermediate string.  Returns null on failure.
+    */
+    public byte[] ConvertToBytes()
+    {
+         byte[] data = null;
+
+         try
+         {
+            Marshaller marshaller = leaseMarshaller();
+            try
+            {
+               ByteArrayOutputStream stream = new ByteArrayOutputStream( 1024 );
+               marshaller.marshal(message, stream);
+               data = stream.toByteArray();
+            }
+            finally
+            {
+               releaseMarshaller( marshaller );
+            }
+         }
+         catch (javax.xml.bind.JAXBException ex) 
+         {
+            java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.SEVERE, null, ex); //NOI18N
+         }
+
+         return data;
+    }           
+    
 }
@@ -20,6 +20,7 @@ package edu.nrao.difx.difxcontroller;
 
 import java.net.*;
 import java.io.*;
+import java.util.HashMap;
 import javax.xml.bind.*;
 
 import edu.nrao.difx.xmllib.difxmessage.*;
@@ -38,10 +39,37 @@ public class JAXBPacketProcessor
     * unmarshalled into JAXB objects. The JAXB object is then stuffed
     * into a MulticastGroupEvent object which is received by
     * registered listeners via a callback method invocation.
+    *
+    * Creating a JAXBContext is expensive, so one is created for each package
+    * and shared by all instances (JAXBContext is thread safe).  Unmarshallers
+    * are not thread safe, so each instance has its own - threads that decode
+    * in parallel should each use their own JAXBPacketProcessor.
     */
    private Unmarshaller   mUnmarshaller;
    private ObjectFactory  mFactory;
    private JAXBContext    mJaxbCtx;
+   private FastMessageDecoder mFastDecoder;
+   
+   private static final HashMap<String,JAXBContext> mContextCache = new HashMap<String,JAXBContext>();
+   
+   /**
+    * Return the (cached) JAXBContext for a package, creating it if necessary.
+    */
+   public static JAXBContext context( String pkg ) throws JAXBException
+   {
+      synchronized ( mContextCache )
+      {
+         JAXBContext ctx = mContextCache.get( pkg );
+         if ( ctx == null )
+         {
+            System.out.println(pkg);
+            ctx = JAXBContext.newInstance(pkg);
+            mContextCache.put( pkg, ctx );
+         }
+         return ctx;
+      }
+   }
+   
    /**
     * Constructor for this class that accepts a datagram packet as
     * input.
@@ -50,9 +78,8 @@ public class JAXBPacketProcessor
    {
       try
       {
-         System.out.println(pkg);
          mFactory = new ObjectFactory();
-         mJaxbCtx = JAXBContext.newInstance(pkg);
+         mJaxbCtx = context(pkg);
          mUnmarshaller = mJaxbCtx.createUnmarshaller();
       }
       catch (Exception e)
@@ -61,6 +88,25 @@ public class JAXBPacketProcessor
       }
    }
 
+   /**
+    * Convert a data buffer into a JAXB object, optionally trying the hand-written
+    * decoder for high-rate message types first.  Anything the fast decoder can't
+    * handle goes through the Unmarshaller as usual.
+    */
+   public DifxMessage ConvertToJAXB( ByteArrayInputStream is, boolean useFastPath )
+   {
+      if ( useFastPath )
+      {
+         if ( mFastDecoder == null )
+            mFastDecoder = new FastMessageDecoder();
+         DifxMessage difxMsg = mFastDecoder.decode( is );
+         is.reset();
+         if ( difxMsg != null )
+            return difxMsg;
+      }
+      return ConvertToJAXB( is );
+   }
+
    /**
     * Convert a data buffer directly into a JAXB object (i.e. avoid that DatagramPacket
     * stuff).
@@ -0,0 +1,155 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A fixed-size ring of the most recent DiFX messages, kept for the DiFX Message
+ * Traffic Monitor window.  Only the raw message bytes, the time each arrived, and
+ * its type and source are stored - anything else the window needs is worked out
+ * from the raw bytes when (and if) someone looks at the message.
+ *
+ * Every message ever recorded has a sequential "index".  The ring holds the
+ * messages from index first() to index count() - 1.  The byte arrays for each
+ * slot are reused as the ring wraps around, so recording a message normally
+ * allocates nothing.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import java.io.ByteArrayInputStream;
+
+public class MessageCaptureRing {
+
+    public MessageCaptureRing( int capacity ) {
+        allocate( Math.max( 1, capacity ) );
+    }
+
+    protected void allocate( int capacity ) {
+        _capacity = capacity;
+        _data = new byte[capacity][];
+        _lengths = new int[capacity];
+        _times = new long[capacity];
+        _types = new String[capacity];
+        _froms = new String[capacity];
+    }
+
+    /*
+     * Record a message.  The remaining contents of the stream are consumed.
+     */
+    synchronized public void record( long time, String type, String from, ByteArrayInputStream is ) {
+        int slot = (int)( _count % _capacity );
+        int size = is.available();
+        if ( _data[slot] == null || _data[slot].length < size )
+            _data[slot] = new byte[Math.max( size, MINIMUM_SLOT_SIZE )];
+        _lengths[slot] = is.read( _data[slot], 0, size );
+        if ( _lengths[slot] < 0 )
+            _lengths[slot] = 0;
+        _times[slot] = time;
+        _types[slot] = type;
+        _froms[slot] = from;
+        ++_count;
+    }
+
+    /*
+     * Change the number of messages held.  The most recent messages are kept.
+     */
+    synchronized public void capacity( int newVal ) {
+        newVal = Math.max( 1, newVal );
+        if ( newVal == _capacity )
+            return;
+        byte[][] data = _data;
+        int[] lengths = _lengths;
+        long[] times = _times;
+        String[] types = _types;
+        String[] froms = _froms;
+        int oldCapacity = _capacity;
+        long first = Math.max( first(), _count - newVal );
+        allocate( newVal );
+        //  Messages that were dropped when the ring was smaller don't come back.
+        _first = first;
+        for ( long i = first; i < _count; ++i ) {
+            int oldSlot = (int)( i % oldCapacity );
+            int newSlot = (int)( i % newVal );
+            _data[newSlot] = data[oldSlot];
+            _lengths[newSlot] = lengths[oldSlot];
+            _times[newSlot] = times[oldSlot];
+            _types[newSlot] = types[oldSlot];
+            _froms[newSlot] = froms[oldSlot];
+        }
+    }
+    synchronized public int capacity() { return _capacity; }
+
+    /*
+     * The index of the next message to be recorded (which is also the number of
+     * messages recorded so far).
+     */
+    synchronized public long count() { return _count; }
+
+    /*
+     * The index of the oldest message still held.
+     */
+    synchronized public long first() { return Math.max( _first, _count - _capacity ); }
+
+    synchronized public boolean contains( long index ) {
+        return index >= first() && index < _count;
+    }
+
+    /*
+     * Accessors for individual messages.  These return null (or 0) if the message
+     * is no longer in the ring.
+     */
+    synchronized public long time( long index ) {
+        if ( !contains( index ) )
+            return 0;
+        return _times[(int)( index % _capacity )];
+    }
+
+    synchronized public String type( long index ) {
+        if ( !contains( index ) )
+            return null;
+        return _types[(int)( index % _capacity )];
+    }
+
+    synchronized public String from( long index ) {
+        if ( !contains( index ) )
+            return null;
+        return _froms[(int)( index % _capacity )];
+    }
+
+    /*
+     * A copy of the raw bytes of a message.
+     */
+    synchronized public byte[] data( long index ) {
+        if ( !contains( index ) )
+            return null;
+        int slot = (int)( index % _capacity );
+        byte[] ret = new byte[_lengths[slot]];
+        System.arraycopy( _data[slot], 0, ret, 0, _lengths[slot] );
+        return ret;
+    }
+
+    protected static final int MINIMUM_SLOT_SIZE = 512;
+
+    protected int _capacity;
+    protected long _count;
+    protected long _first;
+    protected byte[][] _data;
+    protected int[] _lengths;
+    protected long[] _times;
+    protected String[] _types;
+    protected String[] _froms;
+
+}
@@ -0,0 +1,289 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * The set of listeners interested in DiFX messages, organized so that each
+ * message is handed only to the listeners that want it.  A subscription names a
+ * message type (e.g. "DifxAlertMessage") and, optionally, the host the message
+ * must come from (the "from" field of the header) and/or the identifier (the
+ * job name, or program name like "mk5dir").  Matching is case-insensitive, as
+ * the listeners' own filtering always was.
+ *
+ * Subscribers are sorted into "dispatch tables", one per message type, each of
+ * which has listeners that take everything of that type as well as hash tables
+ * of listeners by host, by identifier and by both.  Delivering a message costs a
+ * few hash lookups plus a call to each interested listener, no matter how many
+ * other listeners there are.
+ *
+ * The tables are rebuilt whenever a subscription is added or removed (rare) and
+ * are never changed once built, so delivery (frequent) doesn't need any locking.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import edu.nrao.difx.xmllib.difxmessage.DifxMessage;
+import edu.nrao.difx.xmllib.difxmessage.Header;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class MessageSubscriptions {
+
+    public MessageSubscriptions() {
+        _subscriptions = new ArrayList<Subscription>();
+        _knownTypes = new ArrayList<String>();
+        _tables = new HashMap<String, DispatchTable>();
+        _exactTables = new HashMap<String, DispatchTable>();
+    }
+
+    /*
+     * Add a subscription.  The host and identifier may be null, in which case they
+     * aren't used to filter messages.  The returned subscription can be used to
+     * unsubscribe later.
+     */
+    public Subscription subscribe( String type, String host, String identifier, AttributedMessageListener listener ) {
+        Subscription sub = new Subscription( type, host, identifier, listener );
+        synchronized ( _subscriptions ) {
+            _subscriptions.add( sub );
+            rebuild();
+        }
+        return sub;
+    }
+
+    /*
+     * Remove a subscription.  Removing one that isn't there does nothing.
+     */
+    public void unsubscribe( Subscription sub ) {
+        if ( sub == null )
+            return;
+        synchronized ( _subscriptions ) {
+            if ( _subscriptions.remove( sub ) )
+                rebuild();
+        }
+    }
+
+    /*
+     * Make a message type "known" even if nobody subscribes to it.  Known types
+     * are those for which deliver() returns true.
+     */
+    public void addKnownType( String type ) {
+        synchronized ( _subscriptions ) {
+            _knownTypes.add( type.toLowerCase() );
+            rebuild();
+        }
+    }
+
+    /*
+     * Hand a message to every interested listener.  Returns false if the message
+     * type is unknown - that is, it is neither a known type nor the type of any
+     * subscription.
+     */
+    public boolean deliver( DifxMessage difxMsg ) {
+        Header header = difxMsg.getHeader();
+        DispatchTable table = table( header.getType() );
+        if ( table == null )
+            return false;
+        table.deliver( header, difxMsg );
+        return true;
+    }
+
+    /*
+     * Find the dispatch table for a message type as it appears in the message.
+     * The type is used as a hash key exactly as given - different spellings of the
+     * same type are resolved to a table (case-insensitively) the first time each
+     * is seen.  In practice there is only ever one spelling of each.
+     */
+    protected DispatchTable table( String type ) {
+        if ( type == null )
+            return null;
+        Map<String, DispatchTable> exactTables = _exactTables;
+        DispatchTable table = exactTables.get( type );
+        if ( table != null || exactTables.containsKey( type ) )
+            return table;
+        synchronized ( _subscriptions ) {
+            table = _tables.get( type.toLowerCase() );
+            HashMap<String, DispatchTable> newExact = new HashMap<String, DispatchTable>( _exactTables );
+            newExact.put( type, table );
+            _exactTables = newExact;
+        }
+        return table;
+    }
+
+    /*
+     * Build new dispatch tables from the current subscriptions.  Must be called
+     * while holding the subscription lock.
+     */
+    protected void rebuild() {
+        HashMap<String, TableBuilder> builders = new HashMap<String, TableBuilder>();
+        for ( Iterator<String> iter = _knownTypes.iterator(); iter.hasNext(); ) {
+            String type = iter.next();
+            if ( !builders.containsKey( type ) )
+                builders.put( type, new TableBuilder() );
+        }
+        for ( Iterator<Subscription> iter = _subscriptions.iterator(); iter.hasNext(); ) {
+            Subscription sub = iter.next();
+            TableBuilder builder = builders.get( sub._type );
+            if ( builder == null ) {
+                builder = new TableBuilder();
+                builders.put( sub._type, builder );
+            }
+            builder.add( sub );
+        }
+        HashMap<String, DispatchTable> tables = new HashMap<String, DispatchTable>();
+        for ( Iterator<Map.Entry<String, TableBuilder>> iter = builders.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<String, TableBuilder> entry = iter.next();
+            tables.put( entry.getKey(), entry.getValue().build() );
+        }
+        _tables = tables;
+        _exactTables = new HashMap<String, DispatchTable>();
+    }
+
+    /*
+     * Number of subscriptions, for diagnostics.
+     */
+    public int size() {
+        synchronized ( _subscriptions ) {
+            return _subscriptions.size();
+        }
+    }
+
+    /*
+     * One subscription.  Type, host and identifier are stored in lower case.
+     */
+    public static class Subscription {
+
+        protected Subscription( String type, String host, String identifier, AttributedMessageListener listener ) {
+            _type = type.toLowerCase();
+            _host = host == null ? null : host.toLowerCase();
+            _identifier = identifier == null ? null : identifier.toLowerCase();
+            _listener = listener;
+        }
+
+        public String type() { return _type; }
+        public String host() { return _host; }
+        public String identifier() { return _identifier; }
+        public AttributedMessageListener listener() { return _listener; }
+
+        protected String _type;
+        protected String _host;
+        protected String _identifier;
+        protected AttributedMessageListener _listener;
+
+    }
+
+    /*
+     * The listeners for one message type.  Listeners that take all messages of the
+     * type are called first, followed by those filtered by host, identifier, and
+     * both.  Within each group listeners are called in the order they subscribed.
+     */
+    protected static class DispatchTable {
+
+        public void deliver( Header header, DifxMessage difxMsg ) {
+            for ( int i = 0; i < _all.length; ++i )
+                _all[i].update( difxMsg );
+            if ( _byHost == null && _byIdentifier == null && _byBoth == null )
+                return;
+            String host = header.getFrom() == null ? null : header.getFrom().toLowerCase();
+            String identifier = header.getIdentifier() == null ? null : header.getIdentifier().toLowerCase();
+            if ( _byHost != null && host != null )
+                call( _byHost.get( host ), difxMsg );
+            if ( _byIdentifier != null && identifier != null )
+                call( _byIdentifier.get( identifier ), difxMsg );
+            if ( _byBoth != null && host != null && identifier != null )
+                call( _byBoth.get( host + '\n' + identifier ), difxMsg );
+        }
+
+        protected static void call( AttributedMessageListener[] listeners, DifxMessage difxMsg ) {
+            if ( listeners == null )
+                return;
+            for ( int i = 0; i < listeners.length; ++i )
+                listeners[i].update( difxMsg );
+        }
+
+        protected AttributedMessageListener[] _all;
+        protected HashMap<String, AttributedMessageListener[]> _byHost;
+        protected HashMap<String, AttributedMessageListener[]> _byIdentifier;
+        protected HashMap<String, AttributedMessageListener[]> _byBoth;
+
+    }
+
+    /*
+     * Used to collect the listeners for one message type while building its
+     * dispatch table.
+     */
+    protected static class TableBuilder {
+
+        public void add( Subscription sub ) {
+            if ( sub._host == null && sub._identifier == null )
+                _all.add( sub._listener );
+            else if ( sub._identifier == null )
+                addTo( _byHost, sub._host, sub._listener );
+            else if ( sub._host == null )
+                addTo( _byIdentifier, sub._identifier, sub._listener );
+            else
+                addTo( _byBoth, sub._host + '\n' + sub._identifier, sub._listener );
+        }
+
+        protected static void addTo( HashMap<String, ArrayList<AttributedMessageListener>> map, String key,
+                AttributedMessageListener listener ) {
+            ArrayList<AttributedMessageListener> list = map.get( key );
+            if ( list == null ) {
+                list = new ArrayList<AttributedMessageListener>();
+                map.put( key, list );
+            }
+            list.add( listener );
+        }
+
+        public DispatchTable build() {
+            DispatchTable table = new DispatchTable();
+            table._all = _all.toArray( new AttributedMessageListener[_all.size()] );
+            table._byHost = freeze( _byHost );
+            table._byIdentifier = freeze( _byIdentifier );
+            table._byBoth = freeze( _byBoth );
+            return table;
+        }
+
+        /*
+         * Convert a map of lists to a map of arrays.  Empty maps become null so
+         * delivery can skip them without computing keys.
+         */
+        protected static HashMap<String, AttributedMessageListener[]> freeze( HashMap<String, ArrayList<AttributedMessageListener>> map ) {
+            if ( map.isEmpty() )
+                return null;
+            HashMap<String, AttributedMessageListener[]> frozen = new HashMap<String, AttributedMessageListener[]>();
+            for ( Iterator<Map.Entry<String, ArrayList<AttributedMessageListener>>> iter = map.entrySet().iterator(); iter.hasNext(); ) {
+                Map.Entry<String, ArrayList<AttributedMessageListener>> entry = iter.next();
+                frozen.put( entry.getKey(), entry.getValue().toArray( new AttributedMessageListener[entry.getValue().size()] ) );
+            }
+            return frozen;
+        }
+
+        protected ArrayList<AttributedMessageListener> _all = new ArrayList<AttributedMessageListener>();
+        protected HashMap<String, ArrayList<AttributedMessageListener>> _byHost = new HashMap<String, ArrayList<AttributedMessageListener>>();
+        protected HashMap<String, ArrayList<AttributedMessageListener>> _byIdentifier = new HashMap<String, ArrayList<AttributedMessageListener>>();
+        protected HashMap<String, ArrayList<AttributedMessageListener>> _byBoth = new HashMap<String, ArrayList<AttributedMessageListener>>();
+
+    }
+
+    protected ArrayList<Subscription> _subscriptions;
+    protected ArrayList<String> _knownTypes;
+    protected HashMap<String, DispatchTable> _tables;
+    protected volatile HashMap<String, DispatchTable> _exactTables;
+
+}
@@ -23,19 +23,52 @@
  * fast as possible - the processing thread can take its time figuring out what
  * to do with them.
  * 
- * The slightly strange structure of the "run()" function allows multicast messages
- * to be optionally "relayed" from the guiServer (via TCP).  This permits us to collect
- * the DiFX multicast broadcast even when we are beyond the reach of the
- * messages themselves (guiServer inevitibly runs somewhere close to the DiFX message
- * sources and thus can receive them).
+ * Multicast messages can optionally be "relayed" from the guiServer (via TCP).
+ * This permits us to collect the DiFX multicast broadcast even when we are beyond
+ * the reach of the messages themselves (guiServer inevitibly runs somewhere close
+ * to the DiFX message sources and thus can receive them).
+ * 
+ * All multicast ports are watched from this one thread using a Selector.  Each
+ * port gets a non-blocking DatagramChannel that has joined all groups using that
+ * port.  The thread sleeps until one of these has data (or the settings change) - 
+ * there is no timeout.  Relayed packets don't pass through this thread at all -
+ * the guiServer connection hands them straight to the message processor queue as
+ * they are read (see relayed()).
+ * 
+ * The kernel receive buffer of each channel starts at a modest size and is grown
+ * to suit the traffic.  Each time the thread wakes it reads everything that has
+ * piled up, which is a direct measure of how much the buffer had to hold - if
+ * that (or the rate at which data arrive) shows the buffer is in danger of
+ * filling, a bigger one is asked for.  The size the kernel actually gives us is
+ * checked, as it may be limited (on Linux by net.core.rmem_max).  A backlog that
+ * comes close to filling the buffer is counted as a probable overflow.  Every
+ * message received (directly or relayed) is also checked for gaps in the
+ * sequence numbers of its sender (see PacketLossMonitor).
  */
 package edu.nrao.difx.difxcontroller;
 
 import edu.nrao.difx.difxview.SystemSettings;
-import java.net.*;
-import java.io.*;
+import edu.nrao.difx.difxutilities.GuiServerConnection;
+import edu.nrao.difx.difxutilities.RelayListener;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,15 +77,46 @@ import java.awt.event.ActionEvent;
 
 public class MulticastMonitor extends Thread {
 
-    private boolean _done = false;
-    private boolean _settingsChange = true;
+    private volatile boolean _done = false;
+    private volatile boolean _settingsChange = true;
     // -- always start the process message thread before this thread.
     private DiFXMessageProcessor _difxMessageProcessor;
     SystemSettings _settings;
+    protected PacketBufferPool _bufferPool;
+    protected volatile SessionJournal _sessionJournal;
+    
+    //  Number of receive buffers kept in the packet pool.  This should comfortably
+    //  exceed the number of messages that pile up in the processing queue during a
+    //  burst.
+    protected static final int PACKET_POOL_SIZE = 256;
+    
+    //  Kernel receive buffer size for each multicast channel - the initial request,
+    //  and the most that will be asked for.
+    protected static final int RECEIVE_BUFFER_SIZE = 512000;
+    protected static final int MAX_RECEIVE_BUFFER_SIZE = 16 * 1024 * 1024;
+    //  The buffer is kept this many times bigger than the largest backlog seen...
+    protected static final int BACKLOG_MARGIN = 4;
+    //  ...and big enough to hold everything that arrives in this long (in milliseconds)
+    //  at the highest rate seen, which is measured over short windows.
+    protected static final long STALL_ALLOWANCE = 500;
+    protected static final long RATE_WINDOW = 100;
+    //  A rough allowance for what the kernel uses to hold each datagram in addition
+    //  to its content - small messages take up much more room than their size.
+    protected static final int DATAGRAM_OVERHEAD = 1024;
+    //  A backlog this close to the buffer size has probably overflowed it.
+    protected static final double FULL_FRACTION = 0.9;
 
     // Constructor, give the thread a name and a link to the system settings.
     public MulticastMonitor( SystemSettings systemSettings ) {
         _settings = systemSettings;
+        _channels = new ArrayList<DatagramChannel>();
+        _lossMonitor = new PacketLossMonitor();
+        _relayLossMonitor = new PacketLossMonitor();
+        _relayListener = new RelayListener() {
+            public boolean relayed( ByteBuffer data ) {
+                return MulticastMonitor.this.relayed( data );
+            }
+        };
         //  Set up a callback for changes to broadcast items in the system settings.
         _settings.broadcastChangeListener( new ActionListener() {
 
@@ -65,132 +129,409 @@ public class MulticastMonitor extends Thread {
 
     protected void updateBroadcastSettings() {
         _settingsChange = true;
+        wakeup();
     }
 
     public void shutDown() {
         _done = true;
+        wakeup();
+    }
+    
+    protected void wakeup() {
+        Selector selector = _selector;
+        if ( selector != null )
+            selector.wakeup();
     }
 
     // Methods specific to the message queue
     public void difxMessageProcessor( DiFXMessageProcessor newProcessor ) {
         _difxMessageProcessor = newProcessor;
     }
+    
+    public PacketBufferPool bufferPool() { return _bufferPool; }
+    
+    /*
+     * Sequence checking of everything received.  Multicast and relayed messages
+     * arrive on different threads, so each has its own monitor.
+     */
+    public PacketLossMonitor lossMonitor() { return _lossMonitor; }
+    public PacketLossMonitor relayLossMonitor() { return _relayLossMonitor; }
+    public long lostCount() { return _lossMonitor.lostCount() + _relayLossMonitor.lostCount(); }
+    public long outOfOrderCount() { return _lossMonitor.outOfOrderCount() + _relayLossMonitor.outOfOrderCount(); }
+    public long lateCount() { return _lossMonitor.lateCount() + _relayLossMonitor.lateCount(); }
+    public int stalledCount() { return _lossMonitor.stalledCount() + _relayLossMonitor.stalledCount(); }
+    
+    /*
+     * The number of times a channel's kernel buffer was found (nearly) full, which
+     * probably means datagrams were dropped.
+     */
+    public long overflowCount() { return _overflowCount; }
+    
+    /*
+     * The largest receive buffer the kernel has given any channel, and whether any
+     * channel got less than was asked for.
+     */
+    public int receiveBufferSize() { return _receiveBufferSize; }
+    public boolean receiveBufferLimited() { return _receiveBufferLimited; }
+    
+    /*
+     * Record all received messages in a session journal (null to stop).  The
+     * journal is not closed here.
+     */
+    public void sessionJournal( SessionJournal newVal ) { _sessionJournal = newVal; }
+    public SessionJournal sessionJournal() { return _sessionJournal; }
 
     /*
-     * Loop forever collecting multicast packets either directly (using a UDP connection)
-     * or via "relay" from guiServer (TCP connection).  Which we do depends on user
-     * settings (and the presence of a connection to guiServer).  The structure here
-     * makes the relayed packet collection look like the UDP packet collection.  Switching
+     * Loop forever collecting multicast packets either directly (UDP multicast channels)
+     * and/or via "relay" from guiServer (TCP connection).  The primary group is read
+     * directly only when the relay is not in use (the relay carries the same traffic).
+     * Any additional groups in the settings are always read directly.  Switching
      * between the two methods (a single checkbox in the Settings window) will appear
      * seamless.  
-     * 
-     * Both methods timeout and both report back the number of bytes they receive (a
-     * timeout generates 0 bytes, not an error).
      */
     @Override
     public void run() {
-        
-//        try { Thread.sleep( 1000 ); } catch ( Exception e ) {}
 
         synchronized ( this ) {
 
-            try {
-                // start time stamp
-                String startDate = Calendar.getInstance().getTime().toString();
-
-                MulticastSocket socket = null;
-                
-                //  Loop forever, reading multicast packets.
-                while ( !_done ) {
-                    
-                    try {
-                        
-                        //  We can get packets from either UDP or TCP.  
-                        //  This is the TCP relay...
-                        if ( _settings.useTCPRelay() ) {
-                            try {
-                                byte [] buffer = _settings.guiServerConnection().getRelay( _settings.timeout() );
-                                if ( buffer != null ) {
-                                    //  Feedback for the plot in the settings window
-                                    _settings.gotPacket( buffer.length );
-                                    //  Add the packet to the processing queue.
-                                    if ( !_difxMessageProcessor.add( new ByteArrayInputStream( buffer, 0, buffer.length ) ) ) {
-                                        System.out.printf("******** Read message thread packet FAILED to add into queue. \n");
-                                    }
-                                    buffer = null;
-                                }
-                            } catch ( SocketTimeoutException e ) {
-                                _settings.gotPacket( 0 );
-                            }
-                        }
-                        
-                        //  UDP multicast receive (the "original" way)...
-                        else {
-
-                            //  Check for changes to the broadcast settings on each cycle.
-                            if ( _settingsChange || socket == null ) {
-                                socket = new MulticastSocket( _settings.port() );
-                                socket.setSoTimeout( _settings.timeout() );              // timeout 100ms
-                                socket.setReceiveBufferSize( 512000 );   // max buffer size 512k Bytes
-                                socket.joinGroup( InetAddress.getByName( _settings.ipAddress() ) );
-                                _settingsChange = false;
-                            }
-
-                            // create buffer and datagram packet
-                            byte[] buffer = new byte[_settings.bufferSize()];
-                            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-
-                            //  Do not process empty packets.
-                            if ( packet != null ) {
-                                try {
-                                    socket.receive(packet);
-                                    //  Feedback for the plot in the settings window.
-                                    _settings.gotPacket( packet.getLength() );
-                                    //  Add the packet to the processing queue.
-                                    if ( !_difxMessageProcessor.add( new ByteArrayInputStream( packet.getData(), 0, packet.getLength() ) ) ) {
-                                        System.out.printf("******** Read message thread packet FAILED to add into queue. \n");
-                                    }
-                                } catch ( SocketTimeoutException exception ) {
-                                    _settings.gotPacket( 0 );
-                                    // socket did not receive message within 100ms, clean up
-                                    buffer = null;
-                                    packet = null;
-                                    Thread.yield();  //  BLAT This should not be necessary
-                                }
-
-                            } else {
-                                System.out.println("******** Read message empty null packet - continue." );
-                            }
-
-                            // clean up  BLAT - recreating these each time is really strange...I guess the buffer
-                            //  size can change, but enough to justify this constant memory allocation??
-                            buffer = null;
-                            packet = null;
-                        
-                        }
-
-                        // catch an interrupt, stop thread
-                        if (Thread.currentThread().isInterrupted() == true) {
-                            System.out.println("******** Read message thread interrupted. \n" );
-                            _done = true;
-                        }
-                        
-                    } catch (OutOfMemoryError exception) {
-                        System.out.printf("******** Read message thread caught OutOfMemoryError(%s  %s) - done.\n",
-                                startDate, Calendar.getInstance().getTime().toString());
-                        _done = true;
-                        exception.printStackTrace();
-                    }
+            // start time stamp
+            String startDate = Calendar.getInstance().getTime().toString();
 
-                } // -- while (!mDone)
+            //  Received packets go into buffers leased from this pool.  The
+            //  processor returns each one once it has been decoded, so in the
+            //  steady state the loop below does not allocate anything.
+            _bufferPool = new PacketBufferPool( PACKET_POOL_SIZE, _settings.bufferSize() );
 
-                System.out.println( "******** Read message thread done." );
+            try {
+                _selector = Selector.open();
             } catch ( IOException ex ) {
                 Logger.getLogger(MulticastMonitor.class.getName()).log(Level.SEVERE, null, ex);
+                return;
             }
 
+            //  Loop forever, reading multicast packets.
+            while ( !_done ) {
+
+                try {
+
+                    //  Rebuild the channels if the broadcast settings (or the state of the
+                    //  guiServer connection) have changed.
+                    if ( _settingsChange ) {
+                        _settingsChange = false;
+                        configureChannels();
+                    }
+
+                    //  Sleep until something happens.
+                    _selector.select();
+
+                    //  Read everything available on each channel with data.
+                    Iterator<SelectionKey> iter = _selector.selectedKeys().iterator();
+                    while ( iter.hasNext() ) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        if ( key.isValid() && key.isReadable() )
+                            readChannel( key );
+                    }
+
+                    // catch an interrupt, stop thread
+                    if (Thread.currentThread().isInterrupted() == true) {
+                        System.out.println("******** Read message thread interrupted. \n" );
+                        _done = true;
+                    }
+
+                } catch ( IOException ex ) {
+                    Logger.getLogger(MulticastMonitor.class.getName()).log(Level.SEVERE, null, ex);
+                    //  Something is wrong with the channels - wait a moment and try
+                    //  building them again.
+                    _settingsChange = true;
+                    try { Thread.sleep( 1000 ); } catch ( Exception e ) {}
+                } catch (OutOfMemoryError exception) {
+                    System.out.printf("******** Read message thread caught OutOfMemoryError(%s  %s) - done.\n",
+                            startDate, Calendar.getInstance().getTime().toString());
+                    _done = true;
+                    exception.printStackTrace();
+                }
+
+            } // -- while (!mDone)
+
+            closeChannels();
+            if ( _relayConnection != null )
+                _relayConnection.relayListener( null );
+            try {
+                _selector.close();
+            } catch ( IOException e ) {}
+
+            System.out.println( "******** Read message thread done." );
+
         }
 
     }
+    
+    /*
+     * Read all available datagrams from a channel.  Each is copied out of the (direct)
+     * receive buffer into a pooled packet and queued for processing.  How much was
+     * waiting is used to decide whether the channel needs a bigger kernel buffer.
+     */
+    protected void readChannel( SelectionKey key ) throws IOException {
+        DatagramChannel channel = (DatagramChannel)key.channel();
+        int backlog = 0;
+        while ( true ) {
+            _receiveBuffer.clear();
+            SocketAddress source = channel.receive( _receiveBuffer );
+            if ( source == null )
+                break;
+            _receiveBuffer.flip();
+            backlog += _receiveBuffer.remaining() + DATAGRAM_OVERHEAD;
+            _lossMonitor.check( _receiveBuffer );
+            //  Feedback for the plot in the settings window.
+            _settings.gotPacket( _receiveBuffer.remaining() );
+            if ( _sessionJournal != null )
+                record( source.toString(), _receiveBuffer );
+            //  Add the packet to the processing queue.
+            PacketBufferPool.Packet packet = _bufferPool.lease();
+            packet.load( _receiveBuffer );
+            //  If the queue is full the packet is dropped (the processor counts these).
+            if ( !_difxMessageProcessor.add( packet ) )
+                packet.release();
+        }
+        ((ReceiveBuffer)key.attachment()).drained( channel, backlog );
+    }
+    
+    /*
+     * Keeps track of the kernel receive buffer of one channel and grows it when the
+     * traffic calls for it.  The buffer is never shrunk.
+     */
+    protected class ReceiveBuffer {
+        
+        public ReceiveBuffer( DatagramChannel channel, int port ) throws IOException {
+            _port = port;
+            request( channel, RECEIVE_BUFFER_SIZE );
+        }
+        
+        /*
+         * Account for a backlog (in bytes, including the overhead allowance) that
+         * has just been read.
+         */
+        public void drained( DatagramChannel channel, int backlog ) throws IOException {
+            if ( backlog >= (int)( FULL_FRACTION * (double)_granted ) )
+                ++_overflowCount;
+            _peakBacklog = Math.max( _peakBacklog, backlog );
+            long now = System.currentTimeMillis();
+            if ( now - _windowStart >= RATE_WINDOW ) {
+                _windowStart = now;
+                _windowBytes = 0;
+            }
+            _windowBytes += backlog;
+            _peakWindowBytes = Math.max( _peakWindowBytes, _windowBytes );
+            long wanted = Math.max( (long)_peakBacklog * BACKLOG_MARGIN, _peakWindowBytes * STALL_ALLOWANCE / RATE_WINDOW );
+            wanted = Math.min( wanted, MAX_RECEIVE_BUFFER_SIZE );
+            //  Only bother for a substantial increase.
+            if ( wanted > _requested + _requested / 4 )
+                request( channel, (int)wanted );
+        }
+        
+        protected void request( DatagramChannel channel, int size ) throws IOException {
+            _requested = size;
+            channel.setOption( StandardSocketOptions.SO_RCVBUF, size );
+            _granted = channel.getOption( StandardSocketOptions.SO_RCVBUF );
+            _receiveBufferSize = Math.max( _receiveBufferSize, _granted );
+            if ( _granted < _requested ) {
+                _receiveBufferLimited = true;
+                if ( !_warned ) {
+                    _warned = true;
+                    Logger.getLogger(MulticastMonitor.class.getName()).log(Level.WARNING,
+                            "receive buffer for multicast port " + _port + " limited to " + _granted 
+                            + " bytes (" + _requested + " requested) - messages may be lost in bursts.  "
+                            + "On Linux, raising net.core.rmem_max would fix this." );
+                }
+            }
+        }
+        
+        protected int _port;
+        protected int _requested;
+        protected int _granted;
+        protected int _peakBacklog;
+        protected long _peakWindowBytes;
+        protected long _windowStart;
+        protected long _windowBytes;
+        protected boolean _warned;
+        
+    }
+    
+    /*
+     * Add a message to the session journal, if one is being recorded.  If writing
+     * fails the recording is stopped.
+     */
+    protected void record( String source, ByteBuffer data ) {
+        SessionJournal journal = _sessionJournal;
+        if ( journal == null )
+            return;
+        try {
+            journal.record( source, data );
+        } catch ( IOException e ) {
+            java.util.logging.Logger.getLogger( "global" ).log( java.util.logging.Level.SEVERE,
+                    "recording to " + journal.file().getPath() + " stopped: " + e.getMessage() );
+            _sessionJournal = null;
+            journal.close();
+        }
+    }
+    
+    /*
+     * Accept a packet relayed by the guiServer.  This is called by the guiServer
+     * connection's I/O thread, and copies the packet (the remaining content of the
+     * buffer) directly into the processing queue.  False is returned if the queue
+     * is full (the connection counts these).
+     */
+    protected boolean relayed( ByteBuffer buffer ) {
+        //  Feedback for the plot in the settings window
+        _settings.gotPacket( buffer.remaining() );
+        _relayLossMonitor.check( buffer );
+        if ( _sessionJournal != null )
+            record( "guiServer", buffer );
+        PacketBufferPool.Packet packet = _bufferPool.lease();
+        packet.load( buffer );
+        if ( !_difxMessageProcessor.add( packet ) ) {
+            packet.release();
+            return false;
+        }
+        return true;
+    }
+    
+    /*
+     * Build the set of multicast channels and the relay connection based on current
+     * settings.  Groups are collected by port - a single channel is bound to each
+     * port and joins every group that uses it.
+     */
+    protected void configureChannels() {
+        closeChannels();
+        
+        //  The receive buffer size is the limit on the size of a message.
+        if ( _receiveBuffer == null || _receiveBuffer.capacity() != _settings.bufferSize() )
+            _receiveBuffer = ByteBuffer.allocateDirect( _settings.bufferSize() );
+        _bufferPool.bufferSize( _settings.bufferSize() );
+        _receiveBufferSize = 0;
+        _receiveBufferLimited = false;
+        
+        //  Attach to (or detach from) the guiServer relay.
+        GuiServerConnection relay = null;
+        if ( _settings.useTCPRelay() )
+            relay = _settings.guiServerConnection();
+        if ( _relayConnection != null && _relayConnection != relay )
+            _relayConnection.relayListener( null );
+        _relayConnection = relay;
+        //  Anything that was relayed while we weren't attached is waiting in the
+        //  connection's queue - the connection's I/O thread hands it to the listener
+        //  before anything new, so relayed() is only ever called by that thread.
+        if ( _relayConnection != null )
+            _relayConnection.relayListener( _relayListener );
+        
+        //  Sort out which groups need to be joined on which ports.
+        TreeMap<Integer,ArrayList<String>> portGroups = new TreeMap<Integer,ArrayList<String>>();
+        if ( _relayConnection == null )
+            addGroup( portGroups, _settings.ipAddress(), _settings.port() );
+        for ( Iterator<String> iter = _settings.additionalMulticastGroups().iterator(); iter.hasNext(); ) {
+            String spec = iter.next();
+            int colon = spec.lastIndexOf( ':' );
+            if ( colon > 0 ) {
+                try {
+                    addGroup( portGroups, spec.substring( 0, colon ), Integer.parseInt( spec.substring( colon + 1 ) ) );
+                } catch ( NumberFormatException e ) {
+                    Logger.getLogger(MulticastMonitor.class.getName()).log(Level.WARNING,
+                            "bad port in multicast group \"" + spec + "\"" );
+                }
+            }
+            else
+                addGroup( portGroups, spec, _settings.port() );
+        }
+        
+        for ( Iterator<Map.Entry<Integer,ArrayList<String>>> iter = portGroups.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<Integer,ArrayList<String>> entry = iter.next();
+            try {
+                DatagramChannel channel = DatagramChannel.open( StandardProtocolFamily.INET );
+                channel.setOption( StandardSocketOptions.SO_REUSEADDR, true );
+                ReceiveBuffer receiveBuffer = new ReceiveBuffer( channel, entry.getKey() );
+                channel.bind( new InetSocketAddress( entry.getKey() ) );
+                for ( Iterator<String> gIter = entry.getValue().iterator(); gIter.hasNext(); )
+                    joinGroup( channel, gIter.next() );
+                channel.configureBlocking( false );
+                channel.register( _selector, SelectionKey.OP_READ, receiveBuffer );
+                _channels.add( channel );
+            } catch ( IOException e ) {
+                Logger.getLogger(MulticastMonitor.class.getName()).log(Level.SEVERE,
+                        "unable to open multicast port " + entry.getKey() + ": " + e.toString() );
+            }
+        }
+    }
+    
+    protected void addGroup( TreeMap<Integer,ArrayList<String>> portGroups, String group, int port ) {
+        ArrayList<String> groups = portGroups.get( port );
+        if ( groups == null ) {
+            groups = new ArrayList<String>();
+            portGroups.put( port, groups );
+        }
+        if ( !groups.contains( group ) )
+            groups.add( group );
+    }
+    
+    /*
+     * Join a multicast group on every network interface that supports multicast
+     * (this mimics what MulticastSocket.joinGroup() does with the default interface,
+     * but doesn't depend on which interface the system thinks is the default).  The
+     * loopback interface is used only if nothing else is available.
+     */
+    protected void joinGroup( DatagramChannel channel, String group ) throws IOException {
+        InetAddress address = InetAddress.getByName( group );
+        boolean joined = false;
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while ( interfaces != null && interfaces.hasMoreElements() ) {
+            NetworkInterface ni = interfaces.nextElement();
+            try {
+                if ( !ni.isUp() || !ni.supportsMulticast() )
+                    continue;
+                if ( ni.isLoopback() ) {
+                    loopback = ni;
+                    continue;
+                }
+                channel.join( address, ni );
+                joined = true;
+            } catch ( IOException e ) {
+                //  Some interfaces refuse multicast membership even though they
+                //  claim to support it - these are simply skipped.
+            }
+        }
+        if ( !joined ) {
+            if ( loopback == null )
+                throw new IOException( "no multicast-capable network interface for group " + group );
+            channel.join( address, loopback );
+        }
+    }
+    
+    protected void closeChannels() {
+        for ( Iterator<DatagramChannel> iter = _channels.iterator(); iter.hasNext(); ) {
+            try {
+                iter.next().close();
+            } catch ( IOException e ) {}
+        }
+        _channels.clear();
+        //  Flush the cancelled keys so the closed sockets are really released before
+        //  any new channels are bound.
+        if ( _selector != null ) {
+            try {
+                _selector.selectNow();
+            } catch ( IOException e ) {}
+        }
+    }
+    
+    protected volatile Selector _selector;
+    protected ArrayList<DatagramChannel> _channels;
+    protected ByteBuffer _receiveBuffer;
+    protected GuiServerConnection _relayConnection;
+    protected RelayListener _relayListener;
+    protected PacketLossMonitor _lossMonitor;
+    protected PacketLossMonitor _relayLossMonitor;
+    protected volatile long _overflowCount;
+    protected volatile int _receiveBufferSize;
+    protected volatile boolean _receiveBufferLimited;
 
 }
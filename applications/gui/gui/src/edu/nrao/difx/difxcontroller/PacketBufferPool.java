@@ -0,0 +1,173 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A fixed pool of packet buffers used by the MulticastMonitor to receive DiFX
+ * messages without allocating anything in its steady-state loop.  Each buffer
+ * is "leased" to the receiver, filled from the network, and passed to the
+ * DiFXMessageProcessor as an ordinary ByteArrayInputStream (the Packet class
+ * below).  Once the processor has decoded the message it releases the packet,
+ * which puts it back in the pool for reuse.
+ *
+ * If the processor falls far enough behind that every buffer is in use, the pool
+ * will hand out temporary buffers rather than blocking the receiver (blocking
+ * would simply cause the kernel to drop datagrams).  These are counted so the
+ * condition can be reported, and they are discarded rather than returned to the
+ * pool when released.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+public class PacketBufferPool {
+
+    public PacketBufferPool( int poolSize, int bufferSize ) {
+        _poolSize = poolSize;
+        _bufferSize = bufferSize;
+        _free = new ArrayDeque<Packet>( poolSize );
+        for ( int i = 0; i < poolSize; ++i )
+            _free.addLast( new Packet( this, bufferSize ) );
+    }
+
+    /*
+     * Obtain a packet from the pool.  If the pool is empty a temporary packet
+     * (one that is not returned to the pool) is created.
+     */
+    public Packet lease() {
+        Packet packet = null;
+        synchronized ( _free ) {
+            packet = _free.pollFirst();
+        }
+        if ( packet == null ) {
+            ++_overflowCount;
+            packet = new Packet( null, _bufferSize );
+        }
+        else if ( packet._data.length != _bufferSize )
+            packet.allocate( _bufferSize );
+        packet._leased = true;
+        return packet;
+    }
+
+    /*
+     * Return a packet to the pool.  This is normally called through the packet's
+     * own "release()" function.
+     */
+    protected void release( Packet packet ) {
+        synchronized ( _free ) {
+            _free.addLast( packet );
+        }
+    }
+
+    /*
+     * Change the size of the buffers.  Buffers currently leased keep their old
+     * size until they are next leased.
+     */
+    public void bufferSize( int newVal ) { _bufferSize = newVal; }
+    public int bufferSize() { return _bufferSize; }
+
+    public int poolSize() { return _poolSize; }
+    public int available() {
+        synchronized ( _free ) {
+            return _free.size();
+        }
+    }
+    public long overflowCount() { return _overflowCount; }
+
+    /*
+     * A packet of received message data.  This looks like a ByteArrayInputStream
+     * to anything that reads it, but the underlying buffer is owned by the pool
+     * and reused.
+     */
+    public static class Packet extends ByteArrayInputStream {
+
+        protected Packet( PacketBufferPool pool, int bufferSize ) {
+            super( new byte[0] );
+            _pool = pool;
+            allocate( bufferSize );
+        }
+
+        protected void allocate( int bufferSize ) {
+            _data = new byte[bufferSize];
+            buf = _data;
+            pos = 0;
+            count = 0;
+            mark = 0;
+        }
+
+        /*
+         * Copy data from an existing array into the buffer.  The buffer is grown
+         * if the data don't fit (this can happen with relayed data, which is not
+         * limited by the datagram buffer size).
+         */
+        public void load( byte[] data, int offset, int length ) {
+            if ( length > _data.length )
+                allocate( length );
+            System.arraycopy( data, offset, _data, 0, length );
+            fill( length );
+        }
+
+        /*
+         * Copy the remaining contents of a ByteBuffer into the buffer.
+         */
+        public void load( ByteBuffer data ) {
+            int length = data.remaining();
+            if ( length > _data.length )
+                allocate( length );
+            data.get( _data, 0, length );
+            fill( length );
+        }
+
+        protected void fill( int length ) {
+            buf = _data;
+            pos = 0;
+            count = length;
+            mark = 0;
+        }
+
+        public int length() { return count; }
+        public byte[] data() { return _data; }
+
+        /*
+         * Return this packet to the pool it came from.  Temporary packets (created
+         * when the pool was empty) are simply dropped.  Releasing a packet twice
+         * has no effect.
+         */
+        public void release() {
+            if ( !_leased )
+                return;
+            _leased = false;
+            count = 0;
+            pos = 0;
+            if ( _pool != null )
+                _pool.release( this );
+        }
+
+        protected PacketBufferPool _pool;
+        protected byte[] _data;
+        protected boolean _leased;
+
+    }
+
+    protected ArrayDeque<Packet> _free;
+    protected int _poolSize;
+    protected int _bufferSize;
+    protected long _overflowCount;
+
+}
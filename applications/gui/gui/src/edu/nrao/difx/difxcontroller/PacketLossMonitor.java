@@ -0,0 +1,305 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Watches the sequence numbers of incoming DiFX messages to spot ones that never
+ * arrived.  Every process that sends DiFX messages numbers them (the "seqNumber"
+ * in the body), so a jump in the numbers from one sender means messages were
+ * lost somewhere between it and us.  This is the same test the "testseqnumbers"
+ * utility in difxmessage makes - senders are identified by their "from" host and
+ * "identifier".
+ *
+ * A number a little below the last one from a sender is counted as a duplicate or
+ * out-of-order message.  Anything else that doesn't make sense (a number of zero,
+ * one well below the last, or an enormous jump) is taken to be the sender
+ * restarting and is not counted as loss.
+ *
+ * Sequence numbers only show loss once the sender's next message gets through, so
+ * the time between messages from each sender is watched as well.  A running
+ * average of the interval is kept for every sender.  A message that follows the
+ * one before it by several times that interval is counted as late, and a sender
+ * that has been silent for several times its interval is counted as stalled.  These
+ * are only hints - plenty of senders are quiet for good reasons - but a burst of
+ * them alongside loss points at the network or the receiving host rather than at
+ * one sender.
+ *
+ * Only the raw message bytes are looked at (the fields are found by searching for
+ * their tags), and senders are kept in a table of their own by a hash of the
+ * "from" and "identifier" bytes, so checking a message allocates nothing and
+ * takes no locks.  That makes it cheap enough to run on every packet as it is
+ * received, but it means a monitor must only be fed by one thread (use one for each
+ * receiving thread).  The counts can be read from any thread.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class PacketLossMonitor {
+
+    public PacketLossMonitor() {
+        _senders = new long[TABLE_SIZE];
+        _seqs = new int[TABLE_SIZE];
+        _lastArrival = new long[TABLE_SIZE];
+        _interval = new long[TABLE_SIZE];
+    }
+
+    /*
+     * Check the message in a buffer (its remaining content).  The buffer position
+     * is not changed.
+     */
+    public void check( ByteBuffer data ) {
+        int start = data.position();
+        int end = data.limit();
+        int fromStart = find( data, FROM_TAG, start, end );
+        if ( fromStart < 0 )
+            return;
+        //  (the end of a value is the start of the closing tag)
+        int fromEnd = find( data, END_TAG, fromStart, end ) - END_TAG.length;
+        if ( fromEnd < 0 )
+            return;
+        int idStart = find( data, IDENTIFIER_TAG, fromEnd, end );
+        if ( idStart < 0 )
+            return;
+        int idEnd = find( data, END_TAG, idStart, end ) - END_TAG.length;
+        if ( idEnd < 0 )
+            return;
+        int seqStart = find( data, SEQUENCE_TAG, idEnd, end );
+        if ( seqStart < 0 )
+            return;
+        int seq = 0;
+        boolean digits = false;
+        for ( int i = seqStart; i < end; ++i ) {
+            byte b = data.get( i );
+            if ( b < '0' || b > '9' )
+                break;
+            seq = seq * 10 + ( b - '0' );
+            digits = true;
+        }
+        if ( !digits )
+            return;
+        //  64 bit FNV-1a hash of the "from", a separator, and the "identifier".
+        long hash = FNV_OFFSET;
+        for ( int i = fromStart; i < fromEnd; ++i )
+            hash = ( hash ^ ( data.get( i ) & 0xff ) ) * FNV_PRIME;
+        hash = ( hash ^ '\n' ) * FNV_PRIME;
+        for ( int i = idStart; i < idEnd; ++i )
+            hash = ( hash ^ ( data.get( i ) & 0xff ) ) * FNV_PRIME;
+        sequence( hash, seq );
+    }
+
+    /*
+     * Account for a sequence number from a sender, identified by a hash of its
+     * "from" and "identifier".  With 64 bits, two senders with the same hash are
+     * not worth worrying about.
+     */
+    public void sequence( long sender, int seq ) {
+        sequence( sender, seq, System.nanoTime() );
+    }
+
+    /*
+     * Same as above, with the arrival time (from System.nanoTime()) given.
+     */
+    public void sequence( long sender, int seq, long now ) {
+        ++_checkedCount;
+        //  Zero marks an empty slot in the table.
+        if ( sender == 0 )
+            sender = 1;
+        int slot = slot( sender );
+        if ( _senders[slot] == 0 ) {
+            //  A new sender.  If there are somehow a huge number of them, forget
+            //  them all and start again.
+            if ( _senderCount >= MAX_SENDERS ) {
+                Arrays.fill( _senders, 0 );
+                _senderCount = 0;
+                slot = slot( sender );
+            }
+            _senders[slot] = sender;
+            _seqs[slot] = seq;
+            _lastArrival[slot] = now;
+            _interval[slot] = 0;
+            ++_senderCount;
+            return;
+        }
+        arrival( slot, now );
+        int gap = seq - _seqs[slot];
+        if ( gap == 1 ) {
+            _seqs[slot] = seq;
+        }
+        else if ( gap > 1 && gap <= MAX_GAP && seq > 0 ) {
+            _lostCount += gap - 1;
+            ++_gapCount;
+            _seqs[slot] = seq;
+        }
+        else if ( gap <= 0 && gap > -REORDER_WINDOW && seq > 0 ) {
+            //  Old news - leave the last number where it is.
+            ++_outOfOrderCount;
+        }
+        else {
+            ++_restartCount;
+            _seqs[slot] = seq;
+            //  The sender may well have changed what it is doing.
+            _interval[slot] = 0;
+        }
+    }
+
+    /*
+     * Keep the running average of the time between messages from the sender in a
+     * slot, counting the message as late if it is well behind the average.  A late
+     * message only moves the average a limited amount so one long pause doesn't
+     * spoil it.
+     */
+    protected void arrival( int slot, long now ) {
+        long elapsed = now - _lastArrival[slot];
+        _lastArrival[slot] = now;
+        if ( elapsed < 0 )
+            return;
+        long interval = _interval[slot];
+        if ( interval == 0 ) {
+            _interval[slot] = Math.max( elapsed, 1 );
+            return;
+        }
+        long limit = Math.max( LATE_FACTOR * interval, MIN_LATE );
+        if ( elapsed > limit ) {
+            ++_lateCount;
+            elapsed = limit;
+        }
+        _interval[slot] = Math.max( interval + ( elapsed - interval ) / INTERVAL_WEIGHT, 1 );
+    }
+
+    /*
+     * The number of senders that have been silent for several times their usual
+     * interval, as of "now" (from System.nanoTime()).  Senders that have been
+     * silent a very long time are assumed to be finished and are not counted.
+     * This can be called from any thread, but the answer is only approximate as
+     * the table may be changing underneath it.
+     */
+    public int stalledCount( long now ) {
+        int count = 0;
+        for ( int slot = 0; slot < TABLE_SIZE; ++slot ) {
+            if ( _senders[slot] == 0 )
+                continue;
+            long interval = _interval[slot];
+            if ( interval == 0 )
+                continue;
+            long silent = now - _lastArrival[slot];
+            if ( silent > Math.max( STALL_FACTOR * interval, MIN_LATE ) && silent < FINISHED )
+                ++count;
+        }
+        return count;
+    }
+    public int stalledCount() { return stalledCount( System.nanoTime() ); }
+
+    /*
+     * Find the slot in the table holding a sender, or the empty slot where it
+     * belongs.  The table is never more than half full, so there is always one.
+     */
+    protected int slot( long sender ) {
+        int slot = (int)( sender ^ ( sender >>> 32 ) ) & ( TABLE_SIZE - 1 );
+        while ( _senders[slot] != 0 && _senders[slot] != sender )
+            slot = ( slot + 1 ) & ( TABLE_SIZE - 1 );
+        return slot;
+    }
+
+    /*
+     * Find a tag in the buffer, returning the index of the first byte after it or
+     * -1 if it isn't there.
+     */
+    protected static int find( ByteBuffer data, byte[] tag, int start, int end ) {
+        int last = end - tag.length;
+        byte first = tag[0];
+        for ( int i = start; i <= last; ++i ) {
+            if ( data.get( i ) != first )
+                continue;
+            int j = 1;
+            while ( j < tag.length && data.get( i + j ) == tag[j] )
+                ++j;
+            if ( j == tag.length )
+                return i + tag.length;
+        }
+        return -1;
+    }
+
+    /*
+     * Forget all senders and counts.  Like check(), this must be called by the
+     * thread feeding the monitor.
+     */
+    public void clear() {
+        Arrays.fill( _senders, 0 );
+        _senderCount = 0;
+        _checkedCount = 0;
+        _lostCount = 0;
+        _gapCount = 0;
+        _outOfOrderCount = 0;
+        _restartCount = 0;
+        _lateCount = 0;
+    }
+
+    //  Messages checked, messages missing, the number of jumps they were missing in,
+    //  duplicate or out-of-order messages, apparent sender restarts, and messages
+    //  that were late by the sender's usual interval.
+    public long checkedCount() { return _checkedCount; }
+    public long lostCount() { return _lostCount; }
+    public long gapCount() { return _gapCount; }
+    public long outOfOrderCount() { return _outOfOrderCount; }
+    public long restartCount() { return _restartCount; }
+    public long lateCount() { return _lateCount; }
+    public int senderCount() { return _senderCount; }
+
+    //  Open addressed table of senders (by hash) and the last sequence number from
+    //  each.
+    protected long _senders[];
+    protected int _seqs[];
+    //  When the last message from each sender arrived, and the running average of
+    //  the time between them (zero until there is one), in nanoseconds.
+    protected long _lastArrival[];
+    protected long _interval[];
+    //  Only the feeding thread changes these, but anyone can read them.
+    protected volatile int _senderCount;
+    protected volatile long _checkedCount;
+    protected volatile long _lostCount;
+    protected volatile long _gapCount;
+    protected volatile long _outOfOrderCount;
+    protected volatile long _restartCount;
+    protected volatile long _lateCount;
+
+    protected static final byte[] FROM_TAG = "<from>".getBytes();
+    protected static final byte[] IDENTIFIER_TAG = "<identifier>".getBytes();
+    protected static final byte[] SEQUENCE_TAG = "<seqNumber>".getBytes();
+    protected static final byte[] END_TAG = "</".getBytes();
+    protected static final int MAX_SENDERS = 1024;
+    //  Twice the number of senders (and a power of two).
+    protected static final int TABLE_SIZE = 2048;
+    protected static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    protected static final long FNV_PRIME = 0x100000001b3L;
+    //  A jump bigger than this is assumed to be a restart, not loss.
+    protected static final int MAX_GAP = 10000;
+    //  How far back a number can be and still count as a late arrival.
+    protected static final int REORDER_WINDOW = 64;
+    //  A message is late if it comes this many times the sender's average interval
+    //  after the last one, and a sender is stalled if it is silent for this many
+    //  intervals (neither counts for less than MIN_LATE).  Senders silent longer than
+    //  FINISHED have presumably stopped.
+    protected static final long LATE_FACTOR = 4;
+    protected static final long STALL_FACTOR = 4;
+    protected static final long MIN_LATE = 1000000000L;
+    protected static final long FINISHED = 300000000000L;
+    //  Weight of the average interval against each new one.
+    protected static final long INTERVAL_WEIGHT = 8;
+
+}
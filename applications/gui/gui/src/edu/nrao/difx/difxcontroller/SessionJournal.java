@@ -0,0 +1,168 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A binary, append-only record of the DiFX message traffic seen by the
+ * MulticastMonitor.  It can be played back into the DiFXMessageProcessor with
+ * the SessionReplayer, which makes it possible to repeat a night's worth of
+ * traffic without a network (or DiFX).
+ *
+ * The file is written through a memory mapping that is extended a chunk at a
+ * time, so recording a message is just a copy into memory.  The format is:
+ *
+ *     file header:  8 bytes   "DIFXSESS"
+ *                   int       format version
+ *                   int       (unused)
+ *     each message: long      time received (microseconds since 1970)
+ *                   short     length of the source string
+ *                   bytes     source (UTF-8) - where the message came from
+ *                   int       length of the message
+ *                   bytes     message
+ *
+ * All numbers are big-endian.  The file is trimmed to the data actually written
+ * when it is closed - if that never happens (a crash) the file will end with
+ * zeros, and a zero time is taken to mean the end of the journal.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public class SessionJournal {
+
+    public SessionJournal( File file ) throws IOException {
+        _file = file;
+        _raf = new RandomAccessFile( file, "rw" );
+        _raf.setLength( 0 );
+        _channel = _raf.getChannel();
+        _mapPosition = 0;
+        _map = _channel.map( FileChannel.MapMode.READ_WRITE, 0, MAP_CHUNK );
+        _map.put( MAGIC );
+        _map.putInt( VERSION );
+        _map.putInt( 0 );
+        //  Times are recorded to the microsecond.  The system clock gives us the
+        //  date, the nanosecond timer the resolution.
+        _startMicros = System.currentTimeMillis() * 1000;
+        _startNanos = System.nanoTime();
+    }
+
+    /*
+     * Add a message to the journal.  The message is the remaining content of the
+     * buffer (which is not changed).
+     */
+    synchronized public void record( String source, ByteBuffer data ) throws IOException {
+        if ( _map == null )
+            return;
+        byte[] sourceBytes = sourceBytes( source );
+        int length = data.remaining();
+        ensureSpace( RECORD_OVERHEAD + sourceBytes.length + length );
+        _map.putLong( now() );
+        _map.putShort( (short)sourceBytes.length );
+        _map.put( sourceBytes );
+        _map.putInt( length );
+        _map.put( data.duplicate() );
+        ++_messageCount;
+    }
+
+    synchronized public void record( String source, byte[] data, int offset, int length ) throws IOException {
+        record( source, ByteBuffer.wrap( data, offset, length ) );
+    }
+
+    /*
+     * Finish the journal - the file is trimmed to the data written and closed.
+     */
+    synchronized public void close() {
+        if ( _map == null )
+            return;
+        long size = _mapPosition + _map.position();
+        _map.force();
+        _map = null;
+        try {
+            _channel.truncate( size );
+        } catch ( IOException e ) {
+            //  Some systems won't truncate a file that is mapped.  The zeros at the
+            //  end are harmless.
+            java.util.logging.Logger.getLogger( "global" ).log( java.util.logging.Level.INFO,
+                    "session journal " + _file.getPath() + " could not be trimmed: " + e.getMessage() );
+        }
+        try {
+            _channel.close();
+            _raf.close();
+        } catch ( IOException e ) {
+            java.util.logging.Logger.getLogger( "global" ).log( java.util.logging.Level.WARNING, null, e );
+        }
+    }
+
+    synchronized public long messageCount() { return _messageCount; }
+    synchronized public long bytesWritten() {
+        if ( _map == null )
+            return 0;
+        return _mapPosition + _map.position();
+    }
+    public File file() { return _file; }
+
+    /*
+     * Make sure there is room in the mapped region for the given number of bytes,
+     * mapping a new region starting at the current position if there isn't.  The
+     * old region isn't forced - this runs on the receive thread, the pages are
+     * written back by the operating system anyway, and close() forces the last.
+     */
+    protected void ensureSpace( int size ) throws IOException {
+        if ( _map.remaining() >= size )
+            return;
+        _mapPosition += _map.position();
+        _map = _channel.map( FileChannel.MapMode.READ_WRITE, _mapPosition, Math.max( MAP_CHUNK, size ) );
+    }
+
+    protected long now() {
+        return _startMicros + ( System.nanoTime() - _startNanos ) / 1000;
+    }
+
+    protected static byte[] sourceBytes( String source ) {
+        if ( source == null )
+            return new byte[0];
+        byte[] bytes = source.getBytes( StandardCharsets.UTF_8 );
+        if ( bytes.length > Short.MAX_VALUE ) {
+            byte[] trimmed = new byte[Short.MAX_VALUE];
+            System.arraycopy( bytes, 0, trimmed, 0, trimmed.length );
+            return trimmed;
+        }
+        return bytes;
+    }
+
+    public static final byte[] MAGIC = { 'D', 'I', 'F', 'X', 'S', 'E', 'S', 'S' };
+    public static final int VERSION = 1;
+    public static final int FILE_HEADER_SIZE = 16;
+    public static final int RECORD_OVERHEAD = 8 + 2 + 4;
+    protected static final int MAP_CHUNK = 16 * 1024 * 1024;
+
+    protected File _file;
+    protected RandomAccessFile _raf;
+    protected FileChannel _channel;
+    protected MappedByteBuffer _map;
+    protected long _mapPosition;
+    protected long _startMicros;
+    protected long _startNanos;
+    protected long _messageCount;
+
+}
@@ -0,0 +1,202 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Play a session recorded by a SessionJournal back into the DiFXMessageProcessor,
+ * exactly as if the messages were arriving from the MulticastMonitor.  Messages
+ * can be replayed with their original timing, sped up by some factor, or as fast
+ * as the processor will take them (a speed of zero).  Timed replays drop
+ * messages if the processor's queue is full, just as the network would, while
+ * an "as fast as possible" replay waits for room so every message is processed.
+ *
+ * When the replay is finished (or stopped) a summary of the throughput is
+ * logged, and any action listeners are called.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.event.EventListenerList;
+
+public class SessionReplayer extends Thread {
+
+    public SessionReplayer( File file, DiFXMessageProcessor processor, double speed ) {
+        super( "DiFX session replay" );
+        _file = file;
+        _processor = processor;
+        _speed = speed;
+        _bufferPool = new PacketBufferPool( PACKET_POOL_SIZE, 1500 );
+        _endListeners = new EventListenerList();
+    }
+
+    /*
+     * Stop the replay (it will finish in its own time).
+     */
+    public void stopReplay() {
+        _done = true;
+        this.interrupt();
+    }
+
+    public void addEndListener( ActionListener a ) {
+        _endListeners.add( ActionListener.class, a );
+    }
+
+    public long messageCount() { return _messageCount; }
+    public long droppedCount() { return _droppedCount; }
+    public long byteCount() { return _byteCount; }
+
+    @Override
+    public void run() {
+        long startNanos = System.nanoTime();
+        String error = null;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile( _file, "r" );
+            _channel = raf.getChannel();
+            _fileSize = _channel.size();
+            map( 0 );
+            byte[] magic = new byte[SessionJournal.MAGIC.length];
+            if ( _map.remaining() < SessionJournal.FILE_HEADER_SIZE )
+                throw new IOException( "file is too short" );
+            _map.get( magic );
+            if ( !Arrays.equals( magic, SessionJournal.MAGIC ) )
+                throw new IOException( "not a DiFX session journal" );
+            int version = _map.getInt();
+            if ( version != SessionJournal.VERSION )
+                throw new IOException( "unsupported journal version " + version );
+            _map.getInt();
+            long firstTime = -1;
+            byte[] data = new byte[0];
+            while ( !_done ) {
+                //  Read the next record, mapping a new region of the file if it isn't
+                //  all in the current one.
+                long recordStart = _mapPosition + _map.position();
+                if ( _map.remaining() < SessionJournal.RECORD_OVERHEAD ) {
+                    if ( _fileSize - recordStart < SessionJournal.RECORD_OVERHEAD )
+                        break;
+                    map( recordStart );
+                }
+                long time = _map.getLong();
+                if ( time == 0 )
+                    break;
+                int sourceLength = _map.getShort();
+                if ( _map.remaining() < sourceLength + 4 ) {
+                    map( recordStart );
+                    if ( _map.remaining() < SessionJournal.RECORD_OVERHEAD + sourceLength )
+                        break;
+                    _map.position( 10 );
+                }
+                _map.position( _map.position() + sourceLength );
+                int length = _map.getInt();
+                if ( length < 0 )
+                    break;
+                if ( _map.remaining() < length ) {
+                    int offset = SessionJournal.RECORD_OVERHEAD + sourceLength;
+                    map( recordStart );
+                    if ( _map.remaining() < offset + length )
+                        break;
+                    _map.position( offset );
+                }
+                if ( data.length < length )
+                    data = new byte[length];
+                _map.get( data, 0, length );
+                //  Wait until it is time for this message.
+                if ( firstTime < 0 )
+                    firstTime = time;
+                if ( _speed > 0.0 ) {
+                    long due = startNanos + (long)( (double)( time - firstTime ) * 1000.0 / _speed );
+                    long wait = due - System.nanoTime();
+                    if ( wait > 0 )
+                        Thread.sleep( wait / 1000000, (int)( wait % 1000000 ) );
+                }
+                PacketBufferPool.Packet packet = _bufferPool.lease();
+                packet.load( data, 0, length );
+                if ( _speed > 0.0 ) {
+                    //  Timed replay behaves like the network - if the processor
+                    //  can't keep up, messages are lost.
+                    if ( !_processor.add( packet ) ) {
+                        packet.release();
+                        ++_droppedCount;
+                    }
+                }
+                else
+                    _processor.put( packet );
+                ++_messageCount;
+                _byteCount += length;
+            }
+        } catch ( InterruptedException e ) {
+            //  Stopped.
+        } catch ( IOException e ) {
+            error = e.getMessage();
+        } finally {
+            _map = null;
+            if ( raf != null ) {
+                try {
+                    raf.close();
+                } catch ( IOException e ) {}
+            }
+        }
+        double seconds = (double)( System.nanoTime() - startNanos ) / 1.0e9;
+        if ( error != null )
+            java.util.logging.Logger.getLogger( "global" ).log( java.util.logging.Level.WARNING,
+                    "replay of " + _file.getPath() + " failed: " + error );
+        java.util.logging.Logger.getLogger( "global" ).log( java.util.logging.Level.INFO,
+                String.format( "replayed %d messages (%d bytes) from %s in %.2f seconds (%.0f messages/second), %d dropped",
+                _messageCount, _byteCount, _file.getName(), seconds,
+                seconds > 0.0 ? (double)_messageCount / seconds : 0.0, _droppedCount ) );
+        Object[] listeners = _endListeners.getListenerList();
+        for ( int i = 0; i < listeners.length; i += 2 ) {
+            if ( listeners[i] == ActionListener.class )
+                ((ActionListener)listeners[i+1]).actionPerformed( new ActionEvent( this, ActionEvent.ACTION_PERFORMED, "" ) );
+        }
+    }
+
+    /*
+     * Map a region of the file starting at the given position.
+     */
+    protected void map( long position ) throws IOException {
+        _mapPosition = position;
+        _map = _channel.map( FileChannel.MapMode.READ_ONLY, position,
+                Math.min( MAP_CHUNK, _fileSize - position ) );
+    }
+
+    protected static final int PACKET_POOL_SIZE = 256;
+    protected static final long MAP_CHUNK = 64L * 1024L * 1024L;
+
+    protected File _file;
+    protected DiFXMessageProcessor _processor;
+    protected double _speed;
+    protected PacketBufferPool _bufferPool;
+    protected FileChannel _channel;
+    protected long _fileSize;
+    protected MappedByteBuffer _map;
+    protected long _mapPosition;
+    protected volatile boolean _done;
+    protected volatile long _messageCount;
+    protected volatile long _droppedCount;
+    protected volatile long _byteCount;
+    protected EventListenerList _endListeners;
+
+}
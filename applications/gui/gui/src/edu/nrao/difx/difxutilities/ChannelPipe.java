@@ -0,0 +1,256 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * The incoming side of a "channelled" TCP connection - a port whose data arrive
+ * in CHANNEL_DATA packets over the main guiServer connection (see
+ * ChannelServerSocket).  The data from each packet are appended to a circular
+ * buffer, and reads take bytes from it as if it were a continuous stream - a read
+ * can span any number of packets.  Readers block until enough data have arrived
+ * (they are woken as soon as they have), or until the pipe is closed.
+ *
+ * Each port has its own pipe with its own lock, so traffic on one port does not
+ * hold up any other.  The circular buffer grows if the reader falls behind, up
+ * to a "capacity", but otherwise adding and reading data allocates nothing.  When
+ * the pipe is full the writer (the guiServer connection) waits for the reader to
+ * make room - which holds up the whole connection, so if the reader doesn't keep
+ * up within a few seconds the pipe is failed instead.
+ *
+ * If data for the port may have been lost the pipe is "failed" - readers get an
+ * IOException saying why instead of a stream with a piece missing.
+ */
+package edu.nrao.difx.difxutilities;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+public class ChannelPipe {
+    
+    public ChannelPipe( int port ) {
+        _port = port;
+        _capacity = DEFAULT_CAPACITY;
+        _ring = new byte[INITIAL_SIZE];
+        _scratch = new byte[8];
+    }
+    
+    public int port() { return _port; }
+    
+    /*
+     * Called when the guiServer connects to this port.
+     */
+    synchronized public void connect() {
+        _connected = true;
+        notifyAll();
+    }
+    synchronized public boolean connected() { return _connected; }
+    
+    /*
+     * Wait for the guiServer to connect, up to the given number of milliseconds.
+     * A SocketTimeoutException is thrown if it doesn't.  With a timeout of zero
+     * this doesn't wait at all - use WAIT_FOREVER to wait as long as it takes.
+     */
+    synchronized public void awaitConnect( int timeout ) throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while ( !_connected ) {
+            if ( _closed )
+                throw closedException();
+            long wait = 0;
+            if ( timeout != WAIT_FOREVER ) {
+                wait = deadline - System.currentTimeMillis();
+                if ( wait <= 0 )
+                    throw new SocketTimeoutException();
+            }
+            waitForChange( wait );
+        }
+    }
+    
+    /*
+     * The most data the pipe holds before the writer has to wait.  A single packet
+     * bigger than this is still taken, once the pipe is empty.
+     */
+    synchronized public void capacity( int newVal ) { _capacity = newVal; }
+    synchronized public int capacity() { return _capacity; }
+    
+    /*
+     * Add the remaining content of a buffer (the data from one CHANNEL_DATA packet)
+     * to the end of the stream.  The data are copied.  If the pipe is full this
+     * waits for the reader to make room - if it doesn't within FULL_WAIT
+     * milliseconds the pipe is failed and the data are dropped.
+     */
+    synchronized public void add( ByteBuffer data ) {
+        if ( _closed || !data.hasRemaining() )
+            return;
+        int length = data.remaining();
+        if ( _available > 0 && _available + length > _capacity ) {
+            long deadline = System.currentTimeMillis() + FULL_WAIT;
+            ++_writersWaiting;
+            try {
+                while ( !_closed && _available > 0 && _available + length > _capacity ) {
+                    long wait = deadline - System.currentTimeMillis();
+                    if ( wait <= 0 ) {
+                        fail( "reader did not keep up (" + _available + " bytes waiting)" );
+                        break;
+                    }
+                    try {
+                        wait( wait );
+                    } catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        fail( "interrupted while waiting for the reader" );
+                    }
+                }
+            } finally {
+                --_writersWaiting;
+            }
+            if ( _closed )
+                return;
+        }
+        if ( _available + length > _ring.length )
+            grow( _available + length );
+        //  The free space may wrap around the end of the ring.
+        int tail = ( _head + _available ) % _ring.length;
+        int n = Math.min( length, _ring.length - tail );
+        data.get( _ring, tail, n );
+        if ( n < length )
+            data.get( _ring, 0, length - n );
+        _available += length;
+        notifyAll();
+    }
+    
+    /*
+     * Enlarge the ring to hold at least the given number of bytes, unwrapping the
+     * current contents to the start.
+     */
+    protected void grow( int needed ) {
+        int size = _ring.length;
+        while ( size < needed )
+            size *= 2;
+        //  Don't double past the capacity unless this one packet needs it.
+        size = Math.max( needed, Math.min( size, _capacity ) );
+        byte[] ring = new byte[size];
+        int n = Math.min( _available, _ring.length - _head );
+        System.arraycopy( _ring, _head, ring, 0, n );
+        System.arraycopy( _ring, 0, ring, n, _available - n );
+        _ring = ring;
+        _head = 0;
+    }
+    
+    /*
+     * Number of bytes that can be read without waiting.
+     */
+    synchronized public int available() { return _available; }
+    
+    /*
+     * Read exactly "len" bytes, waiting for them if necessary.  An EOFException is
+     * thrown if the pipe is closed before they all arrive.
+     */
+    synchronized public void readFully( byte[] bytes, int off, int len ) throws IOException {
+        while ( len > 0 ) {
+            while ( _available == 0 ) {
+                if ( _closed )
+                    throw closedException();
+                waitForChange( 0 );
+            }
+            int n = Math.min( len, Math.min( _available, _ring.length - _head ) );
+            System.arraycopy( _ring, _head, bytes, off, n );
+            _head = ( _head + n ) % _ring.length;
+            _available -= n;
+            off += n;
+            len -= n;
+            if ( _writersWaiting > 0 )
+                notifyAll();
+        }
+    }
+    
+    /*
+     * Numbers are in network byte order.
+     */
+    synchronized public int readInt() throws IOException {
+        readFully( _scratch, 0, 4 );
+        return ( ( _scratch[0] & 0xff ) << 24 ) | ( ( _scratch[1] & 0xff ) << 16 )
+                | ( ( _scratch[2] & 0xff ) << 8 ) | ( _scratch[3] & 0xff );
+    }
+    
+    synchronized public double readDouble() throws IOException {
+        readFully( _scratch, 0, 8 );
+        long bits = 0;
+        for ( int i = 0; i < 8; ++i )
+            bits = ( bits << 8 ) | ( _scratch[i] & 0xff );
+        return Double.longBitsToDouble( bits );
+    }
+    
+    /*
+     * Close the pipe.  Anything waiting on it is woken (and gets an EOFException),
+     * and any data still in it are discarded.
+     */
+    synchronized public void close() {
+        _closed = true;
+        _available = 0;
+        notifyAll();
+    }
+    synchronized public boolean closed() { return _closed; }
+    
+    /*
+     * Close the pipe because some of its data were lost.  Anything reading from it
+     * (now or later) gets an IOException with the reason.
+     */
+    synchronized public void fail( String reason ) {
+        if ( _closed )
+            return;
+        _failure = reason;
+        close();
+    }
+    synchronized public String failure() { return _failure; }
+    
+    protected IOException closedException() {
+        if ( _failure != null )
+            return new IOException( "channel port " + _port + " failed: " + _failure );
+        return new EOFException( "channel port " + _port + " closed" );
+    }
+    
+    protected void waitForChange( long timeout ) throws IOException {
+        try {
+            wait( timeout );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+    
+    //  For awaitConnect().
+    public static final int WAIT_FOREVER = -1;
+    
+    protected static final int INITIAL_SIZE = 64 * 1024;
+    protected static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+    //  Longest the writer waits for room, in milliseconds.
+    protected static final long FULL_WAIT = 10000;
+    
+    protected int _port;
+    protected byte[] _ring;
+    protected int _capacity;
+    protected int _writersWaiting;
+    protected int _head;
+    protected int _available;
+    protected byte[] _scratch;
+    protected boolean _connected;
+    protected boolean _closed;
+    protected String _failure;
+    
+}
@@ -52,6 +52,7 @@ public class ChannelServerSocket {
             _port = port;
             if ( !_settings.guiServerConnection().openChannelPort( port ) )
                 throw new IOException();
+            _pipe = _settings.guiServerConnection().channelPipe( port );
         }
         //  Otherwise create a normal ServerSocket.
         else {
@@ -87,17 +88,11 @@ public class ChannelServerSocket {
      */
     public void accept() throws IOException {
         if ( _channelOn ) {
-            int sofar = 0;
-            while ( sofar < _timeout ) {
-                if ( _settings.guiServerConnection().portConnected( _port ) ) {
-                    break;
-                }
-                ++sofar;
-                try { Thread.sleep( 1 ); } catch ( Exception e ) {}
-            }
-            if ( sofar >= _timeout ) {
+            try {
+                _pipe.awaitConnect( _timeout );
+            } catch ( SocketTimeoutException e ) {
                 System.out.println( "ChannelServerSocket::looks like a timeout waiting for accept()" );
-                throw new SocketTimeoutException();
+                throw e;
             }
         }
         else {
@@ -117,15 +112,8 @@ public class ChannelServerSocket {
      * Read an integer size from the input stream.
      */
     public int readInt() throws IOException {
-        if ( _channelOn ) {
-            boolean found = false;
-            while ( !found ) {
-                if ( _settings.guiServerConnection().portData( _port ) )
-                    found = true;
-                try { Thread.sleep( 1 ); } catch ( Exception e ) {}
-            }
-            return _settings.guiServerConnection().portBuffer( _port ).getInt();
-        }
+        if ( _channelOn )
+            return _pipe.readInt();
         else
             return _inStream.readInt();
     }
@@ -134,15 +122,8 @@ public class ChannelServerSocket {
      * Read a double from the input stream.
      */
     public double readDouble() throws IOException {
-        if ( _channelOn ) {
-            boolean found = false;
-            while ( !found ) {
-                if ( _settings.guiServerConnection().portData( _port ) )
-                    found = true;
-                try { Thread.sleep( 1 ); } catch ( Exception e ) {}
-            }
-            return _settings.guiServerConnection().portBuffer( _port ).getDouble();
-        }
+        if ( _channelOn )
+            return _pipe.readDouble();
         else
             return _inStream.readDouble();
     }
@@ -151,10 +132,11 @@ public class ChannelServerSocket {
      * Read a double precision number as a string.
      */
     public double readStringDouble() {
-        byte [] data = new byte[14];
+        if ( _stringDouble == null )
+            _stringDouble = new byte[STRING_DOUBLE_SIZE];
         try {
-            readFully( data, 0, 14 );
-            return Double.parseDouble( new String( data ) );
+            readFully( _stringDouble, 0, STRING_DOUBLE_SIZE );
+            return parseStringDouble( _stringDouble, 0 );
         } 
         catch ( java.io.IOException e ) {
             return 0.0;
@@ -162,26 +144,45 @@ public class ChannelServerSocket {
     }
 
     /*
-     * Read a bunch of bytes from the input stream.
+     * Read an array of little-endian single precision floats into a double precision
+     * array.  The bytes are read in one piece and converted from a reused buffer.
      */
-    public void readFully( byte[] bytes, int off, int len ) throws IOException {
-        if ( _channelOn ) {
-            boolean allDone = false;
-            while ( !allDone ) {
-                boolean found = false;
-                while ( !found ) {
-                    if ( _settings.guiServerConnection().portData( _port ) )
-                        found = true;
-                    try { Thread.sleep( 1 ); } catch ( Exception e ) {}
-                }
-                ByteBuffer b = _settings.guiServerConnection().portBuffer( _port );
-                try {
-                    b.get( bytes, off, len );
-                    allDone = true;
-                } catch ( java.nio.BufferUnderflowException e ) {
-                }
-            }
+    public void readFloat32( double[] dest, int off, int n ) throws IOException {
+        int nBytes = n * 4;
+        if ( _floatBytes == null || _floatBytes.length < nBytes )
+            _floatBytes = new byte[Math.max( nBytes, 4096 )];
+        readFully( _floatBytes, 0, nBytes );
+        decodeFloat32( _floatBytes, 0, dest, off, n );
+    }
+
+    /*
+     * Convert a double that was sent as a fixed-width (14 character) string.
+     */
+    public static double parseStringDouble( byte[] data, int off ) {
+        return Double.parseDouble( new String( data, off, STRING_DOUBLE_SIZE ) );
+    }
+
+    /*
+     * Convert little-endian single precision floats in a byte array to doubles.
+     */
+    public static void decodeFloat32( byte[] data, int off, double[] dest, int destOff, int n ) {
+        for ( int i = 0; i < n; ++i ) {
+            int bits = ( data[off] & 0xff )
+                    | ( ( data[off + 1] & 0xff ) << 8 )
+                    | ( ( data[off + 2] & 0xff ) << 16 )
+                    | ( ( data[off + 3] & 0xff ) << 24 );
+            dest[destOff + i] = (double)Float.intBitsToFloat( bits );
+            off += 4;
         }
+    }
+
+    /*
+     * Read a bunch of bytes from the input stream.  Channelled data may arrive in
+     * any number of packets - this waits for all of them.
+     */
+    public void readFully( byte[] bytes, int off, int len ) throws IOException {
+        if ( _channelOn )
+            _pipe.readFully( bytes, off, len );
         else
             _inStream.readFully( bytes, off, len );
     }
@@ -239,4 +240,9 @@ public class ChannelServerSocket {
     protected DataInputStream _inStream;
     protected DataOutputStream _outStream;
     protected int _port;
+    protected ChannelPipe _pipe;
+    protected byte[] _stringDouble;
+    protected byte[] _floatBytes;
+    
+    public static final int STRING_DOUBLE_SIZE = 14;
 }
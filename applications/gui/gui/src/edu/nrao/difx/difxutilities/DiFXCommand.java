@@ -96,28 +96,19 @@ public class DiFXCommand {
      * UDP is used with no packet type (and the instructions go directly to mk5daemon).
      */
     public void sendPacket( int packetType ) throws java.net.UnknownHostException {
+        if ( !readOnly() )
+            remoteChange();
         _difxMsg.setHeader( _header );
         _difxMsg.setBody( _body );
         JAXBDiFXProcessor xmlProc = new JAXBDiFXProcessor( _difxMsg );
-        String xmlString = xmlProc.ConvertToXML();
-//        System.out.println( xmlString );
-        if ( xmlString != null ) {
+        byte [] data = xmlProc.ConvertToBytes();
+        if ( data != null ) {
             if ( _settings.sendCommandsViaTCP() ) {
-                byte [] data = xmlString.getBytes();
                 _settings.guiServerConnection().sendPacket( packetType, data.length, data );
-                data = null;
             }
             else {
                 try {
-                    MulticastSocket sock = new MulticastSocket();
-
-                    byte[] buffer = xmlString.getBytes();
-                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length,
-                                                            InetAddress.getByName( _settings.ipAddress() ),
-                                                            _settings.difxControlPort() );
-                    sock.setTimeToLive(5);
-                    sock.send(packet);
-                    sock.close();
+                    sendDatagram( data, InetAddress.getByName( _settings.ipAddress() ), _settings.difxControlPort() );
                 } catch ( java.net.UnknownHostException e ) {
                     throw( e );
                 } catch (IOException ex) {
@@ -127,6 +118,27 @@ public class DiFXCommand {
         }
     }
     
+    /*
+     * Send a UDP command.  All commands share a single socket, which is created the
+     * first time it is needed.  If a send fails the socket is thrown away and a new
+     * one is tried next time.
+     */
+    protected static void sendDatagram( byte[] data, InetAddress address, int port ) throws IOException {
+        synchronized ( _sendSocketLock ) {
+            if ( _sendSocket == null ) {
+                _sendSocket = new MulticastSocket();
+                _sendSocket.setTimeToLive( 5 );
+            }
+            try {
+                _sendSocket.send( new DatagramPacket( data, data.length, address, port ) );
+            } catch ( IOException e ) {
+                _sendSocket.close();
+                _sendSocket = null;
+                throw( e );
+            }
+        }
+    }
+    
     /*
      * Return a string representation of this XML command.
      */
@@ -137,6 +149,48 @@ public class DiFXCommand {
         return xmlProc.ConvertToXML();
     }
     
+    /*
+     * Whether the command only looks at things on the DiFX host.  Sending any other
+     * command counts as a possible change to files there, so anything that keeps
+     * copies of remote files knows to stop trusting them.  Queries (directory
+     * listings that aren't being regenerated, SMART data) and Mark5 control commands,
+     * which act on modules and daemons rather than files, don't change anything.
+     * Commands of their own class override this if they need to.
+     */
+    protected boolean readOnly() {
+        if ( _body.getDifxGetDirectory() != null )
+            return _body.getDifxGetDirectory().getGenerateNew() == 0;
+        return _body.getDifxSmart() != null || _body.getDifxMk5Control() != null
+                || _body.getDifxCommand() != null;
+    }
+    
+    /*
+     * Called when a command that is not readOnly() is sent.  Anything in the
+     * directory listing cache that might include the paths the command changes is
+     * invalidated - if they aren't known the whole cache is cleared.  Commands of
+     * their own class that know which paths they change override this.
+     */
+    protected void remoteChange() {
+        //  Jobs write their output and logs next to the .input file, and so does the
+        //  machines definition (.machines and .threads files).
+        String input = null;
+        if ( _body.getDifxStart() != null )
+            input = _body.getDifxStart().getInput();
+        else if ( _body.getDifxStop() != null )
+            input = _body.getDifxStop().getInput();
+        else if ( _body.getDifxMachinesDefinition() != null )
+            input = _body.getDifxMachinesDefinition().getInput();
+        if ( input != null && input.lastIndexOf( '/' ) > 0 ) {
+            DiFXCommand_ls.cache().invalidate( input.substring( 0, input.lastIndexOf( '/' ) + 1 ) );
+            return;
+        }
+        if ( _body.getDifxMark5Copy() != null && _body.getDifxMark5Copy().getDestination() != null ) {
+            DiFXCommand_ls.cache().invalidate( _body.getDifxMark5Copy().getDestination() );
+            return;
+        }
+        DiFXCommand_ls.cache().clear();
+    }
+    
     public ObjectFactory factory() { return _factory; }
     public Body body() { return _body; }
     public Header header() { return _header; }
@@ -147,4 +201,7 @@ public class DiFXCommand {
     protected DifxMessage _difxMsg;
     protected ObjectFactory _factory;
     
+    protected static final Object _sendSocketLock = new Object();
+    protected static MulticastSocket _sendSocket;
+    
 }
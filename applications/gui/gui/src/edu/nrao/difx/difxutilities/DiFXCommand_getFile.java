@@ -37,8 +37,17 @@
  *      -3:    (DiFX host) no read permission on named file for DiFX user
  *      -4:    (DiFX host) bad DiFX user name (not in password file)
  *       0:    (DiFX host) not an error, but indicates a zero-length file, which might be bad
- * Even if the fileSize() is rational, you might want to check the length of the
- * resulting string to make sure it matches.
+ * Even if the fileSize() is rational, you might want to check bytesRead() to make
+ * sure it matches.
+ * 
+ * Large files (logs, big .calc sets) should not be read into a String.  The
+ * "readFile()" function instead writes the data to a local file as they arrive,
+ * a chunk at a time, so memory use does not depend on the file size.  A partial
+ * download can be resumed by giving the offset to start from - if the guiServer
+ * understands this (it answers with RESUME_MARKER) only the rest of the file is
+ * sent, otherwise the whole file is sent and the local file is rewritten from
+ * the start.  When the transfer is complete, "mappedFile()" provides the local
+ * copy as a read-only memory-mapped buffer.
  */
 package edu.nrao.difx.difxutilities;
 
@@ -50,7 +59,11 @@ import java.net.SocketTimeoutException;
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
 
-import java.util.Arrays;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import javax.swing.event.EventListenerList;
 
@@ -102,6 +115,34 @@ public class DiFXCommand_getFile extends DiFXCommand {
         super.send();
     }
     
+    /*
+     * Download the file to a local file, replacing anything in it.
+     */
+    public void readFile( File localFile ) throws java.net.UnknownHostException {
+        readFile( localFile, 0 );
+    }
+    
+    /*
+     * Download the file to a local file starting at the given offset - the local
+     * file is assumed to hold the remote file's contents up to that point (the
+     * offset is reduced to the local file's length if it is longer).
+     */
+    public void readFile( File localFile, long offset ) throws java.net.UnknownHostException {
+        _localFile = localFile;
+        if ( offset > localFile.length() )
+            offset = localFile.length();
+        if ( offset < 0 )
+            offset = 0;
+        if ( offset > 0 )
+            this.body().getDifxFileTransfer().setDestination( "offset=" + offset );
+        FileDownload reader = new FileDownload();
+        reader.start();
+        super.send();
+    }
+    
+    @Override
+    protected boolean readOnly() { return true; }
+    
     public void addIncrementalListener( ActionListener a ) {
         _incrementalListeners.add( ActionListener.class, a );
     }
@@ -144,9 +185,10 @@ public class DiFXCommand_getFile extends DiFXCommand {
         }
     }
     
-    //  This class reads a text file that can contain UTF characters.  It produces
-    //  a string.
-    protected class StringReader extends Thread {
+    //  Base class for the threads that receive the file.  It sets up the server
+    //  socket, waits for the DiFX host to connect, and reads the file size - the
+    //  "receive()" function of each subclass does the rest.
+    protected abstract class Receiver extends Thread {
         
         @Override
         public void run() {
@@ -176,20 +218,17 @@ public class DiFXCommand_getFile extends DiFXCommand {
                 try {
                     ssock.accept();
                     acceptCallback();
-                    //  Read the size of the incoming file, then the bytes (broken into
-                    //  1024 bytes blocks).
+                    //  Read the size of the incoming file.  If we asked for part of the
+                    //  file, a guiServer that can do that says so first, along with the
+                    //  offset it is starting from.
                     _fileSize = ssock.readInt();
-                    _inString = "";
-                    incrementalCallback();
-                    while ( _inString.length() < _fileSize ) {
-                        int sz = _fileSize - _inString.length();
-                        if ( sz > 1024 )
-                            sz = 1024;
-                        byte [] data = new byte[sz];
-                        ssock.readFully( data, 0, sz );
-                        _inString += new String( Arrays.copyOfRange( data, 0, sz ) );
-                        incrementalCallback();
+                    _offset = 0;
+                    if ( _fileSize == RESUME_MARKER ) {
+                        _offset = ssock.readInt();
+                        _fileSize = ssock.readInt();
                     }
+                    _bytesRead = _offset;
+                    receive( ssock );
                 } catch ( SocketTimeoutException e ) {
                     _fileSize = -10;
                 }
@@ -208,9 +247,101 @@ public class DiFXCommand_getFile extends DiFXCommand {
             endCallback();
         }
         
+        protected abstract void receive( ChannelServerSocket ssock ) throws java.io.IOException;
+        
+    }
+    
+    //  This class reads a text file that can contain UTF characters.  It produces
+    //  a string.  The bytes are collected and converted once at the end so that
+    //  multi-byte characters split between blocks come out right.
+    protected class StringReader extends Receiver {
+        
+        protected void receive( ChannelServerSocket ssock ) throws java.io.IOException {
+            _inString = "";
+            incrementalCallback();
+            if ( _fileSize <= 0 )
+                return;
+            byte [] data = new byte[_fileSize];
+            int n = 0;
+            try {
+                while ( n < _fileSize ) {
+                    int sz = Math.min( _fileSize - n, 1024 );
+                    ssock.readFully( data, n, sz );
+                    n += sz;
+                    _bytesRead = n;
+                    incrementalCallback();
+                }
+            } finally {
+                _inString = new String( data, 0, n );
+            }
+        }
+        
+    }
+    
+    //  This class writes the incoming file directly to a local file.
+    protected class FileDownload extends Receiver {
+        
+        protected void receive( ChannelServerSocket ssock ) throws java.io.IOException {
+            //  On errors the local file (which may be a partial download) is left alone.
+            if ( _fileSize < 0 ) {
+                incrementalCallback();
+                return;
+            }
+            RandomAccessFile raf = new RandomAccessFile( _localFile, "rw" );
+            try {
+                FileChannel channel = raf.getChannel();
+                //  Anything beyond the point where this transfer starts is replaced (if
+                //  the guiServer didn't understand our offset this is everything).
+                channel.truncate( _offset );
+                channel.position( _offset );
+                incrementalCallback();
+                byte [] data = new byte[CHUNK_SIZE];
+                ByteBuffer buffer = ByteBuffer.wrap( data );
+                while ( _bytesRead < _fileSize ) {
+                    int sz = (int)Math.min( (long)_fileSize - _bytesRead, (long)CHUNK_SIZE );
+                    ssock.readFully( data, 0, sz );
+                    buffer.clear();
+                    buffer.limit( sz );
+                    while ( buffer.hasRemaining() )
+                        channel.write( buffer );
+                    _bytesRead += sz;
+                    incrementalCallback();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        
+    }
+    
+    /*
+     * The downloaded file as a read-only memory-mapped buffer.  Null is returned if
+     * this was not a file download, or it is not complete.
+     */
+    public MappedByteBuffer mappedFile() throws java.io.IOException {
+        if ( _localFile == null || _fileSize < 0 || _bytesRead != _fileSize )
+            return null;
+        RandomAccessFile raf = new RandomAccessFile( _localFile, "r" );
+        try {
+            return raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, _fileSize );
+        } finally {
+            //  The mapping remains valid after the file is closed.
+            raf.close();
+        }
     }
     
     public int fileSize() { return _fileSize; }
+    /*
+     * Bytes of the file received so far (including any that were already on
+     * disk when a download was resumed).
+     */
+    public long bytesRead() { return _bytesRead; }
+    /*
+     * The offset the transfer started from - zero unless a download was resumed and
+     * the guiServer agreed to it.
+     */
+    public long offset() { return _offset; }
+    public File localFile() { return _localFile; }
     public String inString() { return _inString; }
     public void inString( String newData ) { _inString = newData; }
     public String error() { return _error; }
@@ -222,6 +353,14 @@ public class DiFXCommand_getFile extends DiFXCommand {
     protected EventListenerList _acceptListeners;
     protected String _error;
     protected int _port;
+    protected File _localFile;
+    protected volatile long _offset;
+    protected volatile long _bytesRead;
+    
+    //  Sent by the guiServer in place of the file size when it is starting from an
+    //  offset we asked for.  It is followed by the offset, then the full file size.
+    public static final int RESUME_MARKER = -100;
+    protected static final int CHUNK_SIZE = 64 * 1024;
 
     
 }
@@ -0,0 +1,270 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Read a list of text files from the DiFX host over a single transfer connection.
+ * This is much faster than using DiFXCommand_getFile for each of them when there
+ * are a lot (a pass can have hundreds of jobs, each with a .input and a .calc
+ * file) because there is only one command, one transfer port and one connection
+ * for the lot.
+ *
+ * Once the guiServer connects, the whole list of paths is sent to it at once, and
+ * it answers each in order with the file size followed by the contents - there is
+ * no waiting between files.  The sizes use the same codes as DiFXCommand_getFile,
+ * with a couple more:
+ *      -12:   (local) the file was not sent (see below)
+ *      -10:   (local) socket connection timed out before the DiFX host connected
+ *      -11:   (local) socket failure of some sort - look at the "error()" function
+ *      -1:    (DiFX host) bad file name (probably the path was not complete)
+ *      -2:    (DiFX host) requested file does not exist
+ *      -3:    (DiFX host) no read permission on named file for DiFX user
+ *      -4:    (DiFX host) bad DiFX user name (not in password file)
+ *
+ * A guiServer that does not know about batches treats the request as a normal
+ * "getFile" of the first file in the list.  That file is read as usual, the rest
+ * are left "not sent" and batchSupported() is false - callers should get them some
+ * other way.
+ *
+ * The incremental listeners are called as each file is finished (the action
+ * command is the file path), the end listeners when the whole transfer is done.
+ */
+package edu.nrao.difx.difxutilities;
+
+import edu.nrao.difx.difxview.SystemSettings;
+
+import edu.nrao.difx.xmllib.difxmessage.DifxFileTransfer;
+import java.net.SocketTimeoutException;
+
+import java.awt.event.ActionListener;
+import java.awt.event.ActionEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import javax.swing.event.EventListenerList;
+
+public class DiFXCommand_getFiles extends DiFXCommand {
+
+    public DiFXCommand_getFiles( Collection<String> filenames, SystemSettings settings ) {
+        super( settings );
+        this.header().setType( "DifxFileTransfer" );
+        _files = new ArrayList<String>( filenames );
+        _contents = new String[_files.size()];
+        _fileSizes = new int[_files.size()];
+        Arrays.fill( _fileSizes, NOT_SENT );
+        _incrementalListeners = new EventListenerList();
+        _endListeners = new EventListenerList();
+        //  Make sure the guiServer connection is working...bail out if not.
+        if ( !_settings.guiServerConnection().connected() ) {
+            _error = "No connection to guiServer";
+            return;
+        }
+        if ( _files.isEmpty() ) {
+            _error = "No files requested";
+            return;
+        }
+        DifxFileTransfer xfer = this.factory().createDifxFileTransfer();
+        xfer.setAddress( _settings.guiServerConnection().myIPAddress() );
+        _port = _settings.newDifxTransferPort( 0, 1000, false, true );
+        xfer.setPort( _port );
+        xfer.setDirection( "from DiFX" );
+        //  The first file is named as the origin so an older guiServer will at least
+        //  send that one.
+        xfer.setOrigin( _files.get( 0 ) );
+        xfer.setDestination( "batch" );
+        //  The "data" node is assumed to be the same as the DiFX "control" node
+        //  (at least for now).
+        xfer.setDataNode( settings.difxControlAddress() );
+        this.body().setDifxFileTransfer( xfer );
+    }
+
+    /*
+     * Start reading the files.  This returns immediately - use the listeners or
+     * waitForEnd() to find out when it is done.
+     */
+    public void readStrings() throws java.net.UnknownHostException {
+        if ( _error != null )
+            return;
+        _reader = new BatchReader();
+        _reader.start();
+        super.send();
+    }
+
+    /*
+     * Wait for a transfer started by readStrings() to finish.
+     */
+    public void waitForEnd() throws InterruptedException {
+        if ( _reader != null )
+            _reader.join();
+    }
+
+    @Override
+    protected boolean readOnly() { return true; }
+
+    public void addIncrementalListener( ActionListener a ) {
+        _incrementalListeners.add( ActionListener.class, a );
+    }
+
+    protected void incrementalCallback( String filename ) {
+        Object[] listeners = _incrementalListeners.getListenerList();
+        // loop through each listener and pass on the event if needed
+        int numListeners = listeners.length;
+        for ( int i = 0; i < numListeners; i+=2 ) {
+            if ( listeners[i] == ActionListener.class )
+                ((ActionListener)listeners[i+1]).actionPerformed( new ActionEvent( this, ActionEvent.ACTION_PERFORMED, filename ) );
+        }
+    }
+
+    public void addEndListener( ActionListener a ) {
+        _endListeners.add( ActionListener.class, a );
+    }
+
+    protected void endCallback() {
+        Object[] listeners = _endListeners.getListenerList();
+        // loop through each listener and pass on the event if needed
+        int numListeners = listeners.length;
+        for ( int i = 0; i < numListeners; i+=2 ) {
+            if ( listeners[i] == ActionListener.class )
+                ((ActionListener)listeners[i+1]).actionPerformed( new ActionEvent( this, ActionEvent.ACTION_PERFORMED, "" ) );
+        }
+    }
+
+    //  This thread runs the server socket that the DiFX host connects to, sends it
+    //  the list of files, and reads them all back.
+    protected class BatchReader extends Thread {
+
+        @Override
+        public void run() {
+            int next = 0;
+            try {
+                //  See DiFXCommand_getFile for the reasons behind this.
+                int tryCount = 0;
+                ChannelServerSocket ssock = null;
+                while ( ssock == null && tryCount < 10 ) {
+                    try {
+                        ssock = new ChannelServerSocket( _port, _settings );
+                    } catch ( java.net.BindException e ) {
+                        ssock = null;
+                        ++tryCount;
+                        _settings.messageCenter().warning( 0, "ChannelServerSocket", "Bind exception from port " + _port + " - trying another" );
+                        _settings.releaseTransferPort( _port );
+                        _port = _settings.newDifxTransferPort( 0, 1000, false, true );
+                        try { Thread.sleep( 1000 ); } catch ( Exception ex ) {}
+                    }
+                }
+                if ( ssock != null ) {
+                    ssock.setSoTimeout( 10000 );  //  timeout is in millisec
+                    try {
+                        ssock.accept();
+                        int size = ssock.readInt();
+                        if ( size == BATCH_MARKER ) {
+                            _batchSupported = true;
+                            ssock.writeBytes( request() );
+                            size = ssock.readInt();
+                        }
+                        //  Otherwise an older guiServer sent the size of the first file.
+                        while ( true ) {
+                            _fileSizes[next] = size;
+                            if ( size > 0 ) {
+                                byte [] data = new byte[size];
+                                ssock.readFully( data, 0, size );
+                                _contents[next] = new String( data );
+                            }
+                            else if ( size == 0 )
+                                _contents[next] = "";
+                            incrementalCallback( _files.get( next ) );
+                            ++next;
+                            if ( !_batchSupported || next >= _files.size() )
+                                break;
+                            size = ssock.readInt();
+                        }
+                    } catch ( SocketTimeoutException e ) {
+                        if ( next < _files.size() )
+                            _fileSizes[next] = -10;
+                    } finally {
+                        ssock.close();
+                    }
+                }
+                else {
+                    _error = "repeated BindException";
+                    _fileSizes[next] = -11;
+                }
+            } catch ( java.io.IOException e ) {
+                //  Includes the connection closing early - anything not yet read is
+                //  left as "not sent".
+                _error = "IOException : " + e.toString();
+                if ( next < _files.size() )
+                    _fileSizes[next] = -11;
+            }
+            _settings.releaseTransferPort( _port );
+            endCallback();
+        }
+
+        //  The list of files as the guiServer expects it - the number of files,
+        //  then each path as a length and the characters.
+        protected byte[] request() throws java.io.IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream( bytes );
+            out.writeInt( _files.size() );
+            for ( String file : _files ) {
+                byte [] path = file.getBytes();
+                out.writeInt( path.length );
+                out.write( path );
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+    }
+
+    /*
+     * The list of requested files, in the order they are sent.
+     */
+    public ArrayList<String> files() { return _files; }
+    /*
+     * The contents of the i'th file, or null if it was not read (check fileSize()
+     * to find out why).
+     */
+    public String inString( int i ) { return _contents[i]; }
+    public int fileSize( int i ) { return _fileSizes[i]; }
+    /*
+     * Whether the guiServer handled this as a batch.  If false, only the first
+     * file was sent.
+     */
+    public boolean batchSupported() { return _batchSupported; }
+    public String error() { return _error; }
+
+    protected ArrayList<String> _files;
+    protected String[] _contents;
+    protected int[] _fileSizes;
+    protected volatile boolean _batchSupported;
+    protected EventListenerList _incrementalListeners;
+    protected EventListenerList _endListeners;
+    protected String _error;
+    protected int _port;
+    protected BatchReader _reader;
+
+    //  Sent by the guiServer when the connection is made to say that it will handle
+    //  the whole list.
+    public static final int BATCH_MARKER = -101;
+    public static final int NOT_SENT = -12;
+
+}
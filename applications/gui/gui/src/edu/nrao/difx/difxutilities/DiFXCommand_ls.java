@@ -20,6 +20,11 @@
  * The "ls" command performs an ls on a "filter" (path, with wildcards allowed)
  * on the DiFX Host.  It does this as the difx user, so permissions of that
  * user apply.  Data are returned via TCP socket.
+ *
+ * Results are kept for a short time in a shared ListingCache, and the same
+ * request made again within that time is answered from there (callbacks are
+ * made just as if the listing had come from the DiFX host).  Use "useCache( false )"
+ * for a request that must go to the DiFX host.
  */
 package edu.nrao.difx.difxutilities;
 
@@ -28,6 +33,7 @@ import edu.nrao.difx.difxview.SystemSettings;
 import edu.nrao.difx.xmllib.difxmessage.DifxFileOperation;
 
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
 
 import java.awt.event.ActionListener;
 import java.awt.event.ActionEvent;
@@ -46,14 +52,15 @@ public class DiFXCommand_ls extends DiFXCommand {
         DifxFileOperation ls = this.factory().createDifxFileOperation();
         ls.setPath( filter );
         ls.setOperation( "ls" );
-        ls.setArg( "-d -p --dereference-command-line-symlink-to-dir" );
+        ls.setArg( ListingCache.PREFIX_ARGS );
         //  The "data" node is assumed to be the same as the DiFX "control" node
         //  (at least for now).
         ls.setDataNode( settings.difxControlAddress() );
         ls.setAddress( _settings.guiServerConnection().myIPAddress() );
-        _port = _settings.newDifxTransferPort( 0, 100, true, true );
-        ls.setPort( _port );
         this.body().setDifxFileOperation( ls );
+        _filter = filter;
+        _args = ListingCache.PREFIX_ARGS;
+        _useCache = true;
         //  These lists contain "listeners" for callbacks when things occur...incremental
         //  read progress and the end of reading.
         _incrementalListeners = new EventListenerList();
@@ -74,9 +81,10 @@ public class DiFXCommand_ls extends DiFXCommand {
         //  (at least for now).
         ls.setDataNode( settings.difxControlAddress() );
         ls.setAddress( _settings.guiServerConnection().myIPAddress() );
-        _port = _settings.newDifxTransferPort( 0, 100, true, true );
-        ls.setPort( _port );
         this.body().setDifxFileOperation( ls );
+        _filter = filter;
+        _args = args;
+        _useCache = true;
         //  These lists contain "listeners" for callbacks when things occur...incremental
         //  read progress and the end of reading.
         _incrementalListeners = new EventListenerList();
@@ -111,12 +119,51 @@ public class DiFXCommand_ls extends DiFXCommand {
         }
     }
     
+    @Override
+    protected boolean readOnly() { return true; }
+    
+    /*
+     * Whether this request may be answered from the cache (the default) - its
+     * result is saved there either way.
+     */
+    public void useCache( boolean newVal ) { _useCache = newVal; }
+    
     @Override
     public void send() throws java.net.UnknownHostException {
-        ResultReader reader = new ResultReader();
+        if ( _useCache ) {
+            ArrayList<String> lines = _cache.get( _filter, _args );
+            if ( lines != null ) {
+                CachedResult result = new CachedResult( lines );
+                result.start();
+                return;
+            }
+        }
+        //  The transfer port is only needed if we are going to the DiFX host.
+        _port = _settings.newDifxTransferPort( 0, 100, true, true );
+        this.body().getDifxFileOperation().setPort( _port );
+        ResultReader reader = new ResultReader( _cache.generation() );
         reader.start();
         super.send();
     }
+    
+    //  Makes the callbacks for a result found in the cache.  This is done in a
+    //  thread of its own, as it would be for a result from the DiFX host.
+    protected class CachedResult extends Thread {
+        
+        CachedResult( ArrayList<String> lines ) {
+            _lines = lines;
+        }
+        
+        @Override
+        public void run() {
+            for ( String line : _lines )
+                incrementalCallback( line );
+            endCallback();
+        }
+        
+        protected ArrayList<String> _lines;
+        
+    }
         
     //  This thread reads the results of the ls operation as reported by mk5daemon
     //  (a list of files that match the pattern).  It produces two callbacks -
@@ -124,8 +171,15 @@ public class DiFXCommand_ls extends DiFXCommand {
     //  all reading is complete.
     protected class ResultReader extends Thread {
         
+        ResultReader( int generation ) {
+            _generation = generation;
+            _startTime = System.currentTimeMillis();
+        }
+        
         @Override
         public void run() {
+            ArrayList<String> lines = new ArrayList<String>();
+            boolean complete = false;
             //  Open a new server socket and await a connection.  The connection
             //  will timeout after a given number of seconds (nominally 10).
             try {
@@ -144,9 +198,11 @@ public class DiFXCommand_ls extends DiFXCommand {
                             byte[] foo = new byte[sz + 1];
                             ssock.readFully( foo, 0, sz );
                             String inLine = new String( foo );
+                            lines.add( inLine );
                             incrementalCallback( inLine );
                         }
                     }
+                    complete = true;
                 } catch ( SocketTimeoutException e ) {
                     
                 }
@@ -154,15 +210,31 @@ public class DiFXCommand_ls extends DiFXCommand {
             } catch ( Exception e ) {
                 
             }
+            //  Only complete listings are worth keeping.
+            if ( complete )
+                _cache.put( _filter, _args, lines, _startTime, _generation );
             endCallback();
             _settings.releaseTransferPort( _port );
         }
         
+        protected int _generation;
+        protected long _startTime;
+        
     }
+    
+    /*
+     * The cache shared by all ls operations.
+     */
+    static public ListingCache cache() { return _cache; }
 
     protected EventListenerList _incrementalListeners;
     protected EventListenerList _endListeners;
     protected int _port;
+    protected String _filter;
+    protected String _args;
+    protected boolean _useCache;
+    
+    static protected final ListingCache _cache = new ListingCache();
     
     static public int FILE_EXISTS = 1;
     static public int FILE_DOESNT_EXIST = 0;
@@ -182,6 +254,9 @@ public class DiFXCommand_ls extends DiFXCommand {
         doneLs = false;
         foundLs = false;
         DiFXCommand_ls ls = new DiFXCommand_ls( path, settings );
+        //  Callers usually want to know because they are about to write or
+        //  overwrite something, so the answer has to be current.
+        ls.useCache( false );
         ls.addEndListener( new ActionListener() {
             public void actionPerformed( ActionEvent e ) {
                 doneLs = true;
@@ -43,4 +43,9 @@ public class DiFXCommand_mkdir extends DiFXCommand {
         this.body().setDifxFileOperation( mkdir );
     }
     
+    @Override
+    protected void remoteChange() {
+        DiFXCommand_ls.cache().invalidate( this.body().getDifxFileOperation().getPath() );
+    }
+    
 }
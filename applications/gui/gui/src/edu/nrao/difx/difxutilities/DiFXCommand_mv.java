@@ -41,4 +41,10 @@ public class DiFXCommand_mv extends DiFXCommand {
         this.body().setDifxFileOperation( mv );
     }
     
+    @Override
+    protected void remoteChange() {
+        DiFXCommand_ls.cache().invalidate( this.body().getDifxFileOperation().getPath() );
+        DiFXCommand_ls.cache().invalidate( this.body().getDifxFileOperation().getArg() );
+    }
+    
 }
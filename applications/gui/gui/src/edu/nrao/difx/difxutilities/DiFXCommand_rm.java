@@ -41,4 +41,9 @@ public class DiFXCommand_rm extends DiFXCommand {
         this.body().setDifxFileOperation( rm );
     }
     
+    @Override
+    protected void remoteChange() {
+        DiFXCommand_ls.cache().invalidate( this.body().getDifxFileOperation().getPath() );
+    }
+    
 }
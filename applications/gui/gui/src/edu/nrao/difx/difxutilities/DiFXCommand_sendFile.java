@@ -71,6 +71,11 @@ public class DiFXCommand_sendFile extends DiFXCommand {
         super.send();
     }
     
+    @Override
+    protected void remoteChange() {
+        DiFXCommand_ls.cache().invalidate( this.body().getDifxFileTransfer().getDestination() );
+    }
+    
     public void addIncrementalListener( ActionListener a ) {
         _incrementalListeners.add( ActionListener.class, a );
     }
@@ -141,6 +146,9 @@ public class DiFXCommand_sendFile extends DiFXCommand {
                 _fileSize = -11;
             }
             _settings.releaseTransferPort( _port );
+            //  The file has now been written (or not) - anything listed while that
+            //  was happening may be wrong.
+            remoteChange();
             endCallback();
         }
         
@@ -69,6 +69,14 @@ public class DiFXCommand_vex2difx extends DiFXCommand {
         _endListeners = new EventListenerList();
     }
     
+    /*
+     * vex2difx (and calc) write their files in the pass directory.
+     */
+    @Override
+    protected void remoteChange() {
+        DiFXCommand_ls.cache().invalidate( this.body().getDifxVex2DifxRun().getPassPath() );
+    }
+    
     public void addIncrementalListener( ActionListener a ) {
         _incrementalListeners.add( ActionListener.class, a );
     }
@@ -32,26 +32,46 @@
  * an exception string in the case of an error); "send" events accompanied
  * by an integer number of bytes sent; and  "receive" events accompanied by an
  * integer number of bytes received.  
+ * 
+ * The socket is a non-blocking SocketChannel serviced by a single I/O thread.
+ * Senders never write to the socket themselves - each outgoing packet is put
+ * (complete, as one buffer) on a lock-free queue and the I/O thread writes
+ * everything waiting with a single gathering write.  Any number of threads can
+ * send at once without waiting on each other.  Incoming packets are assembled in
+ * a direct buffer and handled where they lie - they are not copied to arrays.
+ * 
+ * If the guiServer offers it (and the settings ask for it), relayed multicasts and
+ * channelled data are compressed by the guiServer.  Each compressed packet holds
+ * one or more complete packets, run through a deflate stream that lasts for as
+ * long as compression is on and is flushed after every packet.  They are
+ * inflated here and handled exactly as if they had arrived uncompressed.
  */
 package edu.nrao.difx.difxutilities;
 
 import edu.nrao.difx.difxview.SystemSettings;
 
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
 
 import java.util.ArrayDeque;
-import java.util.HashMap;
-
-import javax.swing.JOptionPane;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
-import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
@@ -87,31 +107,45 @@ public class GuiServerConnection {
     public final int CHANNEL_DATA                   = 22;
     public final int GENERATE_FILELIST              = 23;
     public final int GET_JOB_STATUS                 = 24;
+    public final int COMPRESSION_AVAILABLE          = 25;
+    public final int COMPRESSION_ON                 = 26;
+    public final int COMPRESSION_OFF                = 27;
+    public final int COMPRESSED_PACKET              = 28;
 
     public GuiServerConnection( SystemSettings settings, String IP, int port ) {
         _settings = settings;
         _connectListeners = new EventListenerList();
         _sendListeners = new EventListenerList();
         _receiveListeners = new EventListenerList();
+        _relayQueue = new ArrayBlockingQueue<byte[]>( RELAY_QUEUE_CAPACITY );
+        _channelPipes = new ConcurrentHashMap<Integer,ChannelPipe>();
+        _sendQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+        _sendQueueBytes = new AtomicLong();
+        _wakeupPending = new AtomicBoolean();
+        _sendSpaceLock = new Object();
     }
     
     public boolean connect() {
         boolean ret = true;
         try {
-            _socket = new Socket( _settings.difxControlAddress(), _settings.difxControlPort() );
-            _socket.setSoTimeout( _settings.timeout() );
-            _in = new DataInputStream( _socket.getInputStream() );
-            _out = new DataOutputStream( _socket.getOutputStream() );
+            _socketChannel = SocketChannel.open( new InetSocketAddress( _settings.difxControlAddress(), _settings.difxControlPort() ) );
+            _socketChannel.socket().setTcpNoDelay( true );
+            _socketChannel.configureBlocking( false );
+            _selector = Selector.open();
+            _socketChannel.register( _selector, SelectionKey.OP_READ );
+            _sendQueue.clear();
+            _sendQueueBytes.set( 0 );
+            resetCompression();
             _connected = true;
             connectEvent( "connected" );
-            _receiveThread = new ReceiveThread();
+            _ioThread = new IOThread();
             _settings.channelAllDataAvailable( true );
-            _receiveThread.start();
+            _ioThread.start();
             //  Request guiServer version information...and anything else it wants
             //  to tell us at startup.
             sendPacket( GUISERVER_VERSION, 0, null );
             ret = true;
-        } catch ( java.net.UnknownHostException e ) {
+        } catch ( java.nio.channels.UnresolvedAddressException e ) {
             _connected = false;
             ret = false;
         } catch ( java.io.IOException e ) {
@@ -122,19 +156,20 @@ public class GuiServerConnection {
     }
     
     public String myIPAddress() {
-        return _socket.getLocalAddress().getHostAddress();
+        return _socketChannel.socket().getLocalAddress().getHostAddress();
     }
     
     public void close() {
         if ( connected() ) {
+            _connected = false;
             try {
-                _socket.close();
+                _socketChannel.close();
             } catch ( java.io.IOException e ) {
                 //  Not being able to close the socket probably indicates something out of
                 //  the user's ability to fix is wrong, so we won't trouble them by reporting
                 //  the problem.
             }
-            _connected = false;
+            _selector.wakeup();
             connectEvent( "connection closed" );
         }
     }
@@ -153,188 +188,566 @@ public class GuiServerConnection {
      * Send a packet of the given type.  The type and number of bytes in
      * the packet are sent as integers - and thus are swapped (if necessary) to
      * network byte order.  The data are not.
+     * 
+     * The packet is copied (so the caller is free to reuse the data) and queued
+     * for the I/O thread.  If a lot of data are already waiting to go out the
+     * caller is held up until some of it has been written - this keeps a large file
+     * transfer from piling up in memory.  The Swing event thread is never held up -
+     * it has some extra room so its (small) commands can get past a transfer, but
+     * if that is full too the link has stalled and the packet is dropped (counted,
+     * and reported to send listeners as a failure).
      */
-    synchronized public void sendPacket( int packetId, int nBytes, byte[] data ) {
+    public void sendPacket( int packetId, int nBytes, byte[] data ) {
         if ( _connected ) {
-            try {
-                _out.writeInt( packetId );
-                _out.writeInt( nBytes );
-                if ( nBytes > 0 ) {
-                    _out.write( data );
-                }
-                sendEvent( nBytes );
-            } catch ( Exception e ) {
-                java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.SEVERE, null, 
-                    e.toString() );
-                connectEvent( e.toString() );
+            ByteBuffer frame = ByteBuffer.allocate( 8 + nBytes );
+            frame.order( ByteOrder.BIG_ENDIAN );
+            frame.putInt( packetId );
+            frame.putInt( nBytes );
+            if ( nBytes > 0 )
+                frame.put( data, 0, nBytes );
+            frame.flip();
+            if ( !waitForSendSpace() ) {
+                ++_sendDroppedCount;
+                java.util.logging.Logger.getLogger( "global" ).log( java.util.logging.Level.WARNING,
+                        "guiServer connection is not sending - packet (type " + packetId + ", "
+                        + nBytes + " bytes) dropped" );
+                sendEvent( -nBytes );
+                return;
             }
+            _sendQueueBytes.addAndGet( frame.remaining() );
+            _sendQueue.offer( frame );
+            //  Only one wakeup is needed however many packets are queued before the
+            //  I/O thread gets to them.
+            if ( _wakeupPending.compareAndSet( false, true ) )
+                _selector.wakeup();
+            sendEvent( nBytes );
         } else {
             sendEvent( -nBytes );
         }
     }
-        
+    
     /*
-     * This is kind of gross and kludgy....it is meant to simulate waiting for
-     * a socket message from difx of a specific type - left over from when the ONLY
-     * type of message difx sent was a relay.
+     * Wait until the amount of queued outgoing data is below the limit.  The I/O
+     * thread itself (which sends a few replies) never waits.  Neither does the
+     * Swing event thread - false is returned if there is no room for it.
      */
-    public byte[] getRelay( int timeout ) throws SocketTimeoutException {
-        int counter = 0;
-        while ( counter < timeout ) {
-            if ( _difxRelayStack != null ) {
-                synchronized( _difxRelayStack ) {
-                    if ( _difxRelayStack.size() > 0 ) {
-                        byte [] returnData = _difxRelayStack.pollFirst();
-                        return returnData;
-                    }
+    protected boolean waitForSendSpace() {
+        if ( Thread.currentThread() == _ioThread )
+            return true;
+        if ( _sendQueueBytes.get() < SEND_QUEUE_LIMIT )
+            return true;
+        if ( javax.swing.SwingUtilities.isEventDispatchThread() )
+            return _sendQueueBytes.get() < SEND_QUEUE_LIMIT + EVENT_THREAD_ALLOWANCE;
+        synchronized ( _sendSpaceLock ) {
+            while ( _connected && _sendQueueBytes.get() >= SEND_QUEUE_LIMIT ) {
+                try {
+                    _sendSpaceLock.wait( 100 );
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return true;
                 }
             }
-            counter += 1;
-            try { Thread.sleep( 1 ); } catch ( Exception e ) {}
         }
-        throw new SocketTimeoutException();
+        return true;
+    }
+    
+    /*
+     * Packets dropped because the event thread could not queue them.
+     */
+    public long sendDroppedCount() { return _sendDroppedCount; }
+        
+    /*
+     * Wait (up to the timeout, in milliseconds) for a relayed packet from difx.
+     * This returns as soon as a packet arrives.  Only packets that have not been
+     * taken by a relay listener are available here.
+     */
+    public byte[] getRelay( int timeout ) throws SocketTimeoutException {
+        byte[] data = null;
+        try {
+            data = _relayQueue.poll( timeout, TimeUnit.MILLISECONDS );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        if ( data == null )
+            throw new SocketTimeoutException();
+        return data;
+    }
+    
+    /*
+     * Return the oldest relayed packet, or null if there are none.  This does
+     * not wait.
+     */
+    public byte[] pollRelay() {
+        return _relayQueue.poll();
+    }
+    
+    /*
+     * Set a listener that is handed each relayed packet as it arrives, in place of
+     * the queue.  This is how the message processor is fed.  Null removes the
+     * listener (packets then wait in the queue).  Packets already waiting in the
+     * queue are handed to a new listener first, in order.  The listener is only
+     * ever called by the connection's I/O thread.
+     */
+    public void relayListener( RelayListener listener ) {
+        _relayListener = listener;
+        if ( listener != null && !_relayQueue.isEmpty() && _selector != null )
+            _selector.wakeup();
+    }
+    
+    /*
+     * Counts of relayed packets received and dropped (either because the relay
+     * listener would not accept them or because the queue overflowed).
+     */
+    public long relayCount() { return _relayCount; }
+    public long relayDroppedCount() { return _relayDroppedCount; }
+    
+    /*
+     * Hand a newly arrived relay packet (the remaining content of the buffer) to
+     * the listener, or queue a copy of it if there is no listener.  When the queue
+     * is full the oldest packet is dropped to make room - DiFX messages describe
+     * current state, so the newest are the most useful.
+     */
+    protected void relayPacket( ByteBuffer data ) {
+        ++_relayCount;
+        RelayListener listener = _relayListener;
+        if ( listener != null ) {
+            drainRelayQueue( listener );
+            if ( !listener.relayed( data ) )
+                ++_relayDroppedCount;
+            return;
+        }
+        byte[] copy = new byte[data.remaining()];
+        data.get( copy );
+        while ( !_relayQueue.offer( copy ) ) {
+            if ( _relayQueue.poll() != null )
+                ++_relayDroppedCount;
+        }
+    }
+    
+    /*
+     * Hand everything waiting in the relay queue to the listener.  Only called by
+     * the I/O thread.
+     */
+    protected void drainRelayQueue( RelayListener listener ) {
+        byte[] old = _relayQueue.poll();
+        while ( old != null ) {
+            if ( !listener.relayed( ByteBuffer.wrap( old ) ) )
+                ++_relayDroppedCount;
+            old = _relayQueue.poll();
+        }
     }
     
+    protected static final int RELAY_QUEUE_CAPACITY = 1024;
     protected static int WARNING_SIZE = 10 * 1024 * 1024;
+    protected static final int READ_BUFFER_SIZE = 256 * 1024;
+    protected static final long SEND_QUEUE_LIMIT = 4 * 1024 * 1024;
+    //  Extra queue space for packets sent by the Swing event thread.
+    protected static final long EVENT_THREAD_ALLOWANCE = 1024 * 1024;
+    protected static final int MAX_GATHER = 64;
+    protected static final int INFLATE_BUFFER_SIZE = 64 * 1024;
 
     /*
-     * This thread recieves data packets of different types from the guiServer.
+     * This thread does all reading and writing on the socket.
      */
-    protected class ReceiveThread extends Thread {
+    protected class IOThread extends Thread {
+        
+        public IOThread() {
+            super( "guiServer connection" );
+        }
         
         public void run() {
-            int lastNBytes = 0;
-            int lastID = 0;
-            byte pad;
-            byte[] inNum = new byte[8];
-            while ( _connected ) {
-                byte[] data = null;
-                try {
-                    if ( _in.available() >= 8 ) {
-                        int packetId = _in.readInt();
-                        int nBytes = _in.readInt();
-                        if ( nBytes > WARNING_SIZE || nBytes < 0 ) {
-                            //  Only report this error if there have been packets received
-                            //  already - otherwise it may just indicate a connection/handshaking
-                            //  issue.
-                            if ( lastID != 0 ) {
-                                java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
-                                        "trying to read (" + nBytes + " of data) - packetID is " + packetId + " last is " + lastID + "(" + lastNBytes + ")" );
-                                java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
-                                        "Message has NOT BEEN READ" );
-                            }
-                        }
-                        else {
-                            lastID = packetId;
-                            lastNBytes = nBytes;
-                            data = new byte[nBytes];
-                            try {
-                                while ( _in.available() < nBytes )
-                                    try { Thread.sleep( 100 ); } catch ( Exception toe ) {}
-                                _in.readFully( data );
-                            } catch ( java.io.EOFException e ) {
-                                System.out.println( "EOFException!" );
-                            }
-                            //  Sort out what to do with this packet.
-                            if ( packetId == RELAY_PACKET && data != null ) {
-                                if ( _difxRelayStack == null )
-                                    _difxRelayStack = new ArrayDeque<byte[]>();
-                                synchronized ( _difxRelayStack ) {
-                                    _difxRelayStack.addLast( data );
-                                }
-                            }
-                            else if ( packetId == GUISERVER_VERSION ) {
-                                //  This is a report of the version of guiServer that is running.
-                                _settings.guiServerVersion( new String( data ) );
-                                //  Assuming the above message indicates a new connection, clear the
-                                //  list of guiServer environment variables - we will get new ones.
-                                _settings.clearGuiServerEnvironment();
-                            }
-                            else if ( packetId == GUISERVER_DIFX_VERSION ) {
-                                //  This is the difx version for which the guiServer was compiled.  Not
-                                //  currently used.
-                                _settings.guiServerDifxVersion( new String( data ) );
-                            }
-                            else if ( packetId == GUISERVER_USER ) {
-                                //  This is the username used to start guiServer.
-                                _settings.difxControlUser( new String( data ) );
-                            }
-                            else if ( packetId == AVAILABLE_DIFX_VERSION ) {
-                                //  Add an available DiFX version to the list in settings.
-                                _settings.addDifxVersion( new String( data ) );
-                            }
-                            else if ( packetId == INFORMATION_PACKET ) {
-                                _settings.messageCenter().message( 0, "guiServer", new String( data ) );
-                            }
-                            else if ( packetId == WARNING_PACKET ) {
-                                _settings.messageCenter().warning( 0, "guiServer", new String( data ) );
-                            }
-                            else if ( packetId == ERROR_PACKET ) {
-                                _settings.messageCenter().error( 0, "guiServer", new String( data ) );
-                            }
-                            else if ( packetId == DIFX_BASE ) {
-                                //  The DiFX base is the path below which all "setup" files
-                                //  exist.
-                                _settings.clearDifxVersion();
-                                _settings.difxBase( new String( data ) );
-                            }
-                            else if ( packetId == GUISERVER_ENVIRONMENT ) {
-                                //  These are environment variables from the guiServer
-                                _settings.addGuiServerEnvironment( new String( data ) );
-                            }
-                            else if ( packetId == CHANNEL_ALL_DATA ) {
-                                //  Indicates the guiServer has the ability to "channel" all data
-                                //  through a single TCP port.
-                                _settings.channelAllDataAvailable( true );
-                                //  Tell guiServer whether we want to do this based on the current
-                                //  setting.
-                                if ( _settings.channelAllData() )
-                                    sendPacket( CHANNEL_ALL_DATA_ON, 0, null );
-                                else
-                                    sendPacket( CHANNEL_ALL_DATA_OFF, 0, null );
-                            }
-                            else if ( packetId == CHANNEL_CONNECTION ) {
-                                //  A "channelled" TCP connection is requested.  
-                                ByteBuffer b = ByteBuffer.wrap( data, 0, 4 );
-                                b.order( ByteOrder.BIG_ENDIAN );
-                                int port = b.getInt();
-                                synchronized ( _channelConnected ) {
-                                    if ( _channelConnected.containsKey( port ) ) {
-                                        _channelConnected.put( port, true );
-                                        //  Create a "map" for data on this channel.
-                                        _channelMap.put( port, new ArrayDeque<ByteBuffer>() );
-                                    }
-                                    else
-                                        java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
-                                                "guiServer trying to connect to port " + port + " for a channel TCP connection, but this port doesn't exist" );
-                                }
-                            }
-                            else if ( packetId == CHANNEL_DATA ) {
-                                //  Data over a "channelled" TCP connection.
-                                ByteBuffer b = ByteBuffer.wrap( data, 0, nBytes );
-                                b.order( ByteOrder.BIG_ENDIAN );
-                                int port = b.getInt();
-                                synchronized ( _channelConnected ) {
-                                    _channelMap.get( port ).add( b );  
-                                }
-                            }
-                            receiveEvent( data.length );
-                        }
-                    }
-                    else {
-                        try { Thread.sleep( _settings.timeout() ); } catch ( Exception exc ) {}
-                    }
-                } catch ( SocketTimeoutException e ) {
-                    //  Timeouts are actually expected and should not cause alarm.
-                } catch ( java.io.IOException e ) {
+            _readBuffer = ByteBuffer.allocateDirect( READ_BUFFER_SIZE );
+            _readBuffer.order( ByteOrder.BIG_ENDIAN );
+            _pendingWrites = new ArrayDeque<ByteBuffer>();
+            _gather = new ByteBuffer[MAX_GATHER];
+            try {
+                SelectionKey key = _socketChannel.keyFor( _selector );
+                while ( _connected ) {
+                    _selector.select();
+                    _wakeupPending.set( false );
+                    if ( !_connected )
+                        break;
+                    _selector.selectedKeys().clear();
+                    //  A new relay listener gets what was queued before it arrived.
+                    RelayListener listener = _relayListener;
+                    if ( listener != null )
+                        drainRelayQueue( listener );
+                    if ( key.isValid() && key.isReadable() )
+                        read();
+                    //  Write as much as the socket will take.  If there is more, ask
+                    //  to be told when there is room.
+                    boolean more = write();
+                    if ( key.isValid() )
+                        key.interestOps( more ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ );
+                }
+            } catch ( java.io.IOException e ) {
+                if ( _connected ) {
                     _connected = false;
                     connectEvent( e.toString() );
                 }
+            } catch ( java.nio.channels.CancelledKeyException e ) {
+                //  The connection was closed.
+                _connected = false;
+            }
+            try {
+                _socketChannel.close();
+                _selector.close();
+            } catch ( java.io.IOException e ) {}
+            //  Anyone waiting to send can give up now.
+            synchronized ( _sendSpaceLock ) {
+                _sendSpaceLock.notifyAll();
             }
         }
         
-    }
+        /*
+         * Read whatever is available and process all complete packets.  A packet
+         * that is only partly here stays in the buffer until the rest arrives.
+         */
+        protected void read() throws IOException {
+            int n = _socketChannel.read( _readBuffer );
+            if ( n < 0 )
+                throw new java.io.EOFException( "guiServer closed the connection" );
+            _readBuffer.flip();
+            while ( _readBuffer.remaining() >= 8 ) {
+                int start = _readBuffer.position();
+                int packetId = _readBuffer.getInt( start );
+                int nBytes = _readBuffer.getInt( start + 4 );
+                if ( nBytes > WARNING_SIZE || nBytes < 0 ) {
+                    //  Only report this error if there have been packets received
+                    //  already - otherwise it may just indicate a connection/handshaking
+                    //  issue.
+                    if ( _lastID != 0 ) {
+                        java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
+                                "trying to read (" + nBytes + " of data) - packetID is " + packetId + " last is " + _lastID + "(" + _lastNBytes + ")" );
+                        java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
+                                "Message has NOT BEEN READ" );
+                    }
+                    _readBuffer.position( start + 8 );
+                    continue;
+                }
+                if ( _readBuffer.remaining() < 8 + nBytes ) {
+                    //  Incomplete.  Make sure the whole packet will fit in the buffer.
+                    if ( 8 + nBytes > _readBuffer.capacity() ) {
+                        ByteBuffer bigger = ByteBuffer.allocateDirect( 8 + nBytes );
+                        bigger.order( ByteOrder.BIG_ENDIAN );
+                        bigger.put( _readBuffer );
+                        _readBuffer = bigger;
+                        return;
+                    }
+                    break;
+                }
+                _lastID = packetId;
+                _lastNBytes = nBytes;
+                //  Hand over just this packet's data.
+                ByteBuffer data = _readBuffer.duplicate();
+                data.order( ByteOrder.BIG_ENDIAN );
+                data.position( start + 8 );
+                data.limit( start + 8 + nBytes );
+                _readBuffer.position( start + 8 + nBytes );
+                processPacket( packetId, nBytes, data );
+            }
+            _readBuffer.compact();
+            //  Shrink back to normal once an unusually large packet has gone.
+            if ( _readBuffer.capacity() > READ_BUFFER_SIZE && _readBuffer.position() < READ_BUFFER_SIZE ) {
+                _readBuffer.flip();
+                ByteBuffer normal = ByteBuffer.allocateDirect( READ_BUFFER_SIZE );
+                normal.order( ByteOrder.BIG_ENDIAN );
+                normal.put( _readBuffer );
+                _readBuffer = normal;
+            }
+        }
+        
+        /*
+         * Write queued packets, gathering as many as possible into each write.
+         * Returns true if there is still data waiting to be written.
+         */
+        protected boolean write() throws IOException {
+            while ( true ) {
+                ByteBuffer frame = _sendQueue.poll();
+                while ( frame != null ) {
+                    _pendingWrites.addLast( frame );
+                    frame = _sendQueue.poll();
+                }
+                if ( _pendingWrites.isEmpty() )
+                    return false;
+                int count = 0;
+                for ( Iterator<ByteBuffer> iter = _pendingWrites.iterator(); iter.hasNext() && count < MAX_GATHER; )
+                    _gather[count++] = iter.next();
+                long written = _socketChannel.write( _gather, 0, count );
+                //  If the socket didn't take everything it is full.
+                boolean full = _gather[count - 1].hasRemaining();
+                for ( int i = 0; i < count; ++i )
+                    _gather[i] = null;
+                while ( !_pendingWrites.isEmpty() && !_pendingWrites.peekFirst().hasRemaining() )
+                    _pendingWrites.pollFirst();
+                if ( written > 0 && _sendQueueBytes.addAndGet( -written ) < SEND_QUEUE_LIMIT ) {
+                    synchronized ( _sendSpaceLock ) {
+                        _sendSpaceLock.notifyAll();
+                    }
+                }
+                if ( full )
+                    return true;
+            }
+        }
         
+        protected ByteBuffer _readBuffer;
+        protected ArrayDeque<ByteBuffer> _pendingWrites;
+        protected ByteBuffer[] _gather;
+        protected int _lastID;
+        protected int _lastNBytes;
+        
+    }
+    
+    /*
+     * Sort out what to do with a packet.  The data are the remaining content of the
+     * buffer, which is only valid for the duration of this call.
+     */
+    protected void processPacket( int packetId, int nBytes, ByteBuffer data ) {
+        if ( packetId == RELAY_PACKET ) {
+            relayPacket( data );
+        }
+        else if ( packetId == GUISERVER_VERSION ) {
+            //  This is a report of the version of guiServer that is running.
+            _settings.guiServerVersion( string( data ) );
+            //  Assuming the above message indicates a new connection, clear the
+            //  list of guiServer environment variables - we will get new ones.
+            _settings.clearGuiServerEnvironment();
+        }
+        else if ( packetId == GUISERVER_DIFX_VERSION ) {
+            //  This is the difx version for which the guiServer was compiled.  Not
+            //  currently used.
+            _settings.guiServerDifxVersion( string( data ) );
+        }
+        else if ( packetId == GUISERVER_USER ) {
+            //  This is the username used to start guiServer.
+            _settings.difxControlUser( string( data ) );
+        }
+        else if ( packetId == AVAILABLE_DIFX_VERSION ) {
+            //  Add an available DiFX version to the list in settings.
+            _settings.addDifxVersion( string( data ) );
+        }
+        else if ( packetId == INFORMATION_PACKET ) {
+            _settings.messageCenter().message( 0, "guiServer", string( data ) );
+        }
+        else if ( packetId == WARNING_PACKET ) {
+            _settings.messageCenter().warning( 0, "guiServer", string( data ) );
+        }
+        else if ( packetId == ERROR_PACKET ) {
+            _settings.messageCenter().error( 0, "guiServer", string( data ) );
+        }
+        else if ( packetId == DIFX_BASE ) {
+            //  The DiFX base is the path below which all "setup" files
+            //  exist.
+            _settings.clearDifxVersion();
+            _settings.difxBase( string( data ) );
+        }
+        else if ( packetId == GUISERVER_ENVIRONMENT ) {
+            //  These are environment variables from the guiServer
+            _settings.addGuiServerEnvironment( string( data ) );
+        }
+        else if ( packetId == CHANNEL_ALL_DATA ) {
+            //  Indicates the guiServer has the ability to "channel" all data
+            //  through a single TCP port.
+            _settings.channelAllDataAvailable( true );
+            //  Tell guiServer whether we want to do this based on the current
+            //  setting.
+            if ( _settings.channelAllData() )
+                sendPacket( CHANNEL_ALL_DATA_ON, 0, null );
+            else
+                sendPacket( CHANNEL_ALL_DATA_OFF, 0, null );
+        }
+        else if ( packetId == COMPRESSION_AVAILABLE ) {
+            //  The guiServer is able to compress the data it sends.  Ask for this
+            //  if the settings say so.
+            _compressionAvailable = true;
+            compression( _settings.compressData() );
+        }
+        else if ( packetId == COMPRESSION_ON ) {
+            //  The guiServer has started a new compressed stream - everything
+            //  compressed from here on is part of it.
+            if ( _inflater == null )
+                _inflater = new Inflater();
+            else
+                _inflater.reset();
+            _inflatedLength = 0;
+            if ( _compressionStart == 0 )
+                _compressionStart = System.nanoTime();
+            _compressionOn = true;
+        }
+        else if ( packetId == COMPRESSION_OFF ) {
+            //  The guiServer has stopped compressing (it only tells us this if
+            //  something went wrong).
+            _compressionOn = false;
+        }
+        else if ( packetId == COMPRESSED_PACKET ) {
+            //  Each of the packets this contains is counted when it is processed.
+            inflatePackets( data );
+            return;
+        }
+        else if ( packetId == CHANNEL_CONNECTION ) {
+            //  A "channelled" TCP connection is requested.  
+            int port = data.getInt();
+            ChannelPipe pipe = _channelPipes.get( port );
+            if ( pipe != null )
+                pipe.connect();
+            else
+                java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
+                        "guiServer trying to connect to port " + port + " for a channel TCP connection, but this port doesn't exist" );
+        }
+        else if ( packetId == CHANNEL_DATA ) {
+            //  Data over a "channelled" TCP connection.
+            int port = data.getInt();
+            ChannelPipe pipe = _channelPipes.get( port );
+            //  Data for a port that has been closed are discarded.
+            if ( pipe != null )
+                pipe.add( data );
+        }
+        receiveEvent( nBytes );
+    }
+    
+    /*
+     * Inflate a compressed packet and process the packets it contains.  This is
+     * only called by the I/O thread, so the inflater and buffers are not shared.
+     * Any part of a packet left over (the guiServer shouldn't split them, but it
+     * does no harm to allow it) is kept for the next compressed packet.
+     */
+    protected void inflatePackets( ByteBuffer data ) {
+        if ( _inflater == null ) {
+            java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
+                    "compressed packet from guiServer before compression was started - ignored" );
+            failChannelPipes( "compressed data from guiServer were discarded" );
+            return;
+        }
+        int nBytes = data.remaining();
+        if ( _compressedInput == null || _compressedInput.length < nBytes )
+            _compressedInput = new byte[Math.max( nBytes, INFLATE_BUFFER_SIZE )];
+        if ( _inflated == null )
+            _inflated = new byte[INFLATE_BUFFER_SIZE];
+        data.get( _compressedInput, 0, nBytes );
+        long startTime = System.nanoTime();
+        int startLength = _inflatedLength;
+        _inflater.setInput( _compressedInput, 0, nBytes );
+        try {
+            while ( true ) {
+                if ( _inflated.length - _inflatedLength < INFLATE_BUFFER_SIZE / 4 ) {
+                    byte[] bigger = new byte[_inflated.length * 2];
+                    System.arraycopy( _inflated, 0, bigger, 0, _inflatedLength );
+                    _inflated = bigger;
+                }
+                int n = _inflater.inflate( _inflated, _inflatedLength, _inflated.length - _inflatedLength );
+                if ( n == 0 )
+                    break;
+                _inflatedLength += n;
+            }
+        } catch ( DataFormatException e ) {
+            //  Nothing more from this stream can be trusted, and whatever was in it
+            //  is lost.  Any channelled transfer may have lost some of its data, so
+            //  they are all failed (whoever is reading them gets an error) rather
+            //  than left to read a stream with a hole in it.  Then ask for a new
+            //  compressed stream.
+            String reason = "bad compressed data from guiServer (" + e.getMessage() + ")";
+            java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
+                    reason + " - restarting compression" );
+            _settings.messageCenter().error( 0, "guiServer", reason + " - transfers in progress were stopped" );
+            _inflater.end();
+            _inflater = null;
+            _inflatedLength = 0;
+            failChannelPipes( reason );
+            compression( _settings.compressData() );
+            return;
+        }
+        _inflateNanos += System.nanoTime() - startTime;
+        _compressedBytes += nBytes;
+        _inflatedBytes += _inflatedLength - startLength;
+        //  Process all of the complete packets.
+        ByteBuffer packets = ByteBuffer.wrap( _inflated, 0, _inflatedLength );
+        packets.order( ByteOrder.BIG_ENDIAN );
+        while ( packets.remaining() >= 8 ) {
+            int start = packets.position();
+            int packetId = packets.getInt( start );
+            int packetBytes = packets.getInt( start + 4 );
+            if ( packetBytes < 0 ) {
+                java.util.logging.Logger.getLogger("global").log(java.util.logging.Level.WARNING, 
+                        "bad packet size (" + packetBytes + ") in compressed data from guiServer - discarding" );
+                packets.position( packets.limit() );
+                break;
+            }
+            if ( packets.remaining() < 8 + packetBytes )
+                break;
+            ByteBuffer packet = packets.duplicate();
+            packet.order( ByteOrder.BIG_ENDIAN );
+            packet.position( start + 8 );
+            packet.limit( start + 8 + packetBytes );
+            packets.position( start + 8 + packetBytes );
+            processPacket( packetId, packetBytes, packet );
+        }
+        _inflatedLength = packets.remaining();
+        if ( _inflatedLength > 0 )
+            System.arraycopy( _inflated, packets.position(), _inflated, 0, _inflatedLength );
+        //  Don't hang on to a lot of memory after an unusually large packet.
+        if ( _inflated.length > READ_BUFFER_SIZE && _inflatedLength < INFLATE_BUFFER_SIZE ) {
+            byte[] normal = new byte[INFLATE_BUFFER_SIZE];
+            System.arraycopy( _inflated, 0, normal, 0, _inflatedLength );
+            _inflated = normal;
+        }
+    }
+    
+    /*
+     * Ask the guiServer to turn compression on or off.  This does nothing if the
+     * guiServer hasn't said it can do it.  Turning compression on again starts a new
+     * compressed stream.
+     */
+    public void compression( boolean on ) {
+        if ( !_compressionAvailable )
+            return;
+        if ( on )
+            sendPacket( COMPRESSION_ON, 0, null );
+        else {
+            sendPacket( COMPRESSION_OFF, 0, null );
+            _compressionOn = false;
+        }
+    }
+    
+    /*
+     * Forget everything about compression - this is a new connection.
+     */
+    protected void resetCompression() {
+        _compressionAvailable = false;
+        _compressionOn = false;
+        if ( _inflater != null )
+            _inflater.end();
+        _inflater = null;
+        _inflatedLength = 0;
+        _compressionStart = 0;
+        _compressedBytes = 0;
+        _inflatedBytes = 0;
+        _inflateNanos = 0;
+    }
+    
+    /*
+     * Compression status and statistics for this connection.  The byte counts are
+     * of compressed packets as they arrived and of their content after inflating.
+     * The inflate time is the CPU time spent inflating, and the compression time is
+     * how long ago compression was first turned on (both in nanoseconds) - between
+     * them they give the share of a CPU compression costs us.
+     */
+    public boolean compressionAvailable() { return _compressionAvailable; }
+    public boolean compressionOn() { return _compressionOn; }
+    public long compressedBytes() { return _compressedBytes; }
+    public long inflatedBytes() { return _inflatedBytes; }
+    public long inflateNanos() { return _inflateNanos; }
+    public long compressionNanos() {
+        if ( _compressionStart == 0 )
+            return 0;
+        return System.nanoTime() - _compressionStart;
+    }
+    
+    /*
+     * Decode the content of a buffer as a string.
+     */
+    protected static String string( ByteBuffer data ) {
+        return Charset.defaultCharset().decode( data ).toString();
+    }
     
     /*
      * This turns on (or off) the broadcast relay capability.
@@ -391,97 +804,81 @@ public class GuiServerConnection {
     }
 
 
-    protected Socket _socket;
-    protected DataInputStream _in;
-    protected DataOutputStream _out;
-    protected boolean _connected;
+    protected SocketChannel _socketChannel;
+    protected Selector _selector;
+    protected volatile boolean _connected;
     protected EventListenerList _connectListeners;
     protected EventListenerList _sendListeners;
     protected EventListenerList _receiveListeners;
-    protected ArrayDeque<byte[]> _difxRelayStack;
-    protected ReceiveThread _receiveThread;
+    protected ArrayBlockingQueue<byte[]> _relayQueue;
+    protected volatile RelayListener _relayListener;
+    protected volatile long _relayCount;
+    protected volatile long _relayDroppedCount;
+    protected IOThread _ioThread;
     protected SystemSettings _settings;
     
-    //  Stuff used for channeling data.
-    protected HashMap<Integer,ArrayDeque<ByteBuffer>> _channelMap;
-    protected HashMap<Integer,Boolean> _channelConnected;
-    protected HashMap<Integer,ByteBuffer> _lastBuffer;
+    //  Outgoing packets waiting for the I/O thread.
+    protected ConcurrentLinkedQueue<ByteBuffer> _sendQueue;
+    protected AtomicLong _sendQueueBytes;
+    protected AtomicBoolean _wakeupPending;
+    protected Object _sendSpaceLock;
+    protected volatile long _sendDroppedCount;
+    
+    //  Inflating of compressed packets.  Only the I/O thread uses these (the
+    //  statistics are read elsewhere).
+    protected volatile boolean _compressionAvailable;
+    protected volatile boolean _compressionOn;
+    protected Inflater _inflater;
+    protected byte[] _compressedInput;
+    protected byte[] _inflated;
+    protected int _inflatedLength;
+    protected volatile long _compressionStart;
+    protected volatile long _compressedBytes;
+    protected volatile long _inflatedBytes;
+    protected volatile long _inflateNanos;
+    
+    //  Pipes for "channelled" data, by port.
+    protected ConcurrentHashMap<Integer,ChannelPipe> _channelPipes;
     
     //  "Open" a new channeling port.  This is supposed to look (externally) like
     //  an independent TCP port, but the data for it are channelled through the 
     //  primary TCP connection.  The port number is used to decide where data are
-    //  to go.
+    //  to go.  False is returned if the port is already open.
     public boolean openChannelPort( int port ) {
-        //  Create maps if they don't already exist.
-        if ( _channelMap == null ) {
-            _channelMap = new HashMap<Integer,ArrayDeque<ByteBuffer>>();
-            _channelConnected = new HashMap<Integer,Boolean>();
-            _lastBuffer = new HashMap<Integer,ByteBuffer>();
-        }
-        boolean ret = true;
-        synchronized ( _channelConnected ) {
-            //  Bail out if this port is already in the map.
-            if ( _channelConnected.get( port ) != null )
-                ret = false;
-            else
-                //  Add a new map item to await a connection at the given port.
-                _channelConnected.put( port, false );
-        }
-        return ret;
+        return _channelPipes.putIfAbsent( port, new ChannelPipe( port ) ) == null;
+    }
+    
+    //  The pipe holding incoming data for a port (null if the port isn't open).
+    public ChannelPipe channelPipe( int port ) {
+        return _channelPipes.get( port );
     }
     
     //  Determine whether a port has been connected to by the guiServer.
     public boolean portConnected( int port ) {
-        boolean ret = false;
-        synchronized ( _channelConnected ) {
-            if ( _channelConnected.containsKey( port ) && _channelConnected.get( port ) == true )
-                ret = true;
-        }
-        return ret;
+        ChannelPipe pipe = _channelPipes.get( port );
+        return pipe != null && pipe.connected();
     }
     
     //  Is there data on this port?
     public boolean portData( int port ) {
-        boolean ret = false;
-        if ( _channelConnected != null ) {
-            synchronized( _channelConnected ) {
-                ret = _channelMap.get( port ).size() > 0;
-            }
-        }
-        return ret;
+        ChannelPipe pipe = _channelPipes.get( port );
+        return pipe != null && pipe.available() > 0;
     }
     
-    //  How many bytes are available in the next data item on the port?
-    public int portDataNum( int port ) {
-        int ret = 0;
-        synchronized( _channelConnected ) {
-            if ( portData( port ) )
-                ret = _channelMap.get( port ).peekFirst().remaining();
-        }
-        return ret;
+    //  Fail every open channel port - data for any of them may have been lost.
+    //  They stay open (so the port numbers aren't reused) until their owners
+    //  close them.
+    protected void failChannelPipes( String reason ) {
+        for ( ChannelPipe pipe : _channelPipes.values() )
+            pipe.fail( reason );
     }
     
-    //  Return the oldest data associated with this channel port.
-    public ByteBuffer portBuffer( int port ) {
-        ByteBuffer ret = null;
-        synchronized( _channelConnected ) {
-            //  See if we have an existing buffer associated with this port.
-            ret = _lastBuffer.get( port );
-            //  Get a new buffer if one doesn't exist or the last one is empty.
-            if ( ret == null || ret.remaining() <= 0 ) {
-                ret = _channelMap.get( port ).pollFirst();
-                _lastBuffer.put( port, ret );
-            }
-        }
-        return ret;
-    }
-    
-    //  Close anything associated with this port.
+    //  Close anything associated with this port.  Anyone waiting for data on it
+    //  is woken.
     public void portClose( int port ) {
-        synchronized( _channelConnected ) {
-            _channelMap.remove( port );
-            _channelConnected.remove( port );
-        }
+        ChannelPipe pipe = _channelPipes.remove( port );
+        if ( pipe != null )
+            pipe.close();
     }
     
 }
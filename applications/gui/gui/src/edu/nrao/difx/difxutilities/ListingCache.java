@@ -0,0 +1,273 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Recent results of "ls" operations on the DiFX host (see DiFXCommand_ls), so
+ * that asking for the same listing again within a few seconds - which tab
+ * completion and the various file browsers do all the time - doesn't cost a
+ * command, a transfer port and a connection each time.
+ *
+ * Results are kept by path pattern and ls arguments, and are good for a limited
+ * time (the "lifetime").  A pattern that is a plain path followed by "*" can also
+ * be answered from the result for a shorter path in the same directory - the
+ * listing for "/data/ex*" contains everything the listing for "/data/exp1*" would.
+ *
+ * Commands that change things on the DiFX host (mkdir, mv, rm, sending a file)
+ * invalidate anything that might include the paths they change.  Any other
+ * command that might change files clears everything.  A listing that was started
+ * before an invalidation is not kept when it finishes.
+ *
+ * Invalidation happens when a command is sent, but the guiServer carries it out
+ * some time later and doesn't tell us when it is done - a listing made in between
+ * may or may not show the change.  So a change stays "unsettled" for a while
+ * (the "settle time") after it is sent, and listings that might include it are
+ * not kept until then.
+ */
+package edu.nrao.difx.difxutilities;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ListingCache {
+
+    public ListingCache() {
+        //  Access ordered, so the least recently used results are dropped when
+        //  there are too many.
+        _entries = new LinkedHashMap<String,Listing>( 64, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String,Listing> eldest ) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        _lifetime = DEFAULT_LIFETIME;
+        _settleTime = DEFAULT_SETTLE_TIME;
+        _changes = new HashMap<String,Long>();
+    }
+
+    /*
+     * Find the listing for a pattern and set of arguments, or return null if we
+     * don't have a good one.
+     */
+    synchronized public ArrayList<String> get( String pattern, String args ) {
+        long now = System.currentTimeMillis();
+        Listing entry = _entries.get( key( pattern, args ) );
+        if ( entry != null ) {
+            if ( now - entry.time <= _lifetime ) {
+                ++_hits;
+                return new ArrayList<String>( entry.lines );
+            }
+            _entries.remove( key( pattern, args ) );
+        }
+        //  See if a listing with a shorter prefix in the same directory covers this
+        //  one.  If there are several, the longest has the fewest lines to sort through.
+        String prefix = plainPrefix( pattern );
+        if ( prefix != null ) {
+            Listing best = null;
+            for ( Listing candidate : _entries.values() ) {
+                if ( candidate.prefix != null && candidate.args.equals( args )
+                        && now - candidate.time <= _lifetime
+                        && prefix.startsWith( candidate.prefix )
+                        && prefix.indexOf( '/', candidate.prefix.length() ) < 0
+                        && ( best == null || candidate.prefix.length() > best.prefix.length() ) )
+                    best = candidate;
+            }
+            if ( best != null ) {
+                ArrayList<String> ret = new ArrayList<String>();
+                for ( String line : best.lines ) {
+                    if ( line.startsWith( prefix ) )
+                        ret.add( line );
+                }
+                ++_prefixHits;
+                return ret;
+            }
+        }
+        ++_misses;
+        return null;
+    }
+
+    /*
+     * The current "generation" - this changes every time anything is invalidated.
+     * Get it before starting a listing and hand it to put() with the result.  Other
+     * copies of things on the DiFX host (see GetFileMonitor.prefetch()) use it to
+     * know when they can no longer be trusted.
+     */
+    synchronized public int generation() { return _generation; }
+
+    /*
+     * Save the result of a listing.  The time is when the listing was started.  The
+     * result is ignored if anything was invalidated since it was started.
+     */
+    synchronized public void put( String pattern, String args, ArrayList<String> lines, long time, int generation ) {
+        if ( generation != _generation || unsettled( pattern ) )
+            return;
+        Listing entry = new Listing();
+        entry.pattern = pattern;
+        entry.args = args;
+        entry.lines = new ArrayList<String>( lines );
+        entry.time = time;
+        //  The result can only be used for longer patterns if it is the sort of listing
+        //  that produces full paths.
+        if ( args.equals( PREFIX_ARGS ) ) {
+            entry.prefix = plainPrefix( pattern );
+            if ( entry.prefix != null ) {
+                for ( String line : lines ) {
+                    if ( !line.startsWith( entry.prefix ) )
+                        entry.prefix = null;
+                }
+            }
+        }
+        _entries.put( key( pattern, args ), entry );
+    }
+
+    /*
+     * Something at the given path on the DiFX host has changed (been created,
+     * removed, moved or written).  Drop any listing that might include it - those
+     * of the directory it is in (and above) or of anything inside it.
+     */
+    synchronized public void invalidate( String path ) {
+        ++_generation;
+        ++_invalidations;
+        if ( path == null || path.length() == 0 ) {
+            _entries.clear();
+            _changes.put( "", System.currentTimeMillis() );
+            return;
+        }
+        _changes.put( path, System.currentTimeMillis() );
+        for ( Iterator<Listing> iter = _entries.values().iterator(); iter.hasNext(); ) {
+            if ( affects( path, iter.next().pattern ) )
+                iter.remove();
+        }
+    }
+
+    /*
+     * Forget everything.
+     */
+    synchronized public void clear() {
+        ++_generation;
+        ++_invalidations;
+        _entries.clear();
+        _changes.put( "", System.currentTimeMillis() );
+    }
+
+    /*
+     * How long (in milliseconds) after a change is sent listings that might include
+     * it are not kept.
+     */
+    synchronized public void settleTime( long newVal ) { _settleTime = newVal; }
+    synchronized public long settleTime() { return _settleTime; }
+
+    /*
+     * How long (in milliseconds) a listing is good for.
+     */
+    synchronized public void lifetime( long newVal ) { _lifetime = newVal; }
+    synchronized public long lifetime() { return _lifetime; }
+
+    synchronized public int size() { return _entries.size(); }
+    synchronized public long hitCount() { return _hits; }
+    synchronized public long prefixHitCount() { return _prefixHits; }
+    synchronized public long missCount() { return _misses; }
+    synchronized public long invalidationCount() { return _invalidations; }
+
+    /*
+     * Whether a listing of the given pattern might include a change that hasn't
+     * settled yet.  Settled changes are forgotten along the way.
+     */
+    protected boolean unsettled( String pattern ) {
+        long now = System.currentTimeMillis();
+        boolean ret = false;
+        for ( Iterator<Map.Entry<String,Long>> iter = _changes.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<String,Long> change = iter.next();
+            if ( now - change.getValue() > _settleTime )
+                iter.remove();
+            else if ( change.getKey().length() == 0 || affects( change.getKey(), pattern ) )
+                ret = true;
+        }
+        return ret;
+    }
+
+    /*
+     * Whether a change to "path" might show up in a listing of "pattern" - it is
+     * in the directory listed (or above it) or inside something listed.
+     */
+    protected static boolean affects( String path, String pattern ) {
+        String fixed = fixedPart( pattern );
+        String directory = fixed.substring( 0, fixed.lastIndexOf( '/' ) + 1 );
+        return path.startsWith( directory ) || fixed.startsWith( path );
+    }
+
+    protected static String key( String pattern, String args ) {
+        return args + "\n" + pattern;
+    }
+
+    /*
+     * The part of a pattern before the first wildcard (or other character the shell
+     * might do something with).
+     */
+    protected static String fixedPart( String pattern ) {
+        for ( int i = 0; i < pattern.length(); ++i ) {
+            if ( SPECIAL_CHARACTERS.indexOf( pattern.charAt( i ) ) >= 0 )
+                return pattern.substring( 0, i );
+        }
+        return pattern;
+    }
+
+    /*
+     * If a pattern is a plain path followed by a single "*", with something after
+     * the last "/", return the path.  Otherwise null.
+     */
+    protected static String plainPrefix( String pattern ) {
+        if ( !pattern.endsWith( "*" ) )
+            return null;
+        String prefix = pattern.substring( 0, pattern.length() - 1 );
+        if ( prefix.length() == 0 || prefix.endsWith( "/" ) || !fixedPart( prefix ).equals( prefix ) )
+            return null;
+        return prefix;
+    }
+
+    protected static class Listing {
+        String pattern;
+        String args;
+        String prefix;
+        ArrayList<String> lines;
+        long time;
+    }
+
+    protected LinkedHashMap<String,Listing> _entries;
+    protected long _lifetime;
+    protected long _settleTime;
+    //  Recent changes (path, time sent) that may not have been carried out yet.
+    //  An empty path is a change to anything.
+    protected HashMap<String,Long> _changes;
+    protected int _generation;
+    protected long _hits;
+    protected long _prefixHits;
+    protected long _misses;
+    protected long _invalidations;
+
+    //  The default arguments used by DiFXCommand_ls, which list each match as a full
+    //  path.
+    public static final String PREFIX_ARGS = "-d -p --dereference-command-line-symlink-to-dir";
+    protected static final String SPECIAL_CHARACTERS = "*?[]{}~$\\\"' ";
+    protected static final long DEFAULT_LIFETIME = 10000;
+    protected static final long DEFAULT_SETTLE_TIME = 5000;
+    protected static final int MAX_ENTRIES = 256;
+
+}
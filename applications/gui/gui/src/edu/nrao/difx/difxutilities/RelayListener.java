@@ -0,0 +1,35 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Receives DiFX multicast packets relayed by the guiServer.  The function is
+ * called from the GuiServerConnection's I/O thread as each packet arrives, so it
+ * should not block - it returns false if the packet could not be accepted (it is
+ * then counted as dropped).  The packet is the remaining content of the buffer,
+ * which belongs to the connection and is only valid during the call.
+ */
+package edu.nrao.difx.difxutilities;
+
+import java.nio.ByteBuffer;
+import java.util.EventListener;
+
+public interface RelayListener extends EventListener {
+    
+    public boolean relayed( ByteBuffer data );
+    
+}
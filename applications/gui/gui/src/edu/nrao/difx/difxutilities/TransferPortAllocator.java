@@ -0,0 +1,282 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Hands out "slots" (offsets from the transfer port setting) for the TCP
+ * transfer operations used by getFile, ls, etc.  Each slot is a bit in an array
+ * of longs, claimed and freed with compare-and-set, so allocating a free slot
+ * never takes a lock and never waits for anyone else's allocation.
+ *
+ * When every slot is in use, callers wait in a first-come, first-served line.
+ * A released slot is handed directly to the caller at the front of the line
+ * (it is never marked free, so nobody can jump in ahead), and that caller is
+ * woken immediately.
+ *
+ * Some statistics are kept so we can see how hard the ports are being worked.
+ */
+package edu.nrao.difx.difxutilities;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+public class TransferPortAllocator {
+
+    public TransferPortAllocator( int size ) {
+        _size = Math.max( 1, size );
+        _bits = new AtomicLongArray( ( _size + 63 ) / 64 );
+        _cursor = new AtomicInteger();
+        _waiters = new ConcurrentLinkedQueue<Waiter>();
+        _inUse = new AtomicInteger();
+        _peakInUse = new AtomicInteger();
+        _allocations = new AtomicLong();
+        _waits = new AtomicLong();
+        _waitNanos = new AtomicLong();
+        _maxWaitNanos = new AtomicLong();
+        _timeouts = new AtomicLong();
+    }
+
+    /*
+     * Build a new allocator of a different size that starts with the same slots
+     * in use as this one (as far as they fit).  Used when the number of ports is
+     * changed - anyone waiting on this allocator is told to try again.
+     */
+    public TransferPortAllocator resize( int size ) {
+        TransferPortAllocator ret = new TransferPortAllocator( size );
+        for ( int slot = 0; slot < Math.min( _size, ret._size ); ++slot ) {
+            if ( inUse( slot ) && ret.claim( slot ) )
+                ret.counted();
+        }
+        _retired = true;
+        for ( Waiter waiter : _waiters )
+            LockSupport.unpark( waiter._thread );
+        return ret;
+    }
+
+    /*
+     * Get a free slot without waiting, or -1 if there are none.  Slots are tried
+     * starting from a rotating position so consecutive operations tend to use
+     * different ports (the guiServer end may not have finished with the last one).
+     */
+    public int tryAcquire() {
+        //  Waiting callers get released slots first.
+        if ( !_waiters.isEmpty() )
+            return -1;
+        int slot = scan();
+        if ( slot >= 0 )
+            counted();
+        return slot;
+    }
+
+    /*
+     * Get a slot, waiting up to the given number of milliseconds for one to be
+     * released if none are free (zero or less means wait forever).  Returns -1 on
+     * a timeout, or if this allocator was replaced while we were waiting.
+     * Interrupts do not stop the wait (the interrupt status is preserved).
+     */
+    public int acquire( long timeout ) {
+        int slot = tryAcquire();
+        if ( slot >= 0 )
+            return slot;
+        long start = System.nanoTime();
+        long deadline = start + timeout * 1000000L;
+        Waiter waiter = new Waiter();
+        _waiters.add( waiter );
+        boolean interrupted = false;
+        while ( true ) {
+            if ( waiter._slot.get() >= 0 ) {
+                slot = waiter._slot.get();
+                break;
+            }
+            //  Something may have been freed while nobody was in line (a release
+            //  with no one waiting clears the bit and wakes the first in line).
+            int freeSlot = scan();
+            if ( freeSlot >= 0 ) {
+                if ( waiter.cancel() ) {
+                    _waiters.remove( waiter );
+                    slot = freeSlot;
+                    break;
+                }
+                //  A slot was handed to us as well - we only need one.
+                give( freeSlot );
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if ( _retired || ( timeout > 0 && remaining <= 0 ) ) {
+                if ( waiter.cancel() ) {
+                    _waiters.remove( waiter );
+                    if ( !_retired )
+                        _timeouts.incrementAndGet();
+                    break;
+                }
+                //  Lost the race with a release - the slot is ours.
+                continue;
+            }
+            if ( timeout > 0 )
+                LockSupport.parkNanos( this, remaining );
+            else
+                LockSupport.park( this );
+            if ( Thread.interrupted() )
+                interrupted = true;
+        }
+        if ( interrupted )
+            Thread.currentThread().interrupt();
+        long waited = System.nanoTime() - start;
+        _waits.incrementAndGet();
+        _waitNanos.addAndGet( waited );
+        long max = _maxWaitNanos.get();
+        while ( waited > max && !_maxWaitNanos.compareAndSet( max, waited ) )
+            max = _maxWaitNanos.get();
+        if ( slot < 0 )
+            return -1;
+        counted();
+        return slot;
+    }
+
+    /*
+     * Give a slot back.  If anyone is waiting, the slot goes straight to the first
+     * of them.  Slots that are out of range (possible if the number of ports was
+     * reduced while they were in use) are ignored.
+     */
+    public void release( int slot ) {
+        if ( slot < 0 || slot >= _size || !inUse( slot ) )
+            return;
+        _inUse.decrementAndGet();
+        give( slot );
+    }
+
+    /*
+     * Pass a claimed slot to the first waiting caller, or free it if there are none.
+     */
+    protected void give( int slot ) {
+        Waiter waiter = _waiters.poll();
+        while ( waiter != null ) {
+            if ( waiter._slot.compareAndSet( Waiter.WAITING, slot ) ) {
+                LockSupport.unpark( waiter._thread );
+                return;
+            }
+            //  That one gave up - try the next.
+            waiter = _waiters.poll();
+        }
+        clear( slot );
+        //  A caller may have joined the line after we looked but before the bit was
+        //  cleared - wake the first in line so it scans again.
+        waiter = _waiters.peek();
+        if ( waiter != null )
+            LockSupport.unpark( waiter._thread );
+    }
+
+    /*
+     * Find and claim a free slot, or return -1.
+     */
+    protected int scan() {
+        int start = _cursor.getAndIncrement();
+        start = ( ( start % _size ) + _size ) % _size;
+        for ( int i = 0; i < _size; ++i ) {
+            int slot = start + i;
+            if ( slot >= _size )
+                slot -= _size;
+            if ( claim( slot ) )
+                return slot;
+        }
+        return -1;
+    }
+
+    protected boolean claim( int slot ) {
+        int word = slot >>> 6;
+        long mask = 1L << ( slot & 63 );
+        while ( true ) {
+            long bits = _bits.get( word );
+            if ( ( bits & mask ) != 0 )
+                return false;
+            if ( _bits.compareAndSet( word, bits, bits | mask ) )
+                return true;
+        }
+    }
+
+    protected void clear( int slot ) {
+        int word = slot >>> 6;
+        long mask = 1L << ( slot & 63 );
+        while ( true ) {
+            long bits = _bits.get( word );
+            if ( _bits.compareAndSet( word, bits, bits & ~mask ) )
+                return;
+        }
+    }
+
+    public boolean inUse( int slot ) {
+        if ( slot < 0 || slot >= _size )
+            return false;
+        return ( _bits.get( slot >>> 6 ) & ( 1L << ( slot & 63 ) ) ) != 0;
+    }
+
+    protected void counted() {
+        _allocations.incrementAndGet();
+        int n = _inUse.incrementAndGet();
+        int peak = _peakInUse.get();
+        while ( n > peak && !_peakInUse.compareAndSet( peak, n ) )
+            peak = _peakInUse.get();
+    }
+
+    public int size() { return _size; }
+    public int inUseCount() { return _inUse.get(); }
+    public int peakInUseCount() { return _peakInUse.get(); }
+    public int waitingCount() { return _waiters.size(); }
+    public long allocationCount() { return _allocations.get(); }
+    public long waitCount() { return _waits.get(); }
+    public long timeoutCount() { return _timeouts.get(); }
+    public long maxWaitMillis() { return _maxWaitNanos.get() / 1000000L; }
+    public double meanWaitMillis() {
+        long waits = _waits.get();
+        return waits > 0 ? (double)_waitNanos.get() / (double)waits / 1.0e6 : 0.0;
+    }
+
+    /*
+     * A caller in line for a slot.  The slot is set by whoever releases one to it,
+     * or to CANCELLED if the caller gives up first - whichever happens first wins.
+     */
+    protected static class Waiter {
+        static final int WAITING = -1;
+        static final int CANCELLED = -2;
+        Waiter() {
+            _thread = Thread.currentThread();
+            _slot = new AtomicInteger( WAITING );
+        }
+        boolean cancel() {
+            return _slot.compareAndSet( WAITING, CANCELLED );
+        }
+        final Thread _thread;
+        final AtomicInteger _slot;
+    }
+
+    protected final int _size;
+    protected final AtomicLongArray _bits;
+    protected final AtomicInteger _cursor;
+    protected final ConcurrentLinkedQueue<Waiter> _waiters;
+    protected volatile boolean _retired;
+    protected final AtomicInteger _inUse;
+    protected final AtomicInteger _peakInUse;
+    protected final AtomicLong _allocations;
+    protected final AtomicLong _waits;
+    protected final AtomicLong _waitNanos;
+    protected final AtomicLong _maxWaitNanos;
+    protected final AtomicLong _timeouts;
+
+}
@@ -116,6 +116,7 @@ public class DiFXUI extends JFrame implements WindowListener {
         _multicastMonitor = new MulticastMonitor( _systemSettings );
         _difxMessageProcessor = new DiFXMessageProcessor( _systemSettings );
         _systemSettings.difxMessageProcessor( _difxMessageProcessor );
+        _systemSettings.multicastMonitor( _multicastMonitor );
         _multicastMonitor.difxMessageProcessor( _difxMessageProcessor );
         _difxMessageProcessor.start();
         _multicastMonitor.start();
@@ -57,6 +57,7 @@ import mil.navy.usno.widgetlib.ZButton;
 import edu.nrao.difx.difxutilities.DiFXCommand_mark5Control;
 import edu.nrao.difx.difxutilities.ChannelServerSocket;
 import edu.nrao.difx.difxcontroller.AttributedMessageListener;
+import edu.nrao.difx.difxcontroller.MessageSubscriptions;
 import edu.nrao.difx.difxutilities.TabCompletedTextField;
 
 public class DirectoryDisplay extends JFrame {
@@ -270,13 +271,17 @@ public class DirectoryDisplay extends JFrame {
         newSize();
         
         //  Some alert messages are produced by DiFX when running "get directory" and
-        //  "create file" operations.  We want to trap these.
-        _settings.difxMessageProcessor().addDifxAlertMessageListener( new AttributedMessageListener() {
+        //  "create file" operations.  We want to trap these, but only those from
+        //  this Mark5.
+        AttributedMessageListener alertListener = new AttributedMessageListener() {
             @Override
             public void update( DifxMessage difxMsg ) {
                 processDifxAlertMessage( difxMsg );
             }
-        } );
+        };
+        //  The subscriptions are kept so they can be dropped when the window is disposed.
+        _dirSubscription = _settings.difxMessageProcessor().subscribe( "DifxAlertMessage", hostName(), "mk5dir", alertListener );
+        _cpSubscription = _settings.difxMessageProcessor().subscribe( "DifxAlertMessage", hostName(), "mk5cp", alertListener );
 
         
         //  When this thing is first created, get the directory.
@@ -284,6 +289,23 @@ public class DirectoryDisplay extends JFrame {
         
     }
     
+    /*
+     * Stop listening for alerts when the window goes away for good (closing it only
+     * hides it).
+     */
+    @Override
+    public void dispose() {
+        if ( _dirSubscription != null ) {
+            _settings.difxMessageProcessor().unsubscribe( _dirSubscription );
+            _dirSubscription = null;
+        }
+        if ( _cpSubscription != null ) {
+            _settings.difxMessageProcessor().unsubscribe( _cpSubscription );
+            _cpSubscription = null;
+        }
+        super.dispose();
+    }
+    
     @Override
     public void setBounds( int x, int y, int w, int h ) {
         super.setBounds( x, y, w, h );
@@ -952,16 +974,14 @@ public class DirectoryDisplay extends JFrame {
      * "create file" (mk5cp) operation.  
      */
     public void processDifxAlertMessage( DifxMessage difxMsg ) {
-        //  We are only interested in messages from this Mark5...
-        if ( difxMsg.getHeader().getFrom().equalsIgnoreCase( hostName() ) ) {
-            if ( difxMsg.getHeader().getIdentifier().equalsIgnoreCase( "mk5dir" ) ) {
-                if ( _runningGetDirectory )
-                    _activityLabel.setText( difxMsg.getBody().getDifxAlert().getAlertMessage() );
-            }
-            if ( difxMsg.getHeader().getIdentifier().equalsIgnoreCase( "mk5cp" ) ) {
-                if ( _runningCreateFile )
-                    _activityLabel.setText( difxMsg.getBody().getDifxAlert().getAlertMessage() );
-            }
+        //  Only messages from this Mark5 are subscribed to.
+        if ( difxMsg.getHeader().getIdentifier().equalsIgnoreCase( "mk5dir" ) ) {
+            if ( _runningGetDirectory )
+                _activityLabel.setText( difxMsg.getBody().getDifxAlert().getAlertMessage() );
+        }
+        if ( difxMsg.getHeader().getIdentifier().equalsIgnoreCase( "mk5cp" ) ) {
+            if ( _runningCreateFile )
+                _activityLabel.setText( difxMsg.getBody().getDifxAlert().getAlertMessage() );
         }
     }   
     
@@ -969,6 +989,8 @@ public class DirectoryDisplay extends JFrame {
     protected SystemSettings _settings;
     protected DirectoryDisplay _this;
     protected Mark5Node _host;
+    protected MessageSubscriptions.Subscription _dirSubscription;
+    protected MessageSubscriptions.Subscription _cpSubscription;
     protected String _vsn;
     protected ZButton _refreshButton;
     protected JScrollPane _scrollPane;
@@ -22,6 +22,11 @@
  * errors encountered.  This window will appear after a short delay (a couple of
  * tenths of a second) so that if the activity is completed rapidly the user won't
  * be annoyed by a window blinking in and out of existence.
+ *
+ * The file is read into a String - everything that uses this class (vex, .v2d,
+ * .input and .calc files and the like) puts the text in an editor or a parser that
+ * wants a String anyway, and these files are small.  Large files (logs) should be
+ * downloaded with DiFXCommand_getFile.readFile() instead.
  */
 package edu.nrao.difx.difxview;
 
@@ -30,9 +35,14 @@ import mil.navy.usno.widgetlib.PopupMonitor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import edu.nrao.difx.difxutilities.DiFXCommand_getFile;
+import edu.nrao.difx.difxutilities.DiFXCommand_getFiles;
+import edu.nrao.difx.difxutilities.DiFXCommand_ls;
 
 import java.awt.Frame;
 
@@ -48,6 +58,14 @@ public class GetFileMonitor extends PopupMonitor {
         _filePath = filePath;
         _inString = null;
         _noFileOK = noFileOK;
+        //  See if this file was fetched ahead of time.
+        _inString = takePrefetched( _filePath );
+        if ( _inString != null ) {
+            if ( _allowReuse )
+                _reuseMap.put( _filePath, _inString );
+            successCondition();
+            return;
+        }
         //  See if we can reuse a previous read of this file.
         if ( _allowReuse ) {
             _inString = _reuseMap.get( _filePath );
@@ -83,9 +101,9 @@ public class GetFileMonitor extends PopupMonitor {
             public void actionPerformed( ActionEvent e ) {
                 if ( !dismissActive() ) {
                     status( "File transfer in progress (" + 
-                            _fileGet.inString().length() + "/" +
+                            _fileGet.bytesRead() + "/" +
                             _fileGet.fileSize() + " bytes)" );
-                    progress( _fileGet.inString().length(), _fileGet.fileSize() );
+                    progress( (int)_fileGet.bytesRead(), _fileGet.fileSize() );
                 }
             }
         });
@@ -111,7 +129,7 @@ public class GetFileMonitor extends PopupMonitor {
         //  Check the file size....this will tell us if anything went
         //  wrong, and to some degree what.
         int fileSize = _fileGet.fileSize();
-        if ( _fileGet.inString() != null && fileSize == _fileGet.inString().length() ) {
+        if ( _fileGet.inString() != null && fileSize == _fileGet.bytesRead() ) {
             //  It worked!  Set the "success" value and get rid of the window.  Also
             //  save the file contents if "reuse" is allowed.
             if ( _allowReuse )
@@ -124,9 +142,9 @@ public class GetFileMonitor extends PopupMonitor {
         //  the second label is made visible (in case we use it).
         if ( fileSize > 0 ) {
             //  Was it only partially read?
-            if ( fileSize > _fileGet.inString().length() )
+            if ( fileSize > _fileGet.bytesRead() )
                 error( "Connection terminated with "
-                        + _fileGet.inString().length() + " of "
+                        + _fileGet.bytesRead() + " of "
                         + fileSize + " bytes read.", null );
         }
         else if ( fileSize == 0 ) {
@@ -194,5 +212,89 @@ public class GetFileMonitor extends PopupMonitor {
     }
     static HashMap<String,String> _reuseMap;
     
+    /*
+     * Fetch a list of files in a single transfer so that the GetFileMonitors that
+     * will want them shortly don't have to get them one at a time.  This waits until
+     * the transfer is complete and returns the number of files obtained.  Each
+     * prefetched file is used once (the next time it is asked for), and is thrown
+     * away if it is not used within PREFETCH_LIFETIME or if anything on the DiFX host
+     * is changed in the meantime (which is tracked by the "generation" of the ls
+     * listing cache - see ListingCache).  Files that could not
+     * be read (or are empty) are not kept, so asking for them gives the usual errors.
+     */
+    static public int prefetch( Collection<String> filePaths, SystemSettings settings ) {
+        if ( filePaths.isEmpty() )
+            return 0;
+        int generation = DiFXCommand_ls.cache().generation();
+        DiFXCommand_getFiles getFiles = new DiFXCommand_getFiles( filePaths, settings );
+        try {
+            getFiles.readStrings();
+            getFiles.waitForEnd();
+        } catch ( java.net.UnknownHostException e ) {
+            return 0;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        int count = 0;
+        synchronized ( _prefetchMap ) {
+            for ( int i = 0; i < getFiles.files().size(); ++i ) {
+                String content = getFiles.inString( i );
+                if ( content != null && content.length() > 0 ) {
+                    Prefetched old = _prefetchMap.put( getFiles.files().get( i ), new Prefetched( content, generation, now ) );
+                    if ( old != null )
+                        _prefetchSize -= old.content.length();
+                    _prefetchSize += content.length();
+                    ++count;
+                }
+            }
+            //  Keep the total within bounds by dropping the oldest.
+            for ( Iterator<Prefetched> iter = _prefetchMap.values().iterator(); iter.hasNext() && _prefetchSize > PREFETCH_LIMIT; ) {
+                _prefetchSize -= iter.next().content.length();
+                iter.remove();
+            }
+        }
+        return count;
+    }
+    
+    /*
+     * Get (and forget) the prefetched content of a file, if it is still good.
+     */
+    static protected String takePrefetched( String filePath ) {
+        synchronized ( _prefetchMap ) {
+            if ( _prefetchMap.isEmpty() )
+                return null;
+            Prefetched file = _prefetchMap.remove( filePath );
+            if ( file != null )
+                _prefetchSize -= file.content.length();
+            //  Once something may have changed on the DiFX host nothing we have is trusted.
+            if ( file != null && file.generation != DiFXCommand_ls.cache().generation() ) {
+                _prefetchMap.clear();
+                _prefetchSize = 0;
+                return null;
+            }
+            if ( file == null || System.currentTimeMillis() - file.time > PREFETCH_LIFETIME )
+                return null;
+            return file.content;
+        }
+    }
+    
+    static protected class Prefetched {
+        Prefetched( String content, int generation, long time ) {
+            this.content = content;
+            this.generation = generation;
+            this.time = time;
+        }
+        String content;
+        int generation;
+        long time;
+    }
+    
+    static protected final LinkedHashMap<String,Prefetched> _prefetchMap = new LinkedHashMap<String,Prefetched>();
+    static protected long _prefetchSize;
+    static protected final long PREFETCH_LIFETIME = 5 * 60 * 1000;    //  milliseconds
+    static protected final long PREFETCH_LIMIT = 32 * 1024 * 1024;   //  characters
+    
 }
 
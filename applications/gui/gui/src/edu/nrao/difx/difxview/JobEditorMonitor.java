@@ -913,6 +913,9 @@ public class JobEditorMonitor extends JFrame {
             final ArrayList<String> v2dList = new ArrayList<String>();
             DiFXCommand_ls ls = new DiFXCommand_ls( _jobNode.passNode().fullPath() + "/" + _newStartSeries
                     + "-" + _newStartSeries + ".v2d*", _settings );
+            //  The run index depends on every file that is there now, including any
+            //  we may have just moved, so this has to come from the DiFX host.
+            ls.useCache( false );
             ls.addEndListener( new ActionListener() {
                 public void actionPerformed( ActionEvent e ) {
                     //  This is called when the "ls" is done.  There should be a list of
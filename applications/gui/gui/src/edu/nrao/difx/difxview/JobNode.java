@@ -61,7 +61,7 @@ import java.util.Iterator;
 import edu.nrao.difx.xmllib.difxmessage.DifxMessage;
 import edu.nrao.difx.xmllib.difxmessage.DifxAlert;
 import edu.nrao.difx.xmllib.difxmessage.DifxStatus;
-import edu.nrao.difx.difxutilities.DiFXCommand_getFile;
+import edu.nrao.difx.difxutilities.DiFXCommand_ls;
 import edu.nrao.difx.difxutilities.V2dFileParser;
 
 import edu.nrao.difx.difxdatabase.QueueDBConnection;
@@ -1380,14 +1380,16 @@ public class JobNode extends QueueBrowserNode {
         return ret;
     }
     
-    DiFXCommand_getFile _fileGet;
+    DiFXCommand_ls _logLs;
+    volatile long _logSize;
     static Object _fileGetSync;
     static Boolean _fileGetLocked;
     static int _threadCount;
     //--------------------------------------------------------------------------
-    //  Download and parse the "difxlog" file for this job, if it exists.  This
-    //  gives us the job run history, which is used (among other things) to set
-    //  the current job state.
+    //  Look for the "difxlog" file for this job.  This gives us the job run
+    //  history, which is used (among other things) to set the current job state -
+    //  at the moment all that is used is whether the log exists and has anything
+    //  in it.
     //--------------------------------------------------------------------------
     public void parseLogFile() {
         //  Set up a lock so we only do one of these at a time.
@@ -1416,17 +1418,30 @@ public class JobNode extends QueueBrowserNode {
                 try {
                     _logFile = _inputFile.getText().replace( ".input", ".difxlog" );
                 } catch ( NullPointerException e ) {
+                    synchronized( _fileGetSync ) {
+                        _fileGetLocked = false;
+                    }
                     return;
                 }
-                _fileGet = new DiFXCommand_getFile( _logFile, _settings );
-                if ( _fileGet.error() != null ) {
-                    return;
-                }
-                _fileGet.addEndListener( new ActionListener() {
+                //  Only the size of the log matters at the moment, so rather than
+                //  downloading it (log files can be very large) we get a long listing
+                //  of it.  The size is the fifth item on the line.
+                _logSize = -1;
+                _logLs = new DiFXCommand_ls( _logFile, "-l -n -L", _settings );
+                _logLs.useCache( false );
+                _logLs.addIncrementalListener( new ActionListener() {
                     public void actionPerformed( ActionEvent e ) {
-                        //  This is where we actually parse the file.  Only do so if there is a file and
-                        //  it was read completely.
-                        if ( _fileGet.fileSize() > 0 && _fileGet.fileSize() == _fileGet.inString().length() ) {
+                        String[] items = e.getActionCommand().trim().split( "\\s+" );
+                        if ( items.length > 5 ) {
+                            try {
+                                _logSize = Long.parseLong( items[4] );
+                            } catch ( NumberFormatException ex ) {}
+                        }
+                    }
+                });
+                _logLs.addEndListener( new ActionListener() {
+                    public void actionPerformed( ActionEvent e ) {
+                        if ( _logSize > 0 ) {
                             setState( "LOG", Color.GREEN );
                         }
                         else
@@ -1440,8 +1455,12 @@ public class JobNode extends QueueBrowserNode {
                     }
                 });
                 try { 
-                    _fileGet.readString();
-                } catch ( java.net.UnknownHostException e ) {}
+                    _logLs.send();
+                } catch ( java.net.UnknownHostException e ) {
+                    synchronized( _fileGetSync ) {
+                        _fileGetLocked = false;
+                    }
+                }
                 --_threadCount;
             }
         };
@@ -47,6 +47,7 @@ import java.awt.Color;
 import mil.navy.usno.plotlib.PlotWindow;
 import mil.navy.usno.plotlib.Plot2DObject;
 import mil.navy.usno.plotlib.Track2D;
+import mil.navy.usno.plotlib.StripChart2D;
 import mil.navy.usno.plotlib.DrawObject;
 
 import mil.navy.usno.widgetlib.Power2NumberBox;
@@ -57,6 +58,7 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.ArrayList;
 
 import javax.swing.JFileChooser;
 
@@ -80,12 +82,18 @@ import mil.navy.usno.plotlib.Plot2DObject;
 import mil.navy.usno.plotlib.PlotWindow;
 import mil.navy.usno.plotlib.Track2D;
 import mil.navy.usno.plotlib.Curve2D;
+import mil.navy.usno.plotlib.DecimatedCurve2D;
+import mil.navy.usno.plotlib.PlotTile;
+import mil.navy.usno.plotlib.TileRenderer;
+import mil.navy.usno.plotlib.WaterfallPlot;
 import mil.navy.usno.widgetlib.*;
 
 public class LiveMonitorWindow extends JFrame implements WindowListener {
     
     public LiveMonitorWindow( int x, int y, SystemSettings settings, String inputFile ) {
         _plotDataLock = new Object();
+        _historyBudget = DEFAULT_HISTORY_MB * 1024L * 1024L;
+        _productBudget = _historyBudget;
         _settings = settings;
         _inputFile = inputFile;
         if ( _inputFile == null )
@@ -180,7 +188,7 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         _connectionPlot.titlePosition( 0.0, -12.0 );
         _connectionPlot.titleColor( Color.WHITE, true );
         _connectionPlot.titleFont( new Font( "Dialog", Font.BOLD, 12 ) );
-        _connectionTrack = new Track2D();
+        _connectionTrack = new StripChart2D();
         _connectionPlot.addTrack( _connectionTrack );
         _connectionTrack.color( Color.GREEN );
         _connectionTrack.sizeLimit( 1000 );
@@ -291,6 +299,23 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         _fftSize.minimum( 2 );
         _fftSize.intValue( 4096 );
         _dataPanel.add( _fftSize );
+        _historyLabel = new JLabel( "History (MB):" );
+        _historyLabel.setHorizontalAlignment( JLabel.RIGHT );
+        _dataPanel.add( _historyLabel );
+        _historySize = new NumberBox();
+        _historySize.setToolTipText( "Memory used to keep the history of plotted data, shared among\n"
+                + "all selected products and scans.  When it is full the oldest scans are\n"
+                + "dropped, and within a scan the oldest data are dropped.  A quarter of\n"
+                + "each product's share is kept for waterfall images.\n"
+                + "Changes take effect when products are applied." );
+        _historySize.minimum( 1 );
+        _historySize.intValue( (int)DEFAULT_HISTORY_MB );
+        _dataPanel.add( _historySize );
+        _decimateHistory = new JCheckBox( "Average Old" );
+        _decimateHistory.setToolTipText( "Keep older data averaged over several accumulation periods rather\n"
+                + "than dropping them, so the history covers a longer time.\n"
+                + "Changes take effect when products are applied." );
+        _dataPanel.add( _decimateHistory );
         _productTable = new DefaultTableModel(
                 new Object[]{ "Selected",
                               "Index",
@@ -353,6 +378,11 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         _plotPanel.noArrow( true );
         _plotWindow = new PlotWindow();
         _plotPanel.add( _plotWindow );
+        //  The data in each cell of the plot grid are drawn into images in the
+        //  background, so repainting the window doesn't redraw every curve.
+        _tileRenderer = new TileRenderer( _plotWindow );
+        _tiles = new HashMap<String,PlotTile>();
+        _drawnTiles = new HashMap<String,PlotTile>();
         _scrollPane.addNode( _plotPanel );
         JButton _saveAsButton = new JButton( "Save As... \u25bc" );
         _saveAsButton.setBounds( 270, 2, 100, 18 ); 
@@ -487,6 +517,16 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         } );
         _showTimeSummary.setSelected( true );
         _showMenu.add( _showTimeSummary );
+        _showWaterfall = new JCheckBoxMenuItem( "Waterfall" );
+        _showWaterfall.setToolTipText( "Show the amplitude and phase of every accumulation period in each scan as images (time by channel)." );
+        _showWaterfall.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                showWaterfalls( _showWaterfall.isSelected() );
+                updatePlotLocations();
+            }
+        } );
+        _showWaterfall.setSelected( false );
+        _showMenu.add( _showWaterfall );
         
         //  Group of menu items to select which scans within a job should be plotted.
         //  There may be none (if we haven't started yet), one, or many.
@@ -574,8 +614,8 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                         ProductPlotsList productList = iter1.next();
                         for ( Iterator<ProductPlots> iter = productList.iterator(); iter.hasNext(); ) {
                             ProductPlots thisPP = iter.next();
-                            if ( thisPP.lagPlots.size() > maxPlots )
-                                maxPlots = thisPP.lagPlots.size();
+                            if ( thisPP.size( ProductHistory.LAG ) > maxPlots )
+                                maxPlots = thisPP.size( ProductHistory.LAG );
                         }
                     }
                     //  If we are "locked" to the most recent (i.e. we haven't been fiddling with the
@@ -672,6 +712,9 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
             else
                 _plotPanel.openHeight( h - _connectionPanel.getHeight() - _dataPanel.getHeight() - _messagePanel.getHeight() - 3 );
             _plotWindow.setBounds( 0, 20, w, _plotPanel.openHeight() - 16 );
+            //  The plots are drawn by tiles that need new content to change size.
+            if ( _productPlotsByScan != null )
+                updatePlotLocations();
         }
     }
     
@@ -767,6 +810,19 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
     protected final int MEAN_PHASE_DATA                    = 141;
     protected final int MEAN_LAG_DATA                      = 142;
     protected final int END_CORRELATION_PRODUCTS           = 143;
+    protected final int DATA_FORMAT_REQUEST                = 144;
+    protected final int DATA_FORMAT                        = 145;
+    protected final int AMPLITUDE_DATA_F32                 = 146;
+    protected final int PHASE_DATA_F32                     = 147;
+    protected final int LAG_DATA_F32                       = 148;
+    protected final int MEAN_AMPLITUDE_DATA_F32            = 149;
+    protected final int MEAN_PHASE_DATA_F32                = 150;
+    protected final int MEAN_LAG_DATA_F32                  = 151;
+    
+    //  Formats for amplitude, phase and lag values.  Monitor servers that don't know
+    //  about DATA_FORMAT_REQUEST ignore it and keep sending ASCII.
+    protected final int FORMAT_ASCII                       = 0;
+    protected final int FORMAT_FLOAT32_LE                  = 1;
         
     /*
      * Send a packet with ID, number of bytes, and data.
@@ -797,6 +853,33 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         sendPacket( packetId, data.length, data );
         data = null;
     }
+
+    /*
+     * Read amplitude, phase or lag values, either as packed little-endian floats
+     * (binary) or as 14-character strings (the original format).
+     */
+    protected void readValues( double[] dest, int off, int n, boolean binary ) throws java.io.IOException {
+        if ( binary ) {
+            _ssock.readFloat32( dest, off, n );
+            trackBytes( 4 * n );
+        }
+        else {
+            for ( int i = 0; i < n; ++i )
+                dest[off + i] = _ssock.readStringDouble();
+            trackBytes( ChannelServerSocket.STRING_DOUBLE_SIZE * n );
+        }
+    }
+
+    /*
+     * Return an array of at least "n" values to read packet data into.  The same
+     * array is reused (the data are copied into the product history), so this is
+     * only for the connection thread.
+     */
+    protected double[] valueBuffer( int n ) {
+        if ( _valueBuffer == null || _valueBuffer.length < n )
+            _valueBuffer = new double[n];
+        return _valueBuffer;
+    }
         
     /*
      * Class for handling the data connection.
@@ -838,6 +921,12 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                 _connectionLight.on( true );
                 _connectionLabel.setText( "connected" );
                 _connected = true;
+                //  Ask for amplitude, phase and lag values in binary.  This has to come
+                //  before the input file path, which starts the data flowing.
+                _dataFormat = FORMAT_ASCII;
+                java.nio.ByteBuffer formatData = java.nio.ByteBuffer.allocate( 4 );
+                formatData.putInt( FORMAT_FLOAT32_LE );
+                sendPacket( DATA_FORMAT_REQUEST, 4, formatData.array() );
                 //  Send the path to the input file for this job.  This allows the monitor_server
                 //  to identify it.
                 sendString( INPUT_FILE_PATH, _inputFile );                    
@@ -850,7 +939,7 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                     int packetType = _ssock.readInt();
                     //  Read the size of the incoming data (bytes).
                     int packetSize = 0;
-                    if ( packetType >= 100 && packetType <= 143 )
+                    if ( packetType >= 100 && packetType <= 151 )
                         packetSize = _ssock.readInt();
                     trackBytes( 8 );
                     //---------------------------------------------------------------------
@@ -891,6 +980,13 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                     //  are used to tell us what data products are available for the job
                     //  specified by the input file.
                     //---------------------------------------------------------------------------
+                    else if ( packetType == DATA_FORMAT ) {
+                        //  The monitor server's answer to our format request.
+                        _dataFormat = _ssock.readInt();
+                        trackBytes( 4 );
+                        if ( _dataFormat == FORMAT_FLOAT32_LE )
+                            _connectionLabel.setText( "connected (binary)" );
+                    }
                     else if ( packetType == BEGIN_CORRELATION_PRODUCTS ) {
                         //  Blow away our current list of products.  We'll be making
                         //  a new one.
@@ -1080,242 +1176,84 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                             _bytesTransfered += packetSize;
                         }
                     }
-                    else if ( packetType == AMPLITUDE_DATA ) {
+                    else if ( packetType == AMPLITUDE_DATA || packetType == AMPLITUDE_DATA_F32 
+                            || packetType == MEAN_AMPLITUDE_DATA || packetType == MEAN_AMPLITUDE_DATA_F32 ) {
                         int iProduct = _ssock.readInt();
                         int nChannels = _ssock.readInt();
                         int timeStamp = _ssock.readInt();
                         int integrationTime = _ssock.readInt();
                         trackBytes( 16 );
-                        IncPlot newPlot = new IncPlot( iProduct, nChannels, timeStamp, integrationTime, _currentScan );
-                        double x = 0.0;
                         double maxVal = 0.0;
-                        double xVals[] = new double[nChannels];
-                        double yVals[] = new double[nChannels];
+                        double yVals[] = valueBuffer( nChannels );
+                        readValues( yVals, 0, nChannels, packetType == AMPLITUDE_DATA_F32 || packetType == MEAN_AMPLITUDE_DATA_F32 );
                         for ( int i = 0; i < nChannels; ++i ) {
-                            double amp = _ssock.readStringDouble();
-                            trackBytes( 14 );
-                            xVals[i] = x;
-                            yVals[i] = amp;
-                            x += 1.0;
-                            if ( amp > maxVal )
-                                maxVal = amp;
+                            if ( yVals[i] > maxVal )
+                                maxVal = yVals[i];
                         }
+                        int kind = ProductHistory.AMPLITUDE;
+                        if ( packetType == MEAN_AMPLITUDE_DATA || packetType == MEAN_AMPLITUDE_DATA_F32 )
+                            kind = ProductHistory.MEAN_AMPLITUDE;
                         //  The minimum for amplitude *should* be 0.0...
-                        newPlot.min = 0.0;
-                        newPlot.max = maxVal;
-                        newPlot.curve( xVals, yVals );
                         synchronized ( _plotDataLock ) {
-                            _productPlots.productPlot( iProduct ).ampPlots.add( newPlot );
+                            ProductPlots thisPP = _productPlots.productPlot( iProduct );
+                            thisPP.add( kind, timeStamp, integrationTime,
+                                    yVals, nChannels, 0.0, maxVal, 0.0, 0.0, 0.0 );
+                            //  All waterfall rows share one scale, so rows can be compared -
+                            //  the waterfall recolors itself when a row doesn't fit.
+                            if ( kind == ProductHistory.AMPLITUDE && _waterfallsOn )
+                                thisPP.waterfall( kind, nChannels ).addRow( yVals, nChannels );
                         }
                     }
-                    else if ( packetType == PHASE_DATA ) {
+                    else if ( packetType == PHASE_DATA || packetType == PHASE_DATA_F32
+                            || packetType == MEAN_PHASE_DATA || packetType == MEAN_PHASE_DATA_F32 ) {
                         int iProduct = _ssock.readInt();
                         int nChannels = _ssock.readInt();
                         int timeStamp = _ssock.readInt();
                         int integrationTime = _ssock.readInt();
                         trackBytes( 16 );
-                        IncPlot newPlot = new IncPlot( iProduct, nChannels, timeStamp, integrationTime, _currentScan );
-                        double x = 0.0;
-                        double xVals[] = new double[nChannels];
-                        double yVals[] = new double[nChannels];
-                        for ( int i = 0; i < nChannels; ++i ) {
-                            double phase = _ssock.readStringDouble();                           
-                            trackBytes( 14 );
-                            xVals[i] = x;
-                            yVals[i] = phase;
-                            x += 1.0;
-                        }
-                        DrawObject trackCircle = new DrawObject();
-                        //  This draws a circle around the point...doesn't look so great
-                        //trackCircle.circle( 0.0, 0.0, 3.0, true );
-                        //  Try using a "cross" character...also looks crappy
-                        //trackCircle.complexText( DrawObject.CENTER_JUSTIFY, 0.0, 0.0, "<size=0.5><y=-0.4>\u271a" );
-                        //  Draw a cross using line segments - looks cleaner.
-                        DrawObject path = new DrawObject();
-                        path.startPath( 0.0, 0.0 );
-                        DrawObject vertex = new DrawObject();
-                        vertex.vertex( 0.0, -3.0 );
-                        path.add( vertex );
-                        vertex = new DrawObject();
-                        vertex.vertex( 0.0, 3.0 );
-                        path.add( vertex );
-                        DrawObject stroke = new DrawObject();
-                        stroke.stroke();
-                        path.add( stroke );
-                        trackCircle.add( path );
-                        path = new DrawObject();
-                        path.startPath( 0.0, 0.0 );
-                        vertex = new DrawObject();
-                        vertex.vertex( -3.0, 0.0 );
-                        path.add( vertex );
-                        vertex = new DrawObject();
-                        vertex.vertex( 3.0, 0.0 );
-                        path.add( vertex );
-                        stroke = new DrawObject();
-                        stroke.stroke();
-                        path.add( stroke );
-                        trackCircle.add( path );
-                        newPlot.track( xVals, yVals, trackCircle );
-                        newPlot.min = -180.0;
-                        newPlot.max = 180.0;
+                        double yVals[] = valueBuffer( nChannels );
+                        readValues( yVals, 0, nChannels, packetType == PHASE_DATA_F32 || packetType == MEAN_PHASE_DATA_F32 );
+                        int kind = ProductHistory.PHASE;
+                        if ( packetType == MEAN_PHASE_DATA || packetType == MEAN_PHASE_DATA_F32 )
+                            kind = ProductHistory.MEAN_PHASE;
                         synchronized ( _plotDataLock ) {
-                            _productPlots.productPlot( iProduct ).phasePlots.add( newPlot );
+                            ProductPlots thisPP = _productPlots.productPlot( iProduct );
+                            thisPP.add( kind, timeStamp, integrationTime,
+                                    yVals, nChannels, -180.0, 180.0, 0.0, 0.0, 0.0 );
+                            if ( kind == ProductHistory.PHASE && _waterfallsOn )
+                                thisPP.waterfall( kind, nChannels ).addPhaseRow( yVals, nChannels );
                         }
                     }
-                    else if ( packetType == LAG_DATA ) {
+                    else if ( packetType == LAG_DATA || packetType == LAG_DATA_F32
+                            || packetType == MEAN_LAG_DATA || packetType == MEAN_LAG_DATA_F32 ) {
+                        boolean binary = ( packetType == LAG_DATA_F32 || packetType == MEAN_LAG_DATA_F32 );
                         int iProduct = _ssock.readInt();
                         int nChannels = _ssock.readInt();
                         int timeStamp = _ssock.readInt();
                         int integrationTime = _ssock.readInt();
                         trackBytes( 16 );
-                        //  Create a new plot to hold these data.
-                        IncPlot newPlot = new IncPlot( iProduct, nChannels, timeStamp, integrationTime, _currentScan );
-                        newPlot.maxChannel = (double)_ssock.readInt();
+                        double maxChannel = (double)_ssock.readInt();
                         trackBytes( 4 );
-                        newPlot.delay = _ssock.readStringDouble();
-                        newPlot.snr = _ssock.readStringDouble();
-                        trackBytes( 28 );
-                        double x = (double)(-nChannels);
-                        Double maxVal = null;
-                        Double minVal = null;
-                        double xVals[] = new double[2 * nChannels];
-                        double yVals[] = new double[2 * nChannels];
-                        for ( int i = 0; i < 2 * nChannels; ++i ) {
-                            double lag = _ssock.readStringDouble();                           
-                            trackBytes( 14 );
-                            if ( maxVal == null || lag > maxVal )
-                                maxVal = lag;
-                            if ( minVal == null || lag < minVal )
-                                minVal = lag;
-                            xVals[i] = x;
-                            yVals[i] = lag;
-                            x += 1.0;     
-                        }
-                        newPlot.curve( xVals, yVals );
-                        newPlot.min = minVal;
-                        newPlot.max = maxVal;
-                        //  Add the plot to the product plot list for this index.
-                        synchronized ( _plotDataLock ) {
-                            _productPlots.productPlot( iProduct ).lagPlots.add( newPlot );
-                        }
-                    }
-                    else if ( packetType == MEAN_AMPLITUDE_DATA ) {
-                        int iProduct = _ssock.readInt();
-                        int nChannels = _ssock.readInt();
-                        int timeStamp = _ssock.readInt();
-                        int integrationTime = _ssock.readInt();
-                        trackBytes( 16 );
-                        IncPlot newPlot = new IncPlot( iProduct, nChannels, timeStamp, integrationTime, _currentScan );
-                        double x = 0.0;
+                        double delaySNR[] = new double[2];
+                        readValues( delaySNR, 0, 2, binary );
                         double maxVal = 0.0;
-                        double xVals[] = new double[nChannels];
-                        double yVals[] = new double[nChannels];
-                        for ( int i = 0; i < nChannels; ++i ) {
-                            double amp = _ssock.readStringDouble();
-                            trackBytes( 14 );
-                            xVals[i] = x;
-                            yVals[i] = amp;
-                            x += 1.0;
-                            if ( amp > maxVal )
-                                maxVal = amp;
-                        }
-                        //  The minimum for amplitude *should* be 0.0...
-                        newPlot.min = 0.0;
-                        newPlot.max = maxVal;
-                        newPlot.curve( xVals, yVals );
-                        synchronized ( _plotDataLock ) {
-                            _productPlots.productPlot( iProduct ).meanAmpPlots.add( newPlot );
-                        }
-                    }
-                    else if ( packetType == MEAN_PHASE_DATA ) {
-                        int iProduct = _ssock.readInt();
-                        int nChannels = _ssock.readInt();
-                        int timeStamp = _ssock.readInt();
-                        int integrationTime = _ssock.readInt();
-                        trackBytes( 16 );
-                        IncPlot newPlot = new IncPlot( iProduct, nChannels, timeStamp, integrationTime, _currentScan );
-                        double x = 0.0;
-                        double xVals[] = new double[nChannels];
-                        double yVals[] = new double[nChannels];
-                        for ( int i = 0; i < nChannels; ++i ) {
-                            double phase = _ssock.readStringDouble();                           
-                            trackBytes( 14 );
-                            xVals[i] = x;
-                            yVals[i] = phase;
-                            x += 1.0;
-                        }
-                        DrawObject trackCircle = new DrawObject();
-                        //  This draws a circle around the point...doesn't look so great
-                        //trackCircle.circle( 0.0, 0.0, 3.0, true );
-                        //  Try using a "cross" character...also looks crappy
-                        //trackCircle.complexText( DrawObject.CENTER_JUSTIFY, 0.0, 0.0, "<size=0.5><y=-0.4>\u271a" );
-                        //  Draw a cross using line segments - looks cleaner.
-                        DrawObject path = new DrawObject();
-                        path.startPath( 0.0, 0.0 );
-                        DrawObject vertex = new DrawObject();
-                        vertex.vertex( 0.0, -3.0 );
-                        path.add( vertex );
-                        vertex = new DrawObject();
-                        vertex.vertex( 0.0, 3.0 );
-                        path.add( vertex );
-                        DrawObject stroke = new DrawObject();
-                        stroke.stroke();
-                        path.add( stroke );
-                        trackCircle.add( path );
-                        path = new DrawObject();
-                        path.startPath( 0.0, 0.0 );
-                        vertex = new DrawObject();
-                        vertex.vertex( -3.0, 0.0 );
-                        path.add( vertex );
-                        vertex = new DrawObject();
-                        vertex.vertex( 3.0, 0.0 );
-                        path.add( vertex );
-                        stroke = new DrawObject();
-                        stroke.stroke();
-                        path.add( stroke );
-                        trackCircle.add( path );
-                        newPlot.track( xVals, yVals, trackCircle );
-                        newPlot.min = -180.0;
-                        newPlot.max = 180.0;
-                        synchronized ( _plotDataLock ) {
-                            _productPlots.productPlot( iProduct ).meanPhasePlots.add( newPlot );
-                        }
-                    }
-                    else if ( packetType == MEAN_LAG_DATA ) {
-                        int iProduct = _ssock.readInt();
-                        int nChannels = _ssock.readInt();
-                        int timeStamp = _ssock.readInt();
-                        int integrationTime = _ssock.readInt();
-                        trackBytes( 16 );
-                        //  Create a new plot to hold these data.
-                        IncPlot newPlot = new IncPlot( iProduct, nChannels, timeStamp, integrationTime, _currentScan );
-                        newPlot.maxChannel = (double)_ssock.readInt();
-                        trackBytes( 4 );
-                        newPlot.delay = _ssock.readStringDouble();
-                        newPlot.snr = _ssock.readStringDouble();
-                        trackBytes( 28 );
-                        double x = (double)(-nChannels);
-                        Double maxVal = null;
-                        Double minVal = null;
-                        double xVals[] = new double[2 * nChannels];
-                        double yVals[] = new double[2 * nChannels];
+                        double minVal = 0.0;
+                        double yVals[] = valueBuffer( 2 * nChannels );
+                        readValues( yVals, 0, 2 * nChannels, binary );
                         for ( int i = 0; i < 2 * nChannels; ++i ) {
-                            double lag = _ssock.readStringDouble();                           
-                            trackBytes( 14 );
-                            if ( maxVal == null || lag > maxVal )
+                            double lag = yVals[i];
+                            if ( i == 0 || lag > maxVal )
                                 maxVal = lag;
-                            if ( minVal == null || lag < minVal )
+                            if ( i == 0 || lag < minVal )
                                 minVal = lag;
-                            xVals[i] = x;
-                            yVals[i] = lag;
-                            x += 1.0;     
                         }
-                        newPlot.curve( xVals, yVals );
-                        newPlot.min = minVal;
-                        newPlot.max = maxVal;
-                        //  Add the plot to the product plot list for this index.
+                        int kind = ProductHistory.LAG;
+                        if ( packetType == MEAN_LAG_DATA || packetType == MEAN_LAG_DATA_F32 )
+                            kind = ProductHistory.MEAN_LAG;
+                        //  Add the data to the history for this product index.
                         synchronized ( _plotDataLock ) {
-                            _productPlots.productPlot( iProduct ).meanLagPlots.add( newPlot );
+                            _productPlots.productPlot( iProduct ).add( kind, timeStamp, integrationTime,
+                                    yVals, 2 * nChannels, minVal, maxVal, delaySNR[0], delaySNR[1], maxChannel );
                         }
                     }
                     else if ( packetType == END_VISIBILITY_BLOCK ) {
@@ -1334,15 +1272,22 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                                 //  We are going to plot things that are based on the current scan
                                 //  (and source).  Add these things to the list of scans and sources
                                 //  so we can put them in labels at the plot base.
-                                if ( _scanList == null ) {
-                                    _scanList = new ArrayDeque<String>();
-                                    _sourceList = new ArrayDeque<String>();
+                                synchronized ( _plotDataLock ) {
+                                    if ( _scanList == null ) {
+                                        _scanList = new ArrayDeque<String>();
+                                        _sourceList = new ArrayDeque<String>();
+                                    }
+                                    if ( !_scanList.contains( _currentScan ) ) {
+                                        _scanList.add( _currentScan );
+                                        _sourceList.add( _source );
+                                    }
                                 }
-                                if ( !_scanList.contains( _currentScan ) ) {
-                                    _scanList.add( _currentScan );
-                                    _sourceList.add( _source );
-                                }
-                                updatePlotLocations();
+                                //  The plots are only ever changed by the event thread.
+                                SwingUtilities.invokeLater( new Runnable() {
+                                    public void run() {
+                                        updatePlotLocations();
+                                    }
+                                } );
                                 _numPlots = null;
                             }
                         }
@@ -1379,6 +1324,15 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         synchronized ( _plotDataLock ) {
             //  Clear all plots - we are going to redraw them.
             _plotWindow.plotList().clear();
+            //  Plots made from the product histories for the last drawing are kept for this
+            //  one, anything older is forgotten.
+            for ( Iterator<ProductPlotsList> iter1 = _productPlotsByScan.iterator(); iter1.hasNext(); ) {
+                for ( Iterator<ProductPlots> iter = iter1.next().iterator(); iter.hasNext(); )
+                    iter.next().sweep();
+            }
+            //  Same for the tiles holding images of the data.
+            _tiles = _drawnTiles;
+            _drawnTiles = new HashMap<String,PlotTile>();
 
             //  Count the number of plots for each data product, each of which forms a row.
             //  How many there are depend on what exactly is being displayed.  First, count
@@ -1404,8 +1358,8 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                         int maxPlots = 0;
                         for ( Iterator<ProductPlots> iter = productList.iterator(); iter.hasNext(); ) {
                             ProductPlots thisPP = iter.next();
-                            if ( thisPP.lagPlots.size() > maxPlots )
-                                maxPlots = thisPP.lagPlots.size();
+                            if ( thisPP.size( ProductHistory.LAG ) > maxPlots )
+                                maxPlots = thisPP.size( ProductHistory.LAG );
                         }        
                         rows += maxPlots;
                     }
@@ -1415,6 +1369,13 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                     //  And a row for averages across all accumulation periods.
                     if ( _showTimeSummary.isSelected() ) 
                         rows += 1;
+                    //  Waterfalls get a row each for amplitude and phase.
+                    if ( _showWaterfall.isSelected() ) {
+                        if ( _showAmp.isSelected() )
+                            rows += 1;
+                        if ( _showPhase.isSelected() )
+                            rows += 1;
+                    }
                 }
             }
             
@@ -1520,73 +1481,66 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                     for ( Iterator<ProductPlots> iter = productList.iterator(); iter.hasNext(); ) {
                         ProductPlots thisPP = iter.next();
                         //  Find the "global" maximum and minimum values for lag and amplitude plots.
-                        for ( Iterator<IncPlot> pIter = thisPP.lagPlots.iterator(); pIter.hasNext(); ) {
-                            IncPlot incPlot = pIter.next();
+                        ProductHistory.Series lags = thisPP.history.series( ProductHistory.LAG );
+                        for ( int i = 0; i < lags.size(); ++i ) {
                             if ( lagLimitsSet ) {
-                                if ( incPlot.min < lagMin )
-                                    lagMin = incPlot.min;
-                                if ( incPlot.max > lagMax )
-                                    lagMax = incPlot.max;
+                                if ( lags.min( i ) < lagMin )
+                                    lagMin = lags.min( i );
+                                if ( lags.max( i ) > lagMax )
+                                    lagMax = lags.max( i );
                             }
                             else {
-                                lagMin = incPlot.min;
-                                lagMax = incPlot.max;
+                                lagMin = lags.min( i );
+                                lagMax = lags.max( i );
                                 lagLimitsSet = true;
                             }
                         }
-                        for ( Iterator<IncPlot> pIter = thisPP.ampPlots.iterator(); pIter.hasNext(); ) {
-                            IncPlot incPlot = pIter.next();
+                        ProductHistory.Series amps = thisPP.history.series( ProductHistory.AMPLITUDE );
+                        for ( int i = 0; i < amps.size(); ++i ) {
                             if ( ampLimitsSet ) {
-                                if ( incPlot.min < ampMin )
-                                    ampMin = incPlot.min;
-                                if ( incPlot.max > ampMax )
-                                    ampMax = incPlot.max;
+                                if ( amps.min( i ) < ampMin )
+                                    ampMin = amps.min( i );
+                                if ( amps.max( i ) > ampMax )
+                                    ampMax = amps.max( i );
                             }
                             else {
-                                ampMin = incPlot.min;
-                                ampMax = incPlot.max;
+                                ampMin = amps.min( i );
+                                ampMax = amps.max( i );
                                 ampLimitsSet = true;
                             }
                         }
                         //  Duplicate effort for the mean plots.  Here we only look at the limits that
                         //  apply to whichever we are actually plotting - the latest or an incremented
-                        //  plot.
-                        IncPlot lagPlot = thisPP.meanLagPlots.peekLast();
-                        IncPlot ampPlot = thisPP.meanAmpPlots.peekLast();
-                        //  ...unless the user has used the mouse wheel to change that.
-                        if ( !_lockToLatest ) {
-                            int index = 0;
-                            if ( _currentPlotIndex < thisPP.meanLagPlots.size() )
-                                index = thisPP.meanLagPlots.size() - _currentPlotIndex;
-                            Iterator<IncPlot> ampIter = thisPP.meanAmpPlots.iterator();
-                            Iterator<IncPlot> lagIter = thisPP.meanLagPlots.iterator();
-                            while ( index > -1 ) {
-                                lagPlot = lagIter.next();
-                                ampPlot = ampIter.next();
-                                --index;
+                        //  plot (if the user has used the mouse wheel to change that).
+                        lags = thisPP.history.series( ProductHistory.MEAN_LAG );
+                        amps = thisPP.history.series( ProductHistory.MEAN_AMPLITUDE );
+                        if ( lags.size() > 0 ) {
+                            int index = plotIndex( lags.size() );
+                            if ( meanLagLimitsSet ) {
+                                if ( lags.min( index ) < meanLagMin )
+                                    meanLagMin = lags.min( index );
+                                if ( lags.max( index ) > meanLagMax )
+                                    meanLagMax = lags.max( index );
+                            }
+                            else {
+                                meanLagMin = lags.min( index );
+                                meanLagMax = lags.max( index );
+                                meanLagLimitsSet = true;
                             }
                         }
-                        if ( meanLagLimitsSet ) {
-                            if ( lagPlot.min < meanLagMin )
-                                meanLagMin = lagPlot.min;
-                            if ( lagPlot.max > meanLagMax )
-                                meanLagMax = lagPlot.max;
-                        }
-                        else {
-                            meanLagMin = lagPlot.min;
-                            meanLagMax = lagPlot.max;
-                            meanLagLimitsSet = true;
-                        }
-                        if ( meanAmpLimitsSet ) {
-                            if ( ampPlot.min < meanAmpMin )
-                                meanAmpMin = ampPlot.min;
-                            if ( ampPlot.max > meanAmpMax )
-                                meanAmpMax = ampPlot.max;
-                        }
-                        else {
-                            meanAmpMin = ampPlot.min;
-                            meanAmpMax = ampPlot.max;
-                            meanAmpLimitsSet = true;
+                        if ( amps.size() > 0 ) {
+                            int index = plotIndex( amps.size() );
+                            if ( meanAmpLimitsSet ) {
+                                if ( amps.min( index ) < meanAmpMin )
+                                    meanAmpMin = amps.min( index );
+                                if ( amps.max( index ) > meanAmpMax )
+                                    meanAmpMax = amps.max( index );
+                            }
+                            else {
+                                meanAmpMin = amps.min( index );
+                                meanAmpMax = amps.max( index );
+                                meanAmpLimitsSet = true;
+                            }
                         }
                     }
 
@@ -1598,76 +1552,154 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                         ProductPlots thisPP = iter.next();
                         y = tempStart;
 
-                        //  Clear "extra" items from each plot.  This is to prevent litter from previous drawings
-                        //  from appearing on the one we are creating now.  "Extra" items are labels, titles,
-                        //  etc. which will be reattached to the plots as necessary below.
-                        for ( Iterator<IncPlot> pIter = thisPP.lagPlots.iterator(); pIter.hasNext(); )
-                            pIter.next().plot.clearExtraItems();
-                        for ( Iterator<IncPlot> pIter = thisPP.ampPlots.iterator(); pIter.hasNext(); )
-                            pIter.next().plot.clearExtraItems();
-                        for ( Iterator<IncPlot> pIter = thisPP.phasePlots.iterator(); pIter.hasNext(); )
-                            pIter.next().plot.clearExtraItems();
-
                         //  Plot the individual accumulation periods, if requested.
                         if ( _showAll.isSelected() ) {
                             //  This is the loop through each accumulation time period.
-                            Iterator<IncPlot> ampIter = thisPP.ampPlots.iterator();
-                            Iterator<IncPlot> phaseIter = thisPP.phasePlots.iterator();
-                            for ( Iterator<IncPlot> lagIter = thisPP.lagPlots.iterator(); lagIter.hasNext(); ) {
-                                IncPlot lagPlot = lagIter.next();
-                                IncPlot ampPlot = ampIter.next();
-                                IncPlot phasePlot = phaseIter.next();
+                            int nPlots = thisPP.size( ProductHistory.LAG );
+                            for ( int i = 0; i < nPlots; ++i ) {
+                                IncPlot lagPlot = thisPP.plot( ProductHistory.LAG, i );
+                                IncPlot ampPlot = thisPP.plot( ProductHistory.AMPLITUDE, i );
+                                IncPlot phasePlot = thisPP.plot( ProductHistory.PHASE, i );
+                                //  Everything in the cell is drawn by its tile, which only needs new
+                                //  content if something it shows has changed.
+                                PlotTile tile = plotTile( thisPP.scanName + ":" + thisPP.index + ":all" + i,
+                                        x, y, xSize, ySize, x == xStart, y == yStart, thisPP == productList.peekLast() );
+                                String version = cellVersion( serial( lagPlot ), serial( ampPlot ), serial( phasePlot ),
+                                        lagMin, lagMax, lagLimitsSet, ampMin, ampMax, ampLimitsSet, i == nPlots - 1,
+                                        x == xStart, y == yStart, thisPP == productList.peekFirst(), thisPP == productList.peekLast() );
+                                if ( tile.needsContent( version ) ) {
+                                    ArrayList<Plot2DObject> content = new ArrayList<Plot2DObject>();
+                                    boolean drawXLabels = false;
+                                    boolean drawYLabels = false;
+                                    //  Draw a "background" plot below each plot.  This has any items we want below the data.
+                                    content.add( newBackgroundPlot( x, y, xSize, ySize ) );
+                                    //  Add the data plots.
+                                    if ( _showLag.isSelected() && lagPlot != null ) {
+                                        //  X labels are drawn on the last plot (in time) ONLY if there are no summary
+                                        //  or other plots following.
+                                        if ( i == nPlots - 1 && !_showTimeSummary.isSelected() && !_showLatest.isSelected() )
+                                            drawXLabels = true;
+                                        else
+                                            drawXLabels = false;
+                                        //  Y labels are drawn on the first channel plot.
+                                        if ( x == xStart )
+                                            drawYLabels = true;
+                                        else
+                                            drawXLabels = false;
+                                        content.add( newLagPlot( lagPlot, x, y, xSize, ySize,
+                                                lagMin, lagMax, lagLimitsSet, drawXLabels, drawYLabels ) );
+                                    }
+                                    if ( _showAmp.isSelected() && ampPlot != null ) {
+                                        //  X labels need to be drawn if this is the last plot (in time) AND they
+                                        //  have not already been drawn by the lag plot.
+                                        drawXLabels = false;
+                                        //  Y labels appear only on the last plot.
+                                        if ( thisPP == productList.peekLast() )
+                                            drawYLabels = true;
+                                        else
+                                            drawYLabels = false;
+                                        content.add( newAmpPlot( ampPlot, x, y, xSize, ySize,
+                                                ampMin, ampMax, ampLimitsSet, drawXLabels, drawYLabels ) );
+                                    }
+                                    if ( _showPhase.isSelected() && phasePlot != null ) {
+                                        //  X labels need to be drawn if this is the last plot (in time) AND they
+                                        //  have not already been drawn by the lag plot.
+                                        drawXLabels = false;
+                                        //  Y labels appear only if this is the first (channel) plot.
+                                        if ( thisPP == productList.peekFirst() )
+                                            drawYLabels = true;
+                                        else
+                                            drawYLabels = false;
+                                        content.add( newPhasePlot( phasePlot, x, y, xSize, ySize,
+                                                -180.0, 180.0, true, drawXLabels, drawYLabels ) );
+                                    }
+                                    //  Add a frame to the plot.
+                                    Plot2DObject framePlot = newFramePlot( x, y, xSize, ySize );
+                                    //  Identify the product if this is the first plot in the column.
+                                    if ( y == yStart )
+                                        plotChannelInformation( framePlot, thisPP.index );
+                                    //  Add a time stamp if this is the left-most plot.
+                                    if ( x == xStart ) {
+                                        DrawObject newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
+                                                0.0, Plot2DObject.ExtraItem.BY_FRAME );
+                                        newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=1>" + lagPlot.scanName );
+                                        newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
+                                                0.0, Plot2DObject.ExtraItem.BY_FRAME );
+                                        newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=2>" + 
+                                                lagPlot.timeStamp + " - " +  ( lagPlot.timeStamp + lagPlot.integrationTime ) );
+                                    }
+                                    content.add( framePlot );                    
+                                    tile.content( content, version );
+                                }
+                                y += yStep;
+                            }
+                        }
+
+                        //  Plot the "latest".
+                        if ( _showLatest.isSelected() ) {
+                            //  Latest plots are the last in the history, unless the user has used the
+                            //  mouse wheel to change that.
+                            IncPlot lagPlot = thisPP.plot( ProductHistory.LAG, plotIndex( thisPP.size( ProductHistory.LAG ) ) );
+                            IncPlot ampPlot = thisPP.plot( ProductHistory.AMPLITUDE, plotIndex( thisPP.size( ProductHistory.AMPLITUDE ) ) );
+                            IncPlot phasePlot = thisPP.plot( ProductHistory.PHASE, plotIndex( thisPP.size( ProductHistory.PHASE ) ) );
+                            PlotTile tile = plotTile( thisPP.scanName + ":" + thisPP.index + ":latest",
+                                    x, y, xSize, ySize, x == xStart, y == yStart, thisPP == productList.peekLast() );
+                            String version = cellVersion( serial( lagPlot ), serial( ampPlot ), serial( phasePlot ),
+                                    lagMin, lagMax, lagLimitsSet, ampMin, ampMax, ampLimitsSet,
+                                    x == xStart, y == yStart, thisPP == productList.peekLast() );
+                            if ( tile.needsContent( version ) ) {
+                                ArrayList<Plot2DObject> content = new ArrayList<Plot2DObject>();
+                                //  Background.
+                                content.add( newBackgroundPlot( x, y, xSize, ySize ) );
                                 boolean drawXLabels = false;
-                                boolean drawYLabels = false;
-                                //  Draw a "background" plot below each plot.  This has any items we want below the data.
-                                _plotWindow.add2DPlot( newBackgroundPlot( x, y, xSize, ySize ) );
+                                boolean drawLeftYLabels = false;
+                                boolean drawRightYLabels = false;
                                 //  Add the data plots.
-                                if ( _showLag.isSelected() ) {
+                                if ( _showLag.isSelected() && lagPlot != null ) {
                                     //  X labels are drawn on the last plot (in time) ONLY if there are no summary
                                     //  or other plots following.
-                                    if ( lagPlot == thisPP.lagPlots.peekLast() && !_showTimeSummary.isSelected() && !_showLatest.isSelected() )
+                                    if ( !_showTimeSummary.isSelected() )
                                         drawXLabels = true;
                                     else
                                         drawXLabels = false;
                                     //  Y labels are drawn on the first channel plot.
                                     if ( x == xStart )
-                                        drawYLabels = true;
+                                        drawLeftYLabels = true;
                                     else
-                                        drawXLabels = false;
-                                    _plotWindow.add2DPlot( newLagPlot( lagPlot, x, y, xSize, ySize,
-                                            lagMin, lagMax, lagLimitsSet, drawXLabels, drawYLabels ) );
+                                        drawLeftYLabels = false;
+                                    content.add( newLagPlot( lagPlot, x, y, xSize, ySize,
+                                            lagMin, lagMax, lagLimitsSet, drawXLabels, drawLeftYLabels ) );
                                 }
-                                if ( _showAmp.isSelected() ) {
+                                if ( _showAmp.isSelected() && ampPlot != null ) {
                                     //  X labels need to be drawn if this is the last plot (in time) AND they
                                     //  have not already been drawn by the lag plot.
                                     drawXLabels = false;
                                     //  Y labels appear only on the last plot.
                                     if ( thisPP == productList.peekLast() )
-                                        drawYLabels = true;
+                                        drawRightYLabels = true;
                                     else
-                                        drawYLabels = false;
-                                    _plotWindow.add2DPlot( newAmpPlot( ampPlot, x, y, xSize, ySize,
-                                            ampMin, ampMax, ampLimitsSet, drawXLabels, drawYLabels ) );
+                                        drawRightYLabels = false;
+                                    content.add( newAmpPlot( ampPlot, x, y, xSize, ySize,
+                                            ampMin, ampMax, ampLimitsSet, drawXLabels, drawRightYLabels ) );
                                 }
-                                if ( _showPhase.isSelected() ) {
+                                if ( _showPhase.isSelected() && phasePlot != null ) {
                                     //  X labels need to be drawn if this is the last plot (in time) AND they
                                     //  have not already been drawn by the lag plot.
                                     drawXLabels = false;
                                     //  Y labels appear only if this is the first (channel) plot.
-                                    if ( thisPP == productList.peekFirst() )
-                                        drawYLabels = true;
+                                    if ( x == xStart && !drawLeftYLabels )
+                                        drawLeftYLabels = true;
                                     else
-                                        drawYLabels = false;
-                                    _plotWindow.add2DPlot( newPhasePlot( phasePlot, x, y, xSize, ySize,
-                                            -180.0, 180.0, true, drawXLabels, drawYLabels ) );
+                                        drawLeftYLabels = false;
+                                    content.add( newPhasePlot( phasePlot, x, y, xSize, ySize,
+                                            -180.0, 180.0, true, drawXLabels, drawLeftYLabels ) );
                                 }
                                 //  Add a frame to the plot.
                                 Plot2DObject framePlot = newFramePlot( x, y, xSize, ySize );
                                 //  Identify the product if this is the first plot in the column.
                                 if ( y == yStart )
                                     plotChannelInformation( framePlot, thisPP.index );
-                                //  Add a time stamp if this is the left-most plot.
-                                if ( x == xStart ) {
+                                if ( x == xStart && lagPlot != null ) {
                                     DrawObject newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
                                             0.0, Plot2DObject.ExtraItem.BY_FRAME );
                                     newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=1>" + lagPlot.scanName );
@@ -1676,92 +1708,9 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                                     newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=2>" + 
                                             lagPlot.timeStamp + " - " +  ( lagPlot.timeStamp + lagPlot.integrationTime ) );
                                 }
-                                _plotWindow.add2DPlot( framePlot );                    
-                                y += yStep;
+                                content.add( framePlot );                    
+                                tile.content( content, version );
                             }
-                        }
-
-                        //  Plot the "latest".
-                        if ( _showLatest.isSelected() ) {
-                            //  Background.
-                            _plotWindow.add2DPlot( newBackgroundPlot( x, y, xSize, ySize ) );
-                            //  Latest plots are the last in the array...
-                            IncPlot lagPlot = thisPP.lagPlots.peekLast();
-                            IncPlot ampPlot = thisPP.ampPlots.peekLast();
-                            IncPlot phasePlot = thisPP.phasePlots.peekLast();
-                            //  ...unless the user has used the mouse wheel to change that.
-                            if ( !_lockToLatest ) {
-                                int index = 0;
-                                if ( _currentPlotIndex < thisPP.lagPlots.size() )
-                                    index = thisPP.lagPlots.size() - _currentPlotIndex;
-                                Iterator<IncPlot> ampIter = thisPP.ampPlots.iterator();
-                                Iterator<IncPlot> phaseIter = thisPP.phasePlots.iterator();
-                                Iterator<IncPlot> lagIter = thisPP.lagPlots.iterator();
-                                while ( index > -1 ) {
-                                    lagPlot = lagIter.next();
-                                    ampPlot = ampIter.next();
-                                    phasePlot = phaseIter.next();
-                                    --index;
-                                }
-                            }
-                            boolean drawXLabels = false;
-                            boolean drawLeftYLabels = false;
-                            boolean drawRightYLabels = false;
-                            //  Add the data plots.
-                            if ( _showLag.isSelected() ) {
-                                //  X labels are drawn on the last plot (in time) ONLY if there are no summary
-                                //  or other plots following.
-                                if ( !_showTimeSummary.isSelected() )
-                                    drawXLabels = true;
-                                else
-                                    drawXLabels = false;
-                                //  Y labels are drawn on the first channel plot.
-                                if ( x == xStart )
-                                    drawLeftYLabels = true;
-                                else
-                                    drawLeftYLabels = false;
-                                _plotWindow.add2DPlot( newLagPlot( lagPlot, x, y, xSize, ySize,
-                                        lagMin, lagMax, lagLimitsSet, drawXLabels, drawLeftYLabels ) );
-                            }
-                            if ( _showAmp.isSelected() ) {
-                                //  X labels need to be drawn if this is the last plot (in time) AND they
-                                //  have not already been drawn by the lag plot.
-                                drawXLabels = false;
-                                //  Y labels appear only on the last plot.
-                                if ( thisPP == productList.peekLast() )
-                                    drawRightYLabels = true;
-                                else
-                                    drawRightYLabels = false;
-                                _plotWindow.add2DPlot( newAmpPlot( ampPlot, x, y, xSize, ySize,
-                                        ampMin, ampMax, ampLimitsSet, drawXLabels, drawRightYLabels ) );
-                            }
-                            if ( _showPhase.isSelected() ) {
-                                //  X labels need to be drawn if this is the last plot (in time) AND they
-                                //  have not already been drawn by the lag plot.
-                                drawXLabels = false;
-                                //  Y labels appear only if this is the first (channel) plot.
-                                if ( x == xStart && !drawLeftYLabels )
-                                    drawLeftYLabels = true;
-                                else
-                                    drawLeftYLabels = false;
-                                _plotWindow.add2DPlot( newPhasePlot( phasePlot, x, y, xSize, ySize,
-                                        -180.0, 180.0, true, drawXLabels, drawLeftYLabels ) );
-                            }
-                            //  Add a frame to the plot.
-                            Plot2DObject framePlot = newFramePlot( x, y, xSize, ySize );
-                            //  Identify the product if this is the first plot in the column.
-                            if ( y == yStart )
-                                plotChannelInformation( framePlot, thisPP.index );
-                            if ( x == xStart ) {
-                                DrawObject newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
-                                        0.0, Plot2DObject.ExtraItem.BY_FRAME );
-                                newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=1>" + lagPlot.scanName );
-                                newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
-                                        0.0, Plot2DObject.ExtraItem.BY_FRAME );
-                                newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=2>" + 
-                                        lagPlot.timeStamp + " - " +  ( lagPlot.timeStamp + lagPlot.integrationTime ) );
-                            }
-                            _plotWindow.add2DPlot( framePlot );                    
                             y += yStep;
                         }
 
@@ -1775,86 +1724,128 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
                         x = xStart;
                         for ( Iterator<ProductPlots> iter = productList.iterator(); iter.hasNext(); ) {
                             ProductPlots thisPP = iter.next();
-                            //  Draw a "background" plot below each plot.
-                            _plotWindow.add2DPlot( newBackgroundPlot( x, y, xSize, ySize ) );
-                            //  Latest plots are the last in the array...
-                            IncPlot lagPlot = thisPP.meanLagPlots.peekLast();
-                            IncPlot ampPlot = thisPP.meanAmpPlots.peekLast();
-                            IncPlot phasePlot = thisPP.meanPhasePlots.peekLast();
-                            //  ...unless the user has used the mouse wheel to change that.
-                            if ( !_lockToLatest ) {
-                                int index = 0;
-                                if ( _currentPlotIndex < thisPP.meanLagPlots.size() )
-                                    index = thisPP.meanLagPlots.size() - _currentPlotIndex;
-                                Iterator<IncPlot> ampIter = thisPP.meanAmpPlots.iterator();
-                                Iterator<IncPlot> phaseIter = thisPP.meanPhasePlots.iterator();
-                                Iterator<IncPlot> lagIter = thisPP.meanLagPlots.iterator();
-                                while ( index > -1 ) {
-                                    lagPlot = lagIter.next();
-                                    ampPlot = ampIter.next();
-                                    phasePlot = phaseIter.next();
-                                    --index;
+                            //  Latest plots are the last in the history, unless the user has used the
+                            //  mouse wheel to change that.
+                            IncPlot lagPlot = thisPP.plot( ProductHistory.MEAN_LAG, plotIndex( thisPP.size( ProductHistory.MEAN_LAG ) ) );
+                            IncPlot ampPlot = thisPP.plot( ProductHistory.MEAN_AMPLITUDE, plotIndex( thisPP.size( ProductHistory.MEAN_AMPLITUDE ) ) );
+                            IncPlot phasePlot = thisPP.plot( ProductHistory.MEAN_PHASE, plotIndex( thisPP.size( ProductHistory.MEAN_PHASE ) ) );
+                            PlotTile tile = plotTile( thisPP.scanName + ":" + thisPP.index + ":summary",
+                                    x, y, xSize, ySize, x == xStart, y == yStart, thisPP == productList.peekLast() );
+                            String version = cellVersion( serial( lagPlot ), serial( ampPlot ), serial( phasePlot ),
+                                    meanLagMin, meanLagMax, meanLagLimitsSet, meanAmpMin, meanAmpMax, meanAmpLimitsSet,
+                                    x == xStart, y == yStart, thisPP == productList.peekLast() );
+                            if ( tile.needsContent( version ) ) {
+                                ArrayList<Plot2DObject> content = new ArrayList<Plot2DObject>();
+                                //  Draw a "background" plot below each plot.
+                                content.add( newBackgroundPlot( x, y, xSize, ySize ) );
+                                boolean drawXLabels = false;
+                                boolean drawYLabels = false;
+                                //  Add the data plots.
+                                if ( _showLag.isSelected() && lagPlot != null ) {
+                                    //  Y labels are drawn on the first channel plot.
+                                    if ( x == xStart )
+                                        drawYLabels = true;
+                                    else
+                                        drawXLabels = false;
+                                    content.add( newLagPlot( lagPlot, x, y, xSize, ySize,
+                                            meanLagMin, meanLagMax, meanLagLimitsSet, drawXLabels, drawYLabels ) );
                                 }
-                            }
-                            boolean drawXLabels = false;
-                            boolean drawYLabels = false;
-                            //  Add the data plots.
-                            if ( _showLag.isSelected() ) {
-                                //  Y labels are drawn on the first channel plot.
-                                if ( x == xStart )
-                                    drawYLabels = true;
-                                else
+                                if ( _showAmp.isSelected() && ampPlot != null ) {
+                                    //  X labels need to be drawn if this is the last plot (in time) AND they
+                                    //  have not already been drawn by the lag plot.
                                     drawXLabels = false;
-                                _plotWindow.add2DPlot( newLagPlot( lagPlot, x, y, xSize, ySize,
-                                        meanLagMin, meanLagMax, meanLagLimitsSet, drawXLabels, drawYLabels ) );
-                            }
-                            if ( _showAmp.isSelected() ) {
-                                //  X labels need to be drawn if this is the last plot (in time) AND they
-                                //  have not already been drawn by the lag plot.
-                                drawXLabels = false;
-                                //  Y labels appear only on the last plot.
-                                if ( thisPP == productList.peekLast() )
-                                    drawYLabels = true;
-                                else
-                                    drawYLabels = false;
-                                _plotWindow.add2DPlot( newAmpPlot( ampPlot, x, y, xSize, ySize,
-                                        meanAmpMin, meanAmpMax, meanAmpLimitsSet, drawXLabels, drawYLabels ) );
-                            }
-                            if ( _showPhase.isSelected() ) {
-                                //  X labels need to be drawn if this is the last plot (in time) AND they
-                                //  have not already been drawn by the lag plot.
-                                drawXLabels = false;
-                                //  Y labels appear only if this is the first (channel) plot.
-                                if ( x == xStart )
-                                    drawYLabels = true;
-                                else
-                                    drawYLabels = false;
-                                _plotWindow.add2DPlot( newPhasePlot( phasePlot, x, y, xSize, ySize,
-                                        -180.0, 180.0, true, drawXLabels, drawYLabels ) );
-                            }
-                            //  Add a frame to the plot.
-                            Plot2DObject framePlot = newFramePlot( x, y, xSize, ySize );
-                            //  Identify the product if this is the first plot in the column.
-                            if ( y == yStart )
-                                plotChannelInformation( framePlot, thisPP.index );
-                            //  If this is the first plot on the left side, identify it as a time
-                            //  summary.
-                            if ( x == xStart ) {
-                                DrawObject newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
-                                        0.0, Plot2DObject.ExtraItem.BY_FRAME );
-                                newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=1>" + productList.scanName );
-                                if ( _showAll.isSelected() || _showLatest.isSelected() ) {
-                                    newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
+                                    //  Y labels appear only on the last plot.
+                                    if ( thisPP == productList.peekLast() )
+                                        drawYLabels = true;
+                                    else
+                                        drawYLabels = false;
+                                    content.add( newAmpPlot( ampPlot, x, y, xSize, ySize,
+                                            meanAmpMin, meanAmpMax, meanAmpLimitsSet, drawXLabels, drawYLabels ) );
+                                }
+                                if ( _showPhase.isSelected() && phasePlot != null ) {
+                                    //  X labels need to be drawn if this is the last plot (in time) AND they
+                                    //  have not already been drawn by the lag plot.
+                                    drawXLabels = false;
+                                    //  Y labels appear only if this is the first (channel) plot.
+                                    if ( x == xStart )
+                                        drawYLabels = true;
+                                    else
+                                        drawYLabels = false;
+                                    content.add( newPhasePlot( phasePlot, x, y, xSize, ySize,
+                                            -180.0, 180.0, true, drawXLabels, drawYLabels ) );
+                                }
+                                //  Add a frame to the plot.
+                                Plot2DObject framePlot = newFramePlot( x, y, xSize, ySize );
+                                //  Identify the product if this is the first plot in the column.
+                                if ( y == yStart )
+                                    plotChannelInformation( framePlot, thisPP.index );
+                                //  If this is the first plot on the left side, identify it as a time
+                                //  summary.
+                                if ( x == xStart ) {
+                                    DrawObject newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
                                             0.0, Plot2DObject.ExtraItem.BY_FRAME );
-                                    newObject.complexText( DrawObject.LEFT_JUSTIFY,
-                                            "<y=2>Full Scan" );
+                                    newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=1>" + productList.scanName );
+                                    if ( _showAll.isSelected() || _showLatest.isSelected() ) {
+                                        newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
+                                                0.0, Plot2DObject.ExtraItem.BY_FRAME );
+                                        newObject.complexText( DrawObject.LEFT_JUSTIFY,
+                                                "<y=2>Full Scan" );
+                                    }
                                 }
+                                content.add( framePlot );    
+                                tile.content( content, version );
                             }
-                            _plotWindow.add2DPlot( framePlot );    
                             x += xStep;
                         }
                         y += yStep;
                     }
+
+                    //  Waterfall plots of amplitude and phase - each a row below everything else.
+                    if ( _showWaterfall.isSelected() ) {
+                        for ( int kind = ProductHistory.AMPLITUDE; kind <= ProductHistory.PHASE; ++kind ) {
+                            if ( kind == ProductHistory.AMPLITUDE && !_showAmp.isSelected() )
+                                continue;
+                            if ( kind == ProductHistory.PHASE && !_showPhase.isSelected() )
+                                continue;
+                            x = xStart;
+                            for ( Iterator<ProductPlots> iter = productList.iterator(); iter.hasNext(); ) {
+                                ProductPlots thisPP = iter.next();
+                                //  The tile draws the background and frame (and labels) - the image
+                                //  of the waterfall is copied on top of it.
+                                PlotTile tile = plotTile( thisPP.scanName + ":" + thisPP.index + ":waterfall" + kind,
+                                        x, y, xSize, ySize, x == xStart, y == yStart, thisPP == productList.peekLast() );
+                                String version = cellVersion( x == xStart, y == yStart );
+                                if ( tile.needsContent( version ) ) {
+                                    ArrayList<Plot2DObject> content = new ArrayList<Plot2DObject>();
+                                    content.add( newBackgroundPlot( x, y, xSize, ySize ) );
+                                    Plot2DObject framePlot = newFramePlot( x, y, xSize, ySize );
+                                    if ( y == yStart )
+                                        plotChannelInformation( framePlot, thisPP.index );
+                                    if ( x == xStart ) {
+                                        DrawObject newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
+                                                0.0, Plot2DObject.ExtraItem.BY_FRAME );
+                                        newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=1>" + productList.scanName );
+                                        newObject = framePlot.newExtraItem( -0.90 * xStart / xSize, Plot2DObject.ExtraItem.BY_FRAME, 
+                                                0.0, Plot2DObject.ExtraItem.BY_FRAME );
+                                        if ( kind == ProductHistory.AMPLITUDE )
+                                            newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=2>Amplitude Waterfall" );
+                                        else
+                                            newObject.complexText( DrawObject.LEFT_JUSTIFY, "<y=2>Phase Waterfall" );
+                                    }
+                                    content.add( framePlot );
+                                    tile.content( content, version );
+                                }
+                                WaterfallPlot waterfall = thisPP.waterfall( kind );
+                                if ( waterfall != null ) {
+                                    waterfall.frame( x, y, xSize, ySize );
+                                    waterfall.resizeBasedOnWindow( _plotWindow.getWidth(), _plotWindow.getHeight() );
+                                    _plotWindow.add2DPlot( waterfall );
+                                }
+                                x += xStep;
+                            }
+                            y += yStep;
+                        }
+                    }
                 }
             }
 
@@ -1862,6 +1853,69 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         }
     }
         
+    /*
+     * Position, in a history of "size" plots, of the one to draw.  This is the latest
+     * unless the user has used the mouse wheel to count back from it.
+     */
+    protected int plotIndex( int size ) {
+        if ( _lockToLatest )
+            return size - 1;
+        if ( _currentPlotIndex < size )
+            return size - _currentPlotIndex;
+        return 0;
+    }
+    
+    /*
+     * Return the tile that draws one cell of the plot grid (identified by "key"),
+     * making a new one if there wasn't one in the last drawing, and add it to the
+     * plot window.  The tile's image includes the labels that are drawn outside the
+     * cells at the edges of the grid.
+     */
+    protected PlotTile plotTile( String key, double xStart, double yStart, double xSize, double ySize,
+            boolean firstColumn, boolean firstRow, boolean lastColumn ) {
+        PlotTile tile = _tiles.get( key );
+        if ( tile == null )
+            tile = new PlotTile( _tileRenderer );
+        _drawnTiles.put( key, tile );
+        int w = _plotWindow.getWidth();
+        int h = _plotWindow.getHeight();
+        int left = TILE_MARGIN;
+        int top = TILE_MARGIN;
+        int right = TILE_MARGIN;
+        if ( firstColumn )
+            left = (int)Math.ceil( xStart * (double)w );
+        if ( firstRow )
+            top = (int)Math.ceil( yStart * (double)h );
+        if ( lastColumn )
+            right = (int)Math.ceil( ( 1.0 - xStart - xSize ) * (double)w );
+        tile.margins( left, top, right, TILE_MARGIN );
+        tile.frame( xStart, yStart, xSize, ySize );
+        tile.resizeBasedOnWindow( w, h );
+        _plotWindow.add2DPlot( tile );
+        return tile;
+    }
+    
+    /*
+     * The version of the content of a tile - everything that decides what the cell
+     * looks like, starting with the choices in the "Show" menu.  Anything that follows
+     * from the serial numbers of the data (time stamps and the like) is left out.
+     */
+    protected String cellVersion( Object... items ) {
+        String version = _showLag.isSelected() + ":" + _showAmp.isSelected() + ":" + _showPhase.isSelected()
+                + ":" + _showDelay.isSelected() + ":" + _showSNR.isSelected() + ":" + _showAll.isSelected()
+                + ":" + _showLatest.isSelected() + ":" + _showTimeSummary.isSelected();
+        for ( int i = 0; i < items.length; ++i )
+            version += ";" + items[i];
+        return version;
+    }
+    
+    //  Serial number of the history entry a plot is made from, for cellVersion().
+    protected long serial( IncPlot incPlot ) {
+        if ( incPlot == null )
+            return -1;
+        return incPlot.serial;
+    }
+    
     /*
      * This function returns a "background" plot, which can is drawn behind data on all
      * of our plots.
@@ -1886,22 +1940,19 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         framePlot.resizeBasedOnWindow( _plotWindow.getWidth(), _plotWindow.getHeight() );
         framePlot.drawBackground( false );
         framePlot.drawFrame( true );
-        _plotWindow.add2DPlot( framePlot );
         return framePlot;
     }
     
     /*
-     * Draw a plot showing lag data.  The plot itself already exists (it is the first
-     * argument), but adjustments are made to the size, labels and other things.
+     * Make a plot showing lag data.  The data are in the first argument - the plot
+     * is new, with the size, labels and other things set here.
      */
     public Plot2DObject newLagPlot( IncPlot incPlot, double xStart, double yStart, double xSize, double ySize,
             double lagMin, double lagMax, boolean lagLimitsSet, boolean drawXLabels, boolean drawYLabels ) {
-        Plot2DObject thisPlot = incPlot.plot;
+        Plot2DObject thisPlot = incPlot.newPlot( Color.BLUE );
         if ( thisPlot != null ) {
             thisPlot.frame( xStart, yStart, xSize, ySize );
             thisPlot.resizeBasedOnWindow( _plotWindow.getWidth(), _plotWindow.getHeight() );
-            thisPlot.deleteLabels();
-            incPlot.curve.color( Color.BLUE );
             double useMin = incPlot.min;
             double useMax = incPlot.max;
             if ( lagLimitsSet ) {
@@ -1959,17 +2010,14 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
     }
     
     /*
-     * Draw an amplitude plot.
+     * Make an amplitude plot.
      */
     public Plot2DObject newAmpPlot( IncPlot incPlot, double xStart, double yStart, double xSize, double ySize,
             double ampMin, double ampMax, boolean ampLimitsSet, boolean drawXLabels, boolean drawYLabels ) {
-        Plot2DObject thisPlot = incPlot.plot;
+        Plot2DObject thisPlot = incPlot.newPlot( Color.RED );
         if ( thisPlot != null ) {
             thisPlot.frame( xStart, yStart, xSize, ySize );
             thisPlot.resizeBasedOnWindow( _plotWindow.getWidth(), _plotWindow.getHeight() );
-            thisPlot.deleteLabels();
-            _plotWindow.add2DPlot( thisPlot );
-            incPlot.curve.color( Color.RED );
             thisPlot.drawBackground( false );
             thisPlot.drawFrame( false );
             //  Set limits to match the data.  These might be changed below.
@@ -2011,17 +2059,51 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
     }
     
     /*
-     * Draw a plot of phase data.
+     * The object drawn at each point of a phase plot.
+     */
+    protected DrawObject phaseMarker() {
+        DrawObject trackCircle = new DrawObject();
+        //  This draws a circle around the point...doesn't look so great
+        //trackCircle.circle( 0.0, 0.0, 3.0, true );
+        //  Try using a "cross" character...also looks crappy
+        //trackCircle.complexText( DrawObject.CENTER_JUSTIFY, 0.0, 0.0, "<size=0.5><y=-0.4>\u271a" );
+        //  Draw a cross using line segments - looks cleaner.
+        DrawObject path = new DrawObject();
+        path.startPath( 0.0, 0.0 );
+        DrawObject vertex = new DrawObject();
+        vertex.vertex( 0.0, -3.0 );
+        path.add( vertex );
+        vertex = new DrawObject();
+        vertex.vertex( 0.0, 3.0 );
+        path.add( vertex );
+        DrawObject stroke = new DrawObject();
+        stroke.stroke();
+        path.add( stroke );
+        trackCircle.add( path );
+        path = new DrawObject();
+        path.startPath( 0.0, 0.0 );
+        vertex = new DrawObject();
+        vertex.vertex( -3.0, 0.0 );
+        path.add( vertex );
+        vertex = new DrawObject();
+        vertex.vertex( 3.0, 0.0 );
+        path.add( vertex );
+        stroke = new DrawObject();
+        stroke.stroke();
+        path.add( stroke );
+        trackCircle.add( path );
+        return trackCircle;
+    }
+
+    /*
+     * Make a plot of phase data.
      */
     public Plot2DObject newPhasePlot( IncPlot incPlot, double xStart, double yStart, double xSize, double ySize,
             double phaseMin, double phaseMax, boolean phaseLimitsSet, boolean drawXLabels, boolean drawYLabels ) {
-        Plot2DObject thisPlot = incPlot.plot;
+        Plot2DObject thisPlot = incPlot.newPlot( Color.BLACK );
         if ( thisPlot != null ) {
             thisPlot.frame( xStart, yStart, xSize, ySize );
             thisPlot.resizeBasedOnWindow( _plotWindow.getWidth(), _plotWindow.getHeight() );
-            thisPlot.deleteLabels();
-            _plotWindow.add2DPlot( thisPlot );
-            incPlot.track.color( Color.BLACK );
             thisPlot.drawBackground( false );
             thisPlot.drawFrame( false );
             //  Set limits for phase...-180 to 180.
@@ -2168,6 +2250,8 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
             _selectedCheck.setVisible( true );
             _allCheck.setVisible( true );
             _fftSize.setVisible( true );
+            _historySize.setVisible( true );
+            _decimateHistory.setVisible( true );
             _applyButton.setVisible( true );
         }
         alterProductTable();
@@ -2244,6 +2328,18 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         //  This *should* clean out all existing plots if the garbage collector works.
         synchronized ( _plotDataLock ) {
             _productPlotsByScan = new ArrayDeque<ProductPlotsList>();
+            _tiles = new HashMap<String,PlotTile>();
+            _drawnTiles = new HashMap<String,PlotTile>();
+            _historyBytes = 0;
+            //  The memory allowed for the data history is for the whole window.  Each
+            //  product in a scan can have its share of it, and older scans are dropped
+            //  when there isn't room for them.
+            _historyBudget = (long)_historySize.intValue() * 1024L * 1024L;
+            _productBudget = _historyBudget / (long)productCount;
+            if ( _decimateHistory.isSelected() )
+                _historyDecimation = ProductHistory.DEFAULT_DECIMATION;
+            else
+                _historyDecimation = 0;
         }
         
         //  Send the requested FFT size.
@@ -2528,6 +2624,9 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         _allCheck.setBounds( 440, y + 35, 100, 25 );
         _fftSizeLabel.setBounds( 545, y + 35, 60, 25 );
         _fftSize.setBounds( 610, y + 35, 80, 25 );
+        _historyLabel.setBounds( 695, y + 35, 90, 25 );
+        _historySize.setBounds( 790, y + 35, 60, 25 );
+        _decimateHistory.setBounds( 855, y + 35, 110, 25 );
         _applyButton.setBounds( w - 160, y + 35, 125, 25 );
         y += 35;
         if ( _automaticallyResize ) {
@@ -2655,6 +2754,7 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
     protected MessageDisplayPanel _messages;
     protected int _usingPort;
     protected ChannelServerSocket _ssock;
+    protected int _dataFormat;
     
     protected String _jobName;
     protected String _obsCode;
@@ -2703,15 +2803,31 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
     protected JToggleButton _viewButton;
     protected JLabel _fftSizeLabel;
     protected Power2NumberBox _fftSize;
+    protected JLabel _historyLabel;
+    protected NumberBox _historySize;
+    protected JCheckBox _decimateHistory;
+    //  Memory for the data of all scans and products, and for each product within
+    //  a scan.
+    protected long _historyBudget;
+    protected long _productBudget;
+    //  Memory currently used by the data of all scans and products.
+    protected long _historyBytes;
+    protected int _historyDecimation;
+    protected double _valueBuffer[];
+    protected static final long DEFAULT_HISTORY_MB = 256;
     protected JButton _applyButton;
     protected JCheckBox _selectedCheck;
     protected JCheckBox _allCheck;
     protected DefaultTableModel _productTable;
     protected JScrollPane _tableScrollPane;
     protected PlotWindow _plotWindow;
+    protected TileRenderer _tileRenderer;
+    protected HashMap<String,PlotTile> _tiles;
+    protected HashMap<String,PlotTile> _drawnTiles;
+    //  Pixels around each tile for labels that stick out of the cells.
+    protected static final int TILE_MARGIN = 8;
     protected class IncPlot {
         public IncPlot( int newProduct, int newChannels, int newTime, int newIntegrationTime, String newName ) {
-            plot = new Plot2DObject();
             timeStamp = newTime;
             iProduct = newProduct;
             nChannels = newChannels;
@@ -2722,27 +2838,37 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
             xData = x;
             yData = y;
             nData = x.length;
-            curve = new Curve2D( x, y );
-            plot.addCurve( curve );
+            marked = false;
         }
-        public void track( double x[], double y[], DrawObject obj ) {
+        //  Data drawn as a marker at each point, without lines.
+        public void track( double x[], double y[] ) {
             xData = x;
             yData = y;
             nData = x.length;
-            trackObject = obj;
-            track = new Track2D();
-            if ( obj != null )
+            marked = true;
+        }
+        //  Make a new plot of the data.  Plots are drawn by the PlotTiles in the
+        //  background, so each gets its own curve or track that nothing else touches.
+        //  The data themselves never change.
+        public Plot2DObject newPlot( Color color ) {
+            Plot2DObject plot = new Plot2DObject();
+            if ( marked ) {
+                Track2D track = new StripChart2D();
                 track.draw( false );
-            for ( int i = 0; i < x.length; ++i ) {
-                track.add( x[i], y[i] );
-                if ( obj != null )
-                    track.drawObject( obj );
+                track.drawObject( phaseMarker() );
+                for ( int i = 0; i < nData; ++i )
+                    track.add( xData[i], yData[i] );
+                track.color( color );
+                plot.addTrack( track );
             }
-            plot.addTrack( track );
+            else {
+                //  Spectra can have far more channels than the plots have pixels.
+                Curve2D curve = new DecimatedCurve2D( xData, yData );
+                curve.color( color );
+                plot.addCurve( curve );
+            }
+            return plot;
         }
-        public Plot2DObject plot;
-        public Curve2D curve;
-        public Track2D track;
         public int timeStamp;
         public int nChannels;
         public int integrationTime;
@@ -2756,25 +2882,148 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         public double xData[];
         public double yData[];
         public int nData;
-        public DrawObject trackObject;
+        public boolean marked;
+        //  Serial number of the history entry the plot was made from.
+        public long serial;
     }
+    //  The data received for one product (within one scan).  The data are kept in a
+    //  bounded history - plots are made from it as they are needed for drawing.
     protected class ProductPlots {
-        public ProductPlots( int newIndex ) {
-            lagPlots = new ArrayDeque<IncPlot>();
-            ampPlots = new ArrayDeque<IncPlot>();
-            phasePlots = new ArrayDeque<IncPlot>();
-            meanLagPlots = new ArrayDeque<IncPlot>();
-            meanAmpPlots = new ArrayDeque<IncPlot>();
-            meanPhasePlots = new ArrayDeque<IncPlot>();
+        public ProductPlots( int newIndex, String newScanName ) {
+            //  Part of the product's share of memory is kept for the waterfalls.
+            history = new ProductHistory( _productBudget - 2 * waterfallBudget(), _historyDecimation );
             index = newIndex;
+            scanName = newScanName;
+            _plots = new HashMap<Long,IncPlot>();
+            _drawnPlots = new HashMap<Long,IncPlot>();
+        }
+        public int size( int kind ) {
+            return history.series( kind ).size();
+        }
+        //  Add an integration to the history, keeping track of the memory used.
+        public void add( int kind, int timeStamp, int integrationTime, double values[], int n,
+                double min, double max, double delay, double snr, double maxChannel ) {
+            long before = history.bytes();
+            history.add( kind, timeStamp, integrationTime, values, n, min, max, delay, snr, maxChannel );
+            historyChange( history.bytes() - before );
+        }
+        //  Memory used by the data for this product.
+        public long bytes() {
+            long bytes = history.bytes();
+            if ( _ampWaterfall != null )
+                bytes += _ampWaterfall.bytes();
+            if ( _phaseWaterfall != null )
+                bytes += _phaseWaterfall.bytes();
+            return bytes;
+        }
+        //  The waterfall image for amplitude or phase, made the first time data of
+        //  "nChannels" channels arrive.  It has as many rows as fit in its share of
+        //  the memory budget.
+        public WaterfallPlot waterfall( int kind, int nChannels ) {
+            WaterfallPlot waterfall = waterfall( kind );
+            if ( waterfall == null ) {
+                int columns = Math.min( nChannels, WATERFALL_COLUMNS );
+                long rows = waterfallBudget() / WaterfallPlot.bytesPerRow( columns );
+                waterfall = new WaterfallPlot( columns, (int)Math.min( rows, (long)WATERFALL_ROWS ) );
+                if ( kind == ProductHistory.AMPLITUDE )
+                    _ampWaterfall = waterfall;
+                else
+                    _phaseWaterfall = waterfall;
+                historyChange( waterfall.bytes() );
+            }
+            return waterfall;
+        }
+        //  Make the waterfalls from the data in the history.
+        public void fillWaterfalls() {
+            ProductHistory.Series amps = history.series( ProductHistory.AMPLITUDE );
+            if ( amps.size() > 0 ) {
+                double values[] = new double[amps.width()];
+                WaterfallPlot waterfall = waterfall( ProductHistory.AMPLITUDE, amps.width() );
+                for ( int i = 0; i < amps.size(); ++i ) {
+                    amps.values( i, values );
+                    waterfall.addRow( values, values.length );
+                }
+            }
+            ProductHistory.Series phases = history.series( ProductHistory.PHASE );
+            if ( phases.size() > 0 ) {
+                double values[] = new double[phases.width()];
+                WaterfallPlot waterfall = waterfall( ProductHistory.PHASE, phases.width() );
+                for ( int i = 0; i < phases.size(); ++i ) {
+                    phases.values( i, values );
+                    waterfall.addPhaseRow( values, values.length );
+                }
+            }
         }
-        public ArrayDeque<IncPlot> lagPlots;
-        public ArrayDeque<IncPlot> ampPlots;
-        public ArrayDeque<IncPlot> phasePlots;
-        public ArrayDeque<IncPlot> meanLagPlots;
-        public ArrayDeque<IncPlot> meanAmpPlots;
-        public ArrayDeque<IncPlot> meanPhasePlots;
+        //  Get rid of the waterfalls.
+        public void freeWaterfalls() {
+            long bytes = bytes() - history.bytes();
+            _ampWaterfall = null;
+            _phaseWaterfall = null;
+            historyChange( -bytes );
+        }
+        //  The waterfall image, or null if there are no data for it yet.
+        public WaterfallPlot waterfall( int kind ) {
+            if ( kind == ProductHistory.AMPLITUDE )
+                return _ampWaterfall;
+            return _phaseWaterfall;
+        }
+        //  Return the data of the i'th entry in one of the histories, or null if there
+        //  isn't one.  They are reused if they were used for the last drawing.
+        public IncPlot plot( int kind, int i ) {
+            ProductHistory.Series series = history.series( kind );
+            if ( i < 0 || i >= series.size() )
+                return null;
+            Long serial = series.serial( i );
+            IncPlot incPlot = _drawnPlots.get( serial );
+            if ( incPlot == null ) {
+                incPlot = _plots.get( serial );
+                if ( incPlot == null )
+                    incPlot = newIncPlot( kind, series, i );
+                _drawnPlots.put( serial, incPlot );
+            }
+            return incPlot;
+        }
+        //  Called at the start of each drawing - plots not used in the last one are dropped.
+        public void sweep() {
+            _plots = _drawnPlots;
+            _drawnPlots = new HashMap<Long,IncPlot>();
+        }
+        protected IncPlot newIncPlot( int kind, ProductHistory.Series series, int i ) {
+            int n = series.width();
+            boolean lag = ( kind == ProductHistory.LAG || kind == ProductHistory.MEAN_LAG );
+            int nChannels = n;
+            if ( lag )
+                nChannels = n / 2;
+            IncPlot newPlot = new IncPlot( index, nChannels, series.timeStamp( i ), series.integrationTime( i ), scanName );
+            double x = 0.0;
+            if ( lag )
+                x = (double)(-nChannels);
+            double xVals[] = new double[n];
+            double yVals[] = new double[n];
+            series.values( i, yVals );
+            for ( int j = 0; j < n; ++j ) {
+                xVals[j] = x;
+                x += 1.0;
+            }
+            if ( kind == ProductHistory.PHASE || kind == ProductHistory.MEAN_PHASE )
+                newPlot.track( xVals, yVals );
+            else
+                newPlot.curve( xVals, yVals );
+            newPlot.min = series.min( i );
+            newPlot.max = series.max( i );
+            newPlot.delay = series.delay( i );
+            newPlot.snr = series.snr( i );
+            newPlot.maxChannel = series.maxChannel( i );
+            newPlot.serial = series.serial( i );
+            return newPlot;
+        }
+        public ProductHistory history;
         public int index;
+        public String scanName;
+        protected HashMap<Long,IncPlot> _plots;
+        protected HashMap<Long,IncPlot> _drawnPlots;
+        protected WaterfallPlot _ampWaterfall;
+        protected WaterfallPlot _phaseWaterfall;
     }
     protected class ProductPlotsList extends ArrayDeque<ProductPlots> {
         public ProductPlotsList( String name ) {
@@ -2792,7 +3041,7 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
             }
             //  Create a new one if necessary.
             if ( foundPP == null ) {
-                foundPP = new ProductPlots( index );
+                foundPP = new ProductPlots( index, scanName );
                 this.add( foundPP );
             }
             return foundPP;
@@ -2800,6 +3049,55 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
         public String scanName;
     }
     
+    /*
+     * Memory for each of the waterfall images of a product - an eighth of the
+     * product's share of the budget.
+     */
+    protected long waterfallBudget() {
+        return _productBudget / 8;
+    }
+    
+    /*
+     * Turn the waterfalls on or off.  Waterfalls are only kept while they are being
+     * shown - when they are turned on they are made from the data in the histories.
+     */
+    protected void showWaterfalls( boolean on ) {
+        synchronized ( _plotDataLock ) {
+            _waterfallsOn = on;
+            if ( _productPlotsByScan == null )
+                return;
+            //  New waterfalls can push the oldest scans out of the budget, so the newest
+            //  are done first and scans that have been dropped are skipped.
+            ArrayList<ProductPlotsList> scans = new ArrayList<ProductPlotsList>( _productPlotsByScan );
+            for ( int i = scans.size() - 1; i >= 0; --i ) {
+                for ( Iterator<ProductPlots> iter = scans.get( i ).iterator(); iter.hasNext(); ) {
+                    ProductPlots thisPP = iter.next();
+                    if ( !_productPlotsByScan.contains( scans.get( i ) ) )
+                        break;
+                    if ( on )
+                        thisPP.fillWaterfalls();
+                    else
+                        thisPP.freeWaterfalls();
+                }
+            }
+        }
+    }
+    
+    /*
+     * Account for a change in the memory used by the data of a product.  If all
+     * scans together are over the budget, the oldest are dropped (but never the
+     * current one, which can't use more than the budget by itself).  Called with
+     * the plot data lock held.
+     */
+    protected void historyChange( long change ) {
+        _historyBytes += change;
+        while ( _historyBytes > _historyBudget && _productPlotsByScan.size() > 1
+                && _productPlotsByScan.peekFirst() != _productPlots ) {
+            for ( ProductPlots thisPP : _productPlotsByScan.removeFirst() )
+                _historyBytes -= thisPP.bytes();
+        }
+    }
+    
     ArrayDeque<ProductPlotsList> _productPlotsByScan;
     protected ProductPlotsList _productPlots;
     protected Integer _numPlots;
@@ -2812,6 +3110,14 @@ public class LiveMonitorWindow extends JFrame implements WindowListener {
     JCheckBoxMenuItem _showLatest;
     JCheckBoxMenuItem _showAll;
     JCheckBoxMenuItem _showTimeSummary;
+    JCheckBoxMenuItem _showWaterfall;
+    //  Set (with the plot data lock held) while waterfalls are shown - the data
+    //  thread only fills them then.
+    protected volatile boolean _waterfallsOn;
+    //  Size of the waterfall images - spectra with more channels are reduced to fit,
+    //  and older accumulation periods scroll off the top.
+    protected static final int WATERFALL_COLUMNS = 1024;
+    protected static final int WATERFALL_ROWS = 512;
     JCheckBoxMenuItem _showAmp;
     JCheckBoxMenuItem _showPhase;
     JCheckBoxMenuItem _showLag;
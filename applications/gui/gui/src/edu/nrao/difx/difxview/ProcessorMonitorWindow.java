@@ -31,6 +31,7 @@ import java.awt.Color;
 import mil.navy.usno.plotlib.PlotWindow;
 import mil.navy.usno.plotlib.Plot2DObject;
 import mil.navy.usno.plotlib.Track2D;
+import mil.navy.usno.plotlib.StripChart2D;
 
 public class ProcessorMonitorWindow extends JFrame {
     
@@ -41,7 +42,7 @@ public class ProcessorMonitorWindow extends JFrame {
         this.setBounds( 500, 100, 500, 400 );
         _cpuPlot = new Plot2DObject();
         _cpuPlot.name( "CPU Plot" );
-        _cpuTrack = new Track2D();
+        _cpuTrack = new StripChart2D();
         _cpuTrack.fillCurve( true );
         _cpuPlot.addTrack( _cpuTrack );
         _cpuTrack.color( Color.GREEN );
@@ -57,7 +58,7 @@ public class ProcessorMonitorWindow extends JFrame {
         _plotWindow.add2DPlot( _cpuPlot );
         _memPlot = new Plot2DObject();
         _memPlot.name( "Memory Plot" );
-        _memTrack = new Track2D();
+        _memTrack = new StripChart2D();
         _memTrack.fillCurve( true );
         _memPlot.addTrack( _memTrack );
         _memTrack.color( Color.GREEN );
@@ -72,7 +73,7 @@ public class ProcessorMonitorWindow extends JFrame {
         _plotWindow.add2DPlot( _memPlot );
         _transmitPlot = new Plot2DObject();
         _transmitPlot.name( "Transmit Plot" );
-        _transmitTrack = new Track2D();
+        _transmitTrack = new StripChart2D();
         _transmitTrack.fillCurve( true );
         _transmitPlot.addTrack( _transmitTrack );
         _transmitTrack.color( Color.GREEN );
@@ -85,7 +86,7 @@ public class ProcessorMonitorWindow extends JFrame {
         _plotWindow.add2DPlot( _transmitPlot );
         _receivePlot = new Plot2DObject();
         _receivePlot.name( "Receive Plot" );
-        _receiveTrack = new Track2D();
+        _receiveTrack = new StripChart2D();
         _receiveTrack.fillCurve( true );
         _receivePlot.addTrack( _receiveTrack );
         _receiveTrack.color( Color.GREEN );
@@ -46,6 +46,7 @@ import java.text.DecimalFormat;
 import mil.navy.usno.plotlib.PlotWindow;
 import mil.navy.usno.plotlib.Plot2DObject;
 import mil.navy.usno.plotlib.Track2D;
+import mil.navy.usno.plotlib.StripChart2D;
 
 import edu.nrao.difx.xmllib.difxmessage.DifxMessage;
 import edu.nrao.difx.difxutilities.DiFXCommand_mark5Control;
@@ -106,7 +107,7 @@ public class ProcessorNode extends BrowserNode {
         _cpuPlot.frameColor( Color.GRAY );
         _cpuPlot.clip( true );
         _cpuPlot.addTopGrid( Plot2DObject.X_AXIS, 10.0, Color.BLACK );
-        _cpuTrack = new Track2D();
+        _cpuTrack = new StripChart2D();
         _cpuTrack.fillCurve( true );
         _cpuPlot.addTrack( _cpuTrack );
         _cpuTrack.color( new Color( 210, 190, 130 ) );
@@ -132,7 +133,7 @@ public class ProcessorNode extends BrowserNode {
         _memPlot.frameColor( Color.GRAY );
         _memPlot.clip( true );
         _memPlot.addTopGrid( Plot2DObject.X_AXIS, 10.0, Color.BLACK );
-        _memTrack = new Track2D();
+        _memTrack = new StripChart2D();
         _memTrack.fillCurve( true );
         _memPlot.addTrack( _memTrack );
         _memTrack.color( new Color( 50, 250, 200 ) );
@@ -0,0 +1,373 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * The time history of the lag, amplitude and phase data (and their scan means)
+ * received by the LiveMonitorWindow for one data product.  Each integration used
+ * to become its own set of plot objects, kept forever, which on a long job with
+ * many products eventually ate the whole heap.  Here the values are kept as floats
+ * in arrays whose size is limited by a memory "budget".  The arrays start small
+ * and grow as integrations arrive, so a short history (a short scan, say) only
+ * uses what it needs.  When an array has reached its limit the oldest integration
+ * is dropped to make room.
+ *
+ * Optionally older data can be "decimated" instead of dropped.  Half of the budget
+ * then holds recent integrations at full resolution, and integrations that fall
+ * out of it are averaged in groups into the other half, so the history reaches
+ * much further back at lower time resolution.  Phases are averaged as angles.
+ *
+ * Entries are addressed by position, oldest first.  Each has a "serial" number
+ * that changes whenever its contents do, so plots made from an entry can be kept
+ * until the entry is dropped or altered.  This class is not synchronized - the
+ * LiveMonitorWindow only touches it while holding its plot data lock.
+ */
+package edu.nrao.difx.difxview;
+
+public class ProductHistory {
+
+    public ProductHistory( long budget, int decimation ) {
+        _budget = budget;
+        _decimation = decimation;
+        _series = new Series[KINDS];
+        for ( int i = 0; i < KINDS; ++i )
+            _series[i] = new Series( i );
+    }
+
+    /*
+     * Add an integration to one of the series.  The number of values should be the
+     * same for every integration in a series - if it changes the series is cleared
+     * and sized again.
+     */
+    public void add( int kind, int timeStamp, int integrationTime, double values[], int n,
+            double min, double max, double delay, double snr, double maxChannel ) {
+        _series[kind].add( timeStamp, integrationTime, values, n, min, max, delay, snr, maxChannel );
+    }
+
+    public Series series( int kind ) { return _series[kind]; }
+
+    /*
+     * Bytes currently allocated to hold data.
+     */
+    public long bytes() {
+        long total = 0;
+        for ( int i = 0; i < KINDS; ++i )
+            total += _series[i].bytes();
+        return total;
+    }
+
+    public long budget() { return _budget; }
+    public int decimation() { return _decimation; }
+
+    /*
+     * The integrations of one type of data, oldest first.  The decimated
+     * (averaged) entries, if there are any, come before the full resolution ones.
+     */
+    public class Series {
+
+        public Series( int kind ) {
+            _kind = kind;
+        }
+
+        public int size() {
+            if ( _recent == null )
+                return 0;
+            return _archive.count + _recent.count;
+        }
+
+        public int timeStamp( int i ) { Ring r = ring( i ); return r.timeStamp[r.slot( local( i ) )]; }
+        public int integrationTime( int i ) { Ring r = ring( i ); return r.integrationTime[r.slot( local( i ) )]; }
+        public double min( int i ) { Ring r = ring( i ); return r.min[r.slot( local( i ) )]; }
+        public double max( int i ) { Ring r = ring( i ); return r.max[r.slot( local( i ) )]; }
+        public double delay( int i ) { Ring r = ring( i ); return r.delay[r.slot( local( i ) )]; }
+        public double snr( int i ) { Ring r = ring( i ); return r.snr[r.slot( local( i ) )]; }
+        public double maxChannel( int i ) { Ring r = ring( i ); return r.maxChannel[r.slot( local( i ) )]; }
+        //  The number of integrations averaged into an entry.
+        public int weight( int i ) { Ring r = ring( i ); return r.weight[r.slot( local( i ) )]; }
+        public long serial( int i ) { Ring r = ring( i ); return r.serial[r.slot( local( i ) )]; }
+        //  The number of values in each entry.
+        public int width() { return _width; }
+
+        /*
+         * Copy the values of an entry into an array, which must hold width() of them.
+         */
+        public void values( int i, double dest[] ) {
+            Ring r = ring( i );
+            int offset = r.slot( local( i ) ) * _width;
+            for ( int j = 0; j < _width; ++j )
+                dest[j] = (double)r.data[offset + j];
+        }
+
+        public void clear() {
+            _recent = null;
+            _archive = null;
+            _width = 0;
+        }
+
+        public long bytes() {
+            if ( _recent == null )
+                return 0;
+            return _recent.bytes() + _archive.bytes();
+        }
+
+        protected void add( int timeStamp, int integrationTime, double values[], int n,
+                double min, double max, double delay, double snr, double maxChannel ) {
+            if ( _recent == null || n != _width )
+                allocate( n );
+            if ( _recent.full() ) {
+                if ( _archive.limit > 0 )
+                    archive( _recent.slot( 0 ) );
+                _recent.removeOldest();
+            }
+            int slot = _recent.push();
+            int offset = slot * _width;
+            for ( int j = 0; j < n; ++j )
+                _recent.data[offset + j] = (float)values[j];
+            _recent.timeStamp[slot] = timeStamp;
+            _recent.integrationTime[slot] = integrationTime;
+            _recent.weight[slot] = 1;
+            _recent.min[slot] = min;
+            _recent.max[slot] = max;
+            _recent.delay[slot] = delay;
+            _recent.snr[slot] = snr;
+            _recent.maxChannel[slot] = maxChannel;
+            _recent.serial[slot] = ++_serial;
+        }
+
+        /*
+         * Set up the arrays for entries of "n" values.  Each series gets a share of
+         * the budget in proportion to the number of values it is expected to hold
+         * (lags have twice as many as amplitudes and phases), so all series of a
+         * product end up with the same number of entries.  The per-entry overhead
+         * is scaled the same way to keep them equal.  The share limits how far the
+         * arrays can grow - they start small.
+         */
+        protected void allocate( int n ) {
+            _width = n;
+            long share = _budget * SHARES[_kind] / TOTAL_SHARES;
+            int capacity = (int)Math.min( Integer.MAX_VALUE / Math.max( n, 1 ),
+                    share / ( 4L * (long)n + ENTRY_BYTES * SHARES[_kind] ) );
+            if ( capacity < 1 )
+                capacity = 1;
+            int archiveCapacity = 0;
+            if ( _decimation > 1 && capacity > 1 )
+                archiveCapacity = capacity / 2;
+            _recent = new Ring( capacity - archiveCapacity, n );
+            _archive = new Ring( archiveCapacity, n );
+        }
+
+        /*
+         * Average an entry being dropped from the full resolution data into the
+         * newest decimated entry, or start a new one if that is complete.
+         */
+        protected void archive( int from ) {
+            int fromOffset = from * _width;
+            int to;
+            if ( _archive.count > 0 && _archive.weight[_archive.slot( _archive.count - 1 )] < _decimation ) {
+                to = _archive.slot( _archive.count - 1 );
+                int w = ++_archive.weight[to];
+                int toOffset = to * _width;
+                boolean circular = ( _kind == PHASE || _kind == MEAN_PHASE );
+                float newMin = 0.0f;
+                float newMax = 0.0f;
+                for ( int j = 0; j < _width; ++j ) {
+                    float a = _archive.data[toOffset + j];
+                    float d = _recent.data[fromOffset + j] - a;
+                    if ( circular )
+                        a = wrap( a + wrap( d ) / (float)w );
+                    else
+                        a += d / (float)w;
+                    _archive.data[toOffset + j] = a;
+                    if ( j == 0 || a < newMin )
+                        newMin = a;
+                    if ( j == 0 || a > newMax )
+                        newMax = a;
+                }
+                //  Phase limits are fixed, anything else follows the averaged values.
+                if ( !circular ) {
+                    _archive.min[to] = newMin;
+                    _archive.max[to] = newMax;
+                }
+                _archive.delay[to] += ( _recent.delay[from] - _archive.delay[to] ) / (double)w;
+                _archive.snr[to] += ( _recent.snr[from] - _archive.snr[to] ) / (double)w;
+                _archive.maxChannel[to] = _recent.maxChannel[from];
+                _archive.integrationTime[to] = _recent.timeStamp[from] + _recent.integrationTime[from]
+                        - _archive.timeStamp[to];
+            }
+            else {
+                if ( _archive.full() )
+                    _archive.removeOldest();
+                to = _archive.push();
+                System.arraycopy( _recent.data, fromOffset, _archive.data, to * _width, _width );
+                _archive.timeStamp[to] = _recent.timeStamp[from];
+                _archive.integrationTime[to] = _recent.integrationTime[from];
+                _archive.weight[to] = 1;
+                _archive.min[to] = _recent.min[from];
+                _archive.max[to] = _recent.max[from];
+                _archive.delay[to] = _recent.delay[from];
+                _archive.snr[to] = _recent.snr[from];
+                _archive.maxChannel[to] = _recent.maxChannel[from];
+            }
+            _archive.serial[to] = ++_serial;
+        }
+
+        protected Ring ring( int i ) {
+            if ( i < _archive.count )
+                return _archive;
+            return _recent;
+        }
+
+        protected int local( int i ) {
+            if ( i < _archive.count )
+                return i;
+            return i - _archive.count;
+        }
+
+        protected int _kind;
+        protected int _width;
+        protected Ring _recent;
+        protected Ring _archive;
+
+    }
+
+    /*
+     * Wrap an angle in degrees into -180 to 180.
+     */
+    protected static float wrap( float a ) {
+        while ( a > 180.0f )
+            a -= 360.0f;
+        while ( a < -180.0f )
+            a += 360.0f;
+        return a;
+    }
+
+    /*
+     * Circular store of up to "limit" entries.  Entry data are "width" floats at
+     * slot * width in one array.  The arrays are doubled in size as needed until
+     * they hold the limit.
+     */
+    protected static class Ring {
+
+        Ring( int newLimit, int newWidth ) {
+            limit = newLimit;
+            width = newWidth;
+            resize( Math.min( limit, INITIAL_ENTRIES ) );
+        }
+
+        boolean full() { return count == limit; }
+
+        //  The slot holding the i'th oldest entry.
+        int slot( int i ) { return ( head + i ) % capacity; }
+
+        //  Add an entry at the new end, returning its slot.  There must be room.
+        int push() {
+            if ( count == capacity )
+                resize( (int)Math.min( (long)limit, 2L * (long)capacity ) );
+            int slot = slot( count );
+            ++count;
+            return slot;
+        }
+
+        //  Make new arrays holding "newCapacity" entries, with the current entries
+        //  moved to the start of them.
+        void resize( int newCapacity ) {
+            float newData[] = new float[newCapacity * width];
+            int newTimeStamp[] = new int[newCapacity];
+            int newIntegrationTime[] = new int[newCapacity];
+            int newWeight[] = new int[newCapacity];
+            double newMin[] = new double[newCapacity];
+            double newMax[] = new double[newCapacity];
+            double newDelay[] = new double[newCapacity];
+            double newSnr[] = new double[newCapacity];
+            double newMaxChannel[] = new double[newCapacity];
+            long newSerial[] = new long[newCapacity];
+            for ( int i = 0; i < count; ++i ) {
+                int s = slot( i );
+                System.arraycopy( data, s * width, newData, i * width, width );
+                newTimeStamp[i] = timeStamp[s];
+                newIntegrationTime[i] = integrationTime[s];
+                newWeight[i] = weight[s];
+                newMin[i] = min[s];
+                newMax[i] = max[s];
+                newDelay[i] = delay[s];
+                newSnr[i] = snr[s];
+                newMaxChannel[i] = maxChannel[s];
+                newSerial[i] = serial[s];
+            }
+            data = newData;
+            timeStamp = newTimeStamp;
+            integrationTime = newIntegrationTime;
+            weight = newWeight;
+            min = newMin;
+            max = newMax;
+            delay = newDelay;
+            snr = newSnr;
+            maxChannel = newMaxChannel;
+            serial = newSerial;
+            capacity = newCapacity;
+            head = 0;
+        }
+
+        void removeOldest() {
+            head = ( head + 1 ) % capacity;
+            --count;
+        }
+
+        long bytes() { return 4L * (long)data.length + ENTRY_BYTES * (long)capacity; }
+
+        int limit;
+        int width;
+        //  The number of entries the arrays can hold now.
+        int capacity;
+        int head;
+        int count;
+        float data[];
+        int timeStamp[];
+        int integrationTime[];
+        int weight[];
+        double min[];
+        double max[];
+        double delay[];
+        double snr[];
+        double maxChannel[];
+        long serial[];
+
+    }
+
+    protected long _budget;
+    protected int _decimation;
+    protected Series _series[];
+    protected long _serial;
+
+    public static final int LAG = 0;
+    public static final int AMPLITUDE = 1;
+    public static final int PHASE = 2;
+    public static final int MEAN_LAG = 3;
+    public static final int MEAN_AMPLITUDE = 4;
+    public static final int MEAN_PHASE = 5;
+    protected static final int KINDS = 6;
+    //  Relative share of the budget for each kind of data.
+    protected static final long SHARES[] = { 2, 1, 1, 2, 1, 1 };
+    protected static final long TOTAL_SHARES = 8;
+    //  Bytes used by the information kept with each entry besides its values.
+    protected static final long ENTRY_BYTES = 3 * 4 + 6 * 8;
+    //  Number of entries a ring holds to begin with.
+    protected static final int INITIAL_ENTRIES = 8;
+    //  How many integrations are averaged into each decimated entry, by default.
+    public static final int DEFAULT_DECIMATION = 8;
+
+}
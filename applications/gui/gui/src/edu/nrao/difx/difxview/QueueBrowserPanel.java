@@ -1570,6 +1570,8 @@ public class QueueBrowserPanel extends TearOffPanel {
             //  indicates that all we want is a quick single-string status.
             getJobStatus( searchStr, true );
             ls = new DiFXCommand_ls( searchStr, _settings );
+            //  The user asked for this, so it should show what is there now.
+            ls.useCache( false );
             //  Set the callback for when the list is complete.  
             ls.addEndListener( new ActionListener() {
                 public void actionPerformed( ActionEvent e ) {
@@ -2304,55 +2306,8 @@ public class QueueBrowserPanel extends TearOffPanel {
             //  to go on, we use the job name to locate the job in our current list of
             //  jobs.
             JobNode thisJob = null;
-            
-            //  First, we loop through all the jobs we know about and see if one matching
-            //  this name considers itself currently "running".  If so, it gets the message.
-            //  We do this to *try* to get the correct job to absorb the message, as it
-            //  is easy for multiple jobs to have the same names.  Until we have access
-            //  to a unique identifier, this is the best we can do.  Note that jobs
-            //  become "running" when the user starts them from the GUI.
             synchronized ( _browserPane ) {
-                for ( Iterator<BrowserNode> projectIter = _browserPane.browserTopNode().children().iterator();
-                        projectIter.hasNext() && thisJob == null; ) {
-                    ExperimentNode testExperiment = (ExperimentNode)projectIter.next();
-                    PassNode thisPass = null;
-                    if ( testExperiment.children().size() > 0 ) {
-                        for ( Iterator<BrowserNode> iter = testExperiment.childrenIterator(); iter.hasNext(); ) {
-                            PassNode testPass = (PassNode)(iter.next());
-                            //  Within each project, look at all jobs...
-                            for ( Iterator<BrowserNode> jobIter = testPass.children().iterator(); 
-                                jobIter.hasNext() && thisJob == null; ) {
-                                JobNode testJob = (JobNode)jobIter.next();
-                                if ( testJob.name().equals( difxMsg.getHeader().getIdentifier() ) && testJob.running() )
-                                    thisJob = testJob;
-                            }
-                        }
-                    }
-                }
-            }
-            
-            //  If the job hasn't been located using the "active" search above, try
-            //  finding the job just using its name.
-            if ( thisJob == null ) {
-                synchronized ( _browserPane ) {
-                    for ( Iterator<BrowserNode> projectIter = _browserPane.browserTopNode().children().iterator();
-                            projectIter.hasNext() && thisJob == null; ) {
-                        ExperimentNode testExperiment = (ExperimentNode)projectIter.next();
-                        PassNode thisPass = null;
-                        if ( testExperiment.children().size() > 0 ) {
-                            for ( Iterator<BrowserNode> iter = testExperiment.childrenIterator(); iter.hasNext(); ) {
-                                PassNode testPass = (PassNode)(iter.next());
-                                //  Within each project, look at all jobs...
-                                for ( Iterator<BrowserNode> jobIter = testPass.children().iterator(); 
-                                    jobIter.hasNext() && thisJob == null; ) {
-                                    JobNode testJob = (JobNode)jobIter.next();
-                                    if ( testJob.name().equals( difxMsg.getHeader().getIdentifier() ) )
-                                        thisJob = testJob;
-                                }
-                            }
-                        }
-                    }
-                }
+                thisJob = findJob( _browserPane.browserTopNode(), difxMsg.getHeader().getIdentifier() );
             }
 
             //  If we didn't find this job, create an entry for it in the "unaffiliated"
@@ -2383,6 +2338,36 @@ public class QueueBrowserPanel extends TearOffPanel {
         
     }  
     
+    /*
+     * Find a job by name in a tree of experiments, passes and jobs (the top node of
+     * the browser).  If a job with the name considers itself "running" it is the one
+     * returned, as the message is most likely for it - it is easy for multiple jobs
+     * to have the same names, and until we have access to a unique identifier this
+     * is the best we can do (jobs become "running" when the user starts them from
+     * the GUI).  Otherwise the first job with the name is returned, or null if there
+     * isn't one.  The caller should hold the lock on the browser.
+     */
+    public static JobNode findJob( BrowserNode top, String name ) {
+        JobNode firstMatch = null;
+        for ( Iterator<BrowserNode> projectIter = top.children().iterator(); projectIter.hasNext(); ) {
+            BrowserNode testExperiment = projectIter.next();
+            for ( Iterator<BrowserNode> iter = testExperiment.childrenIterator(); iter.hasNext(); ) {
+                BrowserNode testPass = iter.next();
+                //  Within each project, look at all jobs...
+                for ( Iterator<BrowserNode> jobIter = testPass.children().iterator(); jobIter.hasNext(); ) {
+                    JobNode testJob = (JobNode)jobIter.next();
+                    if ( testJob.name().equals( name ) ) {
+                        if ( testJob.running() )
+                            return testJob;
+                        if ( firstMatch == null )
+                            firstMatch = testJob;
+                    }
+                }
+            }
+        }
+        return firstMatch;
+    }
+    
     /*
      * Add the given job to the queue browser list (if its not already there).  The
      * job has an experiment and pass name along with the full path to an input file.
@@ -2447,6 +2432,7 @@ public class QueueBrowserPanel extends TearOffPanel {
             final ArrayList<String> v2dList = new ArrayList<String>();
             final PassNode searchPass = thisPass;
             DiFXCommand_ls ls = new DiFXCommand_ls( thisPass.fullPath() + "/*.v2d", _settings );
+            ls.useCache( false );
             ls.addEndListener( new ActionListener() {
                 public void actionPerformed( ActionEvent e ) {
                     //  Found anything at all?
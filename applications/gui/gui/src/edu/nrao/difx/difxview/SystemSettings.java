@@ -92,6 +92,7 @@ import mil.navy.usno.widgetlib.NumberBox;
 import mil.navy.usno.plotlib.PlotWindow;
 import mil.navy.usno.plotlib.Plot2DObject;
 import mil.navy.usno.plotlib.Track2D;
+import mil.navy.usno.plotlib.StripChart2D;
 import mil.navy.usno.widgetlib.PingTest;
 import mil.navy.usno.widgetlib.MessageScrollPane;
 import mil.navy.usno.widgetlib.MessageNode;
@@ -111,7 +112,12 @@ import javax.swing.JFrame;
 import edu.nrao.difx.difxdatabase.QueueDBConnection;
 import edu.nrao.difx.difxutilities.GuiServerConnection;
 import edu.nrao.difx.difxutilities.TabCompletedTextField;
+import edu.nrao.difx.difxutilities.TransferPortAllocator;
+import edu.nrao.difx.difxutilities.ListingCache;
 import edu.nrao.difx.difxcontroller.DiFXMessageProcessor;
+import edu.nrao.difx.difxcontroller.MulticastMonitor;
+import edu.nrao.difx.difxcontroller.SessionJournal;
+import edu.nrao.difx.difxcontroller.SessionReplayer;
 import edu.nrao.difx.difxutilities.DiFXCommand_ls;
 
 import java.sql.ResultSet;
@@ -494,6 +500,24 @@ public class SystemSettings extends JFrame {
             }
         });
         difxControlPanel.add( _channelAllData );
+        _compressData = new ZCheckBox( "Compress Data" );
+        _compressData.setToolTipText( "Have <<italic>>guiServer<</italic>> compress relayed DiFX messages and channelled\n"
+                + "data before sending them.  This uses a little CPU at both ends but\n"
+                + "can greatly reduce traffic over a slow network connection.  It has no\n"
+                + "effect if the <<italic>>guiServer<</italic>> is too old to do this." );
+        _compressData.setBounds( 725, 25, 150, 25 );
+        _compressData.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                if ( guiServerConnection() != null && guiServerConnection().connected() )
+                    guiServerConnection().compression( _compressData.isSelected() );
+            }
+        });
+        difxControlPanel.add( _compressData );
+        _compressionStatus = new JLabel( "" );
+        _compressionStatus.setBounds( 670, 115, 300, 25 );
+        _compressionStatus.setToolTipText( "Data compression on the <<italic>>guiServer<</italic>> connection - the ratio of data\n"
+                + "size to compressed size, and the share of one CPU used to uncompress it." );
+        difxControlPanel.add( _compressionStatus );
         _difxVersion = new JComboBox<Object>();
         _difxVersion.setToolTipText( "Run all DiFX applications (vex2difx, mpifxcorr, etc.) using this DiFx version." );
         _difxVersion.setEditable( true );
@@ -574,7 +598,7 @@ public class SystemSettings extends JFrame {
         difxControlPanel.add( difxSetupPathLabel );
         
         IndexedPanel networkPanel = new IndexedPanel( "DiFX Message Traffic" );
-        networkPanel.openHeight( 270 );
+        networkPanel.openHeight( 390 );
         networkPanel.closedHeight( 20 );
         _scrollPane.addNode( networkPanel );
         _useTCPRelayCheck = new ZCheckBox( "Relay Using guiServer Connection" );
@@ -646,10 +670,16 @@ public class SystemSettings extends JFrame {
         _broadcastPlot = new Plot2DObject();
         _broadcastPlot.title( "Packet Traffic (bytes/buffer size)", Plot2DObject.LEFT_JUSTIFY );
         _broadcastPlot.titlePosition( 0.0, 4.0 );
-        _broadcastTrack = new Track2D();
+        _broadcastTrack = new StripChart2D();
         _broadcastPlot.addTrack( _broadcastTrack );
         _broadcastTrack.color( Color.GREEN );
         _broadcastTrack.sizeLimit( 1000 );
+        //  Depth of the message processing queue (as a fraction of its capacity) at
+        //  the time of each packet.
+        _queueDepthTrack = new StripChart2D();
+        _broadcastPlot.addTrack( _queueDepthTrack );
+        _queueDepthTrack.color( Color.YELLOW );
+        _queueDepthTrack.sizeLimit( 1000 );
         //_broadcastPlot.frame( 10, 23, 0.95, 90 );
         _broadcastPlot.frame( 10, 23, 0.95, 110 );
         _broadcastPlot.backgroundColor( Color.BLACK );
@@ -748,6 +778,112 @@ public class SystemSettings extends JFrame {
             }
         } );
         networkPanel.add( _requestMessagesButton );
+        _additionalGroups = new SaneTextField();
+        _additionalGroups.setToolTipText( "Comma separated list of additional multicast groups to monitor, each\n"
+                + "in the form \"address:port\" (the port may be left off if it is the same\n"
+                + "as the primary group).  These are always received directly, even\n"
+                + "when the primary group is relayed by <<italic>>guiServer<</italic>>." );
+        _additionalGroups.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                generateBroadcastChangeEvent();
+            }
+        } );
+        networkPanel.add( _additionalGroups );
+        JLabel additionalGroupsLabel = new JLabel( "Additional Groups:" );
+        additionalGroupsLabel.setBounds( 10, 265, 150, 25 );
+        additionalGroupsLabel.setHorizontalAlignment( JLabel.RIGHT );
+        networkPanel.add( additionalGroupsLabel );
+        _decodeThreads = new NumberBox();
+        _decodeThreads.setHorizontalAlignment( NumberBox.LEFT );
+        _decodeThreads.minimum( 1 );
+        _decodeThreads.setToolTipText( "Number of threads used to decode (unmarshal) incoming DiFX messages.\n"
+                + "Messages are still acted on in the order they were received." );
+        _decodeThreads.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                if ( _difxMessageProcessor != null )
+                    _difxMessageProcessor.decodeThreads( _decodeThreads.intValue() );
+            }
+        } );
+        networkPanel.add( _decodeThreads );
+        JLabel decodeThreadsLabel = new JLabel( "Decode Threads:" );
+        decodeThreadsLabel.setBounds( 10, 295, 150, 25 );
+        decodeThreadsLabel.setHorizontalAlignment( JLabel.RIGHT );
+        networkPanel.add( decodeThreadsLabel );
+        _fastMessageDecode = new ZCheckBox( "Fast Decode of Status Messages" );
+        _fastMessageDecode.setBounds( 280, 295, 300, 25 );
+        _fastMessageDecode.setToolTipText( "Decode the most common (load, status and Mark5 status) DiFX messages\n"
+                + "with a streaming parser instead of the general-purpose XML\n"
+                + "unmarshaller.  Other messages are not affected." );
+        networkPanel.add( _fastMessageDecode );
+        _messageQueueCapacity = new NumberBox();
+        _messageQueueCapacity.setHorizontalAlignment( NumberBox.LEFT );
+        _messageQueueCapacity.minimum( 1 );
+        _messageQueueCapacity.setToolTipText( "The maximum number of received DiFX messages that may wait to be processed.\n"
+                + "Messages that arrive when the queue is full are dropped." );
+        _messageQueueCapacity.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                if ( _difxMessageProcessor != null )
+                    _difxMessageProcessor.messageQueueCapacity( _messageQueueCapacity.intValue() );
+            }
+        } );
+        networkPanel.add( _messageQueueCapacity );
+        JLabel messageQueueCapacityLabel = new JLabel( "Message Queue Limit:" );
+        messageQueueCapacityLabel.setBounds( 10, 325, 150, 25 );
+        messageQueueCapacityLabel.setHorizontalAlignment( JLabel.RIGHT );
+        networkPanel.add( messageQueueCapacityLabel );
+        _coalesceMessages = new ZCheckBox( "Keep Only Latest Load/Mark5 Status" );
+        _coalesceMessages.setBounds( 280, 325, 300, 25 );
+        _coalesceMessages.setToolTipText( "When messages are arriving faster than they can be processed, a new load\n"
+                + "or Mark5 status message from a host replaces any older one from the\n"
+                + "same host that is still waiting.  Other messages are never replaced." );
+        _coalesceMessages.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                if ( _difxMessageProcessor != null )
+                    _difxMessageProcessor.coalesceMessages( _coalesceMessages.isSelected() );
+            }
+        } );
+        networkPanel.add( _coalesceMessages );
+        _messageQueueStatus = new JLabel( "" );
+        _messageQueueStatus.setBounds( 590, 325, 400, 25 );
+        _messageQueueStatus.setToolTipText( "Messages waiting, replaced by newer ones, and dropped because the queue was full\n"
+                + "(and relayed messages dropped, if the guiServer relay is used).  If any transfer\n"
+                + "operations have had to wait for a free transfer port, the number of waits, the longest\n"
+                + "wait, and the number waiting now are also shown, as are the number of directory\n"
+                + "listings answered from the listing cache and the number that went to the DiFX host." );
+        networkPanel.add( _messageQueueStatus );
+        _recordSessionButton = new JButton( "Record Session..." );
+        _recordSessionButton.setToolTipText( "Record all received DiFX message traffic to a file that can be replayed later." );
+        _recordSessionButton.setBounds( 165, 355, 175, 25 );
+        _recordSessionButton.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                recordSession();
+            }
+        } );
+        networkPanel.add( _recordSessionButton );
+        _replaySessionButton = new JButton( "Replay Session..." );
+        _replaySessionButton.setToolTipText( "Play recorded DiFX message traffic back as if it were being received now." );
+        _replaySessionButton.setBounds( 350, 355, 175, 25 );
+        _replaySessionButton.addActionListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                replaySession();
+            }
+        } );
+        networkPanel.add( _replaySessionButton );
+        _replaySpeed = new NumberBox();
+        _replaySpeed.setHorizontalAlignment( NumberBox.LEFT );
+        _replaySpeed.precision( 1 );
+        _replaySpeed.minimum( 0.0 );
+        _replaySpeed.setToolTipText( "Replay speed relative to the original recording.  Zero replays\n"
+                + "messages as fast as they can be processed." );
+        _replaySpeed.setBounds( 640, 355, 60, 25 );
+        networkPanel.add( _replaySpeed );
+        JLabel replaySpeedLabel = new JLabel( "Replay Speed:" );
+        replaySpeedLabel.setBounds( 530, 355, 105, 25 );
+        replaySpeedLabel.setHorizontalAlignment( JLabel.RIGHT );
+        networkPanel.add( replaySpeedLabel );
+        _sessionStatus = new JLabel( "" );
+        _sessionStatus.setBounds( 710, 355, 400, 25 );
+        networkPanel.add( _sessionStatus );
         
         IndexedPanel jobCreationPanel = new IndexedPanel( "Job Creation Settings" );
         jobCreationPanel.openHeight( 160 );
@@ -1610,6 +1746,7 @@ public class SystemSettings extends JFrame {
             _difxMonitorHost.setBounds( 575, 55, 300, 25 );
             _maxTransferPorts.setBounds( 575, 85, 100, 25 );
             _difxMonitorPort.setBounds( 775, 85, 100, 25 );
+            _compressionStatus.setBounds( 670, 115, Math.max( 300, w - 695 ), 25 );
             _difxControlUser.setBounds( 165, 145, 300, 25 );
             _difxVersion.setBounds( 165, 205, 300, 25 );
             _difxStartScript.setBounds( 165, 235, w - 195, 25 );
@@ -1620,9 +1757,13 @@ public class SystemSettings extends JFrame {
             _bufferSize.setBounds( 165, 115, 300, 25 );
             _timeout.setBounds( 165, 145, 300, 25 );
             _plotWindow.setBounds( 470, 33, w - 495, 140 );
+            _messageQueueStatus.setBounds( 590, 325, Math.max( 400, w - 615 ), 25 );
             _mark5Pattern.setBounds( 480, 205, w - 510, 25 );
             _inactivityWarning.setBounds( 165, 235, 100, 25 );
             _inactivityError.setBounds( 365, 235, 100, 25 );
+            _additionalGroups.setBounds( 165, 265, w - 195, 25 );
+            _decodeThreads.setBounds( 165, 295, 100, 25 );
+            _messageQueueCapacity.setBounds( 165, 325, 100, 25 );
             //  Database Configuration
             _dbHost.setBounds( 165, 55, 300, 25 );
             _dbPort.setBounds( 165, 85, 300, 25 );
@@ -1756,12 +1897,15 @@ public class SystemSettings extends JFrame {
                             _difxMessageListDisplay.changeCallback();
                         //  This is used to relay multicast packets.
                         _guiServerConnection.relayBroadcast( _useTCPRelayCheck.isSelected() );
+                        //  Whether the relay is usable has changed.
+                        generateBroadcastChangeEvent();
                         //  Hang out while this connection is running.  We'll notice a
                         //  break in a tenth of a second.
                         while ( _guiServerConnection.connected() ) {
                             try { Thread.sleep( 100 ); } catch ( Exception e ) {}
                         }
                         //  Connection lost
+                        generateBroadcastChangeEvent();
                         _guiServerConnectionLight.warning();
                         if ( _queueBrowser != null ) {
                             _queueBrowser.guiServerConnectionLight().warning();
@@ -2180,6 +2324,12 @@ public class SystemSettings extends JFrame {
         _port.intValue( 52525 );
         _bufferSize.intValue( 1500 );
         _timeout.intValue( 100 );
+        _additionalGroups.setText( "" );
+        _fastMessageDecode.setSelected( true );
+        _messageQueueCapacity.intValue( 4096 );
+        _coalesceMessages.setSelected( true );
+        _replaySpeed.value( 1.0 );
+        _decodeThreads.intValue( Math.max( 1, Math.min( 4, Runtime.getRuntime().availableProcessors() - 1 ) ) );
         _difxUDPCheck.setSelected( false );
         _difxTCPCheck.setSelected( true );
         _difxControlAddress.setText( "guiServer.hostname" );
@@ -2187,6 +2337,7 @@ public class SystemSettings extends JFrame {
         _difxTransferPort.intValue( 50300 );
         _maxTransferPorts.intValue( 100 );
         _channelAllData.setSelected( false );
+        _compressData.setSelected( false );
         maxTransferPorts();
         _difxMonitorPort.intValue( 52300 );
         _difxMonitorHost.setText( "guiServer.hostname" );
@@ -2659,68 +2810,57 @@ public class SystemSettings extends JFrame {
     public void difxTransferPort( int newVal ) { _difxTransferPort.intValue( newVal ); }
     public int difxTransferPort() { return _difxTransferPort.intValue(); }
     public void difxTransferPort( String newVal ) { difxTransferPort( Integer.parseInt( newVal ) ); }
-    synchronized public int newDifxTransferPort( int retryAttempts, int sleepTime, boolean reportRetry, boolean reportFailure ) {
-        int tryPort = _newDifxTransferPort;
-        ++_newDifxTransferPort;
-        if ( _newDifxTransferPort >= _maxTransferPorts.intValue() )
-            _newDifxTransferPort = 0;
-        int initialTryPort = tryPort;
-        //  See if the port we want is "free".  If not, try subsequent ports until we
-        //  find one that is free (there is a short sleep between each attempt).  If NONE
-        //  of the ports are free, produce a warning message (if told to do so) and
-        //  retry up to a specified number of times (because the specification decrements
-        //  and stops at zero, you can force the retry cycle to go forever by giving it a
-        //  zero or negative number).  A failure may also produce a message if desired.
-        boolean gotPort = false;
-        while ( !gotPort ) {
-            synchronized( _transferPortUsed ) {
-                if ( !_transferPortUsed[tryPort] ) {
-                    gotPort = true;
-                    _transferPortUsed[tryPort] = true;
-                }
+    /*
+     * Get a transfer port that no one else is using.  If they are all in use we wait
+     * for one to be released - the caller that has been waiting longest gets the
+     * next one.  The wait is limited to "retryAttempts" times however long it
+     * would take to cycle through all ports at "sleepTime" milliseconds each (the
+     * old polling behavior).  Zero or negative "retryAttempts" means wait forever.
+     * On failure -1 is returned.
+     */
+    public int newDifxTransferPort( int retryAttempts, int sleepTime, boolean reportRetry, boolean reportFailure ) {
+        TransferPortAllocator allocator = _transferPorts;
+        int slot = allocator.tryAcquire();
+        if ( slot < 0 ) {
+            if ( reportRetry )
+                _messageCenter.warning( 0, "SystemSettings - newDifxTransferPort()", 
+                        Thread.currentThread().getStackTrace()[2].getClassName() + ":" +
+                        Thread.currentThread().getStackTrace()[2].getMethodName() + "cannot find open port - this may be bad (still trying though)" );
+            long timeout = 0;
+            if ( retryAttempts > 0 )
+                timeout = Math.max( 1L, (long)retryAttempts * (long)Math.max( sleepTime, 1 ) * (long)allocator.size() );
+            while ( slot < 0 ) {
+                slot = allocator.acquire( timeout );
+                //  If the number of ports was changed while we waited, try again with
+                //  the new set.
+                if ( slot < 0 && allocator != _transferPorts )
+                    allocator = _transferPorts;
+                else
+                    break;
             }
-            if ( !gotPort ) {
-                tryPort = _newDifxTransferPort;
-                ++_newDifxTransferPort;
-                if ( _newDifxTransferPort >= _maxTransferPorts.intValue() )
-                    _newDifxTransferPort = 0;
-                if ( tryPort == initialTryPort ) {
-//                    System.out.println( "failed waiting for transfer port " + tryPort + "(" + ( tryPort + _difxTransferPort.intValue() ) + ") to free" );
-                    --retryAttempts;
-                    if ( retryAttempts == 0 ) {
-                        //  We are giving up!
-                        if ( reportFailure )
-                            _messageCenter.error( 0, "SystemSettings - newDifxTransferPort()", 
-                                    Thread.currentThread().getStackTrace()[2].getClassName() + ":" +
-                                    Thread.currentThread().getStackTrace()[2].getMethodName() + "failed to find open port - giving up" );
-                        return -1;
-                    }
-                    if ( reportRetry )
-                        _messageCenter.warning( 0, "SystemSettings - newDifxTransferPort()", 
-                                Thread.currentThread().getStackTrace()[2].getClassName() + ":" +
-                                Thread.currentThread().getStackTrace()[2].getMethodName() + "cannot find open port - this may be bad (still trying though)" );
-                }   
-                try { Thread.sleep( sleepTime ); } catch ( Exception e ) {}
+            if ( slot < 0 ) {
+                //  We are giving up!
+                if ( reportFailure )
+                    _messageCenter.error( 0, "SystemSettings - newDifxTransferPort()", 
+                            Thread.currentThread().getStackTrace()[2].getClassName() + ":" +
+                            Thread.currentThread().getStackTrace()[2].getMethodName() + "failed to find open port - giving up" );
+                return -1;
             }
         }
-        //System.out.println( Thread.currentThread().getStackTrace()[2].getClassName() + ":"
-        //        + Thread.currentThread().getStackTrace()[2].getMethodName() +
-        //        " got port " + ( tryPort + _difxTransferPort.intValue() ) + " (" + tryPort + ")" );
-        //_transferPortUsed[tryPort] = true;
-        return tryPort + _difxTransferPort.intValue();
+        return slot + _difxTransferPort.intValue();
     }
     public void releaseTransferPort( int port ) {
-//        System.out.println( "release port " + port + "(" + ( port - _difxTransferPort.intValue() ) + ")  - waiting for lock" );
-        synchronized( _transferPortUsed ) {
-           _transferPortUsed[port - _difxTransferPort.intValue()] = false;
-        }
-//        System.out.println( "got lock - port " + port + " was released" );
+        _transferPorts.release( port - _difxTransferPort.intValue() );
     }
-    //  This function is called when the number of transfer ports is changed.  It
-    //  allocates an array of booleans to let us know when ports are "free".
-    protected void maxTransferPorts() {
-        _transferPortUsed = new boolean[_maxTransferPorts.intValue()];
+    //  This function is called when the number of transfer ports is changed.  Ports
+    //  currently in use stay that way in the new set (if they are still in range).
+    synchronized protected void maxTransferPorts() {
+        if ( _transferPorts == null )
+            _transferPorts = new TransferPortAllocator( _maxTransferPorts.intValue() );
+        else if ( _transferPorts.size() != _maxTransferPorts.intValue() )
+            _transferPorts = _transferPorts.resize( _maxTransferPorts.intValue() );
     }
+    public TransferPortAllocator transferPorts() { return _transferPorts; }
 
     public void difxMonitorPort( int newVal ) { _difxMonitorPort.intValue( newVal ); }
     public int difxMonitorPort() { return _difxMonitorPort.intValue(); }
@@ -2802,6 +2942,25 @@ public class SystemSettings extends JFrame {
     public int timeout() { return _timeout.intValue(); }
     public void timeout( String newVal ) { timeout( Integer.parseInt( newVal ) ); }
     
+    public int decodeThreads() { return _decodeThreads.intValue(); }
+    public boolean fastMessageDecode() { return _fastMessageDecode.isSelected(); }
+    public int messageQueueCapacity() { return _messageQueueCapacity.intValue(); }
+    public boolean coalesceMessages() { return _coalesceMessages.isSelected(); }
+    
+    /*
+     * Multicast groups that are monitored in addition to the primary group.  Each
+     * item is of the form "address" or "address:port".
+     */
+    public ArrayList<String> additionalMulticastGroups() {
+        ArrayList<String> groups = new ArrayList<String>();
+        String [] items = _additionalGroups.getText().split( "[,\\s]+" );
+        for ( int i = 0; i < items.length; ++i ) {
+            if ( items[i].length() > 0 )
+                groups.add( items[i] );
+        }
+        return groups;
+    }
+    
     public boolean useDatabase() { return _dbUseDataBase.isSelected(); }
     public String dbVersion() { return _dbVersion.getText(); }
     public void dbHost( String newVal ) { 
@@ -4386,11 +4545,86 @@ public class SystemSettings extends JFrame {
      * (otherwise it is kind of a waste of time).
      */
     public void gotPacket( int newSize ) {
-        if ( this.isVisible() )
-            _broadcastPlot.limits( (double)(_broadcastTrackSize - _broadcastPlot.w()), (double)(_broadcastTrackSize), -.05, 1.0 );
-        _broadcastTrack.add( (double)(_broadcastTrackSize), (double)(newSize)/(double)bufferSize() );
-        _broadcastTrackSize += 1;
-        _plotWindow.updateUI();
+        //  Packets arrive from both the multicast monitor and the guiServer connection
+        //  threads.
+        synchronized ( _broadcastTrack ) {
+            if ( this.isVisible() )
+                _broadcastPlot.limits( (double)(_broadcastTrackSize - _broadcastPlot.w()), (double)(_broadcastTrackSize), -.05, 1.0 );
+            _broadcastTrack.add( (double)(_broadcastTrackSize), (double)(newSize)/(double)bufferSize() );
+            if ( _difxMessageProcessor != null )
+                _queueDepthTrack.add( (double)(_broadcastTrackSize), (double)_difxMessageProcessor.messageQueue().size()
+                        / (double)_difxMessageProcessor.messageQueue().capacity() );
+            _broadcastTrackSize += 1;
+            _plotWindow.updateUI();
+            //  Message queue statistics, updated about once a second.
+            if ( _difxMessageProcessor != null && this.isVisible() ) {
+                long now = System.currentTimeMillis();
+                if ( now - _messageQueueStatusTime > 1000 ) {
+                    _messageQueueStatusTime = now;
+                    String status = "waiting: " + _difxMessageProcessor.messageQueue().size()
+                            + "   replaced: " + _difxMessageProcessor.messageQueue().coalescedCount()
+                            + "   dropped: " + _difxMessageProcessor.messageQueue().droppedCount();
+                    if ( useTCPRelay() && _guiServerConnection != null )
+                        status += "   relay dropped: " + _guiServerConnection.relayDroppedCount();
+                    if ( _transferPorts != null && _transferPorts.waitCount() > 0 )
+                        status += String.format( "   port waits: %d (max %d ms, %d now)",
+                                _transferPorts.waitCount(), _transferPorts.maxWaitMillis(), _transferPorts.waitingCount() );
+                    ListingCache lsCache = DiFXCommand_ls.cache();
+                    if ( lsCache.hitCount() + lsCache.prefixHitCount() + lsCache.missCount() > 0 )
+                        status += String.format( "   ls cache: %d hits, %d misses",
+                                lsCache.hitCount() + lsCache.prefixHitCount(), lsCache.missCount() );
+                    _messageQueueStatus.setText( status );
+                    updateCompressionStatus();
+                    updateBroadcastTitle();
+                    updateSessionStatus();
+                }
+            }
+        }
+    }
+    
+    /*
+     * Put the current queue depth and any signs of lost messages in the title of
+     * the packet traffic plot.
+     */
+    protected void updateBroadcastTitle() {
+        String title = "Packet Traffic (bytes/buffer size)   queue (yellow): " + _difxMessageProcessor.messageQueue().size();
+        if ( _multicastMonitor != null ) {
+            title += "   lost: " + _multicastMonitor.lostCount();
+            if ( _multicastMonitor.lateCount() > 0 )
+                title += "   late: " + _multicastMonitor.lateCount();
+            int stalled = _multicastMonitor.stalledCount();
+            if ( stalled > 0 )
+                title += "   stalled senders: " + stalled;
+            if ( _multicastMonitor.outOfOrderCount() > 0 )
+                title += "   out of order: " + _multicastMonitor.outOfOrderCount();
+            if ( _multicastMonitor.overflowCount() > 0 )
+                title += "   buffer full: " + _multicastMonitor.overflowCount();
+            if ( _multicastMonitor.receiveBufferSize() > 0 )
+                title += String.format( "   receive buffer: %.1f MB%s", (double)_multicastMonitor.receiveBufferSize() / 1.0e6,
+                        _multicastMonitor.receiveBufferLimited() ? " (limited)" : "" );
+        }
+        if ( !title.equals( _broadcastPlot.titleString() ) )
+            _broadcastPlot.title( title, Plot2DObject.LEFT_JUSTIFY );
+    }
+    
+    /*
+     * Show how well compression of the guiServer connection is working.
+     */
+    protected void updateCompressionStatus() {
+        GuiServerConnection connection = _guiServerConnection;
+        if ( connection == null || !connection.connected() || !connection.compressionAvailable() )
+            _compressionStatus.setText( "" );
+        else if ( connection.compressedBytes() == 0 )
+            _compressionStatus.setText( connection.compressionOn() ? "compression on" : "compression off" );
+        else {
+            double ratio = (double)connection.inflatedBytes() / (double)connection.compressedBytes();
+            double cpu = 0.0;
+            if ( connection.compressionNanos() > 0 )
+                cpu = 100.0 * (double)connection.inflateNanos() / (double)connection.compressionNanos();
+            _compressionStatus.setText( String.format( "compression %s %.1f:1 (%.1f MB), %.2f%% CPU",
+                    connection.compressionOn() ? "on" : "off", ratio,
+                    (double)connection.inflatedBytes() / 1.0e6, cpu ) );
+        }
     }
     
     /*
@@ -4498,6 +4732,90 @@ public class SystemSettings extends JFrame {
     public DiFXMessageProcessor difxMessageProcessor() {
         return _difxMessageProcessor;
     }
+    public void multicastMonitor( MulticastMonitor newMonitor ) {
+        _multicastMonitor = newMonitor;
+    }
+    public MulticastMonitor multicastMonitor() {
+        return _multicastMonitor;
+    }
+    
+    /*
+     * Start recording received DiFX messages to a session journal, or stop if we
+     * are recording already.
+     */
+    protected void recordSession() {
+        if ( _multicastMonitor == null )
+            return;
+        SessionJournal journal = _multicastMonitor.sessionJournal();
+        if ( journal != null ) {
+            _multicastMonitor.sessionJournal( null );
+            journal.close();
+            if ( _messageCenter != null )
+                _messageCenter.message( 0, "Session Recording", "recorded " + journal.messageCount()
+                        + " messages to " + journal.file().getPath() );
+            _recordSessionButton.setText( "Record Session..." );
+            updateSessionStatus();
+            return;
+        }
+        if ( _sessionFileChooser == null )
+            _sessionFileChooser = new JFileChooser();
+        _sessionFileChooser.setDialogTitle( "Record DiFX Messages to File..." );
+        if ( _sessionFileChooser.showSaveDialog( this ) != JFileChooser.APPROVE_OPTION )
+            return;
+        try {
+            journal = new SessionJournal( _sessionFileChooser.getSelectedFile() );
+        } catch ( java.io.IOException e ) {
+            JOptionPane.showMessageDialog( this, "Unable to record to " + _sessionFileChooser.getSelectedFile().getPath()
+                    + ":\n" + e.getMessage(), "Session Recording", JOptionPane.ERROR_MESSAGE );
+            return;
+        }
+        _multicastMonitor.sessionJournal( journal );
+        _recordSessionButton.setText( "Stop Recording" );
+        updateSessionStatus();
+    }
+    
+    /*
+     * Replay a recorded session into the message processor, or stop a replay that
+     * is running.
+     */
+    protected void replaySession() {
+        if ( _difxMessageProcessor == null )
+            return;
+        if ( _sessionReplayer != null ) {
+            _sessionReplayer.stopReplay();
+            return;
+        }
+        if ( _sessionFileChooser == null )
+            _sessionFileChooser = new JFileChooser();
+        _sessionFileChooser.setDialogTitle( "Replay DiFX Messages from File..." );
+        if ( _sessionFileChooser.showOpenDialog( this ) != JFileChooser.APPROVE_OPTION )
+            return;
+        _sessionReplayer = new SessionReplayer( _sessionFileChooser.getSelectedFile(), _difxMessageProcessor,
+                _replaySpeed.value() );
+        _sessionReplayer.addEndListener( new ActionListener() {
+            public void actionPerformed( ActionEvent e ) {
+                java.awt.EventQueue.invokeLater( new Runnable() {
+                    public void run() {
+                        _sessionReplayer = null;
+                        _replaySessionButton.setText( "Replay Session..." );
+                        updateSessionStatus();
+                    }
+                } );
+            }
+        } );
+        _replaySessionButton.setText( "Stop Replay" );
+        _sessionReplayer.start();
+        updateSessionStatus();
+    }
+    
+    protected void updateSessionStatus() {
+        String status = "";
+        if ( _multicastMonitor != null && _multicastMonitor.sessionJournal() != null )
+            status += "recorded: " + _multicastMonitor.sessionJournal().messageCount() + "   ";
+        if ( _sessionReplayer != null )
+            status += "replayed: " + _sessionReplayer.messageCount();
+        _sessionStatus.setText( status );
+    }
     public QueueBrowserSettings queueBrowserSettings() { return _queueBrowserSettings; }
     public WindowConfiguration windowConfiguration() { return _windowConfiguration; }
     public DefaultNames defaultNames() { return _defaultNames; }
@@ -4992,8 +5310,7 @@ public class SystemSettings extends JFrame {
     protected NumberBox _difxControlPort;
     protected NumberBox _difxTransferPort;
     protected NumberBox _maxTransferPorts;
-    protected boolean[] _transferPortUsed;
-    protected int _newDifxTransferPort;
+    protected volatile TransferPortAllocator _transferPorts;
     protected SaneTextField _difxMonitorHost;
     protected NumberBox _difxMonitorPort;
     protected SaneTextField _difxControlUser;
@@ -5007,9 +5324,23 @@ public class SystemSettings extends JFrame {
     protected NumberBox _port;
     protected NumberBox _bufferSize;
     protected NumberBox _timeout;
+    protected SaneTextField _additionalGroups;
+    protected NumberBox _decodeThreads;
+    protected ZCheckBox _fastMessageDecode;
+    protected NumberBox _messageQueueCapacity;
+    protected ZCheckBox _coalesceMessages;
+    protected JLabel _messageQueueStatus;
+    protected long _messageQueueStatusTime;
+    protected JButton _recordSessionButton;
+    protected JButton _replaySessionButton;
+    protected NumberBox _replaySpeed;
+    protected JLabel _sessionStatus;
+    protected JFileChooser _sessionFileChooser;
+    protected SessionReplayer _sessionReplayer;
     PlotWindow _plotWindow;
     Plot2DObject _broadcastPlot;
     Track2D _broadcastTrack;
+    Track2D _queueDepthTrack;
     int _broadcastTrackSize;
     protected ZCheckBox _suppressWarningsCheck;
     protected ZCheckBox _identifyMark5sCheck;
@@ -5319,6 +5650,7 @@ public class SystemSettings extends JFrame {
     QueueBrowserPanel _queueBrowser;
     MessageDisplayPanel _messageCenter;
     DiFXMessageProcessor _difxMessageProcessor;
+    MulticastMonitor _multicastMonitor;
     
     //  These lists contain "status" values that can be applied to different things.
     //  Nominally they come from the database, but in the absense of the database the
@@ -6462,6 +6794,11 @@ public class SystemSettings extends JFrame {
     public void channelAllDataAvailable( boolean newVal ) {
         _channelAllData.setEnabled( newVal );
     }
+    
+    protected ZCheckBox _compressData;
+    protected JLabel _compressionStatus;
+    
+    public boolean compressData() { return _compressData.isSelected(); }
 
     protected String _invisibleProcessors;
     protected String _invisibleProcessorCores;
@@ -0,0 +1,214 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Checks that the FastMessageDecoder produces the same objects as JAXB.  Every
+ * message in the corpus is decoded both ways and the results are compared field
+ * by field (all of the getters of the generated classes, recursively, so fields
+ * the decoder doesn't know about have to come out null/empty on both sides).
+ *
+ * The corpus is:
+ *   - the files in "corpus" next to this class - messages in the exact formats
+ *     the difxmessage library sends (including the <input> tag, <weight>
+ *     elements and entity references), plus unknown tags, character references,
+ *     CDATA and cases the fast path is expected to hand to JAXB (file names
+ *     starting with "Fallback").
+ *   - the messages captured for the DiFX simulator (applications/doi/DiFXSim).
+ *   - the benchmark corpus (one message of each type).
+ * Directories that aren't there (the test may be run from somewhere else) are
+ * skipped.  More directories can be given in the "difx.test.corpus" property,
+ * separated by the path separator.
+ */
+package edu.nrao.difx.difxcontroller;
+
+import edu.nrao.difx.xmllib.difxmessage.DifxMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FastMessageDecoderTest {
+
+    @Test
+    public void fastPathMatchesJAXB() throws Exception {
+        List<File> files = corpusFiles();
+        assertTrue( "no corpus messages found", files.size() > 0 );
+        JAXBPacketProcessor jaxb = new JAXBPacketProcessor( JAXB_PACKAGE );
+        FastMessageDecoder fast = new FastMessageDecoder();
+        int fastDecoded = 0;
+        for ( File file : files ) {
+            byte[] data = readFile( file );
+            DifxMessage expected = jaxb.ConvertToJAXB( new ByteArrayInputStream( data ) );
+            assertNotNull( file.getPath() + ": JAXB did not decode the message", expected );
+            assertNotNull( file.getPath() + ": JAXB did not decode the header", expected.getHeader() );
+            DifxMessage decoded = fast.decode( new ByteArrayInputStream( data ) );
+            String type = expected.getHeader().getType();
+            if ( !FastMessageDecoder.handlesType( type ) || file.getName().startsWith( "Fallback" ) ) {
+                //  The fast path must leave these to JAXB.
+                assertNull( file.getPath() + ": fast path decoded a message it should leave to JAXB", decoded );
+            }
+            else {
+                assertNotNull( file.getPath() + ": fast path gave up on a " + type, decoded );
+                compare( file.getPath() + ": difxMessage", expected, decoded );
+                ++fastDecoded;
+            }
+            //  Whichever way it goes, what the processor hands out must match.
+            compare( file.getPath() + ": difxMessage", expected,
+                    jaxb.ConvertToJAXB( new ByteArrayInputStream( data ), true ) );
+        }
+        assertTrue( "no messages went through the fast path", fastDecoded > 0 );
+    }
+
+    /*
+     * A decoder is reused for every message on a thread, so check that nothing
+     * from one message leaks into the next.
+     */
+    @Test
+    public void decoderIsReusable() throws Exception {
+        List<File> files = corpusFiles();
+        FastMessageDecoder fast = new FastMessageDecoder();
+        for ( int pass = 0; pass < 2; ++pass ) {
+            for ( File file : files ) {
+                byte[] data = readFile( file );
+                DifxMessage a = fast.decode( new ByteArrayInputStream( data ) );
+                DifxMessage b = new FastMessageDecoder().decode( new ByteArrayInputStream( data ) );
+                if ( a == null || b == null )
+                    assertEquals( file.getPath() + ": reused decoder differs", a == null, b == null );
+                else
+                    compare( file.getPath() + ": difxMessage", b, a );
+            }
+        }
+    }
+
+    /*
+     * Compare two objects from the generated message classes through their getters.
+     */
+    protected static void compare( String path, Object expected, Object actual ) throws Exception {
+        if ( expected == null || actual == null ) {
+            if ( expected != actual )
+                fail( path + ": expected " + expected + " but got " + actual );
+            return;
+        }
+        if ( expected instanceof List ) {
+            List<?> e = (List<?>)expected;
+            List<?> a = (List<?>)actual;
+            assertEquals( path + ": list size", e.size(), a.size() );
+            for ( int i = 0; i < e.size(); ++i )
+                compare( path + "[" + i + "]", e.get( i ), a.get( i ) );
+            return;
+        }
+        if ( expected instanceof Float ) {
+            assertTrue( path + ": expected " + expected + " but got " + actual,
+                    Float.compare( (Float)expected, (Float)actual ) == 0 );
+            return;
+        }
+        if ( expected instanceof Double ) {
+            assertTrue( path + ": expected " + expected + " but got " + actual,
+                    Double.compare( (Double)expected, (Double)actual ) == 0 );
+            return;
+        }
+        if ( !expected.getClass().getName().startsWith( JAXB_PACKAGE ) ) {
+            assertEquals( path, expected, actual );
+            return;
+        }
+        assertEquals( path + ": class", expected.getClass(), actual.getClass() );
+        for ( Method method : getters( expected.getClass() ) )
+            compare( path + "." + method.getName(), method.invoke( expected ), method.invoke( actual ) );
+    }
+
+    protected static List<Method> getters( Class<?> c ) {
+        List<Method> ret = new ArrayList<Method>();
+        for ( Method method : c.getMethods() ) {
+            if ( method.getParameterTypes().length != 0 || Modifier.isStatic( method.getModifiers() )
+                    || method.getDeclaringClass() == Object.class )
+                continue;
+            if ( method.getName().startsWith( "get" ) || method.getName().startsWith( "is" ) )
+                ret.add( method );
+        }
+        //  Sorted so that failures are reported the same way every time.
+        Collections.sort( ret, new Comparator<Method>() {
+            public int compare( Method a, Method b ) {
+                return a.getName().compareTo( b.getName() );
+            }
+        } );
+        return ret;
+    }
+
+    /*
+     * Every file in the corpus directories that holds a DiFX message.
+     */
+    protected List<File> corpusFiles() throws Exception {
+        List<File> directories = new ArrayList<File>();
+        directories.add( new File( getClass().getResource( "corpus" ).toURI() ) );
+        directories.add( new File( "../../doi/DiFXSim/src/edu/nrao/difx/simxml" ) );
+        directories.add( new File( "../benchmarks/corpus" ) );
+        String more = System.getProperty( "difx.test.corpus" );
+        if ( more != null ) {
+            for ( String dir : more.split( File.pathSeparator ) ) {
+                if ( dir.trim().length() > 0 )
+                    directories.add( new File( dir.trim() ) );
+            }
+        }
+        List<File> ret = new ArrayList<File>();
+        for ( File dir : directories ) {
+            File[] files = dir.listFiles();
+            if ( files == null )
+                continue;
+            Arrays.sort( files );
+            for ( File file : files ) {
+                if ( file.getName().endsWith( ".xml" ) && new String( readFile( file ), "UTF-8" ).contains( "<difxMessage>" ) )
+                    ret.add( file );
+            }
+        }
+        return ret;
+    }
+
+    protected static byte[] readFile( File file ) throws IOException {
+        InputStream in = new FileInputStream( file );
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( (int)file.length() );
+            byte[] buffer = new byte[4096];
+            int n;
+            while ( ( n = in.read( buffer ) ) > 0 )
+                out.write( buffer, 0, n );
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    protected static final String JAXB_PACKAGE = "edu.nrao.difx.xmllib.difxmessage";
+
+}
@@ -0,0 +1,257 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Checks the inflating of compressed packets from the guiServer.  The sending
+ * side is done here the way ServerSideConnection does it - each packet's ID, size
+ * and data go through one deflate stream, flushed with a sync flush, and the
+ * output is sent as the data of a COMPRESSED_PACKET.  Packets smaller than
+ * MIN_COMPRESS_SIZE are sent as they are, in among the compressed ones.
+ *
+ * The connection is never connected - "received" packets are handed straight to
+ * processPacket(), and everything that isn't part of the compression is recorded
+ * rather than acted on.
+ */
+package edu.nrao.difx.difxutilities;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CompressedPacketTest {
+
+    @Test
+    public void packetsSurviveCompression() {
+        TestConnection conn = new TestConnection();
+        Sender sender = new Sender( conn );
+        List<byte[]> sent = new ArrayList<byte[]>();
+        int sizes[] = { 100, 5, MIN_COMPRESS_SIZE - 1, MIN_COMPRESS_SIZE, 0, 3000, 200000, 1, 70000, 64 };
+        for ( int i = 0; i < sizes.length; ++i ) {
+            byte[] data = data( sizes[i], i );
+            sent.add( data );
+            sender.send( conn.RELAY_PACKET, data );
+        }
+        conn.check( conn.RELAY_PACKET, sent );
+    }
+
+    @Test
+    public void smallPacketsAreNotCompressed() {
+        TestConnection conn = new TestConnection();
+        Sender sender = new Sender( conn );
+        sender.send( conn.CHANNEL_DATA, data( MIN_COMPRESS_SIZE - 1, 1 ) );
+        sender.send( conn.CHANNEL_DATA, data( MIN_COMPRESS_SIZE, 2 ) );
+        assertEquals( 1, sender.rawCount );
+        assertEquals( 1, sender.compressedCount );
+        assertEquals( 2, conn.ids.size() );
+    }
+
+    @Test
+    public void framesSplitAcrossReads() {
+        TestConnection conn = new TestConnection();
+        Sender sender = new Sender( conn );
+        byte[] big = data( 100000, 1 );
+        byte[] small = data( 200, 2 );
+        byte[] frame = sender.deflate( conn.CHANNEL_DATA, big, Deflater.SYNC_FLUSH );
+        byte[] next = sender.deflate( conn.CHANNEL_DATA, small, Deflater.SYNC_FLUSH );
+        //  Split the first frame a byte in, and again in the middle, and send the
+        //  end of it along with the whole of the next one.  Nothing comes out
+        //  until the big packet is complete.
+        int middle = frame.length / 2;
+        conn.receive( conn.COMPRESSED_PACKET, Arrays.copyOfRange( frame, 0, 1 ) );
+        assertEquals( 0, conn.ids.size() );
+        conn.receive( conn.COMPRESSED_PACKET, Arrays.copyOfRange( frame, 1, middle ) );
+        assertEquals( 0, conn.ids.size() );
+        byte[] rest = new byte[frame.length - middle + next.length];
+        System.arraycopy( frame, middle, rest, 0, frame.length - middle );
+        System.arraycopy( next, 0, rest, frame.length - middle, next.length );
+        conn.receive( conn.COMPRESSED_PACKET, rest );
+        conn.check( conn.CHANNEL_DATA, Arrays.asList( big, small ) );
+    }
+
+    @Test
+    public void severalPacketsInOneFrame() {
+        TestConnection conn = new TestConnection();
+        Sender sender = new Sender( conn );
+        List<byte[]> sent = new ArrayList<byte[]>();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        for ( int i = 0; i < 5; ++i ) {
+            byte[] data = data( 1000 * ( i + 1 ), i );
+            sent.add( data );
+            byte[] out = sender.deflate( conn.RELAY_PACKET, data, i < 4 ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH );
+            frame.write( out, 0, out.length );
+        }
+        conn.receive( conn.COMPRESSED_PACKET, frame.toByteArray() );
+        conn.check( conn.RELAY_PACKET, sent );
+    }
+
+    @Test
+    public void resetInMiddleOfStream() {
+        TestConnection conn = new TestConnection();
+        Sender sender = new Sender( conn );
+        byte[] first = data( 5000, 1 );
+        sender.send( conn.RELAY_PACKET, first );
+        //  Half of a packet arrives, then the connection is reset.  The rest of the
+        //  old stream is of no use (and is ignored if it turns up).
+        byte[] frame = sender.deflate( conn.RELAY_PACKET, data( 5000, 2 ), Deflater.SYNC_FLUSH );
+        conn.receive( conn.COMPRESSED_PACKET, Arrays.copyOfRange( frame, 0, frame.length / 2 ) );
+        conn.resetCompression();
+        conn.receive( conn.COMPRESSED_PACKET, Arrays.copyOfRange( frame, frame.length / 2, frame.length ) );
+        assertEquals( 1, conn.ids.size() );
+        //  A new stream starts from nothing - neither the old stream's state nor
+        //  its leftover bytes get in the way.
+        sender = new Sender( conn );
+        byte[] second = data( 5000, 3 );
+        byte[] raw = data( 10, 4 );
+        sender.send( conn.RELAY_PACKET, second );
+        sender.send( conn.RELAY_PACKET, raw );
+        conn.check( conn.RELAY_PACKET, Arrays.asList( first, second, raw ) );
+    }
+
+    @Test
+    public void newStreamDropsPartialPacket() {
+        TestConnection conn = new TestConnection();
+        Sender sender = new Sender( conn );
+        byte[] frame = sender.deflate( conn.RELAY_PACKET, data( 5000, 1 ), Deflater.SYNC_FLUSH );
+        conn.receive( conn.COMPRESSED_PACKET, Arrays.copyOfRange( frame, 0, frame.length / 2 ) );
+        //  The guiServer starts a new stream without a reset on this side.
+        sender = new Sender( conn );
+        byte[] data = data( 5000, 2 );
+        sender.send( conn.RELAY_PACKET, data );
+        conn.check( conn.RELAY_PACKET, Arrays.asList( data ) );
+    }
+
+    /*
+     * Repeatable data of a given size that compress somewhat (as messages do).
+     */
+    protected static byte[] data( int size, int seed ) {
+        Random random = new Random( seed );
+        byte[] data = new byte[size];
+        for ( int i = 0; i < size; ++i )
+            data[i] = (byte)( 'a' + random.nextInt( 8 ) );
+        return data;
+    }
+
+    //  The guiServer doesn't compress packets smaller than this (see
+    //  ServerSideConnection.h).
+    protected static final int MIN_COMPRESS_SIZE = 64;
+
+    /*
+     * The sending side of a compressed stream.  A new one starts a new stream
+     * (and tells the connection so).
+     */
+    protected static class Sender {
+
+        public Sender( TestConnection conn ) {
+            _conn = conn;
+            _deflater = new Deflater();
+            _conn.receive( _conn.COMPRESSION_ON, new byte[0] );
+        }
+
+        /*
+         * Send a packet the way the guiServer does.
+         */
+        public void send( int packetId, byte[] data ) {
+            if ( data.length < MIN_COMPRESS_SIZE ) {
+                ++rawCount;
+                _conn.receive( packetId, data );
+            }
+            else {
+                ++compressedCount;
+                _conn.receive( _conn.COMPRESSED_PACKET, deflate( packetId, data, Deflater.SYNC_FLUSH ) );
+            }
+        }
+
+        /*
+         * Put a packet through the stream, returning the compressed bytes that
+         * come out.  With a sync flush that is everything needed to inflate it.
+         */
+        public byte[] deflate( int packetId, byte[] data, int flush ) {
+            ByteBuffer packet = ByteBuffer.allocate( 8 + data.length );
+            packet.putInt( packetId );
+            packet.putInt( data.length );
+            packet.put( data );
+            _deflater.setInput( packet.array() );
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while ( true ) {
+                int n = _deflater.deflate( buffer, 0, buffer.length, flush );
+                out.write( buffer, 0, n );
+                if ( n < buffer.length && _deflater.needsInput() )
+                    break;
+            }
+            return out.toByteArray();
+        }
+
+        public int rawCount;
+        public int compressedCount;
+        protected TestConnection _conn;
+        protected Deflater _deflater;
+
+    }
+
+    /*
+     * A connection that records the packets it would have processed.
+     */
+    protected static class TestConnection extends GuiServerConnection {
+
+        public TestConnection() {
+            super( null, null, 0 );
+        }
+
+        public void receive( int packetId, byte[] data ) {
+            processPacket( packetId, data.length, ByteBuffer.wrap( data ) );
+        }
+
+        @Override
+        protected void processPacket( int packetId, int nBytes, ByteBuffer data ) {
+            if ( packetId == COMPRESSION_ON || packetId == COMPRESSED_PACKET ) {
+                super.processPacket( packetId, nBytes, data );
+                return;
+            }
+            assertEquals( nBytes, data.remaining() );
+            byte[] content = new byte[data.remaining()];
+            data.get( content );
+            ids.add( packetId );
+            contents.add( content );
+        }
+
+        /*
+         * Make sure exactly the expected packets arrived, in order.
+         */
+        public void check( int packetId, List<byte[]> expected ) {
+            assertEquals( expected.size(), ids.size() );
+            for ( int i = 0; i < expected.size(); ++i ) {
+                assertEquals( "packet " + i, packetId, ids.get( i ).intValue() );
+                assertArrayEquals( "packet " + i, expected.get( i ), contents.get( i ) );
+            }
+        }
+
+        public List<Integer> ids = new ArrayList<Integer>();
+        public List<byte[]> contents = new ArrayList<byte[]>();
+
+    }
+
+}
@@ -0,0 +1,200 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A Curve2D for long series of data (spectra with many thousands of channels, for
+ * instance) drawn in plots only a few hundred pixels wide.  Drawing every point
+ * means hundreds of line segments in each pixel column, and rescaling all of them
+ * each time the plot changes.  Instead, the points falling in each pixel column
+ * are reduced to the first, last, lowest and highest, which draws the same
+ * envelope with a handful of segments per column.
+ *
+ * Which points are kept depends only on the X scale and offset, so the choice is
+ * remembered for the last few of these ("zoom levels") and a change in just the
+ * Y scale, or a return to a previous zoom, only rescales the kept points.  Call
+ * dataChange() after changing the data.
+ *
+ * X values must be in increasing (or decreasing) order - if they aren't, every
+ * point is drawn, as in a Curve2D.
+ */
+package mil.navy.usno.plotlib;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DecimatedCurve2D extends Curve2D {
+
+    public DecimatedCurve2D( double x[], double y[] ) {
+        super( x, y );
+        _levels = new LinkedHashMap<String,int[]>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String,int[]> eldest ) {
+                return size() > MAX_ZOOM_LEVELS;
+            }
+        };
+    }
+
+    /*
+     * The offset is needed to find pixel column boundaries.  Plot2DObject sets it
+     * just before the scale.
+     */
+    @Override
+    public void translate( double newXOff, double newYOff ) {
+        _xOffset = newXOff;
+        super.translate( newXOff, newYOff );
+    }
+
+    @Override
+    public void scale( double newX, double newY ) {
+        _saveXScale = newX;
+        _saveYScale = newY;
+        redraw();
+    }
+
+    /*
+     * The data have changed - forget what was kept for each zoom level.
+     */
+    @Override
+    public void dataChange() {
+        _levels.clear();
+        _ordered = null;
+        redraw();
+    }
+
+    /*
+     * Build the drawn curve from the points kept for the current zoom level,
+     * finding them if necessary.
+     */
+    protected void redraw() {
+        String key = _saveXScale + ":" + _xOffset;
+        int kept[] = _levels.get( key );
+        if ( kept == null ) {
+            kept = decimate();
+            _levels.put( key, kept );
+        }
+        if ( kept == null ) {
+            //  Nothing could be removed - draw everything.
+            for ( int i = 0; i < _n; ++i ) {
+                _xPlot[i] = _saveXScale * _x[i];
+                _yPlot[i] = _saveYScale * _y[i];
+            }
+            this.drawpoly( _xPlot, _yPlot, _n );
+            _drawnCount = _n;
+        }
+        else {
+            for ( int i = 0; i < kept.length; ++i ) {
+                _xPlot[i] = _saveXScale * _x[kept[i]];
+                _yPlot[i] = _saveYScale * _y[kept[i]];
+            }
+            this.drawpoly( _xPlot, _yPlot, kept.length );
+            _drawnCount = kept.length;
+        }
+    }
+
+    /*
+     * Find the indices of the points to draw at the current X scale and offset -
+     * for each pixel column the first, lowest, highest and last point in it, in
+     * their original order.  Returns null if decimation isn't worth doing.
+     */
+    protected int[] decimate() {
+        if ( _ordered == null ) {
+            _ordered = Boolean.TRUE;
+            boolean up = true;
+            boolean down = true;
+            for ( int i = 1; i < _n; ++i ) {
+                if ( _x[i] < _x[i - 1] )
+                    up = false;
+                if ( _x[i] > _x[i - 1] )
+                    down = false;
+            }
+            if ( !up && !down )
+                _ordered = Boolean.FALSE;
+        }
+        if ( !_ordered || _n < 2 )
+            return null;
+        double columns = Math.abs( ( _x[_n - 1] - _x[0] ) * _saveXScale ) + 1.0;
+        if ( (double)_n < MIN_POINTS_PER_COLUMN * columns )
+            return null;
+        int kept[] = new int[4 * ( (int)columns + 2 )];
+        int count = 0;
+        int first = 0;
+        long column = column( 0 );
+        for ( int i = 1; i <= _n; ++i ) {
+            long thisColumn = 0;
+            if ( i < _n )
+                thisColumn = column( i );
+            if ( i == _n || thisColumn != column ) {
+                //  Points first..i-1 are in one column.
+                int last = i - 1;
+                int low = first;
+                int high = first;
+                for ( int j = first + 1; j <= last; ++j ) {
+                    if ( _y[j] < _y[low] )
+                        low = j;
+                    if ( _y[j] > _y[high] )
+                        high = j;
+                }
+                kept[count++] = first;
+                if ( low < high ) {
+                    if ( low != first )
+                        kept[count++] = low;
+                    if ( high != last )
+                        kept[count++] = high;
+                }
+                else if ( high < low ) {
+                    if ( high != first )
+                        kept[count++] = high;
+                    if ( low != last )
+                        kept[count++] = low;
+                }
+                if ( last != first )
+                    kept[count++] = last;
+                if ( count + 4 > kept.length ) {
+                    //  Shouldn't happen unless the scale was very odd.
+                    int bigger[] = new int[2 * kept.length];
+                    System.arraycopy( kept, 0, bigger, 0, count );
+                    kept = bigger;
+                }
+                first = i;
+                column = thisColumn;
+            }
+        }
+        int ret[] = new int[count];
+        System.arraycopy( kept, 0, ret, 0, count );
+        return ret;
+    }
+
+    protected long column( int i ) {
+        return (long)Math.floor( _x[i] * _saveXScale + _xOffset );
+    }
+
+    /*
+     * The number of points in the curve as it was last drawn.
+     */
+    public int drawnCount() { return _drawnCount; }
+
+    protected LinkedHashMap<String,int[]> _levels;
+    protected double _xOffset;
+    protected Boolean _ordered;
+    protected int _drawnCount;
+
+    protected static final int MAX_ZOOM_LEVELS = 8;
+    //  Below this many points per pixel column there is little to gain.
+    protected static final double MIN_POINTS_PER_COLUMN = 4.0;
+
+}
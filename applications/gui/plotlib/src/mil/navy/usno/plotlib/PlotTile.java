@@ -0,0 +1,209 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A rectangle of a PlotWindow that is drawn from a cached image.  The plots that
+ * make up the rectangle (backgrounds, data, frames and labels) are given to the
+ * tile as its "content" and drawn into the image by a TileRenderer in the
+ * background.  Drawing the tile only copies the image, so the window paints
+ * quickly no matter how many plots it has or how big they are.
+ *
+ * The content belongs to the tile once it is given to it - it is drawn by the
+ * renderer's threads, so nothing else may change it.  To change what the tile
+ * shows, give it new content.  Each set of content has a "version" (anything that
+ * identifies what it looks like) so whoever makes it can tell with needsContent()
+ * whether the tile already has what it wants and skip building it again.
+ *
+ * The tile is a Plot2DObject so that it can be put in the PlotWindow's list of
+ * plots.  Set its frame to cover the rectangle before giving it content.  The
+ * image also covers "margins" around the frame, for labels and the like that are
+ * drawn outside it.  Until a new image is ready the old one is drawn, if it is
+ * the right size.
+ */
+package mil.navy.usno.plotlib;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.GeneralPath;
+import java.awt.image.BufferedImage;
+import java.util.Collection;
+
+public class PlotTile extends Plot2DObject {
+
+    public PlotTile( TileRenderer renderer ) {
+        _renderer = renderer;
+        _content = new Plot2DObject[0];
+        drawBackground( false );
+        drawFrame( false );
+    }
+
+    /*
+     * Extra pixels around the frame to include in the image.  New margins apply
+     * to the next content.
+     */
+    public void margins( int left, int top, int right, int bottom ) {
+        _margins = new int[] { left, top, right, bottom };
+    }
+
+    /*
+     * Whether the tile needs new content - it does unless its content has the
+     * given version and was made for the frame the tile has now.
+     */
+    synchronized public boolean needsContent( Object version ) {
+        if ( _contentVersion == null || !_contentVersion.equals( version ) )
+            return true;
+        return !area().equals( _contentArea );
+    }
+
+    /*
+     * Replace the content of the tile.  The plots are drawn in order.
+     */
+    synchronized public void content( Collection<Plot2DObject> plots, Object version ) {
+        _content = plots.toArray( new Plot2DObject[plots.size()] );
+        _contentVersion = version;
+        _contentArea = area();
+    }
+
+    synchronized public Object version() { return _contentVersion; }
+
+    @Override
+    public void draw( Graphics2D g, GeneralPath currentPath, double[] offsets, boolean measureOnly ) {
+        if ( offsets != null ) {
+            offsets[0] = 0.0;
+            offsets[1] = 0.0;
+        }
+        if ( measureOnly || !visible() )
+            return;
+        Rectangle area = area();
+        BufferedImage image;
+        boolean needed;
+        synchronized ( this ) {
+            image = _image;
+            //  Content that couldn't be drawn isn't tried again.
+            needed = _imageContent != _content && _failedContent != _content;
+        }
+        if ( image != null && image.getWidth() == area.width && image.getHeight() == area.height )
+            g.drawImage( image, area.x, area.y, null );
+        if ( needed )
+            _renderer.render( this );
+    }
+
+    /*
+     * Draw the content into a new image.  This is called by the TileRenderer, in
+     * one of its threads.  Returns false if the content was replaced while drawing
+     * and the result is already out of date.
+     */
+    protected boolean render() {
+        Plot2DObject content[];
+        Rectangle area;
+        synchronized ( this ) {
+            content = _content;
+            area = _contentArea;
+        }
+        BufferedImage image = null;
+        if ( area != null && area.width > 0 && area.height > 0 ) {
+            image = new BufferedImage( area.width, area.height, BufferedImage.TYPE_INT_ARGB );
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setRenderingHint( RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON );
+                g.translate( -area.x, -area.y );
+                synchronized ( content ) {
+                    for ( int i = 0; i < content.length; ++i )
+                        content[i].draw( g, null, null, false );
+                }
+            } finally {
+                g.dispose();
+            }
+        }
+        synchronized ( this ) {
+            _image = image;
+            _imageContent = content;
+            ++_renderCount;
+            return content == _content;
+        }
+    }
+
+    /*
+     * Called by the TileRenderer when the content could not be drawn.
+     */
+    synchronized protected void failed() {
+        _failedContent = _content;
+    }
+
+    /*
+     * The content is drawn in PostScript as it is on the screen.  The renderer might
+     * be drawing it at the same time, so take turns.
+     */
+    @Override
+    public String postScriptDraw( PrintParameters printParameters,
+            GeneralPath currentPath, boolean useOffset, boolean measureOnly ) {
+        Plot2DObject content[];
+        synchronized ( this ) {
+            content = _content;
+        }
+        String str = "";
+        synchronized ( content ) {
+            for ( int i = 0; i < content.length; ++i )
+                str += content[i].postScriptDraw( printParameters, currentPath, useOffset, measureOnly );
+        }
+        return str;
+    }
+
+    /*
+     * The pixels covered by the tile, rounded outward, without the margins.
+     */
+    public Rectangle bounds() {
+        int x0 = (int)Math.floor( x() );
+        int y0 = (int)Math.floor( y() );
+        int x1 = (int)Math.ceil( x() + w() ) + 1;
+        int y1 = (int)Math.ceil( y() + h() ) + 1;
+        return new Rectangle( x0, y0, x1 - x0, y1 - y0 );
+    }
+
+    /*
+     * The pixels covered by the image - the bounds plus the margins.
+     */
+    public Rectangle area() {
+        Rectangle area = bounds();
+        int margins[] = _margins;
+        area.x -= margins[0];
+        area.y -= margins[1];
+        area.width += margins[0] + margins[2];
+        area.height += margins[1] + margins[3];
+        return area;
+    }
+
+    /*
+     * The number of times the image has been drawn.
+     */
+    synchronized public int renderCount() { return _renderCount; }
+
+    protected TileRenderer _renderer;
+    protected volatile int _margins[] = { 0, 0, 0, 0 };
+    protected Plot2DObject _content[];
+    protected Object _contentVersion;
+    protected Rectangle _contentArea;
+    protected BufferedImage _image;
+    protected Plot2DObject _imageContent[];
+    protected Plot2DObject _failedContent[];
+    protected int _renderCount;
+    //  Set by the TileRenderer while the tile is waiting to be (or being) drawn.
+    protected boolean _queued;
+
+}
@@ -0,0 +1,267 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A Track2D for "strip charts" - plots that are fed new points continuously and
+ * only show the last few hundred or thousand of them.  A Track2D keeps each point
+ * as a pair of DrawObjects and rescales all of them whenever the plot limits
+ * change, which for a strip chart is every time a point is added.  Here the
+ * points are kept in arrays used as circular buffers, so adding one (and losing
+ * the oldest, if there is a size limit) costs the same no matter how many there
+ * are, and rescaling costs nothing.  A single path is built from the points when
+ * the chart is drawn.
+ *
+ * Everything else works as it does for a Track2D.  Filled charts are filled to
+ * the bottom of the plot.
+ */
+package mil.navy.usno.plotlib;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Path2D;
+
+public class StripChart2D extends Track2D {
+
+    public StripChart2D() {
+        //  The Track2D's children are replaced by one object that draws the path.
+        //  They are only put back for PostScript output.
+        remove( _vertexes );
+        remove( _fillPoints );
+        remove( _stroke );
+        remove( _drawAtVertices );
+        _pathDrawer = new PathDrawer();
+        add( _pathDrawer );
+        _path = new Path2D.Double();
+        _drawLine = true;
+        allocate( INITIAL_CAPACITY );
+    }
+
+    @Override
+    synchronized public void add( double x, double y, int type ) {
+        if ( _count == _capacity ) {
+            if ( _sizeLimit > 0 && _count >= _sizeLimit ) {
+                //  Drop the oldest point.
+                _head = ( _head + 1 ) % _capacity;
+                --_count;
+            }
+            else
+                allocate( 2 * _capacity );
+        }
+        int slot = ( _head + _count ) % _capacity;
+        _x[slot] = x;
+        _y[slot] = y;
+        _relative[slot] = ( type == RELATIVE_POINT );
+        ++_count;
+    }
+
+    @Override
+    synchronized public void clear() {
+        _head = 0;
+        _count = 0;
+    }
+
+    /*
+     * A new size limit drops the oldest points if there are too many.
+     */
+    @Override
+    synchronized public void sizeLimit( int newVal ) {
+        _sizeLimit = newVal;
+        if ( _sizeLimit > 0 ) {
+            while ( _count > _sizeLimit ) {
+                _head = ( _head + 1 ) % _capacity;
+                --_count;
+            }
+            allocate( _sizeLimit );
+        }
+    }
+
+    /*
+     * Nothing to do - the scale is applied when the path is built.
+     */
+    @Override
+    public void dataChange() {
+    }
+
+    @Override
+    public void draw( boolean newVal ) {
+        _drawLine = newVal;
+        super.draw( newVal );
+    }
+
+    /*
+     * The number of points held.
+     */
+    synchronized public int count() { return _count; }
+
+    /*
+     * PostScript output is rare, so for it the points are turned into the vertex
+     * objects a Track2D would have and drawn the Track2D way.
+     */
+    @Override
+    public String postScriptDraw( PrintParameters printParameters,
+            GeneralPath currentPath, boolean useOffset, boolean measureOnly ) {
+        synchronized ( this ) {
+            positions();
+            _vertexes.clear();
+            _fillPoints.clear();
+            _drawAtVertices.clear();
+            for ( int i = 0; i < _count; ++i ) {
+                DrawObject newVertex = new DrawObject();
+                newVertex.vertex( _xPos[i], _yPos[i] );
+                _vertexes.add( newVertex );
+                if ( _vertexObject != null ) {
+                    DrawObject vertexDraw = new DrawObject();
+                    vertexDraw.translate( _xPos[i], _yPos[i] );
+                    vertexDraw.add( _vertexObject );
+                    _drawAtVertices.add( vertexDraw );
+                }
+            }
+            if ( _fillCurve && _count > 0 ) {
+                DrawObject newPoint = new DrawObject();
+                newPoint.vertex( _xPos[_count - 1], -_yOff );
+                _fillPoints.add( newPoint );
+                newPoint = new DrawObject();
+                newPoint.vertex( _xPos[0], -_yOff );
+                _fillPoints.add( newPoint );
+            }
+            remove( _pathDrawer );
+            add( _vertexes );
+            add( _fillPoints );
+            add( _stroke );
+            add( _drawAtVertices );
+            String str = super.postScriptDraw( printParameters, currentPath, useOffset, measureOnly );
+            remove( _vertexes );
+            remove( _fillPoints );
+            remove( _stroke );
+            remove( _drawAtVertices );
+            add( _pathDrawer );
+            _vertexes.clear();
+            _fillPoints.clear();
+            _drawAtVertices.clear();
+            return str;
+        }
+    }
+
+    /*
+     * Resize the buffers to hold "newCapacity" points, keeping the ones we have
+     * (the newest of them, if they don't fit).
+     */
+    protected void allocate( int newCapacity ) {
+        newCapacity = Math.max( 1, newCapacity );
+        if ( newCapacity == _capacity )
+            return;
+        double newX[] = new double[newCapacity];
+        double newY[] = new double[newCapacity];
+        boolean newRelative[] = new boolean[newCapacity];
+        int keep = Math.min( _count, newCapacity );
+        for ( int i = 0; i < keep; ++i ) {
+            int slot = ( _head + _count - keep + i ) % _capacity;
+            newX[i] = _x[slot];
+            newY[i] = _y[slot];
+            newRelative[i] = _relative[slot];
+        }
+        _x = newX;
+        _y = newY;
+        _relative = newRelative;
+        _capacity = newCapacity;
+        _head = 0;
+        _count = keep;
+        _xPos = new double[newCapacity];
+        _yPos = new double[newCapacity];
+    }
+
+    /*
+     * Find the scaled positions of the points, oldest first.  Relative points are
+     * offset (in pixels) from the point before them.
+     */
+    protected void positions() {
+        for ( int i = 0; i < _count; ++i ) {
+            int slot = ( _head + i ) % _capacity;
+            if ( _relative[slot] && i > 0 ) {
+                _xPos[i] = _xPos[i - 1] + _x[slot];
+                _yPos[i] = _yPos[i - 1] + _y[slot];
+            }
+            else {
+                _xPos[i] = _saveXScale * _x[slot];
+                _yPos[i] = _saveYScale * _y[slot];
+            }
+        }
+    }
+
+    /*
+     * Draws the path through the points (and anything drawn at each of them).  It
+     * is a child of the chart, so color, line width and the translation set on the
+     * chart have been applied to the graphics when it is called.
+     */
+    protected class PathDrawer extends DrawObject {
+
+        @Override
+        public void draw( Graphics2D g, GeneralPath currentPath, double[] offsets, boolean measureOnly ) {
+            if ( offsets != null ) {
+                offsets[0] = 0.0;
+                offsets[1] = 0.0;
+            }
+            if ( measureOnly )
+                return;
+            synchronized ( StripChart2D.this ) {
+                if ( _count == 0 )
+                    return;
+                positions();
+                _path.reset();
+                _path.moveTo( _xPos[0], _yPos[0] );
+                for ( int i = 1; i < _count; ++i )
+                    _path.lineTo( _xPos[i], _yPos[i] );
+                if ( _drawLine ) {
+                    if ( _fillCurve ) {
+                        _path.lineTo( _xPos[_count - 1], -_yOff );
+                        _path.lineTo( _xPos[0], -_yOff );
+                        g.fill( _path );
+                    }
+                    else
+                        g.draw( _path );
+                }
+                if ( _vertexObject != null ) {
+                    AffineTransform saveTransform = g.getTransform();
+                    for ( int i = 0; i < _count; ++i ) {
+                        g.translate( _xPos[i], _yPos[i] );
+                        _vertexObject.draw( g, null, null, false );
+                        g.setTransform( saveTransform );
+                    }
+                }
+            }
+        }
+
+    }
+
+    protected PathDrawer _pathDrawer;
+    protected Path2D.Double _path;
+    protected boolean _drawLine;
+    protected double _x[];
+    protected double _y[];
+    protected boolean _relative[];
+    protected int _capacity;
+    protected int _head;
+    protected int _count;
+    //  Scaled positions of the points - only used while drawing.
+    protected double _xPos[];
+    protected double _yPos[];
+
+    protected static final int INITIAL_CAPACITY = 64;
+
+}
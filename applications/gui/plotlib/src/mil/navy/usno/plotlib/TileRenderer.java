@@ -0,0 +1,94 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * Draws the images of PlotTiles using a small pool of background threads, and
+ * asks the window they are in to repaint when each is done.  A tile that asks to
+ * be drawn while it is already waiting is only drawn once.  If a tile's content
+ * can't be drawn the error is logged and the tile isn't tried again until it is
+ * given new content.  The threads go away when there is nothing to draw for a
+ * while.
+ */
+package mil.navy.usno.plotlib;
+
+import java.awt.Component;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class TileRenderer {
+
+    public TileRenderer( Component window ) {
+        this( window, Math.max( 1, Runtime.getRuntime().availableProcessors() - 1 ) );
+    }
+
+    public TileRenderer( Component window, int threads ) {
+        _window = window;
+        _executor = new ThreadPoolExecutor( threads, threads, IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r, "PlotTile renderer" );
+                thread.setDaemon( true );
+                thread.setPriority( Thread.NORM_PRIORITY - 1 );
+                return thread;
+            }
+        } );
+        _executor.allowCoreThreadTimeOut( true );
+    }
+
+    /*
+     * Draw a tile's image, unless it is already waiting to be drawn.
+     */
+    public void render( final PlotTile tile ) {
+        synchronized ( tile ) {
+            if ( tile._queued )
+                return;
+            tile._queued = true;
+        }
+        _executor.execute( new Runnable() {
+            public void run() {
+                boolean done = false;
+                try {
+                    //  Try again if the content was replaced while drawing - after a few
+                    //  tries give up until the tile is next painted.
+                    for ( int i = 0; i < 3 && !done; ++i )
+                        done = tile.render();
+                } catch ( RuntimeException e ) {
+                    //  The content is broken - drawing it again would only fail again, so
+                    //  the tile is left alone until it gets new content.
+                    tile.failed();
+                    java.util.logging.Logger.getLogger( "global" ).log( java.util.logging.Level.SEVERE,
+                            "PlotTile could not be drawn", e );
+                    return;
+                } finally {
+                    synchronized ( tile ) {
+                        tile._queued = false;
+                    }
+                }
+                _window.repaint();
+            }
+        } );
+    }
+
+    protected Component _window;
+    protected ThreadPoolExecutor _executor;
+
+    protected static final long IDLE_SECONDS = 10;
+
+}
@@ -0,0 +1,276 @@
+/***************************************************************************
+ *   Copyright (C) 2016 by John Spitzak                                    *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 3 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *                                                                         *
+ *   This program is distributed in the hope that it will be useful,       *
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of        *
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the         *
+ *   GNU General Public License for more details.                          *
+ *                                                                         *
+ *   You should have received a copy of the GNU General Public License     *
+ *   along with this program; if not, write to the                         *
+ *   Free Software Foundation, Inc.,                                       *
+ *   59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.             *
+ ***************************************************************************/
+/*
+ * A "waterfall" plot - a time by channel image in which each new set of data
+ * (a spectrum, for instance) is a row of colored pixels.  Rows are written into
+ * a fixed-size image that is used as a circular buffer, so adding a row costs
+ * the same no matter how many are shown, and nothing is redrawn but the row.
+ * When the image is full the oldest row is replaced.  Rows are drawn oldest at
+ * the top, stretched to fill the plot frame.
+ *
+ * Data with more channels than the image has columns are reduced to fit - for
+ * ordinary values the largest in each column is kept, for phases the average
+ * (as angles).  Ordinary values are colored from blue (low) to red (high),
+ * phases around the color wheel so -180 and 180 degrees look the same.
+ *
+ * Ordinary values can be colored on a fixed scale given with each row, or on a
+ * scale shared by all rows that follows the data (so rows can be compared with
+ * each other).  For the latter the reduced values are kept, and when a new row
+ * falls outside the scale it is widened (with some room to spare) and every row
+ * is recolored.
+ *
+ * The image is not included in PostScript output.
+ */
+package mil.navy.usno.plotlib;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.GeneralPath;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+public class WaterfallPlot extends Plot2DObject {
+
+    public WaterfallPlot( int columns, int rows ) {
+        _columns = Math.max( 1, columns );
+        _rows = Math.max( 1, rows );
+        _image = new BufferedImage( _columns, _rows, BufferedImage.TYPE_INT_RGB );
+        _raster = ( (DataBufferInt)_image.getRaster().getDataBuffer() ).getData();
+        _values = new float[_columns * _rows];
+        drawBackground( false );
+        drawFrame( false );
+    }
+
+    /*
+     * Add a row of values, colored by where they fall between "low" and "high".
+     */
+    synchronized public void addRow( double values[], int n, double low, double high ) {
+        if ( n <= 0 )
+            return;
+        int offset = nextRow() * _columns;
+        reduce( values, n, offset );
+        for ( int c = 0; c < _columns; ++c )
+            _raster[offset + c] = levelColor( _values[offset + c], low, high );
+    }
+
+    /*
+     * Add a row of values colored on the scale shared by all rows.
+     */
+    synchronized public void addRow( double values[], int n ) {
+        if ( n <= 0 )
+            return;
+        int offset = nextRow() * _columns;
+        reduce( values, n, offset );
+        double low = _values[offset];
+        double high = low;
+        for ( int c = 1; c < _columns; ++c ) {
+            low = Math.min( low, _values[offset + c] );
+            high = Math.max( high, _values[offset + c] );
+        }
+        if ( !_scaleSet || low < _low || high > _high ) {
+            //  Widen the scale to include this row, with some room to spare so
+            //  it isn't done for every row.
+            boolean lower = !_scaleSet || low < _low;
+            boolean higher = !_scaleSet || high > _high;
+            if ( _scaleSet ) {
+                low = Math.min( low, _low );
+                high = Math.max( high, _high );
+            }
+            double spare = SCALE_SPARE * ( high - low );
+            if ( lower )
+                _low = low - spare;
+            if ( higher )
+                _high = high + spare;
+            _scaleSet = true;
+            ++_rescaleCount;
+            for ( int r = 0; r < _count; ++r ) {
+                int rowOffset = ( ( _first + r ) % _rows ) * _columns;
+                for ( int c = 0; c < _columns; ++c )
+                    _raster[rowOffset + c] = levelColor( _values[rowOffset + c], _low, _high );
+            }
+        }
+        else {
+            for ( int c = 0; c < _columns; ++c )
+                _raster[offset + c] = levelColor( _values[offset + c], _low, _high );
+        }
+    }
+
+    /*
+     * The shared scale (only meaningful once a row has been added with it), and the
+     * number of times it has changed.
+     */
+    synchronized public double low() { return _low; }
+    synchronized public double high() { return _high; }
+    synchronized public int rescaleCount() { return _rescaleCount; }
+
+    /*
+     * Add a row of phases, in degrees.
+     */
+    synchronized public void addPhaseRow( double values[], int n ) {
+        if ( n <= 0 )
+            return;
+        int offset = nextRow() * _columns;
+        for ( int c = 0; c < _columns; ++c ) {
+            int start = first( c, n );
+            int end = last( c, n );
+            double phase = values[start];
+            if ( end - start > 1 ) {
+                double sx = 0.0;
+                double sy = 0.0;
+                for ( int i = start; i < end; ++i ) {
+                    sx += Math.cos( Math.toRadians( values[i] ) );
+                    sy += Math.sin( Math.toRadians( values[i] ) );
+                }
+                phase = Math.toDegrees( Math.atan2( sy, sx ) );
+            }
+            int level = (int)Math.floor( ( phase + 180.0 ) / 360.0 * (double)LEVELS ) % LEVELS;
+            if ( level < 0 )
+                level += LEVELS;
+            _raster[offset + c] = _phaseColors[level];
+        }
+    }
+
+    /*
+     * Remove all rows.
+     */
+    synchronized public void clear() {
+        _first = 0;
+        _count = 0;
+        _scaleSet = false;
+    }
+
+    synchronized public int rowCount() { return _count; }
+    public int rows() { return _rows; }
+    public int columns() { return _columns; }
+
+    /*
+     * Memory used by the image and the values kept for recoloring it.
+     */
+    public long bytes() { return bytesPerRow( _columns ) * (long)_rows; }
+    static public long bytesPerRow( int columns ) { return 8L * (long)Math.max( 1, columns ); }
+
+    @Override
+    public void draw( Graphics2D g, GeneralPath currentPath, double[] offsets, boolean measureOnly ) {
+        if ( !measureOnly && visible() ) {
+            synchronized ( this ) {
+                if ( _count > 0 ) {
+                    Object hint = g.getRenderingHint( RenderingHints.KEY_INTERPOLATION );
+                    g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR );
+                    //  The image is in two pieces if the buffer has wrapped around - the
+                    //  oldest rows run from _first to the bottom, then continue at the top.
+                    int firstPiece = Math.min( _count, _rows - _first );
+                    double rowHeight = h() / (double)_rows;
+                    int top = (int)Math.round( y() );
+                    int left = (int)Math.round( x() );
+                    int right = (int)Math.round( x() + w() );
+                    int middle = (int)Math.round( y() + (double)firstPiece * rowHeight );
+                    g.drawImage( _image, left, top, right, middle,
+                            0, _first, _columns, _first + firstPiece, null );
+                    if ( firstPiece < _count ) {
+                        int bottom = (int)Math.round( y() + (double)_count * rowHeight );
+                        g.drawImage( _image, left, middle, right, bottom,
+                                0, 0, _columns, _count - firstPiece, null );
+                    }
+                    if ( hint != null )
+                        g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, hint );
+                }
+            }
+        }
+        super.draw( g, currentPath, offsets, measureOnly );
+    }
+
+    /*
+     * Find the row to write next, replacing the oldest if the image is full.
+     */
+    protected int nextRow() {
+        if ( _count < _rows ) {
+            ++_count;
+            return ( _first + _count - 1 ) % _rows;
+        }
+        int row = _first;
+        _first = ( _first + 1 ) % _rows;
+        return row;
+    }
+
+    /*
+     * Reduce a row of values to one per column, stored at "offset" in the values.
+     */
+    protected void reduce( double values[], int n, int offset ) {
+        for ( int c = 0; c < _columns; ++c ) {
+            int start = first( c, n );
+            int end = last( c, n );
+            double v = values[start];
+            for ( int i = start + 1; i < end; ++i ) {
+                if ( values[i] > v )
+                    v = values[i];
+            }
+            _values[offset + c] = (float)v;
+        }
+    }
+
+    protected static int levelColor( double v, double low, double high ) {
+        double range = high - low;
+        int level = 0;
+        if ( range > 0.0 )
+            level = (int)( ( v - low ) / range * (double)( LEVELS - 1 ) + 0.5 );
+        if ( level < 0 )
+            level = 0;
+        else if ( level >= LEVELS )
+            level = LEVELS - 1;
+        return _levelColors[level];
+    }
+
+    //  Range of the "n" values that fall in column "c".  There is always at least one.
+    protected int first( int c, int n ) {
+        return (int)( (long)c * (long)n / (long)_columns );
+    }
+    protected int last( int c, int n ) {
+        return Math.max( first( c, n ) + 1, (int)( (long)( c + 1 ) * (long)n / (long)_columns ) );
+    }
+
+    protected int _columns;
+    protected int _rows;
+    protected BufferedImage _image;
+    protected int _raster[];
+    protected float _values[];
+    protected boolean _scaleSet;
+    protected double _low;
+    protected double _high;
+    protected int _rescaleCount;
+    protected int _first;
+    protected int _count;
+
+    protected static final int LEVELS = 256;
+    //  Room left on each side of the data when the shared scale is widened, as a
+    //  fraction of their range.
+    protected static final double SCALE_SPARE = 0.25;
+    protected static int _levelColors[];
+    protected static int _phaseColors[];
+    static {
+        _levelColors = new int[LEVELS];
+        _phaseColors = new int[LEVELS];
+        for ( int i = 0; i < LEVELS; ++i ) {
+            float f = (float)i / (float)( LEVELS - 1 );
+            _levelColors[i] = Color.HSBtoRGB( 0.7f * ( 1.0f - f ), 1.0f, 0.3f + 0.7f * f ) & 0xffffff;
+            _phaseColors[i] = Color.HSBtoRGB( (float)i / (float)LEVELS, 0.8f, 1.0f ) & 0xffffff;
+        }
+    }
+
+}
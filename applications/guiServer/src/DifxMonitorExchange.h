@@ -89,10 +89,26 @@ namespace guiServer {
         static const int MEAN_PHASE_DATA                    = 141;
         static const int MEAN_LAG_DATA                      = 142;
         static const int END_CORRELATION_PRODUCTS           = 143;
+        static const int DATA_FORMAT_REQUEST                = 144;
+        static const int DATA_FORMAT                        = 145;
+        static const int AMPLITUDE_DATA_F32                 = 146;
+        static const int PHASE_DATA_F32                     = 147;
+        static const int LAG_DATA_F32                       = 148;
+        static const int MEAN_AMPLITUDE_DATA_F32            = 149;
+        static const int MEAN_PHASE_DATA_F32                = 150;
+        static const int MEAN_LAG_DATA_F32                  = 151;
+        
+        //-----------------------------------------------------------------------------
+        //!  Formats for amplitude, phase and lag values.  The GUI asks for one with
+        //!  DATA_FORMAT_REQUEST - older GUIs never ask and get ASCII.
+        //-----------------------------------------------------------------------------
+        static const int FORMAT_ASCII                       = 0;
+        static const int FORMAT_FLOAT32_LE                  = 1;
     
         DifxMonitorExchange( GUIClient* guiClient, ServerSideConnection::DifxMonitorInfo* monitorInfo ) {
             _keepGoing = true;
             _visConnectionOperating = false;
+            _dataFormat = FORMAT_ASCII;
             _ssc = monitorInfo->ssc;
             _receiveActive = false;
             _guiClient = guiClient;
@@ -161,11 +177,38 @@ namespace guiServer {
                     if ( nBytes == 4 )
                         _fftSize = ntohl( *(int*)data );
                     break;
+                case DATA_FORMAT_REQUEST:
+                    dataFormatRequest( data, nBytes );
+                    break;
                 default:
                     break;
             }
         }
         
+        //-----------------------------------------------------------------------------
+        //!  The GUI would like amplitude, phase and lag values in a different format.
+        //!  We reply with the format we will actually use.
+        //-----------------------------------------------------------------------------
+        void dataFormatRequest( char* data, const int nBytes ) {
+            int format = FORMAT_ASCII;
+            if ( nBytes == 4 )
+                format = ntohl( *(int*)data );
+            if ( format != FORMAT_FLOAT32_LE )
+                format = FORMAT_ASCII;
+            _dataFormat = format;
+            _guiClient->intPacket( DATA_FORMAT, &format );
+        }
+        
+        //-----------------------------------------------------------------------------
+        //!  Send plot values in binary or as strings.
+        //-----------------------------------------------------------------------------
+        void composeValues( bool binary, const double* values, int n = 1 ) {
+            if ( binary )
+                _guiClient->composeFloat32LE( values, n );
+            else
+                _guiClient->composeStringDouble( values, n );
+        }
+        
         //-----------------------------------------------------------------------------
         //!  Respond to a GUI instruction to close this connection.
         //-----------------------------------------------------------------------------
@@ -774,26 +817,30 @@ namespace guiServer {
                             //  "composed" packets, explained in the PacketExchange.  Double precision numbers
                             //  are sent as strings because Java and C++ don't appear to play nicely together.
                             //_guiClient->composePacket( AMPLITUDE_DATA, nChannels * sizeof( double ) + 4 * sizeof( int ) );
-                            _guiClient->composePacket( AMPLITUDE_DATA, nChannels * 14 + 4 * sizeof( int ) );
+                            //  The format is fixed for all of the packets from this product - the GUI
+                            //  could ask for a change at any time.
+                            bool binary = ( _dataFormat == FORMAT_FLOAT32_LE );
+                            int valueSize = binary ? 4 : 14;
+                            _guiClient->composePacket( binary ? AMPLITUDE_DATA_F32 : AMPLITUDE_DATA, nChannels * valueSize + 4 * sizeof( int ) );
                             _guiClient->composeInt( &iProduct );
                             _guiClient->composeInt( &nChannels );
                             _guiClient->composeInt( &timeStamp );
                             _guiClient->composeInt( &integrationTime );
-                            _guiClient->composeStringDouble( amp, nChannels );
+                            composeValues( binary, amp, nChannels );
                             _guiClient->composeEnd();
                             //  Phase data.
                             //_guiClient->composePacket( PHASE_DATA, nChannels * sizeof( double ) + 4 * sizeof( int ) );
-                            _guiClient->composePacket( PHASE_DATA, nChannels * 14 + 4 * sizeof( int ) );
+                            _guiClient->composePacket( binary ? PHASE_DATA_F32 : PHASE_DATA, nChannels * valueSize + 4 * sizeof( int ) );
                             _guiClient->composeInt( &iProduct );
                             _guiClient->composeInt( &nChannels );
                             _guiClient->composeInt( &timeStamp );
                             _guiClient->composeInt( &integrationTime );
-                            _guiClient->composeStringDouble( phase, nChannels );
+                            composeValues( binary, phase, nChannels );
                             _guiClient->composeEnd();
                             //  Lag data require some rearrange.
 //                            _guiClient->composePacket( LAG_DATA, 2 * ( nChannels + 1) * sizeof( double ) + 4 * sizeof( int ) );
                             //_guiClient->composePacket( LAG_DATA, ( 2 + useFFTSize ) * sizeof( double ) + 4 * sizeof( int ) );
-                            _guiClient->composePacket( LAG_DATA, ( 2 + useFFTSize ) * 14 + 4 * sizeof( int ) );
+                            _guiClient->composePacket( binary ? LAG_DATA_F32 : LAG_DATA, ( 2 + useFFTSize ) * valueSize + 5 * sizeof( int ) );
                             _guiClient->composeInt( &iProduct );
 //                            _guiClient->composeInt( &nChannels );
 /**/                            int halfSize = useFFTSize / 2;
@@ -801,12 +848,12 @@ namespace guiServer {
                             _guiClient->composeInt( &timeStamp );
                             _guiClient->composeInt( &integrationTime );
                             _guiClient->composeInt( &maxChannel );
-                            _guiClient->composeStringDouble( &delay );
-                            _guiClient->composeStringDouble( &snr );
+                            composeValues( binary, &delay );
+                            composeValues( binary, &snr );
 //                            _guiClient->composeStringDouble( delayLags + nChannels, nChannels );
 //                            _guiClient->composeStringDouble( delayLags, nChannels );
-/**/                            _guiClient->composeStringDouble( delayLags + useFFTSize / 2, useFFTSize / 2 );
-/**/                            _guiClient->composeStringDouble( delayLags, useFFTSize / 2 );
+/**/                            composeValues( binary, delayLags + useFFTSize / 2, useFFTSize / 2 );
+/**/                            composeValues( binary, delayLags, useFFTSize / 2 );
                             _guiClient->composeEnd();
                             
                             //  Repeat analysis for the scan mean vectors.
@@ -842,35 +889,35 @@ namespace guiServer {
                             
                             //  Send mean amplitude data to the client.
                             //_guiClient->composePacket( MEAN_AMPLITUDE_DATA, nChannels * sizeof( double ) + 3 * sizeof( int ) );
-                            _guiClient->composePacket( MEAN_AMPLITUDE_DATA, nChannels * 14 + 3 * sizeof( int ) );
+                            _guiClient->composePacket( binary ? MEAN_AMPLITUDE_DATA_F32 : MEAN_AMPLITUDE_DATA, nChannels * valueSize + 4 * sizeof( int ) );
                             _guiClient->composeInt( &iProduct );
                             _guiClient->composeInt( &nChannels );
                             _guiClient->composeInt( &timeStamp );
                             _guiClient->composeInt( &integrationTime );
-                            _guiClient->composeStringDouble( amp, nChannels );
+                            composeValues( binary, amp, nChannels );
                             _guiClient->composeEnd();
                             //  Phase data.
                             //_guiClient->composePacket( MEAN_PHASE_DATA, nChannels * sizeof( double ) + 3 * sizeof( int ) );
-                            _guiClient->composePacket( MEAN_PHASE_DATA, nChannels * 14 + 3 * sizeof( int ) );
+                            _guiClient->composePacket( binary ? MEAN_PHASE_DATA_F32 : MEAN_PHASE_DATA, nChannels * valueSize + 4 * sizeof( int ) );
                             _guiClient->composeInt( &iProduct );
                             _guiClient->composeInt( &nChannels );
                             _guiClient->composeInt( &timeStamp );
                             _guiClient->composeInt( &integrationTime );
-                            _guiClient->composeStringDouble( phase, nChannels );
+                            composeValues( binary, phase, nChannels );
                             _guiClient->composeEnd();
                             //  Lag data require some rearrange.
                             //_guiClient->composePacket( MEAN_LAG_DATA, ( 2 + useFFTSize ) * sizeof( double ) + 4 * sizeof( int ) );
-                            _guiClient->composePacket( MEAN_LAG_DATA, ( 2 + useFFTSize ) * 14 + 4 * sizeof( int ) );
+                            _guiClient->composePacket( binary ? MEAN_LAG_DATA_F32 : MEAN_LAG_DATA, ( 2 + useFFTSize ) * valueSize + 5 * sizeof( int ) );
                             _guiClient->composeInt( &iProduct );
                             halfSize = useFFTSize / 2;
                             _guiClient->composeInt( &halfSize );
                             _guiClient->composeInt( &timeStamp );
                             _guiClient->composeInt( &integrationTime );
                             _guiClient->composeInt( &maxChannel );
-                            _guiClient->composeStringDouble( &delay );
-                            _guiClient->composeStringDouble( &snr );
-                            _guiClient->composeStringDouble( delayLags + useFFTSize / 2, useFFTSize / 2 );
-                            _guiClient->composeStringDouble( delayLags, useFFTSize / 2 );
+                            composeValues( binary, &delay );
+                            composeValues( binary, &snr );
+                            composeValues( binary, delayLags + useFFTSize / 2, useFFTSize / 2 );
+                            composeValues( binary, delayLags, useFFTSize / 2 );
                             _guiClient->composeEnd();
 
                             //  Indicate that we have sent all the data associated with this most
@@ -909,6 +956,7 @@ namespace guiServer {
         bool _keepGoing;
         bool _visConnectionOperating;
         int _fftSize;
+        int _dataFormat;
         pthread_attr_t _monitorAttr;
         pthread_t _monitorId;
         ServerSideConnection* _ssc;
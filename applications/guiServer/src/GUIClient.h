@@ -34,6 +34,8 @@
 //=============================================================================
 #include <ServerSideConnection.h>
 #include <network/PacketExchange.h>
+#include <stdint.h>
+#include <string.h>
 #include <sys/statvfs.h>
 #include <sys/types.h>
 #include <sys/stat.h>
@@ -120,7 +122,7 @@ namespace guiServer {
             int rn = 0;
             if ( _channelData ) {
                 while ( rn < n ) {
-                    rn += _ssc->getChannelData( _port, (char*)data + rn, n );
+                    rn += _ssc->getChannelData( _port, (char*)data + rn, n - rn );
                     if ( rn < n )
                         usleep( 10000 );
                 }
@@ -342,6 +344,32 @@ namespace guiServer {
             }
         }
         
+        //----------------------------------------------------------------------------
+        //!  Send double precision values as packed little-endian single precision
+        //!  floats.  This is the "binary" alternative to composeStringDouble() - 4
+        //!  bytes per value instead of 14, and no formatting or parsing.  The byte
+        //!  order is set explicitly so it doesn't depend on the host.
+        //----------------------------------------------------------------------------
+        int composeFloat32LE( const double* data, int n = 1 ) {
+            static const int CHUNK = 1024;
+            unsigned char buffer[CHUNK * 4];
+            int ret = 0;
+            for ( int i = 0; i < n && ret != -1; i += CHUNK ) {
+                int count = n - i < CHUNK ? n - i : CHUNK;
+                for ( int j = 0; j < count; ++j ) {
+                    float value = (float)data[i + j];
+                    uint32_t bits;
+                    memcpy( &bits, &value, sizeof( bits ) );
+                    buffer[4 * j]     = bits & 0xff;
+                    buffer[4 * j + 1] = ( bits >> 8 ) & 0xff;
+                    buffer[4 * j + 2] = ( bits >> 16 ) & 0xff;
+                    buffer[4 * j + 3] = ( bits >> 24 ) & 0xff;
+                }
+                ret = composeChar( (char*)buffer, count * 4 );
+            }
+            return ret;
+        }
+        
         //----------------------------------------------------------------------------
         //!  This function is called to terminate a "composed" packet.  It releases
         //!  the write lock.
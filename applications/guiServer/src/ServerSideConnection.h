@@ -44,6 +44,7 @@
 #include <glob.h>
 #include <dirent.h>
 #include <mark5access/mark5_stream.h>
+#include <zlib.h>
 
 
 namespace guiServer {
@@ -81,9 +82,16 @@ namespace guiServer {
         static const int CHANNEL_DATA                   = 22;
         static const int GENERATE_FILELIST              = 23;
         static const int GET_JOB_STATUS                 = 24;
+        static const int COMPRESSION_AVAILABLE          = 25;
+        static const int COMPRESSION_ON                 = 26;
+        static const int COMPRESSION_OFF                = 27;
+        static const int COMPRESSED_PACKET              = 28;
 
         static const int MAX_COMMAND_SIZE = 1024;
         
+        //  Packets smaller than this aren't worth compressing.
+        static const int MIN_COMPRESS_SIZE = 64;
+        
         ServerSideConnection( network::GenericSocket* sock, const char* clientIP, const char* difxBase, char** envp ) : network::ActivePacketExchange( sock ) {
             _commandSocket = NULL;
             _monitorSocket = NULL;
@@ -112,6 +120,10 @@ namespace guiServer {
             _relayMark5StatusPackets = false;
             _relayUnknownPackets = false;
             _channelAllData = false;
+            _compressData = false;
+            _deflateInitialized = false;
+            _compressBuffer = NULL;
+            _compressBufferSize = 0;
             snprintf( _clientIP, 16, "%s", clientIP );
             strncpy( _difxBase, difxBase, DIFX_MESSAGE_LENGTH );
             _envp = envp;
@@ -119,6 +131,7 @@ namespace guiServer {
             pthread_mutex_init( &_channelDataLock, NULL );
             pthread_mutex_init( &_loggingJobsMutex, NULL );
             pthread_mutex_init( &_channelWriteMutex, NULL );
+            pthread_mutex_init( &_compressMutex, NULL );
         }
         
         ~ServerSideConnection() {
@@ -133,6 +146,10 @@ namespace guiServer {
                 delete _commandSocket;
                 _commandSocket = NULL;
             }
+            if ( _deflateInitialized )
+                deflateEnd( &_deflateStream );
+            if ( _compressBuffer != NULL )
+                delete [] _compressBuffer;
         }
         
         //---------------------------------------------------------------------
@@ -322,6 +339,14 @@ namespace guiServer {
                 case CHANNEL_ALL_DATA_OFF:
                     _channelAllData = false;
                     break;
+                case COMPRESSION_ON:
+                    startCompression();
+                    break;
+                case COMPRESSION_OFF:
+                    pthread_mutex_lock( &_compressMutex );
+                    _compressData = false;
+                    pthread_mutex_unlock( &_compressMutex );
+                    break;
                 case CHANNEL_DATA:
                     channelData( data, nBytes );
                     break;
@@ -414,9 +439,99 @@ namespace guiServer {
                 
             //  Let the GUI know this guiServer has "data channeling" ability.
             sendPacket( CHANNEL_ALL_DATA, NULL, 0 );
+            
+            //  ...and that it can compress relayed and channelled data.
+            sendPacket( COMPRESSION_AVAILABLE, NULL, 0 );
                 
         }
         
+        //---------------------------------------------------------------------
+        //!  The GUI wants compressed data.  Start a new deflate stream and tell
+        //!  the GUI (uncompressed) that it is coming - the GUI starts a new
+        //!  stream of its own when it sees this.  The lock makes sure nothing
+        //!  compressed can get out ahead of the acknowledgement.
+        //---------------------------------------------------------------------
+        void startCompression() {
+            pthread_mutex_lock( &_compressMutex );
+            int ret = Z_OK;
+            if ( _deflateInitialized )
+                ret = deflateReset( &_deflateStream );
+            else {
+                _deflateStream.zalloc = Z_NULL;
+                _deflateStream.zfree = Z_NULL;
+                _deflateStream.opaque = Z_NULL;
+                ret = deflateInit( &_deflateStream, Z_DEFAULT_COMPRESSION );
+                _deflateInitialized = ( ret == Z_OK );
+            }
+            if ( ret == Z_OK ) {
+                network::ActivePacketExchange::sendPacket( COMPRESSION_ON, NULL, 0 );
+                _compressData = true;
+            }
+            else {
+                //  The GUI will carry on without compression.
+                diagnostic( WARNING, "unable to start data compression (zlib error %d)\n", ret );
+                _compressData = false;
+            }
+            pthread_mutex_unlock( &_compressMutex );
+        }
+        
+        //---------------------------------------------------------------------
+        //!  Send a packet, compressing it first if the GUI has asked for that
+        //!  and it is one of the (mostly text) types that make up the bulk of
+        //!  the traffic - relayed multicasts and channelled data.  The whole
+        //!  original packet (ID, size and data) goes through the deflate stream
+        //!  and is sent as the data of a COMPRESSED_PACKET.  The stream is
+        //!  flushed after each packet so the GUI can unpack it immediately, but
+        //!  keeps its history, which is where most of the gain is for runs of
+        //!  similar XML messages.  Other packets go out as they always have.
+        //---------------------------------------------------------------------
+        virtual int sendPacket( const int packetId, const char* data, const int nBytes ) {
+            if ( !_compressData || nBytes < MIN_COMPRESS_SIZE || ( packetId != RELAY_PACKET && packetId != CHANNEL_DATA ) )
+                return network::ActivePacketExchange::sendPacket( packetId, data, nBytes );
+            pthread_mutex_lock( &_compressMutex );
+            //  Compression might have been turned off while we waited.
+            if ( !_compressData ) {
+                pthread_mutex_unlock( &_compressMutex );
+                return network::ActivePacketExchange::sendPacket( packetId, data, nBytes );
+            }
+            int header[2];
+            header[0] = htonl( packetId );
+            header[1] = htonl( nBytes );
+            //  Room for the worst case, plus the flush marker.
+            int needed = deflateBound( &_deflateStream, nBytes + sizeof( header ) ) + 16;
+            if ( needed > _compressBufferSize ) {
+                if ( _compressBuffer != NULL )
+                    delete [] _compressBuffer;
+                _compressBufferSize = needed;
+                _compressBuffer = new char[_compressBufferSize];
+            }
+            _deflateStream.next_out = (Bytef*)_compressBuffer;
+            _deflateStream.avail_out = _compressBufferSize;
+            _deflateStream.next_in = (Bytef*)header;
+            _deflateStream.avail_in = sizeof( header );
+            int zret = deflate( &_deflateStream, Z_NO_FLUSH );
+            if ( zret == Z_OK ) {
+                _deflateStream.next_in = (Bytef*)data;
+                _deflateStream.avail_in = nBytes;
+                zret = deflate( &_deflateStream, Z_SYNC_FLUSH );
+            }
+            int ret;
+            if ( zret == Z_OK && _deflateStream.avail_in == 0 && _deflateStream.avail_out > 0 ) {
+                ret = network::ActivePacketExchange::sendPacket( COMPRESSED_PACKET, _compressBuffer,
+                    _compressBufferSize - _deflateStream.avail_out );
+            }
+            else {
+                //  The stream is no good now - give up on compression for this
+                //  connection and tell the GUI.
+                diagnostic( WARNING, "data compression failed (zlib error %d) - turning it off\n", zret );
+                _compressData = false;
+                network::ActivePacketExchange::sendPacket( COMPRESSION_OFF, NULL, 0 );
+                ret = network::ActivePacketExchange::sendPacket( packetId, data, nBytes );
+            }
+            pthread_mutex_unlock( &_compressMutex );
+            return ret;
+        }
+        
         //---------------------------------------------------------------------
         //!  Parse a command from the GUI to change which packets are relayed.
         //---------------------------------------------------------------------
@@ -644,8 +759,8 @@ namespace guiServer {
             for ( std::list<ChannelData>::iterator i = _channelDataList.begin(); i != _channelDataList.end() && !found; ++i ) {
                 if ( i->port == port ) {
                     found = true;
-                    if ( nBytes > i->n + i->offset )
-                        n = i->n + i->offset;
+                    if ( nBytes > i->n - i->offset )
+                        n = i->n - i->offset;
                     else
                         n = nBytes;
                     memcpy( data, i->data + i->offset, n );
@@ -1275,6 +1390,14 @@ namespace guiServer {
         bool _relayUnknownPackets;
         
         bool _channelAllData;
+        
+        //  Compression of relayed and channelled data.
+        bool _compressData;
+        bool _deflateInitialized;
+        z_stream _deflateStream;
+        char* _compressBuffer;
+        int _compressBufferSize;
+        pthread_mutex_t _compressMutex;
     };
 
 }
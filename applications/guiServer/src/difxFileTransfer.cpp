@@ -39,6 +39,46 @@
 
 using namespace guiServer;
 
+//-----------------------------------------------------------------------------
+//!  Size of a file that is to be sent from the DiFX host, or a (negative) code
+//!  explaining why it can't be:
+//!   -1:  bad file name (incomplete path)
+//!   -2:  file not found
+//!   -3:  read permission denied for DiFX user
+//!   -4:  bad DiFX user name
+//-----------------------------------------------------------------------------
+static int fileTransferSize( const char* path, const char* user ) {
+    char message[DIFX_MESSAGE_LENGTH];
+    //  Make sure the file desired has a sensible name....
+    if ( path[0] != '/' )
+        return -1;
+    //  Do a "stat" on the file to see if it exists, what permissions there are on it, and then
+    //  find its size.
+    struct stat stt;
+    int ret = stat( path, &stt );
+    if ( ret == -1 ) {
+        //  stat errors are due to mangled files or permission problems
+        perror( "stat error" );
+        if ( errno == EACCES )
+            return -3;
+        return -2;
+    }
+    //  Check read permissions for the difx user (for which we need the uid)
+    struct passwd *pwd = getpwnam( user );
+    if ( pwd == NULL ) {
+        snprintf( message, DIFX_MESSAGE_LENGTH, "DiFX username %s is not valid", user );
+        difxMessageSendDifxAlert( message, DIFX_ALERT_LEVEL_ERROR );
+        return -4;
+    }
+    //  If the DiFX user has read permission on the file (via owner, group, or world),
+    //  get the file size.
+    if ( ( stt.st_uid == pwd->pw_uid && stt.st_mode & S_IRUSR ) || ( stt.st_gid == pwd->pw_gid && stt.st_mode & S_IRGRP ) ||
+         ( stt.st_mode & S_IROTH ) )
+        return stt.st_size;
+    //  Otherwise, we can't read it.
+    return -3;
+}
+
 //-----------------------------------------------------------------------------
 //!  Called in response to a user request to transfer a file either from the
 //!  DiFX host to an external host (the GUI, presumably) or the reverse.  This
@@ -214,6 +254,102 @@ void ServerSideConnection::runFileTransfer( DifxFileTransfer* fileTransfer ) {
       		
 	}
 	    
+	else if ( !strcmp( S->direction, "from DiFX" ) && !strcmp( S->destination, "batch" ) ) {
+	    //  A request for any number of files over this one connection (used by the GUI
+	    //  to load all of the files for a pass at once).  We first send BATCH_MARKER so
+	    //  the GUI knows we understood - an older guiServer would instead send the file
+	    //  in the "origin", which the GUI also handles.  The GUI then sends the number of
+	    //  files followed by each path (an integer length followed by the characters).
+	    //  Each file is answered, in order, with its size (or a negative error code as
+	    //  for a single file, below) and then its contents.  The GUI sends the whole
+	    //  list at once, so there is no waiting between files.
+	    static const int BATCH_MARKER = -101;
+        GUIClient* gc = new GUIClient( this, S->address, S->port );
+  	    if ( gc->okay() ) {
+  	        int n = htonl( BATCH_MARKER );
+  	        gc->writer( &n, sizeof( int ) );
+  	        int count = 0;
+  	        if ( gc->reader( &n, sizeof( int ) ) != -1 )
+  	            count = ntohl( n );
+  	        char path[DIFX_MESSAGE_FILENAME_LENGTH];
+            const int tmpFileSize = 100;
+            char tmpFile[tmpFileSize];
+            snprintf( tmpFile, tmpFileSize, "/tmp/filetransfer_%d", S->port );
+  	        const int blockSize = 64 * 1024;
+  	        char* blockData = new char[blockSize];
+  	        for ( int i = 0; i < count; ++i ) {
+  	            //  Get the path.  Anything we can't make sense of ends the batch (the
+  	            //  GUI will see the connection close and fetch the rest by other means).
+  	            if ( gc->reader( &n, sizeof( int ) ) == -1 )
+  	                break;
+  	            int len = ntohl( n );
+  	            if ( len < 0 || len >= DIFX_MESSAGE_FILENAME_LENGTH )
+  	                break;
+  	            if ( len > 0 && gc->reader( path, len ) == -1 )
+  	                break;
+  	            path[len] = 0;
+  	            //  The path goes into a shell command below, so anything that could
+  	            //  break out of the quotes makes it a bad file name.
+  	            int filesize = -1;
+  	            if ( strpbrk( path, "\"`$\\" ) == NULL )
+  	                filesize = fileTransferSize( path, user );
+  	            int fd = -1;
+  	            if ( filesize > 0 ) {
+  	                //  Copy the file to a temporary location under the lock, as is done
+  	                //  for a single file (below), and send the copy - never the original.
+  	                snprintf( command, MAX_COMMAND_SIZE, "flock  ~/.guiserver.lock -c \"rm -f %s; cp \\\"%s\\\" %s\"",
+  	                         tmpFile, path, tmpFile );
+  	                if ( system( command ) < 0 ) {
+  	                    snprintf( message, DIFX_MESSAGE_LENGTH, "Failed to execute command \"%s\" - transfer FAILED", command );
+  	                    difxMessageSendDifxAlert( message, DIFX_ALERT_LEVEL_ERROR );
+  	                }
+  	                fd = open( tmpFile, O_RDONLY );
+  	                if ( fd == -1 )
+  	                    filesize = -3;
+  	                else {
+  	                    flock( fd, LOCK_EX );
+  	                    //  Promise what was actually copied.
+  	                    struct stat stt;
+  	                    if ( fstat( fd, &stt ) == 0 )
+  	                        filesize = stt.st_size;
+  	                    if ( filesize <= 0 ) {
+  	                        close( fd );
+  	                        fd = -1;
+  	                        filesize = 0;
+  	                    }
+  	                }
+  	            }
+  	            n = htonl( filesize );
+  	            gc->writer( &n, sizeof( int ) );
+  	            //  Send exactly the promised number of bytes, even if the file was cut
+  	            //  short while we were reading it, so the following files still line up.
+  	            while ( filesize > 0 ) {
+  	                int readsize = read( fd, blockData, filesize < blockSize ? filesize : blockSize );
+  	                if ( readsize <= 0 ) {
+  	                    readsize = filesize < blockSize ? filesize : blockSize;
+  	                    memset( blockData, 0, readsize );
+  	                }
+  	                gc->writer( blockData, readsize );
+  	                filesize -= readsize;
+  	            }
+  	            if ( fd != -1 )
+  	                close( fd );
+  	        }
+  	        delete [] blockData;
+  	        //  Clean up our litter.
+  	        snprintf( command, MAX_COMMAND_SIZE, "flock  ~/.guiserver.lock -c \"rm -f %s\"", tmpFile );
+  	        if ( system( command ) < 0 ) {
+  	            snprintf( message, DIFX_MESSAGE_LENGTH, "Failed to execute command \"%s\" - transfer FAILED", command );
+  	            difxMessageSendDifxAlert( message, DIFX_ALERT_LEVEL_ERROR );
+  	        }
+  	    }
+  	    else {
+        	snprintf( message, DIFX_MESSAGE_LENGTH, "Client address: %s   port: %d - connection FAILED", S->address, S->port );
+        	difxMessageSendDifxAlert( message, DIFX_ALERT_LEVEL_ERROR );
+  	    }
+  		delete gc;
+	}
+	    
 	else if ( !strcmp( S->direction, "from DiFX" ) ) {
 	    //  This is a request for a file transfer from the DiFX host (i.e. this host) to a remote host.
 	    //  Before we transfer the data, we will transfer the size of the file (an integer).  We use
@@ -223,43 +359,18 @@ void ServerSideConnection::runFileTransfer( DifxFileTransfer* fileTransfer ) {
 	    //   -3:  read permission denied for DiFX user
 	    //   -4:  bad DiFX user name
 	    //    0:  zero length file
-	    int filesize = 0;
-	    //  Make sure the file desired has a sensible name....
-	    if ( S->origin[0] != '/' )
-	        filesize = -1;   // bad file name
-	    else {
-	        //  Do a "stat" on the file to see if it exists, what permissions there are on it, and then
-	        //  find its size.
-	        struct stat stt;
-	        int ret = stat( S->origin, &stt );
-	        if ( ret == -1 ) {
-	            //  stat errors are due to mangled files or permission problems
-	            perror( "stat error" );
-	            if ( errno == EACCES )
-	                filesize = -3;
-	            else
-	                filesize = -2;
-	        }
-	        else {
-	            //  Check read permissions for the difx user (for which we need the uid)
-	            struct passwd *pwd = getpwnam( user );
-	            if ( pwd == NULL ) {
-	                snprintf( message, DIFX_MESSAGE_LENGTH, "DiFX username %s is not valid", user );
-	                difxMessageSendDifxAlert( message, DIFX_ALERT_LEVEL_ERROR );
-	                filesize = -4;
-	            }
-	            else {
-	                //  If the DiFX user has read permission on the file (via owner, group, or world),
-	                //  get the file size.
-	                if ( ( stt.st_uid == pwd->pw_uid && stt.st_mode & S_IRUSR ) || ( stt.st_gid == pwd->pw_gid && stt.st_mode & S_IRGRP ) ||
-	                     ( stt.st_mode & S_IROTH ) )
-	                    filesize = stt.st_size;
-	                //  Otherwise, we can't read it.
-	                else
-	                    filesize = -3;
-	            }
-	        }	    
+	    //  The GUI can ask for the file starting at an offset (to resume a download) by putting
+	    //  "offset=<n>" in the destination.  In that case we first send RESUME_MARKER and the
+	    //  offset we are actually starting from, so it knows we understood.  Older GUIs always
+	    //  use "none" and never see this.
+	    static const int RESUME_MARKER = -100;
+	    bool resume = false;
+	    int offset = 0;
+	    if ( !strncmp( S->destination, "offset=", 7 ) ) {
+	        resume = true;
+	        offset = atoi( S->destination + 7 );
 	    }
+	    int filesize = fileTransferSize( S->origin, user );
     	//snprintf( message, DIFX_MESSAGE_LENGTH, "Request for transfer of file from %s on DiFX host to remote host - filesize is %d", S->origin, filesize );
         //difxMessageSendDifxAlert( message, DIFX_ALERT_LEVEL_WARNING );
     	
@@ -291,9 +402,18 @@ void ServerSideConnection::runFileTransfer( DifxFileTransfer* fileTransfer ) {
   	    if ( gc->okay() ) {
         	//snprintf( message, DIFX_MESSAGE_LENGTH, "Client address: %s   port: %d - connection looks good", S->address, S->port );
         	//difxMessageSendDifxAlert( message, DIFX_ALERT_LEVEL_WARNING );
-        	//  Send the total size first.
+        	//  Send the total size first (after the offset if this is a resumed transfer).
+        	if ( offset < 0 || offset > filesize )
+        	    offset = 0;
+        	if ( resume ) {
+        	    int marker = htonl( RESUME_MARKER );
+        	    gc->writer( &marker, sizeof( int ) );
+        	    int off = htonl( offset );
+        	    gc->writer( &off, sizeof( int ) );
+        	}
         	int n = htonl( filesize );            	
         	gc->writer( &n, sizeof( int ) );
+        	filesize -= offset;
         	if ( filesize > 0 ) {
         	    //  Then break the file up into "blocks" for sending.
         	    short blockSize = 1024;
@@ -304,6 +424,8 @@ void ServerSideConnection::runFileTransfer( DifxFileTransfer* fileTransfer ) {
         	    int fd = open( tmpFile, O_RDONLY );
 		    // +++MSD 2018-12-12 added a lock
 		    flock(fd, LOCK_EX);
+		    if ( offset > 0 )
+		        lseek( fd, offset, SEEK_SET );
  		    printf("2. opened %s for reading",tmpFile); 
 	       	    while ( filesize > 0 ) {
         	        short readsize = read( fd, blockData, blockSize );